@@ -0,0 +1,75 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A small thread-safe cache whose entries are only used for a limited time after they are added. It is
+ * meant for query results that are expensive to compute, asked for often, and acceptable to be slightly
+ * out of date, such as the people having a given person attribute.
+ * <p/>
+ * The time to live is given on each lookup, so that it can come from a global property that may change.
+ * When the cache is full, it is emptied.
+ */
+public class ExpiringCache<K, V> {
+
+	private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+	private final int maxSize;
+
+	/**
+	 * @param maxSize the number of entries at which the cache is emptied
+	 */
+	public ExpiringCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param key the key
+	 * @param ttlMillis how long an entry may be used after it was added, in milliseconds
+	 * @return the value added for the key, or null if there is none or it has expired
+	 * @should not return values older than the time to live
+	 */
+	public V get(K key, long ttlMillis) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (System.currentTimeMillis() - entry.addedMillis >= ttlMillis) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value, not null
+	 * @should empty the cache when it is full
+	 */
+	public void put(K key, V value) {
+		if (entries.size() >= maxSize)
+			entries.clear();
+		entries.put(key, new Entry<V>(value, System.currentTimeMillis()));
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+
+		private final long addedMillis;
+
+		public Entry(V value, long addedMillis) {
+			this.value = value;
+			this.addedMillis = addedMillis;
+		}
+	}
+
+}
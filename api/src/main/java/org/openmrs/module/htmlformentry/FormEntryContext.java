@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,8 @@ import org.openmrs.util.OpenmrsUtil;
  * checking when you blur a text field.
  * 'clientSideValidationHints' means that elements and widgets should generate HTML where inputs have classes like "required"
  * and "numeric-range", and attributes like "min" and "max".
+ * 'analyzeOnly' means that the form is only being processed to find its schema, its submission elements and the
+ * existing data they match, so elements do not generate any HTML (see {@link FormEntrySession#analyzeForm()}).
  * </p>
  */
 public class FormEntryContext {
@@ -65,6 +68,7 @@ public class FormEntryContext {
     private Map<Widget, ErrorWidget> errorWidgets = new HashMap<Widget, ErrorWidget>();
     private Map<String, String> javascriptFieldAccessorInfo = new LinkedHashMap<String, String>();
     private Translator translator = new Translator();
+    private MetadataResolutionCache metadataResolutionCache = new MetadataResolutionCache();
     private HtmlFormSchema schema = new HtmlFormSchema();
     private Stack<Map<ObsGroup, List<Obs>>> obsGroupStack = new Stack<Map<ObsGroup, List<Obs>>>();
     private ObsGroup activeObsGroup;
@@ -74,6 +78,9 @@ public class FormEntryContext {
     private Map<Concept, List<Obs>> existingObs;
     private Map<Concept, List<Order>> existingOrders;
     private Map<Obs, Set<Obs>> existingObsInGroups;
+    private Map<String, List<Obs>> existingObsByAnswer; // existing obs with a coded value, keyed by question and answer (see #getAnswerKey)
+    private Map<String, Set<Obs>> existingObsInGroupsByPath; // the keys of existingObsInGroups, keyed by obs group path
+    private Map<String, Set<Obs>> existingObsInGroupsByMember; // the keys of existingObsInGroups, keyed by path and member (see #getMemberKey)
 
     private Stack<Concept> currentObsGroupConcepts = new Stack<Concept>();
     private List<Obs> currentObsGroupMembers;
@@ -90,6 +97,8 @@ public class FormEntryContext {
     private boolean automaticClientSideValidation = true;
     private boolean clientSideValidationHints = false;
 
+    private boolean analyzeOnly = false;
+
     private Stack<Object> stack = new Stack<Object>();
 
     // TODO once Html Form Entry no longer supports older core versions that don't have visits, we should:
@@ -324,6 +333,7 @@ public class FormEntryContext {
 	public void setupExistingData(Encounter encounter) {
 		existingEncounter = encounter;
 		existingObs = new HashMap<Concept, List<Obs>>();
+		existingObsByAnswer = new HashMap<String, List<Obs>>();
 		existingOrders = new HashMap<Concept, List<Order>>();
 		if (encounter != null) {
 			for (Obs obs : encounter.getObsAtTopLevel(false)) {
@@ -333,6 +343,15 @@ public class FormEntryContext {
 					existingObs.put(obs.getConcept(), list);
 				}
 				list.add(obs);
+				if (obs.getValueCoded() != null) {
+					String answerKey = getAnswerKey(obs.getConcept(), obs.getValueCoded());
+					List<Obs> answerList = existingObsByAnswer.get(answerKey);
+					if (answerList == null) {
+						answerList = new LinkedList<Obs>();
+						existingObsByAnswer.put(answerKey, answerList);
+					}
+					answerList.add(obs);
+				}
 			}
 			for (Order order : encounter.getOrders()) {
 			    if (!order.isVoided()){
@@ -351,6 +370,8 @@ public class FormEntryContext {
 		}
 		guessingInd = false;
 		existingObsInGroups = new LinkedHashMap<Obs, Set<Obs>>();
+		existingObsInGroupsByPath = new HashMap<String, Set<Obs>>();
+		existingObsInGroupsByMember = new HashMap<String, Set<Obs>>();
 		if (encounter != null)
 			setupExistingObsInGroups(encounter.getObsAtTopLevel(false));
 	}
@@ -360,14 +381,130 @@ public class FormEntryContext {
      * Sets obs associated with an obs groups in existing obs groups.
      * 
      * @param oSet the obsGroup to add to existingObsInGroups
+     * @should not fail when called before the existing data is set up
      */     
     public void setupExistingObsInGroups(Set<Obs> oSet){
+        // the maps are normally created by setupExistingData
+        if (existingObsInGroups == null) {
+            existingObsInGroups = new LinkedHashMap<Obs, Set<Obs>>();
+            existingObsInGroupsByPath = new HashMap<String, Set<Obs>>();
+            existingObsInGroupsByMember = new HashMap<String, Set<Obs>>();
+        }
         for (Obs parent : oSet)       
             if (parent.isObsGrouping()){
-                existingObsInGroups.put(parent, parent.getGroupMembers());
-                setupExistingObsInGroups(parent.getGroupMembers());
+                addExistingObsGroup(parent, ObsGroupComponent.getObsGroupPath(parent));
             }    
     }
+    
+    /**
+     * Adds an obs group, and the obs groups within it, to existingObsInGroups. The path of each
+     * nested group is built from its parent's, rather than by walking up the hierarchy again.
+     */
+    private void addExistingObsGroup(Obs parent, String path) {
+        existingObsInGroups.put(parent, parent.getGroupMembers());
+        Set<Obs> obsGroupsAtPath = existingObsInGroupsByPath.get(path);
+        if (obsGroupsAtPath == null) {
+            obsGroupsAtPath = new LinkedHashSet<Obs>();
+            existingObsInGroupsByPath.put(path, obsGroupsAtPath);
+        }
+        obsGroupsAtPath.add(parent);
+        for (Obs child : parent.getGroupMembers()) {
+            for (String memberKey : getMemberKeys(path, child)) {
+                Set<Obs> obsGroupsWithMember = existingObsInGroupsByMember.get(memberKey);
+                if (obsGroupsWithMember == null) {
+                    obsGroupsWithMember = new LinkedHashSet<Obs>();
+                    existingObsInGroupsByMember.put(memberKey, obsGroupsWithMember);
+                }
+                obsGroupsWithMember.add(parent);
+            }
+        }
+        for (Obs child : parent.getGroupMembers())
+            if (child.isObsGrouping()) {
+                addExistingObsGroup(child, path + "/" + child.getConcept().getConceptId());
+            }
+    }
+    
+    /**
+     * Removes an obs group found at the given path from existingObsInGroups
+     */
+    private void removeExistingObsGroup(Obs obsGroup, String path) {
+        existingObsInGroups.remove(obsGroup);
+        Set<Obs> obsGroupsAtPath = existingObsInGroupsByPath.get(path);
+        if (obsGroupsAtPath != null) {
+            obsGroupsAtPath.remove(obsGroup);
+            if (obsGroupsAtPath.isEmpty())
+                existingObsInGroupsByPath.remove(path);
+        }
+        for (Obs child : obsGroup.getGroupMembers()) {
+            for (String memberKey : getMemberKeys(path, child)) {
+                Set<Obs> obsGroupsWithMember = existingObsInGroupsByMember.get(memberKey);
+                if (obsGroupsWithMember != null) {
+                    obsGroupsWithMember.remove(obsGroup);
+                    if (obsGroupsWithMember.isEmpty())
+                        existingObsInGroupsByMember.remove(memberKey);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the keys under which an obs group at the given path is indexed for one of its members
+     *         (one for the member's question, and one for its question and coded answer)
+     */
+    private List<String> getMemberKeys(String path, Obs member) {
+        List<String> keys = new ArrayList<String>(2);
+        keys.add(getMemberKey(path, member.getConcept(), null));
+        if (member.getValueCoded() != null)
+            keys.add(getMemberKey(path, member.getConcept(), member.getValueCoded()));
+        return keys;
+    }
+    
+    private String getMemberKey(String path, Concept question, Concept answer) {
+        return path + "|" + (answer == null ? question.getConceptId() : getAnswerKey(question, answer));
+    }
+    
+    /**
+     * Returns the existing obs groups at the given path that have at least one member matching one of the given
+     * components. Obs groups with no such member can't get a positive rank from
+     * {@link ObsGroupComponent#supportingRank(List, Obs, Set)}, so they don't need to be ranked.
+     */
+    private Set<Obs> getObsGroupContenders(List<ObsGroupComponent> questionsAndAnswers, String path) {
+        Set<Obs> contenders = new LinkedHashSet<Obs>();
+        for (ObsGroupComponent component : questionsAndAnswers) {
+            if (component.getQuestion() != null) {
+                Set<Obs> obsGroupsWithMember = existingObsInGroupsByMember.get(getMemberKey(path, component.getQuestion(), component.getAnswer()));
+                if (obsGroupsWithMember != null)
+                    contenders.addAll(obsGroupsWithMember);
+            }
+        }
+        return contenders;
+    }
+    
+    /**
+     * Removes an obs from the list of existing obs for its question, and from the index of existing
+     * obs by answer
+     */
+    private void removeExistingObs(Concept question, List<Obs> list, Obs obs) {
+        list.remove(obs);
+        if (list.size() == 0)
+            existingObs.remove(question);
+        if (obs.getValueCoded() != null) {
+            String answerKey = getAnswerKey(obs.getConcept(), obs.getValueCoded());
+            List<Obs> answerList = existingObsByAnswer.get(answerKey);
+            if (answerList != null) {
+                answerList.remove(obs);
+                if (answerList.size() == 0)
+                    existingObsByAnswer.remove(answerKey);
+            }
+        }
+    }
+    
+    /**
+     * @return the key used to index existing obs by question and coded answer
+     */
+    private String getAnswerKey(Concept question, Concept answer) {
+        return question.getConceptId() + " " + answer.getConceptId();
+    }
             
      /**
       * Removes an Obs or ObsGroup of the relevant Concept from existingObs, and returns it. Use this version
@@ -376,18 +513,22 @@ public class FormEntryContext {
      * @param question the concept associated with the Obs to remove
      * @param answer the concept that serves as the answer for Obs to remove (may be null)
      * @return
+     * @should remove the obs with the given answer
      */
     public Obs removeExistingObs(Concept question, Concept answer) {
         List<Obs> list = existingObs.get(question);
-        if (list != null) {
-            for (Iterator<Obs> iter = list.iterator(); iter.hasNext(); ) {
-                Obs test = iter.next();
-                if (answer == null || equalConcepts(answer, test.getValueCoded())) {
-                    iter.remove();
-                    if (list.size() == 0)
-                        existingObs.remove(question);
-                    return test;
-                }
+        if (list != null && list.size() > 0) {
+            Obs test = null;
+            if (answer == null) {
+                test = list.get(0);
+            } else {
+                List<Obs> answerList = existingObsByAnswer.get(getAnswerKey(question, answer));
+                if (answerList != null)
+                    test = answerList.get(0);
+            }
+            if (test != null) {
+                removeExistingObs(question, list, test);
+                return test;
             }
         }
         return null;
@@ -423,13 +564,9 @@ public class FormEntryContext {
         Number numVal = Double.valueOf(numericAns);
         List<Obs> list = existingObs.get(question);
         if (list != null) {
-            for (Iterator<Obs> iter = list.iterator(); iter.hasNext(); ) {
-                Obs test = iter.next();
+            for (Obs test : list) {
                 if (test.getValueNumeric().equals(numVal)) {
-                    iter.remove();
-                    if (list.size() == 0) {
-                        existingObs.remove(question);
-                    }
+                    removeExistingObs(question, list, test);
                     return test;
                 }
             }
@@ -449,6 +586,12 @@ public class FormEntryContext {
 	public List<Obs> removeExistingObs(Concept question) {
 		List<Obs> list = existingObs.get(question);
 		existingObs.remove(question);
+		if (list != null) {
+			for (Obs obs : list) {
+				if (obs.getValueCoded() != null)
+					existingObsByAnswer.remove(getAnswerKey(obs.getConcept(), obs.getValueCoded()));
+			}
+		}
 		return list;
 	}
     
@@ -547,15 +690,12 @@ public class FormEntryContext {
     public Obs removeExistingObs(Concept question, Boolean answer) {
         List<Obs> list = existingObs.get(question);
         if (list != null) {
-            for (Iterator<Obs> iter = list.iterator(); iter.hasNext(); ) {
-                Obs test = iter.next();
+            for (Obs test : list) {
                 if (test.getValueAsBoolean() == null) {
                 	throw new RuntimeException("Invalid boolean value for concept " + question + "; possibly caused by TRUNK-3150");
                 }
                 if (answer == test.getValueAsBoolean()) {
-                    iter.remove();
-                    if (list.size() == 0)
-                        existingObs.remove(question);
+                    removeExistingObs(question, list, test);
                     return test;
                 }
             }
@@ -563,20 +703,21 @@ public class FormEntryContext {
         return null;
     }
 
+    /**
+     * Removes and returns the first existing obs group at the given obs group path, if any
+     * 
+     * @param path the obs group path (see {@link ObsGroupComponent#getObsGroupPath(Obs)})
+     * @return the obs group
+     * @should return each unmatched obs group once
+     */
     public Obs getNextUnmatchedObsGroup(String path) {
-        Obs ret = null;
-    	int unmatchedContenterCount = 0;
-        for (Map.Entry<Obs, Set<Obs>> e : existingObsInGroups.entrySet() ) {
-    		if (path.equals(ObsGroupComponent.getObsGroupPath(e.getKey()))) {
-    			if (ret == null) ret = e.getKey();
-    			unmatchedContenterCount++;
-    		}
-    	}
-        if (ret != null){
-        	if (unmatchedContenterCount > 1) {
+        Set<Obs> contenders = existingObsInGroupsByPath.get(path);
+        if (contenders != null && contenders.size() > 0){
+            Obs ret = contenders.iterator().next();
+        	if (contenders.size() > 1) {
                 guessingInd = true;
             }
-            existingObsInGroups.remove(ret);
+            removeExistingObsGroup(ret, path);
             existingObs.remove(ret);
             return ret;
         }
@@ -598,19 +739,12 @@ public class FormEntryContext {
      * @param requiredQuestionsAndAnswers the questions and answered associate with the {@see ObsGroup}
      * @param obsGroupDepth  the depth level of the obsGroup in the xml
      * @return the first matching {@see ObsGroup}
+     * @should find the matching obs group in large encounters
      */
    public Obs findBestMatchingObsGroup(List<ObsGroupComponent> questionsAndAnswers, String xmlObsGroupConcept, String path) {
-        Set<Obs> contenders = new HashSet<Obs>();
-        // first all obsGroups matching parentObs.concept at the right obsGroup hierarchy level in the encounter are 
-        // saved as contenders
-        for (Map.Entry<Obs, Set<Obs>> e : existingObsInGroups.entrySet() ) {
-
-            log.debug("Comparing obsVal " + ObsGroupComponent.getObsGroupPath(e.getKey()) + " to xmlval " + path);
-
-            if (path.equals(ObsGroupComponent.getObsGroupPath(e.getKey())) ) {
-                contenders.add(e.getKey());
-            }
-         }
+        // obsGroups matching parentObs.concept at the right obsGroup hierarchy level in the encounter, which have a
+        // member matching one of the questions (and answers) are contenders
+        Set<Obs> contenders = getObsGroupContenders(questionsAndAnswers, path);
 
         Obs ret = null;
         
@@ -646,7 +780,7 @@ public class FormEntryContext {
         }
         
         if (ret != null){
-            existingObsInGroups.remove(ret);
+            removeExistingObsGroup(ret, path);
             existingObs.remove(ret);
             return ret;
         }
@@ -677,6 +811,14 @@ public class FormEntryContext {
     	return translator;
     }
     
+    /**
+     * Returns the cache of metadata lookups made while processing this context's form
+     * @return
+     */
+    public MetadataResolutionCache getMetadataResolutionCache() {
+    	return metadataResolutionCache;
+    }
+    
     /**
      * Return the HTML Form schema currently associated with the context
      * @return
@@ -868,6 +1010,14 @@ public class FormEntryContext {
         this.clientSideValidationHints = clientSideValidationHints;
     }
 
+    public boolean isAnalyzeOnly() {
+        return analyzeOnly;
+    }
+
+    public void setAnalyzeOnly(boolean analyzeOnly) {
+        this.analyzeOnly = analyzeOnly;
+    }
+
     public Object getVisit() {
         return visit;
     }
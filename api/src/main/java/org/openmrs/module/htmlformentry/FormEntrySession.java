@@ -3,18 +3,20 @@ package org.openmrs.module.htmlformentry;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.runtime.RuntimeConstants;
-import org.apache.velocity.runtime.log.CommonsLogLogChute;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.Form;
@@ -30,14 +32,20 @@ import org.openmrs.Relationship;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.metrics.HtmlFormEntryMetrics;
+import org.openmrs.module.htmlformentry.metrics.RenderProfiler;
 import org.openmrs.module.htmlformentry.property.ExitFromCareProperty;
+import org.openmrs.module.htmlformentry.velocity.LazyVelocityContext;
 import org.openmrs.module.htmlformentry.velocity.VelocityContextContentProvider;
+import org.openmrs.module.htmlformentry.velocity.VelocityEvaluationListener;
+import org.openmrs.module.htmlformentry.velocity.VelocityTemplateCache;
 import org.openmrs.module.htmlformentry.widget.AutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.ConceptSearchAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.util.StringUtils;
 import org.springframework.web.util.JavaScriptUtils;
+import org.w3c.dom.Document;
 
 
 /**
@@ -100,9 +108,20 @@ public class FormEntrySession {
     // calling the getter will build this once, then cache it
     private String htmlToDisplay;
 
-    private VelocityEngine velocityEngine;
+    // set by prepareHtmlToDisplay for a form whose html can be streamed by writeHtmlToDisplay
+    private Document compiledForm;
 
-    private VelocityContext velocityContext;
+    // set once writeHtmlToDisplay has streamed the html rather than caching it
+    private boolean htmlStreamed = false;
+
+    // set once analyzeForm has processed the form without generating html
+    private boolean formAnalyzed = false;
+
+    private LazyVelocityContext velocityContext;
+
+    private List<Relationship> relationships;
+
+    private List<VelocityEvaluationListener> velocityEvaluationListeners;
 
     private boolean voidEncounter = false;
     
@@ -112,6 +131,12 @@ public class FormEntrySession {
 
     private String xmlDefinition;
 
+    // how long each phase of the last call to applyActions took, in milliseconds
+    private Map<String, Long> applyActionsTimings;
+
+    // records how long each tag takes to turn into html, if the form is being profiled
+    private RenderProfiler renderProfiler;
+
     /**
      * Applications and UI Frameworks that embed HTML Forms may store context variables as attributes to make them available to tags
      */
@@ -126,7 +151,7 @@ public class FormEntrySession {
      * @param defaultLocation
      * @param httpSession
      */
-    private FormEntrySession(Patient patient, FormEntryContext.Mode mode, Location defaultLocation, HttpSession httpSession) {
+    private FormEntrySession(final Patient patient, FormEntryContext.Mode mode, Location defaultLocation, HttpSession httpSession) {
         context = new FormEntryContext(mode);
         context.setDefaultLocation(defaultLocation);
         context.setHttpSession(httpSession);
@@ -134,20 +159,7 @@ public class FormEntrySession {
         this.patient = patient;
 
         context.setupExistingData(patient);
-        velocityEngine = new VelocityEngine();
-
-        // This code pattern is copied to HtmlFormEntryServiceImpl. Any bugfixes should be copied too.
-        // #1953 - Velocity errors in HTML form entry
-        velocityEngine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS,
-                "org.apache.velocity.runtime.log.CommonsLogLogChute");
-        velocityEngine.setProperty(CommonsLogLogChute.LOGCHUTE_COMMONS_LOG_NAME, "htmlformentry_velocity");
-
-        try {
-            velocityEngine.init();
-        } catch (Exception e) {
-            log.error("Error initializing Velocity engine", e);
-        }
-        velocityContext = new VelocityContext();
+        velocityContext = new LazyVelocityContext();
         velocityContext.put("locale", Context.getLocale());
         velocityContext.put("patient", patient);
         velocityContext.put("fn", new VelocityFunctions(this));
@@ -156,61 +168,77 @@ public class FormEntrySession {
         velocityContext.put("context", context);
         velocityContext.put("formGeneratedDatetime", new Date());
 
-        {
-            Map<String, List<String>> identifiers = new HashMap<String, List<String>>();
-            if (patient != null) {
-                for (PatientIdentifier id : patient.getActiveIdentifiers()) {
-                    String idType = id.getIdentifierType().getName();
-                    List<String> list = identifiers.get(idType);
-                    if (list == null) {
-                        list = new ArrayList<String>();
-                        identifiers.put(idType, list);
+        // the following are only computed if a velocity expression refers to them
+        velocityContext.putLazy("patientIdentifiers", new LazyVelocityContext.LazyValue() {
+            @Override
+            public Object compute() {
+                Map<String, List<String>> identifiers = new HashMap<String, List<String>>();
+                if (patient != null) {
+                    for (PatientIdentifier id : patient.getActiveIdentifiers()) {
+                        String idType = id.getIdentifierType().getName();
+                        List<String> list = identifiers.get(idType);
+                        if (list == null) {
+                            list = new ArrayList<String>();
+                            identifiers.put(idType, list);
+                        }
+                        list.add(id.getIdentifier());
                     }
-                    list.add(id.getIdentifier());
                 }
+                return identifiers;
             }
-            velocityContext.put("patientIdentifiers", identifiers);
-        }
-
-        {
-            Map<String, Object> attributes = new HashMap<String, Object>();
-            if (patient != null) {
-                for (PersonAttribute att : patient.getActiveAttributes()) {
-                    String attName = att.getAttributeType().getName();
-                    if (att.getValue() != null) {
-                        attributes.put(attName.replaceAll("'", ""), att.getHydratedObject());
+        });
+
+        velocityContext.putLazy("personAttributes", new LazyVelocityContext.LazyValue() {
+            @Override
+            public Object compute() {
+                Map<String, Object> attributes = new HashMap<String, Object>();
+                if (patient != null) {
+                    for (PersonAttribute att : patient.getActiveAttributes()) {
+                        String attName = att.getAttributeType().getName();
+                        if (att.getValue() != null) {
+                            attributes.put(attName.replaceAll("'", ""), att.getHydratedObject());
+                        }
                     }
                 }
+                return attributes;
             }
-            velocityContext.put("personAttributes", attributes);
-        }
+        });
 
         // the relationship query only makes sense in the context of saved patients, so only call it if this patient
         // has already been persisted (i.e., assigned an id and uuid)
         if (patient != null && patient.getId() != null && patient.getUuid() != null
                 && !("testing-html-form-entry".equals(patient.getUuid()))) {
-            List<Relationship> rels = Context.getPersonService().getRelationshipsByPerson(patient);
-            // TODO put this is core in relationship service
-            Map<String, List<Person>> relMap = new HashMap<String, List<Person>>();
-            for (Relationship rel : rels) {
-                if (rel.getPersonA().getPersonId().equals(patient.getPersonId())) {
-                    List<Person> list = relMap.get(rel.getRelationshipType().getbIsToA());
-                    if (list == null) {
-                        list = new ArrayList<Person>();
-                        relMap.put(rel.getRelationshipType().getbIsToA(), list);
-                    }
-                    list.add(rel.getPersonB());
-                } else {
-                    List<Person> list = relMap.get(rel.getRelationshipType().getaIsToB());
-                    if (list == null) {
-                        list = new ArrayList<Person>();
-                        relMap.put(rel.getRelationshipType().getaIsToB(), list);
+            velocityContext.putLazy("relationshipList", new LazyVelocityContext.LazyValue() {
+                @Override
+                public Object compute() {
+                    return getRelationships();
+                }
+            });
+            velocityContext.putLazy("relationshipMap", new LazyVelocityContext.LazyValue() {
+                @Override
+                public Object compute() {
+                    // TODO put this is core in relationship service
+                    Map<String, List<Person>> relMap = new HashMap<String, List<Person>>();
+                    for (Relationship rel : getRelationships()) {
+                        if (rel.getPersonA().getPersonId().equals(patient.getPersonId())) {
+                            List<Person> list = relMap.get(rel.getRelationshipType().getbIsToA());
+                            if (list == null) {
+                                list = new ArrayList<Person>();
+                                relMap.put(rel.getRelationshipType().getbIsToA(), list);
+                            }
+                            list.add(rel.getPersonB());
+                        } else {
+                            List<Person> list = relMap.get(rel.getRelationshipType().getaIsToB());
+                            if (list == null) {
+                                list = new ArrayList<Person>();
+                                relMap.put(rel.getRelationshipType().getaIsToB(), list);
+                            }
+                            list.add(rel.getPersonA());
+                        }
                     }
-                    list.add(rel.getPersonA());
+                    return relMap;
                 }
-            }
-            velocityContext.put("relationshipList", rels);
-            velocityContext.put("relationshipMap", relMap);
+            });
         }
 
 		// finally allow modules to provide content to the velocity context
@@ -221,6 +249,17 @@ public class FormEntrySession {
         htmlGenerator = new HtmlFormEntryGenerator();
     }
 
+    /**
+     * @return the relationships of the patient, fetched once for the relationshipList and relationshipMap velocity
+     *         context entries
+     */
+    private List<Relationship> getRelationships() {
+        if (relationships == null) {
+            relationships = Context.getPersonService().getRelationshipsByPerson(patient);
+        }
+        return relationships;
+    }
+
 
     /**
      * Creates a new HTML Form Entry session (in "Enter" mode) for the specified Patient, using the
@@ -355,15 +394,20 @@ public class FormEntrySession {
 
 
     /**
-     * Evaluates a velocity expression and returns the result as a string
+     * Evaluates a velocity expression and returns the result as a string. Expressions are only parsed the first
+     * time they are seen (see {@link VelocityTemplateCache}), and the time each evaluation takes is reported to
+     * any registered {@link VelocityEvaluationListener}s.
      *
      * @param velocityExpression
      * @returns
+     * @should evaluate the same expression more than once
      */
     public String evaluateVelocityExpression(String velocityExpression) {
         StringWriter writer = new StringWriter();
+        long start = System.nanoTime();
+        boolean parsed = !VelocityTemplateCache.isCached(velocityExpression);
         try {
-            velocityEngine.evaluate(velocityContext, writer, FormEntrySession.class.getName(), velocityExpression);
+            VelocityTemplateCache.getTemplate(velocityExpression).merge(velocityContext, writer);
             return writer.toString();
         } catch (CannotBePreviewedException ex) {
             return "Cannot be previewed";
@@ -374,9 +418,21 @@ public class FormEntrySession {
                 log.error("Exception evaluating velocity expression", ex);
                 return "Velocity Error! " + ex.getMessage();
             }
+        } finally {
+            long nanos = System.nanoTime() - start;
+            for (VelocityEvaluationListener listener : getVelocityEvaluationListeners()) {
+                listener.expressionEvaluated(this, velocityExpression, parsed, nanos);
+            }
         }
     }
 
+    private List<VelocityEvaluationListener> getVelocityEvaluationListeners() {
+        if (velocityEvaluationListeners == null) {
+            velocityEvaluationListeners = Context.getRegisteredComponents(VelocityEvaluationListener.class);
+        }
+        return velocityEvaluationListeners;
+    }
+
     /**
      * Creates the HTML for a HTML Form given the xml for the form This method uses the
      * HtmlFormGenerator to process any HTML Form Entry-specific tags and returns pure HTML that can
@@ -391,27 +447,97 @@ public class FormEntrySession {
      * @should return correct xml with a compound expression in an includeIf tag
      */
     public String createForm(String xml) throws Exception {
+        // the xml is parsed once, and only serialized again as html by applyTags
+        long start = HtmlFormEntryMetrics.start();
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            return createForm(compileForm(xml));
+        }
+        finally {
+            MetadataResolutionCache.bind(previous);
+            HtmlFormEntryMetrics.record("createForm", htmlForm, start);
+        }
+    }
+
+    /**
+     * Runs the preprocessing stages of the generator over the form xml (see
+     * {@link HtmlFormEntryGenerator#compileTemplate(HtmlForm, String, FormEntryContext)}), and prefetches
+     * the concepts the form refers to
+     */
+    private Document compileForm(String xml) throws Exception {
         if (htmlForm != null) {
             context.getSchema().setName(htmlForm.getName());
             context.setUnmatchedMode(false);
         }
-        xml = htmlGenerator.stripComments(xml);
-        xml = htmlGenerator.convertSpecialCharactersWithinLogicAndVelocityTests(xml);
-        xml = htmlGenerator.applyRoleRestrictions(xml);
-        xml = htmlGenerator.applyMacros(xml);
-        xml = htmlGenerator.applyRepeats(xml);
-        xml = htmlGenerator.applyTranslations(xml, context);
-        xml = htmlGenerator.applyTags(this, xml);
+        long start = HtmlFormEntryMetrics.start();
+        Document doc = htmlGenerator.compileTemplate(htmlForm, xml, context);
+        HtmlFormEntryMetrics.record("createForm.compileTemplate", htmlForm, start);
+        start = HtmlFormEntryMetrics.start();
+        htmlGenerator.prefetchConcepts(doc);
+        HtmlFormEntryMetrics.record("createForm.prefetchConcepts", htmlForm, start);
+        return doc;
+    }
+
+    /**
+     * Creates the HTML for an already preprocessed form
+     */
+    private String createForm(Document doc) throws Exception {
+        String xml = htmlGenerator.applyTags(this, doc);
+
+        if (startUnmatchedPass()) {
+            xml = htmlGenerator.applyUnmatchedTags(this, xml);
+        }
 
+        xml = htmlGenerator.wrapInDiv(xml);
+        return xml;
+    }
+
+    /**
+     * Puts the context in unmatched mode if, after the first pass over the form, there are obs groups in the
+     * form that still need to be matched to the existing obs groups of the encounter
+     *
+     * @return whether a second pass over the unmatched obs groups is needed
+     */
+    private boolean startUnmatchedPass() {
         if (context.hasUnmatchedObsGroupEntities() && (context.getMode() == Mode.EDIT || context.getMode() == Mode.VIEW)) {
             if (context.getUnmatchedObsGroupEntities().size() > 1 && context.getExistingObsInGroupsCount() > 0)
                 context.setGuessingInd(true);
             context.setUnmatchedMode(true);
-            xml = htmlGenerator.applyUnmatchedTags(this, xml);
+            return true;
         }
+        return false;
+    }
 
-        xml = htmlGenerator.wrapInDiv(xml);
-        return xml;
+    /**
+     * Processes the form in the same way as {@link #getHtmlToDisplay()}, so that the schema is built, the
+     * submission actions are populated and existing data is matched to them, but without generating any HTML
+     * (see {@link FormEntryContext#isAnalyzeOnly()}). This is much cheaper for callers that only need the
+     * schema or the submission actions, such as exporting and voiding by schema.
+     * <p/>
+     * Since no HTML is generated, neither {@link #getHtmlToDisplay()} nor {@link #writeHtmlToDisplay(Writer)}
+     * may be called on a session once it has been analyzed.
+     *
+     * @throws Exception
+     * @should build the same schema as getHtmlToDisplay
+     */
+    public void analyzeForm() throws Exception {
+        if (htmlToDisplay != null || htmlStreamed || formAnalyzed) {
+            throw new IllegalStateException("The form for this session has already been processed");
+        }
+        formAnalyzed = true;
+        context.setAnalyzeOnly(true);
+        long start = HtmlFormEntryMetrics.start();
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            htmlGenerator.analyzeTags(this, compileForm(xmlDefinition));
+            if (startUnmatchedPass()) {
+                htmlGenerator.analyzeUnmatchedTags(this);
+            }
+        }
+        finally {
+            MetadataResolutionCache.bind(previous);
+            HtmlFormEntryMetrics.record("analyzeForm", htmlForm, start);
+        }
     }
 
     /**
@@ -456,6 +582,21 @@ public class FormEntrySession {
      * @throws BadFormDesignException
      */
     public void applyActions() throws BadFormDesignException {
+        long start = HtmlFormEntryMetrics.start();
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            doApplyActions();
+        }
+        finally {
+            MetadataResolutionCache.bind(previous);
+            HtmlFormEntryMetrics.record("applyActions", htmlForm, start);
+        }
+    }
+
+    private void doApplyActions() throws BadFormDesignException {
+        applyActionsTimings = new LinkedHashMap<String, Long>();
+        long phaseStart = System.nanoTime();
+
         // if any encounter to be created by this form is missing a required field, throw an error
         // (If there's a widget but it was left blank, that would have been caught earlier--this
         // is for when there was no widget in the first place.)
@@ -514,6 +655,7 @@ public class FormEntrySession {
                     pp.setDateCompleted(encounter.getEncounterDatetime());
             }
         }
+        phaseStart = endPhase("prepare", phaseStart);
 
         // TODO wrap this in a transaction
         if (submissionActions.getPersonsToCreate() != null) {
@@ -532,6 +674,8 @@ public class FormEntrySession {
                 Context.getPersonService().savePerson(p);
             }
         }
+        phaseStart = endPhase("persons", phaseStart);
+
         if (submissionActions.getEncountersToCreate() != null) {
             for (Encounter e : submissionActions.getEncountersToCreate()) {
                 if (form != null) {
@@ -542,6 +686,7 @@ public class FormEntrySession {
                 Context.getEncounterService().saveEncounter(e);
             }
         }
+        phaseStart = endPhase("encounters", phaseStart);
 
         //deal with relationships
         if (submissionActions.getRelationshipsToCreate() != null) {
@@ -570,18 +715,30 @@ public class FormEntrySession {
                 Context.getPersonService().saveRelationship(r);
             }
         }
+        phaseStart = endPhase("relationships", phaseStart);
 
         // program enrollments are trickier since we need to make sure the patient isn't already enrolled
         // 1. if the patient is already enrolled on the given date, just skip this
         // 2. if the patient is enrolled *after* the given date, shift the existing enrollment to start earlier. (TODO decide if this is right)
         // 3. otherwise just enroll them as requested
+        // the enrollments of each patient are fetched once, and kept up to date as enrollments are saved
         if (submissionActions.getPatientProgramsToCreate() != null) {
+            Map<Patient, List<PatientProgram>> enrollments = new HashMap<Patient, List<PatientProgram>>();
             for (PatientProgram toCreate : submissionActions.getPatientProgramsToCreate()) {
                 boolean skip = false;
                 PatientProgram earliestAfter = null;
-                List<PatientProgram> already = Context.getProgramWorkflowService().getPatientPrograms(toCreate.getPatient(),
-                        toCreate.getProgram(), null, null, null, null, false);
+                List<PatientProgram> already = enrollments.get(toCreate.getPatient());
+                if (already == null) {
+                    already = new ArrayList<PatientProgram>();
+                    if (toCreate.getPatient().getPatientId() != null)
+                        already.addAll(Context.getProgramWorkflowService().getPatientPrograms(toCreate.getPatient(), null,
+                                null, null, null, null, false));
+                    enrollments.put(toCreate.getPatient(), already);
+                }
                 for (PatientProgram pp : already) {
+                    if (!OpenmrsUtil.nullSafeEquals(pp.getProgram(), toCreate.getProgram())) {
+                        continue;
+                    }
                     if (pp.getActive(toCreate.getDateEnrolled())) {
                         skip = true;
                         break;
@@ -604,6 +761,7 @@ public class FormEntrySession {
                 } else {
                     // just enroll as requested
                     Context.getProgramWorkflowService().savePatientProgram(toCreate);
+                    already.add(toCreate);
                 }
             }
         }
@@ -620,18 +778,14 @@ public class FormEntrySession {
                 Context.getProgramWorkflowService().savePatientProgram(patientProgram);
             }
         }
+        phaseStart = endPhase("programs", phaseStart);
 
         ObsService obsService = Context.getObsService();
         
         if (submissionActions.getObsToVoid() != null) {
-            for (Obs o : submissionActions.getObsToVoid()) {
-                if (log.isDebugEnabled())
-                    log.debug("voiding obs: " + o.getObsId());
-                obsService.voidObs(o, "htmlformentry");
-                // if o was in a group and it has no obs left, void the group
-				voidObsGroupIfAllChildObsVoided(o.getObsGroup());
-            }
+            voidObs(submissionActions.getObsToVoid());
         }
+        phaseStart = endPhase("voidObs", phaseStart);
 
         // If we're in EDIT mode, we have to save the encounter so that any new obs are created.
         // This feels a bit like a hack, but actually it's a good thing to update the encounter's dateChanged in this case. (PS- turns out there's no dateChanged on encounter up to 1.5.)
@@ -653,6 +807,7 @@ public class FormEntrySession {
                     obsService.saveObs(o, null);
             }
         }
+        phaseStart = endPhase("saveEncounter", phaseStart);
 
         /*
            ObsService obsService = Context.getObsService();
@@ -693,6 +848,7 @@ public class FormEntrySession {
             }
 
         }
+        phaseStart = endPhase("patient", phaseStart);
 
         // handle any custom actions (for an example of a custom action, see: https://github.com/PIH/openmrs-module-appointmentschedulingui/commit/e2cda8de1caa8a45d319ae4fbf7714c90c9adb8b)
         if (submissionActions.getCustomFormSubmissionActions() != null) {
@@ -700,29 +856,91 @@ public class FormEntrySession {
                 customFormSubmissionAction.applyAction(this);
             }
         }
+        endPhase("customActions", phaseStart);
 
+        if (log.isDebugEnabled())
+            log.debug("applied actions of " + htmlForm + " (ms per phase): " + applyActionsTimings);
     }
 
     /**
-     * Returns true if group is an obs group that has no unvoided members.
+     * Records how long a phase of applyActions took, here and in {@link HtmlFormEntryMetrics}
      *
-     * @param group
-     * @return
+     * @param phase the name of the phase
+     * @param phaseStart when the phase started, from {@link System#nanoTime()}
+     * @return the start of the next phase
+     */
+    private long endPhase(String phase, long phaseStart) {
+        long now = System.nanoTime();
+        applyActionsTimings.put(phase, (now - phaseStart) / 1000000);
+        HtmlFormEntryMetrics.recordNanos("applyActions." + phase, getHtmlFormId(), now - phaseStart);
+        return now;
+    }
+
+    /**
+     * Voids the given obs, and then each obs group that has no unvoided members left. Each group is
+     * checked once, innermost first, since voiding a group may leave its parent with no unvoided members.
+     * <p/>
+     * When editing, obs of the encounter being edited are only marked as voided here: they are saved
+     * along with the encounter. Other obs are voided through the ObsService.
+     *
+     * @param toVoid the obs to void
      */
-    private void voidObsGroupIfAllChildObsVoided(Obs group) {
-		if (group != null) {
+    private void voidObs(List<Obs> toVoid) {
+        Set<Obs> groups = new LinkedHashSet<Obs>();
+        for (Obs o : toVoid) {
+            if (log.isDebugEnabled())
+                log.debug("voiding obs: " + o.getObsId());
+            voidObs(o);
+            for (Obs group = o.getObsGroup(); group != null; group = group.getObsGroup()) {
+                groups.add(group);
+            }
+        }
+
+        List<Obs> innermostFirst = new ArrayList<Obs>(groups);
+        Collections.sort(innermostFirst, new Comparator<Obs>() {
 
-            // probably should be able to just tet if group.getGroupMembers() == 0 since
+            public int compare(Obs left, Obs right) {
+                return getObsGroupDepth(right) - getObsGroupDepth(left);
+            }
+        });
+        for (Obs group : innermostFirst) {
+            // probably should be able to just test if group.getGroupMembers() == 0 since
             // getGroupMembers only returns non-voided members?
-			boolean allObsVoided = true;
-			for (Obs member : group.getGroupMembers()) {
-				allObsVoided = allObsVoided && member.isVoided();
-			}
-			if (allObsVoided) {
-				Context.getObsService().voidObs(group, "htmlformentry");
-			}
-			voidObsGroupIfAllChildObsVoided(group.getObsGroup());
-		}
+            boolean allObsVoided = true;
+            for (Obs member : group.getGroupMembers()) {
+                allObsVoided = allObsVoided && member.isVoided();
+            }
+            if (allObsVoided && !group.isVoided()) {
+                voidObs(group);
+            }
+        }
+    }
+
+    private void voidObs(Obs o) {
+        if (context.getMode() == Mode.EDIT && encounter != null && encounter.equals(o.getEncounter())) {
+            o.setVoided(true);
+            o.setVoidedBy(Context.getAuthenticatedUser());
+            o.setVoidReason("htmlformentry");
+            o.setDateVoided(new Date());
+        } else {
+            Context.getObsService().voidObs(o, "htmlformentry");
+        }
+    }
+
+    private static int getObsGroupDepth(Obs o) {
+        int depth = 0;
+        for (Obs group = o.getObsGroup(); group != null; group = group.getObsGroup()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return how long each phase of the last call to {@link #applyActions()} took, in milliseconds, in
+     *         the order the phases ran; null if the actions have not been applied
+     */
+    public Map<String, Long> getApplyActionsTimings() {
+        return applyActionsTimings;
     }
 
     /**
@@ -755,11 +973,109 @@ public class FormEntrySession {
      */
     public String getHtmlToDisplay() throws Exception {
         if (htmlToDisplay == null) {
-            htmlToDisplay = createForm(xmlDefinition);
+            if (htmlStreamed) {
+                throw new IllegalStateException("The html for this session has already been written by writeHtmlToDisplay");
+            }
+            if (formAnalyzed) {
+                throw new IllegalStateException("No html is generated for a session that has been analyzed");
+            }
+            if (compiledForm != null) {
+                htmlToDisplay = createCompiledForm();
+            } else {
+                htmlToDisplay = createForm(xmlDefinition);
+            }
         }
         return htmlToDisplay;
     }
 
+    /**
+     * Prepares the session for a view that writes its HTML with {@link #writeHtmlToDisplay(Writer)}. Forms that may
+     * need a second pass to place unmatched obs groups are generated in full right away, since matching the existing
+     * obs groups of the encounter sets {@link FormEntryContext#isGuessingInd()}, which the view checks before it
+     * writes the form, and so that an error in them is raised before anything is written. Other forms are only
+     * compiled, and their HTML is generated as it is written.
+     *
+     * @throws Exception
+     * @should generate the html of a form in edit or view mode with obs groups before it is written
+     * @should not generate the html of a form without obs groups before it is written
+     */
+    public void prepareHtmlToDisplay() throws Exception {
+        if (htmlToDisplay != null || htmlStreamed || formAnalyzed || compiledForm != null) {
+            return;
+        }
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            compiledForm = compileForm(xmlDefinition);
+        }
+        finally {
+            MetadataResolutionCache.bind(previous);
+        }
+        if (requiresUnmatchedPass(compiledForm)) {
+            htmlToDisplay = createCompiledForm();
+        }
+    }
+
+    /**
+     * Creates the HTML of the form compiled by {@link #prepareHtmlToDisplay()}
+     */
+    private String createCompiledForm() throws Exception {
+        long start = HtmlFormEntryMetrics.start();
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            return createForm(compiledForm);
+        }
+        finally {
+            compiledForm = null;
+            MetadataResolutionCache.bind(previous);
+            HtmlFormEntryMetrics.record("createForm", htmlForm, start);
+        }
+    }
+
+    /**
+     * Writes the form display HTML associated with the session to the given writer. This has the same side-effects
+     * as {@link #getHtmlToDisplay()}, but where possible the HTML is written out as the tags are processed rather
+     * than being built up in memory first. Forms that may need a second pass to place unmatched obs groups (i.e.
+     * forms with obs groups in EDIT or VIEW mode) are still generated in full and then written.
+     * <p/>
+     * If the HTML is streamed it is not kept, so {@link #getHtmlToDisplay()} may not be called afterwards.
+     *
+     * @param writer the writer to write the html to
+     * @throws Exception
+     * @should write the same html as getHtmlToDisplay
+     */
+    public void writeHtmlToDisplay(Writer writer) throws Exception {
+        if (htmlToDisplay == null && !htmlStreamed && !formAnalyzed) {
+            long start = HtmlFormEntryMetrics.start();
+            MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+            try {
+                Document doc = compiledForm != null ? compiledForm : compileForm(xmlDefinition);
+                compiledForm = null;
+                if (requiresUnmatchedPass(doc)) {
+                    htmlToDisplay = createForm(doc);
+                } else {
+                    htmlStreamed = true;
+                    htmlGenerator.applyTags(this, doc, writer);
+                    return;
+                }
+            }
+            finally {
+                MetadataResolutionCache.bind(previous);
+                HtmlFormEntryMetrics.record("createForm", htmlForm, start);
+            }
+        }
+        writer.write(getHtmlToDisplay());
+    }
+
+    /**
+     * @return whether the unmatched obs groups pass of {@link #createForm(Document)} might be needed for this form
+     */
+    private boolean requiresUnmatchedPass(Document doc) {
+        if (context.getMode() != Mode.EDIT && context.getMode() != Mode.VIEW) {
+            return false;
+        }
+        return doc.getElementsByTagName("obsgroup").getLength() > 0;
+    }
+
     /**
      * Creates the Javascript necessary to set form fields to the values entered during last
      * submission Used to maintain previously-entered field values when redisplaying a form with
@@ -1067,4 +1383,16 @@ public class FormEntrySession {
         velocityContext.put(key, value);
     }
 
+    public RenderProfiler getRenderProfiler() {
+        return renderProfiler;
+    }
+
+    /**
+     * @param renderProfiler a profiler to record how long each tag takes when the html is generated (see
+     *            {@link #getHtmlToDisplay()}), or null not to profile the form
+     */
+    public void setRenderProfiler(RenderProfiler renderProfiler) {
+        this.renderProfiler = renderProfiler;
+    }
+
 }
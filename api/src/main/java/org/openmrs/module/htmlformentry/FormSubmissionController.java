@@ -67,12 +67,18 @@ public class FormSubmissionController {
     public List<FormSubmissionError> validateSubmission(FormEntryContext context, HttpServletRequest submission) {
         lastSubmission = submission;
         lastSubmissionErrors = new ArrayList<FormSubmissionError>();
-        for (FormSubmissionControllerAction element : actions) {
-            Collection<FormSubmissionError> errs = element.validateSubmission(context, submission);
-            if (errs != null) {
-                lastSubmissionErrors.addAll(errs);
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+        try {
+            for (FormSubmissionControllerAction element : actions) {
+                Collection<FormSubmissionError> errs = element.validateSubmission(context, submission);
+                if (errs != null) {
+                    lastSubmissionErrors.addAll(errs);
+                }
             }
         }
+        finally {
+            MetadataResolutionCache.bind(previous);
+        }
         return lastSubmissionErrors;
     }
     
@@ -86,8 +92,14 @@ public class FormSubmissionController {
      */
     public void handleFormSubmission(FormEntrySession session, HttpServletRequest submission) {
         lastSubmission = submission;
-        for (FormSubmissionControllerAction element : actions) {
-            element.handleSubmission(session, submission);
+        MetadataResolutionCache previous = MetadataResolutionCache.bind(session.getContext().getMetadataResolutionCache());
+        try {
+            for (FormSubmissionControllerAction element : actions) {
+                element.handleSubmission(session, submission);
+            }
+        }
+        finally {
+            MetadataResolutionCache.bind(previous);
         }
     }
     
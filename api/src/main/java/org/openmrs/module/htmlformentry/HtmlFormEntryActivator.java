@@ -16,6 +16,7 @@ package org.openmrs.module.htmlformentry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.module.Activator;
+import org.openmrs.module.htmlformentry.impl.HtmlFormEntryServiceImpl;
 
 /**
  * Contains the logic that is run every time HTML Form Entry module
@@ -36,13 +37,14 @@ public class HtmlFormEntryActivator implements Activator {
 	}
 	
 	/**
-	 * Logs that module has been stopped
+	 * Logs that module has been stopped, and drops the form plans it cached
 	 * 
 	 *  @see org.openmrs.module.Activator#shutdown()
 	 */
 	@Override
     public void shutdown() {
 		log.info("Shutting down HTML Form Entry Module");
+		HtmlFormEntryServiceImpl.clearFormPlans();
 	}
 	
 }
@@ -10,6 +10,9 @@ public class HtmlFormEntryConstants {
     /** Constant used by {@see HtmlFormEntryUtil#documentToString(Document)} */
     public final static String CONSTANT_YES = "yes";
     
+    /** Constant used by {@see HtmlFormEntryUtil#documentToString(Document, boolean)} */
+    public final static String CONSTANT_NO = "no";
+    
     /** Constant used by {@see HtmlFormEntryUtil#documentToString(Document)} */
     public final static String ERROR_TRANSFORMER_1 = "TransformerFactory.newTransformer error:";
    
@@ -26,6 +29,14 @@ public class HtmlFormEntryConstants {
     public final static String GP_SHOW_DATE_FORMAT = "htmlformentry.showDateFormat";
 
     public final static String GP_CLASSES_NOT_TO_EXPORT_WITH_MDS = "htmlformentry.classesNotToExportWithMetadataSharing";
+
+    public final static String GP_SHARED_METADATA_RESOLUTION_CACHE = "htmlformentry.sharedMetadataResolutionCache";
+
+    public final static String GP_EXPORT_WORKER_COUNT = "htmlformentry.exportWorkerCount";
+
+    public final static String GP_PERSON_ATTRIBUTE_CACHE_SECONDS = "htmlformentry.personAttributeCacheSeconds";
+
+    public final static String GP_REMOTE_OPTIONS_THRESHOLD = "htmlformentry.remoteOptionsThreshold";
     
     public static final String COMPLEX_UUID = "8d4a6242-c2cc-11de-8d13-0010c6dffd0f";
 
@@ -3,16 +3,27 @@ package org.openmrs.module.htmlformentry;
 import java.io.ByteArrayInputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Concept;
 import org.openmrs.Role;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
@@ -20,6 +31,9 @@ import org.openmrs.module.htmlformentry.handler.AttributeDescriptor;
 import org.openmrs.module.htmlformentry.handler.IteratingTagHandler;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
 import org.openmrs.module.htmlformentry.matching.ObsGroupEntity;
+import org.openmrs.module.htmlformentry.metrics.HtmlFormEntryMetrics;
+import org.openmrs.module.htmlformentry.metrics.RenderProfiler;
+import org.openmrs.util.OpenmrsUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -32,6 +46,153 @@ import org.w3c.dom.NodeList;
  */
 public class HtmlFormEntryGenerator implements TagHandler {
 
+    /**
+     * Maximum number of compiled templates kept in {@link #templateCache}
+     */
+    public static final int TEMPLATE_CACHE_MAX_SIZE = 100;
+
+    /**
+     * Least-recently-used cache of compiled templates, i.e. the patient-independent output of the
+     * preprocessing stages (see {@link #compileTemplate(HtmlForm, String, FormEntryContext)})
+     */
+    private static final Map<TemplateCacheKey, CompiledTemplate> templateCache = Collections
+            .synchronizedMap(new LinkedHashMap<TemplateCacheKey, CompiledTemplate>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TemplateCacheKey, CompiledTemplate> eldest) {
+                    return size() > TEMPLATE_CACHE_MAX_SIZE;
+                }
+            });
+
+    /**
+     * Runs all the patient-independent preprocessing stages over the given xml: stripping comments,
+     * converting special characters within logic and velocity tests, and applying role
+     * restrictions, macros, repeats and translations. Translations found in the form are registered
+     * with the translator of the given context.
+     *
+     * @param xml the xml string to preprocess
+     * @param context the form entry context to register translations with
+     * @return the xml string, ready to have tags applied to it
+     * @throws Exception
+     */
+    public String preprocessForm(String xml, FormEntryContext context) throws Exception {
+        xml = stripComments(xml);
+        xml = convertSpecialCharactersWithinLogicAndVelocityTests(xml);
+        xml = applyRoleRestrictions(xml);
+        xml = applyMacros(xml);
+        xml = applyRepeats(xml);
+        xml = applyTranslations(xml, context);
+        return xml;
+    }
+
+    /**
+     * Same as {@link #preprocessForm(String, FormEntryContext)}, but the xml is only parsed once:
+     * after the stages that need to work on the raw string (stripping comments, converting special
+     * characters and applying role restrictions) the macros, repeats and translations are applied
+     * to a single shared Document, which is never serialized.
+     *
+     * @param xml the xml string to preprocess
+     * @param context the form entry context to register translations with
+     * @return the Document, ready to have tags applied to it
+     * @throws Exception
+     * @should produce the same form as the string pipeline
+     */
+    public Document preprocessFormToDocument(String xml, FormEntryContext context) throws Exception {
+        long start = HtmlFormEntryMetrics.start();
+        xml = stripComments(xml);
+        start = recordStage("createForm.stripComments", start);
+        xml = convertSpecialCharactersWithinLogicAndVelocityTests(xml);
+        start = recordStage("createForm.convertSpecialCharacters", start);
+        xml = applyRoleRestrictions(xml);
+        start = recordStage("createForm.applyRoleRestrictions", start);
+        Document doc = HtmlFormEntryUtil.stringToDocument(xml);
+        start = recordStage("createForm.parse", start);
+        applyMacros(doc);
+        start = recordStage("createForm.applyMacros", start);
+        applyRepeats(doc);
+        start = recordStage("createForm.applyRepeats", start);
+        applyTranslations(doc, context);
+        recordStage("createForm.applyTranslations", start);
+        return doc;
+    }
+
+    /**
+     * Records a stage in {@link HtmlFormEntryMetrics}
+     *
+     * @return the start of the next stage
+     */
+    private static long recordStage(String stage, long start) {
+        HtmlFormEntryMetrics.record(stage, null, start);
+        return HtmlFormEntryMetrics.start();
+    }
+
+    /**
+     * Same as {@link #preprocessFormToDocument(String, FormEntryContext)}, but if the xml is that of
+     * a saved HtmlForm, the result is cached, keyed by form id, date changed, locale and (for forms
+     * that use {@code <restrictByRole>}) the roles of the authenticated user
+     *
+     * @param htmlForm the HtmlForm the xml belongs to (may be null)
+     * @param xml the xml string to preprocess
+     * @param context the form entry context to register translations with
+     * @return the Document, ready to have tags applied to it
+     * @throws Exception
+     * @should return the same xml as preprocessForm
+     * @should register the form translations on a cache hit
+     */
+    public Document compileTemplate(HtmlForm htmlForm, String xml, FormEntryContext context) throws Exception {
+        if (htmlForm == null || htmlForm.getId() == null || xml == null || !xml.equals(htmlForm.getXmlData())) {
+            return preprocessFormToDocument(xml, context);
+        }
+
+        TemplateCacheKey key = new TemplateCacheKey(htmlForm, xml);
+        CompiledTemplate template = templateCache.get(key);
+        Document doc;
+        if (template == null) {
+            // translations are collected in a scratch context so that only the ones this form defines are cached
+            FormEntryContext scratchContext = new FormEntryContext(context.getMode());
+            doc = preprocessFormToDocument(xml, scratchContext);
+            template = new CompiledTemplate(HtmlFormEntryUtil.documentToString(doc, false), scratchContext
+                    .getTranslator().getTranslations());
+            templateCache.put(key, template);
+        } else {
+            doc = HtmlFormEntryUtil.stringToDocument(template.getXml());
+        }
+
+        for (Map.Entry<String, Map<String, String>> localeEntry : template.getTranslations().entrySet()) {
+            for (Map.Entry<String, String> codeEntry : localeEntry.getValue().entrySet()) {
+                context.getTranslator().addTranslation(localeEntry.getKey(), codeEntry.getKey(), codeEntry.getValue());
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Removes all compiled templates of the given form from the template cache
+     *
+     * @param htmlForm the form whose templates should be evicted
+     */
+    public static void clearTemplateCache(HtmlForm htmlForm) {
+        if (htmlForm == null || htmlForm.getId() == null) {
+            return;
+        }
+        synchronized (templateCache) {
+            for (Iterator<TemplateCacheKey> i = templateCache.keySet().iterator(); i.hasNext();) {
+                if (htmlForm.getId().equals(i.next().getHtmlFormId())) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all compiled templates from the template cache
+     */
+    public static void clearTemplateCache() {
+        templateCache.clear();
+    }
+
     /**
      * Takes an XML string, finds the {@code <macros></macros>} section in it, and applies those
      * substitutions
@@ -96,6 +257,55 @@ public class HtmlFormEntryGenerator implements TagHandler {
         return xml;
     }
 
+    /**
+     * Same as {@link #applyMacros(String)}, but substitutes the macros directly within the text and
+     * attribute values of the given Document. If the value of a macro contains markup (a {@code <},
+     * {@code &} or {@code "}), the macros are substituted within the serialized document instead, which
+     * is then parsed again, so that such values are still parsed along with the rest of the form as
+     * {@link #applyMacros(String)} does.
+     *
+     * @param doc the document to process for macros
+     * @throws Exception
+     * @should substitute macros whose value contains markup as applyMacros(String) does
+     */
+    public void applyMacros(Document doc) throws Exception {
+        Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
+        Node macrosNode = HtmlFormEntryUtil.findChild(content, "macros");
+        if (macrosNode == null)
+            return;
+
+        Properties macros = new Properties();
+        String macrosText = macrosNode.getTextContent();
+        if (macrosText != null) {
+            macros.load(new ByteArrayInputStream(macrosText.getBytes()));
+        }
+        content.removeChild(macrosNode);
+
+        // keep the order in which applyMacros(String) would substitute them
+        Map<String, String> substitutions = new LinkedHashMap<String, String>();
+        for (Object temp : macros.keySet()) {
+            String key = (String) temp;
+            substitutions.put("$" + key, macros.getProperty(key, ""));
+        }
+
+        if (containsMarkup(substitutions.values())) {
+            String xml = substitute(HtmlFormEntryUtil.documentToString(doc), substitutions);
+            Node substituted = doc.importNode(HtmlFormEntryUtil.stringToDocument(xml).getDocumentElement(), true);
+            doc.replaceChild(substituted, doc.getDocumentElement());
+        } else {
+            substituteWithinNode(content, substitutions);
+        }
+    }
+
+    private boolean containsMarkup(Collection<String> values) {
+        for (String value : values) {
+            if (StringUtils.indexOfAny(value, "<&\"") >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Takes an XML string, finds the {@code <translations></translations>} section in it, and
      * applies those substitutions
@@ -127,6 +337,21 @@ public class HtmlFormEntryGenerator implements TagHandler {
             return xml;
         }
 
+        loadTranslations(transNode, context);
+
+        // now remove the macros node
+        content.removeChild(transNode);
+
+        // switch back to String mode from the document so we can use string utilities to substitute
+        xml = HtmlFormEntryUtil.documentToString(doc);
+        return xml;
+    }
+
+    /**
+     * Registers all the translations defined within a {@code <translations>} node with the
+     * translator of the given context
+     */
+    private void loadTranslations(Node transNode, FormEntryContext context) {
         String defaultLocaleStr = HtmlFormEntryUtil.getNodeAttribute(transNode, "defaultLocale", "en");
 
         NodeList codeNodeList = transNode.getChildNodes();
@@ -151,13 +376,24 @@ public class HtmlFormEntryGenerator implements TagHandler {
                 }
             }
         }
+    }
 
-        // now remove the macros node
+    /**
+     * Same as {@link #applyTranslations(String, FormEntryContext)}, but works directly on the given
+     * Document
+     *
+     * @param doc the document to process for translations
+     * @param context the form entry context to register translations with
+     * @throws Exception
+     */
+    public void applyTranslations(Document doc, FormEntryContext context) throws Exception {
+        Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
+        Node transNode = HtmlFormEntryUtil.findChild(content, "translations");
+        if (transNode == null) {
+            return;
+        }
+        loadTranslations(transNode, context);
         content.removeChild(transNode);
-
-        // switch back to String mode from the document so we can use string utilities to substitute
-        xml = HtmlFormEntryUtil.documentToString(doc);
-        return xml;
     }
 
     /**
@@ -422,6 +658,200 @@ public class HtmlFormEntryGenerator implements TagHandler {
         return substitutionSet;
     }
 
+    /**
+     * Same as {@link #applyRepeats(String)}, but expands both versions of the {@code <repeat>} tag
+     * directly within the given Document
+     *
+     * @param doc the document to process for repeat sections
+     * @throws Exception
+     */
+    public void applyRepeats(Document doc) throws Exception {
+        applyRepeats(HtmlFormEntryUtil.findChild(doc, "htmlform"));
+    }
+
+    private void applyRepeats(Node node) throws Exception {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            if (child.getNodeName().equalsIgnoreCase("repeat")) {
+                Node next = child.getNextSibling();
+                Node firstInserted = null;
+                for (Node repeated : expandRepeat(child)) {
+                    node.insertBefore(repeated, child);
+                    if (firstInserted == null) {
+                        firstInserted = repeated;
+                    }
+                }
+                node.removeChild(child);
+                // the expanded content may itself contain repeats
+                child = (firstInserted != null ? firstInserted : next);
+            } else {
+                applyRepeats(child);
+                child = child.getNextSibling();
+            }
+        }
+    }
+
+    /**
+     * @return the nodes that should replace the given {@code <repeat>} node
+     */
+    private List<Node> expandRepeat(Node repeatNode) throws Exception {
+        List<Node> ret = new ArrayList<Node>();
+        if (!repeatNode.hasAttributes()) {
+            Node templateNode = HtmlFormEntryUtil.findChild(repeatNode, "template");
+            if (templateNode == null) {
+                throw new IllegalArgumentException("All <repeat> elements must contain a child <template> element.");
+            }
+            NodeList repeatNodes = repeatNode.getChildNodes();
+            for (int i = 0; i < repeatNodes.getLength(); i++) {
+                Node renderNode = repeatNodes.item(i);
+                if (renderNode.getNodeName().equalsIgnoreCase("render")) {
+                    Map<String, String> substitutions = new LinkedHashMap<String, String>();
+                    for (Map.Entry<String, String> e : HtmlFormEntryUtil.getNodeAttributes(renderNode).entrySet()) {
+                        substitutions.put("{" + e.getKey() + "}", e.getValue());
+                    }
+                    ret.addAll(cloneChildrenWithSubstitutions(templateNode, substitutions));
+                }
+            }
+        } else {
+            String with = HtmlFormEntryUtil.getNodeAttribute(repeatNode, "with", "");
+            for (List<String> substitutionSet : getSubstitutionSets(with)) {
+                Map<String, String> substitutions = new LinkedHashMap<String, String>();
+                int i = 0;
+                for (String substitution : substitutionSet) {
+                    substitutions.put("{" + i + "}", substitution);
+                    i++;
+                }
+                ret.addAll(cloneChildrenWithSubstitutions(repeatNode, substitutions));
+            }
+        }
+        return ret;
+    }
+
+    private List<Node> cloneChildrenWithSubstitutions(Node parent, Map<String, String> substitutions) {
+        List<Node> ret = new ArrayList<Node>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node clone = children.item(i).cloneNode(true);
+            substituteWithinNode(clone, substitutions);
+            ret.add(clone);
+        }
+        return ret;
+    }
+
+    /**
+     * Replaces every occurrence of each key of the substitutions map, in order, within the text and
+     * attribute values of the given node and its descendants
+     */
+    private void substituteWithinNode(Node node, Map<String, String> substitutions) {
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            node.setNodeValue(substitute(node.getNodeValue(), substitutions));
+            return;
+        }
+        NamedNodeMap attrs = node.getAttributes();
+        if (attrs != null) {
+            for (int i = 0; i < attrs.getLength(); ++i) {
+                Node attr = attrs.item(i);
+                attr.setNodeValue(substitute(attr.getNodeValue(), substitutions));
+            }
+        }
+        NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); ++i) {
+            substituteWithinNode(children.item(i), substitutions);
+        }
+    }
+
+    private String substitute(String value, Map<String, String> substitutions) {
+        if (value == null || value.length() == 0) {
+            return value;
+        }
+        for (Map.Entry<String, String> e : substitutions.entrySet()) {
+            value = value.replace(e.getKey(), e.getValue());
+        }
+        return value;
+    }
+
+    /**
+     * Loads all the concepts referred to by the tags in the given document with a few batched queries, so that
+     * the tag handlers don't each fetch their concepts (and the concepts' names and answers) one at a time. The
+     * attributes that refer to concepts are found through the {@link AttributeDescriptor}s of the registered tag
+     * handlers. Concepts referred to by id or uuid are loaded directly; those referred to by mapping are resolved
+     * one at a time and then have their names and answers loaded along with the rest.
+     * <p/>
+     * The results are added to the {@link MetadataResolutionCache} bound to the current thread, if any.
+     *
+     * @param doc the preprocessed form
+     * @should prefetch the concepts referred to by the form
+     */
+    public void prefetchConcepts(Document doc) {
+        Set<String> identifiers = new LinkedHashSet<String>();
+        collectConceptIdentifiers(doc.getDocumentElement(), HtmlFormEntryUtil.getService().getHandlers(), identifiers);
+        if (identifiers.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> conceptIds = new HashSet<Integer>();
+        Set<String> conceptUuids = new HashSet<String>();
+        for (String identifier : identifiers) {
+            try {
+                conceptIds.add(Integer.valueOf(identifier));
+                continue;
+            }
+            catch (NumberFormatException ex) {
+                // not an id
+            }
+            if (identifier.indexOf(":") != -1) {
+                Concept concept = HtmlFormEntryUtil.getConcept(identifier);
+                if (concept != null) {
+                    conceptIds.add(concept.getConceptId());
+                }
+            } else if (HtmlFormEntryUtil.isValidUuidFormat(identifier)) {
+                conceptUuids.add(identifier);
+            }
+        }
+
+        List<Concept> concepts = HtmlFormEntryUtil.getService().getConceptsWithNamesAndAnswers(conceptIds, conceptUuids);
+
+        MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+        if (cache != null) {
+            Map<String, Concept> byIdentifier = new HashMap<String, Concept>();
+            for (Concept concept : concepts) {
+                byIdentifier.put(concept.getConceptId().toString(), concept);
+                byIdentifier.put(concept.getUuid(), concept);
+            }
+            for (Integer conceptId : conceptIds) {
+                String identifier = conceptId.toString();
+                if (identifiers.contains(identifier)) {
+                    cache.put(Concept.class, identifier, byIdentifier.get(identifier));
+                }
+            }
+            for (String uuid : conceptUuids) {
+                cache.put(Concept.class, uuid, byIdentifier.get(uuid));
+            }
+        }
+    }
+
+    private void collectConceptIdentifiers(Node node, Map<String, TagHandler> handlers, Set<String> identifiers) {
+        TagHandler handler = handlers.get(node.getNodeName());
+        if (handler != null && handler.getAttributeDescriptors() != null && node.getAttributes() != null) {
+            for (AttributeDescriptor descriptor : handler.getAttributeDescriptors()) {
+                if (Concept.class.equals(descriptor.getClazz())) {
+                    Node attribute = node.getAttributes().getNamedItem(descriptor.getName());
+                    if (attribute != null) {
+                        for (String identifier : attribute.getNodeValue().split(",")) {
+                            if (StringUtils.isNotBlank(identifier)) {
+                                identifiers.add(identifier.trim());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); ++i) {
+            collectConceptIdentifiers(children.item(i), handlers, identifiers);
+        }
+    }
+
     public String applyUnmatchedTags(FormEntrySession session, String xml) throws Exception {
         List<ObsGroupEntity> obsGroupEntities = session.getContext().getUnmatchedObsGroupEntities();
 
@@ -446,13 +876,79 @@ public class HtmlFormEntryGenerator implements TagHandler {
      * @throws Exception
      */
     public String applyTags(FormEntrySession session, String xml) throws Exception {
-        Document doc = HtmlFormEntryUtil.stringToDocument(xml);
+        return applyTags(session, HtmlFormEntryUtil.stringToDocument(xml));
+    }
+
+    /**
+     * Same as {@link #applyTags(FormEntrySession, String)}, but for an already parsed Document
+     *
+     * @param session the current form entry session context
+     * @param doc the document to process
+     * @return the html after tag processing
+     * @throws Exception
+     */
+    public String applyTags(FormEntrySession session, Document doc) throws Exception {
         Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
         StringWriter out = new StringWriter();
         applyTagsHelper(session, new PrintWriter(out), null, content, null);
         return out.toString();
     }
 
+    /**
+     * Applies all the HTML Form Entry tags in the given Document, writing the resulting html to the
+     * given writer as it is produced. The contents of the {@code <htmlform>} tag are wrapped in a
+     * div, as {@link #wrapInDiv(String)} would do. Note that this can't be used for forms that need
+     * a second pass to handle unmatched obs groups (see
+     * {@link #applyUnmatchedTags(FormEntrySession, String)}).
+     *
+     * @param session the current form entry session context
+     * @param doc the document to process
+     * @param writer the writer to write the html to
+     * @throws Exception
+     */
+    public void applyTags(FormEntrySession session, Document doc, Writer writer) throws Exception {
+        Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
+        PrintWriter out = new PrintWriter(writer);
+        out.print("<div class=\"htmlform\">");
+        Map<String, TagHandler> tagHandlerCache = new HashMap<String, TagHandler>();
+        NodeList list = content.getChildNodes();
+        for (int i = 0; i < list.getLength(); ++i) {
+            applyTagsHelper(session, out, content, list.item(i), tagHandlerCache);
+        }
+        out.print("</div>");
+        out.flush();
+    }
+
+    /**
+     * Applies all the HTML Form Entry tags in the given Document for a session that is only being analyzed
+     * (see {@link FormEntryContext#isAnalyzeOnly()}). The tag handlers are called as for
+     * {@link #applyTags(FormEntrySession, Document)}, so submission elements are created, schema fields are
+     * added and existing data is matched, but nothing is kept of the output.
+     *
+     * @param session the current form entry session context
+     * @param doc the document to process
+     * @throws Exception
+     */
+    public void analyzeTags(FormEntrySession session, Document doc) throws Exception {
+        Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
+        applyTagsHelper(session, new PrintWriter(new DiscardingWriter()), null, content, null);
+    }
+
+    /**
+     * The equivalent of {@link #applyUnmatchedTags(FormEntrySession, String)} for a session that is only being
+     * analyzed: applies the tags of the obs groups that were not matched in the first pass
+     *
+     * @param session the current form entry session context
+     * @throws Exception
+     */
+    public void analyzeUnmatchedTags(FormEntrySession session) throws Exception {
+        PrintWriter out = new PrintWriter(new DiscardingWriter());
+        Map<String, TagHandler> tagHandlerCache = new HashMap<String, TagHandler>();
+        for (ObsGroupEntity obsGroupEntity : session.getContext().getUnmatchedObsGroupEntities()) {
+            applyTagsHelper(session, out, null, obsGroupEntity.getNode(), tagHandlerCache);
+        }
+    }
+
     private void applyTagsHelper(FormEntrySession session, PrintWriter out, Node parent, Node node,
                                  Map<String, TagHandler> tagHandlerCache) {
         if (tagHandlerCache == null)
@@ -475,8 +971,18 @@ public class HtmlFormEntryGenerator implements TagHandler {
         if (handler == null)
             handler = this; // do default actions
 
+        // the time spent in the handler itself, not counting the tags inside it
+        boolean timed = handler != this && HtmlFormEntryMetrics.isEnabled();
+        long handlerNanos = 0;
+        long start = timed ? System.nanoTime() : 0;
+        // the time and queries of this tag and the tags inside it, if the form is being profiled
+        RenderProfiler profiler = handler != this ? session.getRenderProfiler() : null;
+        if (profiler != null)
+            profiler.enter(node);
         try {
             boolean handleContents = handler.doStartTag(session, out, parent, node);
+            if (timed)
+                handlerNanos += System.nanoTime() - start;
 
             // Unless the handler told us to skip them, then iterate over any children
             if (handleContents) {
@@ -498,11 +1004,20 @@ public class HtmlFormEntryGenerator implements TagHandler {
                 }
             }
 
+            if (timed)
+                start = System.nanoTime();
             handler.doEndTag(session, out, parent, node);
+            if (timed) {
+                handlerNanos += System.nanoTime() - start;
+                HtmlFormEntryMetrics.recordNanos("applyTags." + node.getNodeName(), session.getHtmlFormId(), handlerNanos);
+            }
         } catch (BadFormDesignException e) {
             out.print("<div class=\"error\">" + handler + " reported an error in the design of the form. Consult your administrator.<br/><pre>");
             e.printStackTrace(out);
             out.print("</pre></div>");
+        } finally {
+            if (profiler != null)
+                profiler.exit();
         }
 
     }
@@ -737,4 +1252,102 @@ public class HtmlFormEntryGenerator implements TagHandler {
         return applyRepeats(xml);
     }
 
+    /**
+     * A writer that throws away everything written to it, for tags applied only for their side effects
+     */
+    private static class DiscardingWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Identifies a compiled template in the template cache
+     */
+    private static class TemplateCacheKey {
+
+        private final Integer htmlFormId;
+
+        private final Long dateChanged;
+
+        private final Locale locale;
+
+        private final Set<String> roles = new TreeSet<String>();
+
+        public TemplateCacheKey(HtmlForm htmlForm, String xml) {
+            this.htmlFormId = htmlForm.getId();
+            Date changed = htmlForm.getDateChanged() == null ? htmlForm.getDateCreated() : htmlForm.getDateChanged();
+            this.dateChanged = changed == null ? null : changed.getTime();
+            this.locale = Context.getLocale();
+            // roles only affect the output of forms that use <restrictByRole>
+            User user = Context.getAuthenticatedUser();
+            if (user != null && xml.contains("<restrictByRole")) {
+                for (Role role : user.getAllRoles()) {
+                    roles.add(role.getRole());
+                }
+            }
+        }
+
+        public Integer getHtmlFormId() {
+            return htmlFormId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TemplateCacheKey)) {
+                return false;
+            }
+            TemplateCacheKey other = (TemplateCacheKey) o;
+            return OpenmrsUtil.nullSafeEquals(htmlFormId, other.htmlFormId)
+                    && OpenmrsUtil.nullSafeEquals(dateChanged, other.dateChanged)
+                    && OpenmrsUtil.nullSafeEquals(locale, other.locale) && roles.equals(other.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = htmlFormId.hashCode();
+            result = 31 * result + (dateChanged == null ? 0 : dateChanged.hashCode());
+            result = 31 * result + (locale == null ? 0 : locale.hashCode());
+            result = 31 * result + roles.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * The cached output of the preprocessing stages for a form, along with the translations the form
+     * defines (which need to be registered with each new context)
+     */
+    private static class CompiledTemplate {
+
+        private final String xml;
+
+        private final Map<String, Map<String, String>> translations;
+
+        public CompiledTemplate(String xml, Map<String, Map<String, String>> translations) {
+            this.xml = xml;
+            this.translations = translations;
+        }
+
+        public String getXml() {
+            return xml;
+        }
+
+        public Map<String, Map<String, String>> getTranslations() {
+            return translations;
+        }
+    }
+
 }
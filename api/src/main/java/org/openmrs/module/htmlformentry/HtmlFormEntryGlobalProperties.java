@@ -35,4 +35,56 @@ public class HtmlFormEntryGlobalProperties {
 			return false;
 		}
 	} 	
+
+	/**
+	 * @return whether metadata lookups should be remembered across form entry sessions (see
+	 *         {@link MetadataResolutionCache})
+	 */
+	public static final Boolean SHARED_METADATA_RESOLUTION_CACHE () {
+		String propertyValue = Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_SHARED_METADATA_RESOLUTION_CACHE);
+		return "true".equalsIgnoreCase(propertyValue);
+	}
+
+	/**
+	 * @return the number of threads building the rows of a form export, at least 1 (see
+	 *         {@link org.openmrs.module.htmlformentry.export.HtmlFormEntryExportUtil#writeHtmlFormExport})
+	 */
+	public static final int EXPORT_WORKER_COUNT () {
+		String propertyValue = Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_EXPORT_WORKER_COUNT);
+		try {
+			return Math.max(1, Integer.parseInt(propertyValue.trim()));
+		}
+		catch (Exception ex) {
+			return 1;
+		}
+	}
+
+	/**
+	 * @return how long the people having a person attribute are remembered, in seconds, at least 0 (see
+	 *         {@link HtmlFormEntryService#getPersonIdsHavingAttribute})
+	 */
+	public static final int PERSON_ATTRIBUTE_CACHE_SECONDS () {
+		String propertyValue = Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_PERSON_ATTRIBUTE_CACHE_SECONDS);
+		try {
+			return Math.max(0, Integer.parseInt(propertyValue.trim()));
+		}
+		catch (Exception ex) {
+			return 60;
+		}
+	}
+
+	/**
+	 * @return the number of options above which a dropdown loads its options from the server a page at a
+	 *         time (see {@link org.openmrs.module.htmlformentry.widget.RemoteOptionsWidget}), or 0 if
+	 *         dropdowns always have all their options written into the page
+	 */
+	public static final int REMOTE_OPTIONS_THRESHOLD () {
+		String propertyValue = Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_REMOTE_OPTIONS_THRESHOLD);
+		try {
+			return Math.max(0, Integer.parseInt(propertyValue.trim()));
+		}
+		catch (Exception ex) {
+			return 500;
+		}
+	}
 }
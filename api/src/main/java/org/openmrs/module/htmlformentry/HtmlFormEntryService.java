@@ -1,15 +1,26 @@
 package org.openmrs.module.htmlformentry;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
+import org.openmrs.Obs;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.htmlformentry.element.PersonStub;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.matching.FormPlan;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -129,6 +140,43 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	@Transactional(readOnly=true)
 	public List<PersonStub> getUsersAsPersonStubs(String roleName);
 	
+	/**
+	 * Same as {@link #getUsersAsPersonStubs(String)}, but returns at most the given number of stubs
+	 * 
+	 * @param roleName the role, or null for all users
+	 * @param maxResults the maximum number of stubs to return, or null for all of them
+	 * @return a List<PersonStub>, ordered by family name
+	 * @should return at most the given number of stubs
+	 */
+	@Transactional(readOnly=true)
+	public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer maxResults);
+	
+	/**
+	 * Same as {@link #getUsersAsPersonStubs(String)}, but returns one page of the stubs, e.g. for a
+	 * dropdown that loads its options from the server
+	 * 
+	 * @param roleName the role, or null for all users
+	 * @param firstResult the number of stubs to skip, or null
+	 * @param maxResults the maximum number of stubs to return, or null for all of them
+	 * @return a List<PersonStub>, ordered by family name
+	 * @should return the given page of stubs
+	 */
+	@Transactional(readOnly=true)
+	public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer firstResult, Integer maxResults);
+	
+	/**
+	 * Tells whether a person is one of the users that {@link #getUsersAsPersonStubs(String)} returns
+	 * for the given role, e.g. to check a value submitted from a dropdown that loads its options from
+	 * the server
+	 * 
+	 * @param personId the id of the person
+	 * @param roleName the role, or null for all users
+	 * @return whether the person is a non-retired user with the role
+	 * @should return whether the person is a user with the role
+	 */
+	@Transactional(readOnly=true)
+	public boolean isUserWithRole(Integer personId, String roleName);
+	
 	/**
 	 * Given a uuid, fetch the OpenMRS object associated with that uuid
 	 */
@@ -144,6 +192,38 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	 */
     public OpenmrsObject getItemByName(Class<? extends OpenmrsMetadata> type, String name);
     
+	/**
+	 * Given a class and some uuids, fetch the OpenMRS objects associated with those uuids, using one query
+	 * per few hundred uuids
+	 * 
+	 * @return the objects found, by uuid; uuids that were not found are left out
+	 * @should return the items with the given uuids by uuid
+	 */
+	@Transactional(readOnly=true)
+	public Map<String, OpenmrsObject> getItemsByUuid(Class<? extends OpenmrsObject> type, Collection<String> uuids);
+	
+	/**
+	 * Given a class and some ids, fetch the OpenMRS objects associated with those ids, using one query per
+	 * few hundred ids
+	 * 
+	 * @return the objects found, by id; ids that were not found are left out
+	 * @should return the items with the given ids by id
+	 */
+	@Transactional(readOnly=true)
+	public Map<Integer, OpenmrsObject> getItemsById(Class<? extends OpenmrsObject> type, Collection<Integer> ids);
+	
+	/**
+	 * Given a class and some names, fetch the OpenMRS objects associated with those names, using one query
+	 * per few hundred names. Names are matched ignoring case.
+	 * 
+	 * @return the objects found, by name in lower case; names that were not found, or that more than one object
+	 *         has, are left out
+	 * @should return the items with the given names by lower case name
+	 * @should match names ignoring case
+	 */
+	@Transactional(readOnly=true)
+	public Map<String, OpenmrsObject> getItemsByName(Class<? extends OpenmrsMetadata> type, Collection<String> names);
+    
     /**
 	 * 
 	 * Returns a list of Person ids of people having a given attribute type (passed in using the person_attribute_id).
@@ -157,6 +237,25 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	@Transactional(readOnly=true)
 	public List<Integer> getPersonIdsHavingAttributes(String attribute, String attributeValue);
 	
+	/**
+	 * Returns the ids of the people having an attribute of the given type, optionally with the given value.
+	 * The results are remembered for a short time (see
+	 * {@link HtmlFormEntryConstants#GP_PERSON_ATTRIBUTE_CACHE_SECONDS}), since the same attribute is often
+	 * looked up each time a form is shown.
+	 * 
+	 * @param attributeType the type of the person attribute
+	 * @param attributeValue optional value to match against the person attribute
+	 * @param maxResults the maximum number of ids to return, or null for all of them
+	 * @return the person ids, in ascending order
+	 * @should return the people having the attribute
+	 * @should only return the people having the attribute with the given value
+	 * @should return at most the given number of ids
+	 * @should remember the results for the time set by the global property
+	 * @should not mistake the value null for a missing value
+	 */
+	@Transactional(readOnly=true)
+	public List<Integer> getPersonIdsHavingAttribute(PersonAttributeType attributeType, String attributeValue, Integer maxResults);
+	
 	/**
 	 * 
 	 * Returns a list of Person stubs for people matching the attributes and programs parameters passed in.
@@ -172,6 +271,194 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	 */
 	public List<PersonStub> getPeopleAsPersonStubs(List<String> attributeIds, List<String> attributeValues, List<String> programIds, List<Person> personsToExclude);
 	
+	/**
+	 * Same as {@link #getPeopleAsPersonStubs(List, List, List, List)}, but returns one page of the matching
+	 * people. The attribute and program matching is done by the database, and only the names of the people
+	 * are loaded, so this stays fast for programs with many patients.
+	 * 
+	 * @param attributeIds the optional list of names of person attribute types
+	 * @param attributeValues the list of optional values to match against the person attribute
+	 * @param programIds the optional list of programIds
+	 * @param personsToExclude optional list of persons to exclude from the results list
+	 * @param firstResult the index of the first stub to return, or null to start at the first one
+	 * @param maxResults the maximum number of stubs to return, or null for all of them
+	 * @return a List<PersonStub>, ordered by family name
+	 * @should return the people in all the given programs
+	 * @should return the people having all the given attributes
+	 * @should exclude the given persons
+	 * @should return the given page of people
+	 * @should return an empty list if no attributes or programs are given
+	 * @should return an empty list if an attribute does not exist
+	 */
+	@Transactional(readOnly=true)
+	public List<PersonStub> getPeopleAsPersonStubs(List<String> attributeIds, List<String> attributeValues, List<String> programIds, List<Person> personsToExclude, Integer firstResult, Integer maxResults);
+	
+	/**
+	 * Searches people by name or patient identifier, with the attribute and program filters of
+	 * {@link #getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}, in a single query. Each
+	 * word of the phrase must be the start of a given, middle or family name of the person; if the phrase
+	 * contains a number, patients having it as an identifier match as well. Unknown programs are ignored.
+	 * 
+	 * @param searchPhrase the name or identifier to search for
+	 * @param attributes the optional list of names of person attribute types
+	 * @param attributeValues the list of optional values to match against the person attribute
+	 * @param programIds the optional list of programIds
+	 * @param firstResult the index of the first stub to return, or null to start at the first one
+	 * @param maxResults the maximum number of stubs to return, or null for all of them
+	 * @return a List<PersonStub>, ordered by family name, each person at most once
+	 * @should find people by the start of their names
+	 * @should find patients by identifier
+	 * @should only return the people in the given programs
+	 * @should return the given page of people
+	 * @should return an empty list for a blank phrase
+	 */
+	@Transactional(readOnly=true)
+	public List<PersonStub> searchPeopleAsPersonStubs(String searchPhrase, List<String> attributes, List<String> attributeValues, List<String> programIds, Integer firstResult, Integer maxResults);
+	
+	/**
+	 * Loads the names of the people with the given ids as person stubs, using a small number of queries
+	 * and without loading the people themselves.
+	 * 
+	 * @param personIds the ids of the people
+	 * @return a List<PersonStub>, ordered by family name, without the ids of unknown or voided people
+	 * @should return stubs with the names of the given people
+	 * @should return an empty list if no ids are given
+	 */
+	@Transactional(readOnly=true)
+	public List<PersonStub> getPersonStubs(Collection<Integer> personIds);
+	
+	/**
+	 * Loads the concepts with the given ids and uuids, with their names and answers, using a small
+	 * number of queries (rather than one or more per concept). Used to prefetch the concepts a form
+	 * refers to before the form is generated.
+	 * 
+	 * @param conceptIds the ids of the concepts to load
+	 * @param conceptUuids the uuids of the concepts to load
+	 * @return the concepts found, in no particular order
+	 * @should load concepts by id and uuid
+	 * @should return an empty list if no ids or uuids are given
+	 */
+	@Transactional(readOnly=true)
+	public List<Concept> getConceptsWithNamesAndAnswers(Collection<Integer> conceptIds, Collection<String> conceptUuids);
+	
+	/**
+	 * Loads the non-retired concepts of the given classes with their names, in one query. Used to build
+	 * the in-memory index of the concept search of autocomplete fields.
+	 * 
+	 * @param conceptClasses the classes of the concepts to load
+	 * @return the concepts found, in no particular order
+	 * @should load the non-retired concepts of the given classes
+	 * @should return an empty list if no classes are given
+	 */
+	@Transactional(readOnly=true)
+	public List<Concept> getConceptsWithNames(Collection<ConceptClass> conceptClasses);
+	
+	/**
+	 * Returns a value that changes when rows of the given type are added or removed, or are created or
+	 * changed with a later date than the others. Caches of metadata compare it with the value they were
+	 * built with to tell when they are out of date, with one small query.
+	 * 
+	 * @param type the type of the rows
+	 * @return the number of rows and their latest creation and change dates, for the dates the type maps
+	 * @should change when a row is added
+	 * @should work for users and encounter types
+	 */
+	@Transactional(readOnly=true)
+	public String getChangeFingerprint(Class<? extends OpenmrsObject> type);
+	
+	/**
+	 * Loads the non-retired drugs with their concept, dosage form and route, in one query. Used to build
+	 * the in-memory index of the drug search of drug order fields.
+	 * 
+	 * @return the drugs, ordered by name
+	 * @should return the non-retired drugs ordered by name
+	 */
+	@Transactional(readOnly=true)
+	public List<Drug> getDrugsWithConcepts();
+	
+	/**
+	 * Fetches the most recent non-voided obs for the given person and concept, without loading the
+	 * person's other obs for the concept
+	 * 
+	 * @param person
+	 * @param concept
+	 * @return the obs with the latest obsDatetime, or null if there is none
+	 * @should return the most recent obs for the person and concept
+	 */
+	@Transactional(readOnly=true)
+	public Obs getLatestObs(Person person, Concept concept);
+	
+	/**
+	 * Fetches the earliest non-voided obs for the given person and concept, without loading the
+	 * person's other obs for the concept
+	 * 
+	 * @param person
+	 * @param concept
+	 * @return the obs with the earliest obsDatetime, or null if there is none
+	 * @should return the earliest obs for the person and concept
+	 */
+	@Transactional(readOnly=true)
+	public Obs getEarliestObs(Person person, Concept concept);
+	
+	/**
+	 * @param person
+	 * @param concept
+	 * @return the number of non-voided obs for the given person and concept
+	 * @should return the number of obs for the person and concept
+	 */
+	@Transactional(readOnly=true)
+	public Integer getObsCount(Person person, Concept concept);
+	
+	/**
+	 * Fetches the most recent non-voided encounter of the given type for the given patient, without
+	 * loading the patient's other encounters
+	 * 
+	 * @param patient
+	 * @param encounterType the type of encounter, or null for any type
+	 * @return the encounter with the latest encounterDatetime, or null if there is none
+	 * @should return the most recent encounter of the given type
+	 * @should return the most recent encounter of any type if no type is given
+	 */
+	@Transactional(readOnly=true)
+	public Encounter getLatestEncounter(Patient patient, EncounterType encounterType);
+	
+	/**
+	 * Returns the ids of the non-voided encounters entered with the given form, in ascending order.
+	 * Only the ids are loaded, so the encounters can then be fetched a page at a time with
+	 * {@link #getEncounters(List)}.
+	 * 
+	 * @param form
+	 * @param fromDate the earliest encounterDatetime to include, or null for no lower bound
+	 * @param toDate the latest encounterDatetime to include, or null for no upper bound
+	 * @return the encounter ids
+	 * @should return the ids of the encounters entered with the given form
+	 */
+	@Transactional(readOnly=true)
+	public List<Integer> getEncounterIds(Form form, Date fromDate, Date toDate);
+	
+	/**
+	 * @param encounterIds
+	 * @return the encounters with the given ids, in ascending order of id
+	 * @should return the encounters with the given ids
+	 */
+	@Transactional(readOnly=true)
+	public List<Encounter> getEncounters(List<Integer> encounterIds);
+	
+	/**
+	 * Returns the plan of the obs and obs groups of a form, which can be used to match the obs of many
+	 * encounters to the form without running its tags for each one (see {@link FormPlan}). The plan of
+	 * a saved form is kept until the form is changed. Since a form is compiled for the current locale and,
+	 * through {@code <restrictByRole>}, for the current user's roles, a plan is only shared with users
+	 * that see the same form.
+	 * 
+	 * @param htmlForm
+	 * @return the plan of the form
+	 * @should return the same plan until the form is changed
+	 * @should not share plans between users whose roles restrict the form differently
+	 */
+	@Transactional(readOnly=true)
+	public FormPlan getFormPlan(HtmlForm htmlForm);
+	
 	@Transactional
 	public void applyActions(FormEntrySession session) throws BadFormDesignException;
 }
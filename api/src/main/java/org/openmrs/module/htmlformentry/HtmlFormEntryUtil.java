@@ -89,6 +89,10 @@ public class HtmlFormEntryUtil {
 	
 	public static Log log = LogFactory.getLog(HtmlFormEntryUtil.class);
 	
+	private static final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+	
+	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+	
 	/**
 	 * Returns the HTML Form Entry service from the Context
 	 * 
@@ -273,8 +277,11 @@ public class HtmlFormEntryUtil {
 	 */
 	public static Document stringToDocument(String xml) throws Exception {
 		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
+			DocumentBuilder db;
+			// factories are not guaranteed to be thread-safe, but the builders they create are used by one thread only
+			synchronized (documentBuilderFactory) {
+				db = documentBuilderFactory.newDocumentBuilder();
+			}
 			Document document = db.parse(new InputSource(new StringReader(xml)));
 			return document;
 		}
@@ -292,18 +299,31 @@ public class HtmlFormEntryUtil {
 	 * @throws Exception
 	 */
 	public static String documentToString(Document document) throws Exception {
+		return documentToString(document, true);
+	}
+	
+	/**
+	 * Converts a Document object to an xml string
+	 * 
+	 * @param document the Document instance to convert
+	 * @param indent whether to indent the resulting xml (which adds whitespace to the document)
+	 * @return the resulting xml string
+	 * @throws Exception
+	 */
+	public static String documentToString(Document document, boolean indent) throws Exception {
 		//set up a transformer
 		Transformer trans = null;
-		TransformerFactory transfac = TransformerFactory.newInstance();
 
 		try {
-			trans = transfac.newTransformer();
+			synchronized (transformerFactory) {
+				trans = transformerFactory.newTransformer();
+			}
 		}
 		catch (TransformerException te) {
 			System.out.println(HtmlFormEntryConstants.ERROR_TRANSFORMER_1 + te);
 		}
 		trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, HtmlFormEntryConstants.CONSTANT_YES);
-		trans.setOutputProperty(OutputKeys.INDENT, HtmlFormEntryConstants.CONSTANT_YES);
+		trans.setOutputProperty(OutputKeys.INDENT, indent ? HtmlFormEntryConstants.CONSTANT_YES : HtmlFormEntryConstants.CONSTANT_NO);
 		trans.setOutputProperty(OutputKeys.METHOD, HtmlFormEntryConstants.CONSTANT_XML);
         trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
 		
@@ -488,6 +508,17 @@ public class HtmlFormEntryUtil {
 	 * @should find a concept by its mapping with a space in between
 	 */
 	public static Concept getConcept(String id) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || id == null) {
+			return lookupConcept(id);
+		}
+		if (cache.contains(Concept.class, id)) {
+			return cache.get(Concept.class, id);
+		}
+		return cache.put(Concept.class, id, lookupConcept(id));
+	}
+	
+	private static Concept lookupConcept(String id) {
 
 		Concept cpt = null;
 		
@@ -590,6 +621,27 @@ public class HtmlFormEntryUtil {
      * @should return null otherwise
      */
 	public static Location getLocation(String id, FormEntryContext context) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || id == null || isContextDependentLocation(id)) {
+			return lookupLocation(id, context);
+		}
+		if (cache.contains(Location.class, id)) {
+			return cache.get(Location.class, id);
+		}
+		return cache.put(Location.class, id, lookupLocation(id, context));
+	}
+	
+	/**
+	 * @return whether the location the given identifier refers to depends on the user, session or
+	 *         settings rather than only on the identifier itself
+	 */
+	private static boolean isContextDependentLocation(String id) {
+		id = id.trim();
+		return id.equals(HtmlFormEntryConstants.SYSTEM_DEFAULT) || id.startsWith("GlobalProperty:")
+		        || id.startsWith("UserProperty:") || id.startsWith("SessionAttribute:");
+	}
+	
+	private static Location lookupLocation(String id, FormEntryContext context) {
 
 		Location location = null;
 		
@@ -704,6 +756,17 @@ public class HtmlFormEntryUtil {
 	 * @should return null otherwise
 	 */
 	public static Program getProgram(String id) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || id == null) {
+			return lookupProgram(id);
+		}
+		if (cache.contains(Program.class, id)) {
+			return cache.get(Program.class, id);
+		}
+		return cache.put(Program.class, id, lookupProgram(id));
+	}
+	
+	private static Program lookupProgram(String id) {
 		
 		Program program = null;
 		
@@ -823,6 +886,17 @@ public class HtmlFormEntryUtil {
 	 * @should return null otherwise
 	 */
 	public static PatientIdentifierType getPatientIdentifierType(String id) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || id == null) {
+			return lookupPatientIdentifierType(id);
+		}
+		if (cache.contains(PatientIdentifierType.class, id)) {
+			return cache.get(PatientIdentifierType.class, id);
+		}
+		return cache.put(PatientIdentifierType.class, id, lookupPatientIdentifierType(id));
+	}
+	
+	private static PatientIdentifierType lookupPatientIdentifierType(String id) {
 		PatientIdentifierType identifierType = null;
 		
 		if (id != null) {
@@ -864,6 +938,18 @@ public class HtmlFormEntryUtil {
 	 */
 	@SuppressWarnings("deprecation")
 	public static ProgramWorkflow getWorkflow(String identifier) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || identifier == null) {
+			return lookupWorkflow(identifier);
+		}
+		if (cache.contains(ProgramWorkflow.class, identifier)) {
+			return cache.get(ProgramWorkflow.class, identifier);
+		}
+		return cache.put(ProgramWorkflow.class, identifier, lookupWorkflow(identifier));
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static ProgramWorkflow lookupWorkflow(String identifier) {
 		ProgramWorkflow workflow = null;
 		
 		if (identifier != null) {
@@ -1073,6 +1159,18 @@ public class HtmlFormEntryUtil {
 	 */
 	@SuppressWarnings("deprecation")
 	public static ProgramWorkflowState getState(String identifier) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || identifier == null) {
+			return lookupState(identifier);
+		}
+		if (cache.contains(ProgramWorkflowState.class, identifier)) {
+			return cache.get(ProgramWorkflowState.class, identifier);
+		}
+		return cache.put(ProgramWorkflowState.class, identifier, lookupState(identifier));
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static ProgramWorkflowState lookupState(String identifier) {
 		ProgramWorkflowState state = null;
 		
 		if (identifier != null) {
@@ -1190,7 +1288,7 @@ public class HtmlFormEntryUtil {
 			Map<Order, Order> replacementOrders = new HashMap<Order, Order>();//new, then source
 			Encounter eTmp = returnEncounterCopy(e, replacementObs, replacementOrders);
 			FormEntrySession session = new FormEntrySession(eTmp.getPatient(), eTmp, Mode.VIEW, htmlform, null); // session gets a null HttpSession
-            session.getHtmlToDisplay();
+			session.analyzeForm();
 			List<FormSubmissionControllerAction> actions = session.getSubmissionController().getActions();
 			Set<Obs> matchedObs = new HashSet<Obs>();
 			Set<Order> matchedOrders = new HashSet<Order>();
@@ -1700,6 +1798,17 @@ public class HtmlFormEntryUtil {
 	 * @should return null otherwise
 	 */
 	public static EncounterType getEncounterType(String id) {
+		MetadataResolutionCache cache = MetadataResolutionCache.getCurrent();
+		if (cache == null || id == null) {
+			return lookupEncounterType(id);
+		}
+		if (cache.contains(EncounterType.class, id)) {
+			return cache.get(EncounterType.class, id);
+		}
+		return cache.put(EncounterType.class, id, lookupEncounterType(id));
+	}
+	
+	private static EncounterType lookupEncounterType(String id) {
 		
 		EncounterType encounterType = null;
 		
@@ -1,12 +1,15 @@
 package org.openmrs.module.htmlformentry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -27,7 +30,8 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.handler.AttributeDescriptor;
-import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.substitution.AttributeDescriptorIndex;
+import org.openmrs.module.htmlformentry.substitution.AttributeDescriptorIndex.Occurrence;
 import org.openmrs.module.htmlformentry.substitution.HtmlFormSubstitutionUtils;
 import org.openmrs.order.DrugSuggestion;
 import org.openmrs.order.RegimenSuggestion;
@@ -74,7 +78,6 @@ public class HtmlFormExporter {
 		return copy;
 	}
 	
-	@SuppressWarnings("unchecked")
 	private void calculateDependencies() {
 		Set<OpenmrsObject> dependencies = new HashSet<OpenmrsObject>();
 		
@@ -95,127 +98,161 @@ public class HtmlFormExporter {
 			throw new APIException("Unable to process macros and templates when processing form to make it shareable", e);
 		}
 		
-		// now we need to loop through the attributes to find what dependencies we need to look for
-		// fetch the tag handlers so we can gain access to the attribute descriptors
-		Map<String, TagHandler> tagHandlers = Context.getService(HtmlFormEntryService.class).getHandlers();
+		// now we need to find all the attributes that reference OpenmrsObjects, which we do in one pass using the
+		// attribute descriptors of the registered tag handlers, and collect the ids referenced for each class (the same
+		// object is often referenced many times in a form, but only needs to be looked up once)
+		Map<Class<?>, Set<String>> references = new LinkedHashMap<Class<?>, Set<String>>();
+		for (Occurrence occurrence : AttributeDescriptorIndex.forRegisteredHandlers().findOccurrences(xml)) {
+			for (AttributeDescriptor attributeDescriptor : occurrence.getDescriptors()) {
+				Class<?> clazz = attributeDescriptor.getClazz();
+				if (classesNotToExport.contains(clazz)) {
+					continue;
+				}
+				Set<String> ids = references.get(clazz);
+				if (ids == null) {
+					ids = new LinkedHashSet<String>();
+					references.put(clazz, ids);
+				}
+				// split the attribute value into the various ids
+				ids.addAll(Arrays.asList(occurrence.getValue(xml).split(",")));
+			}
+		}
 		
-		// loop through all the attribute descriptors for the registered handlers
-		for (String tagName : tagHandlers.keySet()) {
-			log.debug("Handling dependencies for tag " + tagName);
-
-			if (tagHandlers.get(tagName).getAttributeDescriptors() != null) {
-				for (AttributeDescriptor attributeDescriptor : tagHandlers.get(tagName).getAttributeDescriptors()) {
-					if (attributeDescriptor.getClazz() != null && !classesNotToExport.contains(attributeDescriptor.getClazz())) {
+		// then resolve them, in bulk where we can
+		for (Map.Entry<Class<?>, Set<String>> e : references.entrySet()) {
+			resolveDependencies(dependencies, e.getKey(), e.getValue());
+		}
+		formToExport.setDependencies(dependencies);
+	}
+	
+	/**
+	 * Adds the objects referenced by the given ids, in attributes that reference objects of the given class.
+	 * Objects referenced by uuid or by name are fetched with a few queries for all the ids.
+	 */
+	@SuppressWarnings("unchecked")
+	private void resolveDependencies(Set<OpenmrsObject> dependencies, Class<?> clazz, Set<String> ids) {
+		HtmlFormEntryService service = Context.getService(HtmlFormEntryService.class);
+		
+		// if an id matches a uuid pattern, try to fetch the object by uuid
+		Map<String, OpenmrsObject> byUuid = Collections.emptyMap();
+		if (OpenmrsObject.class.isAssignableFrom(clazz)) {
+			List<String> uuids = new ArrayList<String>();
+			for (String id : ids) {
+				if (HtmlFormEntryUtil.isValidUuidFormat(id)) {
+					uuids.add(id);
+				}
+			}
+			if (!uuids.isEmpty()) {
+				byUuid = service.getItemsByUuid((Class<? extends OpenmrsObject>) clazz, uuids);
+			}
+		}
+		
+		// if we haven't found anything by uuid, try by name
+		Map<String, OpenmrsObject> byName = Collections.emptyMap();
+		if (OpenmrsMetadata.class.isAssignableFrom(clazz)) {
+			List<String> names = new ArrayList<String>();
+			for (String id : ids) {
+				if (!byUuid.containsKey(id)) {
+					names.add(id);
+				}
+			}
+			if (!names.isEmpty()) {
+				byName = service.getItemsByName((Class<? extends OpenmrsMetadata>) clazz, names);
+			}
+		}
+		
+		for (String id : ids) {
+			addDependency(dependencies, clazz, id, byUuid.get(id), byName.get(id.toLowerCase()));
+		}
+	}
+	
+	/**
+	 * Adds the object referenced by an id in an attribute that references objects of the given class
+	 * 
+	 * @param byUuid the object with the id as uuid, if any
+	 * @param byName the object with the id as name, if any
+	 */
+	private void addDependency(Set<OpenmrsObject> dependencies, Class<?> clazz, String id, OpenmrsObject byUuid,
+	                           OpenmrsObject byName) {
+		// if this id matches a uuid pattern, use the object fetched by uuid
+		if (byUuid != null) {
+			//special handling of Form -- if passed a Form, see if it can be passed along as  HtmlForm
+			if (Form.class.equals(clazz)) {
+				Form form = (Form) byUuid;
+				HtmlForm htmlForm = Context.getService(HtmlFormEntryService.class).getHtmlFormByForm(form);
+				if (htmlForm != null){
+					dependencies.add(htmlForm);
+					return;
+				}
+			}
+			dependencies.add(byUuid);
+			return;
+		}
 
-						// build the attribute string we are searching for
-						// pattern matches <tagName .* attribute="[anything]"; group(1) is set to [anything]
-						// to break down the regex in detail, ?: simply means that we don't want include this grouping in the groups that we backreference;
-						// the grouping itself is an "or", that matches either "\\s" (a single whitespace character) or
-						// "\\s[^>]*\\s" (a single whitespace character plus 0 to n characters of any type but a >, followed by another single whitespace character)
-						String pattern = "<" + tagName + "(?:\\s|\\s[^>]*\\s)" + attributeDescriptor.getName() + "=\"(.*?)\"";
-						log.debug("dependency substitution pattern: " + pattern);
-						
-						// now search through and find all matches
-						Matcher matcher = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(xml);
-						while (matcher.find()) {
-							// split the matched result group into the various ids
-							String[] ids = matcher.group(1).split(",");
-							
-							for (String id : ids) {
-								// if this id matches a uuid pattern, try to fetch the object by uuid
-								if (HtmlFormEntryUtil.isValidUuidFormat(id) && OpenmrsObject.class.isAssignableFrom(attributeDescriptor.getClazz())) {
-									OpenmrsObject object = Context.getService(HtmlFormEntryService.class).getItemByUuid(
-									    (Class<? extends OpenmrsObject>) attributeDescriptor.getClazz(), id);
-									if (object != null) {
-										//special handling of Form -- if passed a Form, see if it can be passed along as  HtmlForm
-										if (Form.class.equals(attributeDescriptor.getClazz())) {
-											Form form = (Form) object;
-											HtmlForm htmlForm = Context.getService(HtmlFormEntryService.class).getHtmlFormByForm(form);
-											if (htmlForm != null){
-												dependencies.add(htmlForm);
-												continue;
-											}
-										}
-										dependencies.add(object);
-										continue;
-									}
-								}
-								
-								// if we haven't found anything by uuid, try by name
-								if (OpenmrsMetadata.class.isAssignableFrom(attributeDescriptor.getClazz())) {
-									OpenmrsObject object = Context.getService(HtmlFormEntryService.class).getItemByName(
-									    (Class<? extends OpenmrsMetadata>) attributeDescriptor.getClazz(), id);
-									if (object != null) {
-										dependencies.add(object);
-										continue;
-									}
-								}
-								// finally, handle any special cases
-								// if it's a concept, we also need to handle concepts referenced by map
-								if (Concept.class.equals(attributeDescriptor.getClazz())) {
-									Concept concept = HtmlFormEntryUtil.getConcept(id);
-									if (concept != null) {
-										dependencies.add(concept);
-										continue;
-									}
-								}
-								// need to handle the special case where a program "name" is considered the "name" of the underlying concept
-								if (Program.class.equals(attributeDescriptor.getClazz())) {
-									Program program = HtmlFormEntryUtil.getProgram(id);
-									if (program != null) {
-										dependencies.add(program);
-										continue;
-									}
-								}
-								// need to handle the special case where a program workflow is specified by a concept map pointing to it's underlying concept
-								// note that we shouldn't have to handle program workflow states because they should always be picked up when sharing the overriding program and/or program workflow
-								if (ProgramWorkflow.class.equals(attributeDescriptor.getClazz())) {
-									ProgramWorkflow workflow = HtmlFormEntryUtil.getWorkflow(id);
-									if (workflow != null) {
-										dependencies.add(workflow);
-									}
-								}
-								// need to special case of the name of a role
-								if (Role.class.equals(attributeDescriptor.getClazz())) {
-									Role role = Context.getUserService().getRole(id);
-									if (role != null) {
-										dependencies.add(role);
-										continue;
-									}
-								}
-								//RelationshipType from the relationship tag, in case of lookup by name (which may or may not be implemented yet...)
-								if (RelationshipType.class.equals(attributeDescriptor.getClazz())) {
-									RelationshipType relationshipType = Context.getPersonService().getRelationshipTypeByName(id);
-									if (relationshipType != null) {
-										dependencies.add(relationshipType);
-										continue;
-									}
-								}
-								//RegimenSuggestion -- see global property 'dashboard.regimen.standardRegimens'
-								if (RegimenSuggestion.class.equals(attributeDescriptor.getClazz())){
-									List<RegimenSuggestion> stRegimens = Context.getOrderService().getStandardRegimens();
-									if (stRegimens != null){
-										ConceptService cs = Context.getConceptService();
-										for (RegimenSuggestion rs : stRegimens){
-											if (rs.getCodeName().equals(id) && rs.getDrugComponents() != null){
-												for (DrugSuggestion ds : rs.getDrugComponents()){
-													Drug drug = cs.getDrugByNameOrId(ds.getDrugId());
-													if (drug == null)
-														 drug = cs.getDrugByUuid(ds.getDrugId());
-													if (drug != null)
-														dependencies.add(drug);
-												}
-											}
-										}
-									}
-								}
-							}
+		// if we haven't found anything by uuid, use the object fetched by name
+		if (byName != null) {
+			dependencies.add(byName);
+			return;
+		}
+		// finally, handle any special cases
+		// if it's a concept, we also need to handle concepts referenced by map
+		if (Concept.class.equals(clazz)) {
+			Concept concept = HtmlFormEntryUtil.getConcept(id);
+			if (concept != null) {
+				dependencies.add(concept);
+				return;
+			}
+		}
+		// need to handle the special case where a program "name" is considered the "name" of the underlying concept
+		if (Program.class.equals(clazz)) {
+			Program program = HtmlFormEntryUtil.getProgram(id);
+			if (program != null) {
+				dependencies.add(program);
+				return;
+			}
+		}
+		// need to handle the special case where a program workflow is specified by a concept map pointing to it's underlying concept
+		// note that we shouldn't have to handle program workflow states because they should always be picked up when sharing the overriding program and/or program workflow
+		if (ProgramWorkflow.class.equals(clazz)) {
+			ProgramWorkflow workflow = HtmlFormEntryUtil.getWorkflow(id);
+			if (workflow != null) {
+				dependencies.add(workflow);
+			}
+		}
+		// need to special case of the name of a role
+		if (Role.class.equals(clazz)) {
+			Role role = Context.getUserService().getRole(id);
+			if (role != null) {
+				dependencies.add(role);
+				return;
+			}
+		}
+		//RelationshipType from the relationship tag, in case of lookup by name (which may or may not be implemented yet...)
+		if (RelationshipType.class.equals(clazz)) {
+			RelationshipType relationshipType = Context.getPersonService().getRelationshipTypeByName(id);
+			if (relationshipType != null) {
+				dependencies.add(relationshipType);
+				return;
+			}
+		}
+		//RegimenSuggestion -- see global property 'dashboard.regimen.standardRegimens'
+		if (RegimenSuggestion.class.equals(clazz)){
+			List<RegimenSuggestion> stRegimens = Context.getOrderService().getStandardRegimens();
+			if (stRegimens != null){
+				ConceptService cs = Context.getConceptService();
+				for (RegimenSuggestion rs : stRegimens){
+					if (rs.getCodeName().equals(id) && rs.getDrugComponents() != null){
+						for (DrugSuggestion ds : rs.getDrugComponents()){
+							Drug drug = cs.getDrugByNameOrId(ds.getDrugId());
+							if (drug == null)
+								 drug = cs.getDrugByUuid(ds.getDrugId());
+							if (drug != null)
+								dependencies.add(drug);
 						}
 					}
 				}
 			}
 		}
-		formToExport.setDependencies(dependencies);
 	}
 	
 	/**
@@ -238,51 +275,37 @@ public class HtmlFormExporter {
     }
 
 	private void stripLocalAttributesFromXml() {
-		// get the tag handlers so we can gain access to the attribute descriptors
-		Map<String, TagHandler> tagHandlers = Context.getService(HtmlFormEntryService.class).getHandlers();
+		String xml = formToExport.getXmlData();
+		StringBuilder buffer = new StringBuilder();
+		int copiedTo = 0;
 		
-		// loop through all the attribute descriptors for this
-		for (String tagName : tagHandlers.keySet()) {
-			log.debug("Handling dependencies for tag " + tagName);
-			
-			if (tagHandlers.get(tagName).getAttributeDescriptors() != null) {
-				for (AttributeDescriptor attributeDescriptor : tagHandlers.get(tagName).getAttributeDescriptors()) {
-					if (attributeDescriptor.getClazz() != null) {
-						// build the attribute string we are searching for
-						// pattern matches <tagName .* attribute="[anything]"; group(1) is set to attribute="[anything]"
-						// see above mehtod for more detail
-						String stripPattern = "<" + tagName + "(?:\\s|\\s[^>]*\\s)(" + attributeDescriptor.getName() + "=\".*?\")";
-						log.debug("stripping substitution pattern: " + stripPattern);
-						
-						if (!this.includeLocations && attributeDescriptor.getClazz().equals(Location.class)) {
-							stripLocalAttributesFromXmlHelper(Pattern.compile(stripPattern, Pattern.CASE_INSENSITIVE));
-						} else if (!this.includePersons && attributeDescriptor.getClazz().equals(Person.class)) {
-							stripLocalAttributesFromXmlHelper(Pattern.compile(stripPattern, Pattern.CASE_INSENSITIVE));
-						} else if (!this.includeRoles && attributeDescriptor.getClazz().equals(Role.class)) {
-							stripLocalAttributesFromXmlHelper(Pattern.compile(stripPattern, Pattern.CASE_INSENSITIVE));
-						} else if (!this.includePatientIdentifierTypes
-						        && attributeDescriptor.getClazz().equals(PatientIdentifierType.class)) {
-							stripLocalAttributesFromXmlHelper(Pattern.compile(stripPattern, Pattern.CASE_INSENSITIVE));
-						}
-					}
-				}
+		// find all the attributes that reference OpenmrsObjects, using the attribute descriptors of the registered tag handlers
+		for (Occurrence occurrence : AttributeDescriptorIndex.forRegisteredHandlers().findOccurrences(xml)) {
+			if (shouldStrip(occurrence)) {
+				// remove attribute="[anything]", leaving the whitespace before it
+				log.debug("stripping " + occurrence.getAttributeName() + " from " + occurrence.getTagName());
+				buffer.append(xml, copiedTo, occurrence.getAttributeStart());
+				copiedTo = occurrence.getValueEnd() + 1;
 			}
 		}
+		
+		if (copiedTo > 0) {
+			buffer.append(xml, copiedTo, xml.length());
+			formToExport.setXmlData(buffer.toString());
+		}
 	}
 	
-	private void stripLocalAttributesFromXmlHelper(Pattern pattern) {
-		
-		Matcher matcher = pattern.matcher(formToExport.getXmlData());
-		StringBuffer buffer = new StringBuffer();
-		
-		// search through the xml data for the Pattern specified in the pattern parameter, and remove group(1)
-		while (matcher.find()) {
-			matcher.appendReplacement(buffer, matcher.group().substring(0, matcher.start(1) - matcher.start()));
+	private boolean shouldStrip(Occurrence occurrence) {
+		for (AttributeDescriptor attributeDescriptor : occurrence.getDescriptors()) {
+			Class<?> clazz = attributeDescriptor.getClazz();
+			if ((!this.includeLocations && clazz.equals(Location.class))
+			        || (!this.includePersons && clazz.equals(Person.class))
+			        || (!this.includeRoles && clazz.equals(Role.class))
+			        || (!this.includePatientIdentifierTypes && clazz.equals(PatientIdentifierType.class))) {
+				return true;
+			}
 		}
-		
-		matcher.appendTail(buffer);
-		
-		formToExport.setXmlData(buffer.toString());
+		return false;
 	}
 	
 	public HtmlForm export(Boolean includeLocations, Boolean includePersons, Boolean includeRoles,
@@ -0,0 +1,259 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+
+/**
+ * Memoizes the identifier to metadata lookups done by {@link HtmlFormEntryUtil} (concepts, locations,
+ * programs, workflows, states, encounter types and identifier types) for the lifetime of a single
+ * {@link FormEntrySession}. Negative results are remembered as well, so an identifier that does not
+ * resolve is only looked up once per session.
+ * <p/>
+ * The cache of a session is held by its {@link FormEntryContext}, and is made visible to the static
+ * lookup methods by binding it to the current thread while the session generates, validates or
+ * submits a form:
+ *
+ * <pre>
+ * MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+ * try {
+ * 	...
+ * }
+ * finally {
+ * 	MetadataResolutionCache.bind(previous);
+ * }
+ * </pre>
+ *
+ * When the {@link HtmlFormEntryConstants#GP_SHARED_METADATA_RESOLUTION_CACHE} global property is
+ * true, successful lookups are also remembered across sessions. Only the primary key of the resolved
+ * object is shared, and each session loads the object again by that key, so sessions never share
+ * Hibernate-managed instances. Negative results are never shared, since the metadata may be created
+ * later. The shared results are dropped whenever metadata is changed through the API (see
+ * {@link MetadataChangeAdvice}), and only the {@link #SHARED_CACHE_MAX_SIZE} most recently used ones
+ * are kept.
+ * <p/>
+ * Hits and misses are counted for each session, and in total for the server (see
+ * {@link #getTotalHitCount()}), which is shown on the metrics page.
+ */
+public class MetadataResolutionCache {
+
+	private static final Object NOT_FOUND = new Object();
+
+	private static final ThreadLocal<MetadataResolutionCache> current = new ThreadLocal<MetadataResolutionCache>();
+
+	/**
+	 * Maximum number of results kept in the cache shared across sessions
+	 */
+	public static final int SHARED_CACHE_MAX_SIZE = 10000;
+
+	private static final Map<String, Integer> sharedIds = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(
+	        16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > SHARED_CACHE_MAX_SIZE;
+		}
+	});
+
+	private static final AtomicLong totalHitCount = new AtomicLong();
+
+	private static final AtomicLong totalMissCount = new AtomicLong();
+
+	private static final AtomicLong totalSharedHitCount = new AtomicLong();
+
+	private final Map<String, Object> resolved = new HashMap<String, Object>();
+
+	private Boolean useSharedCache;
+
+	private long hitCount = 0;
+
+	private long missCount = 0;
+
+	private long sharedHitCount = 0;
+
+	public MetadataResolutionCache() {
+	}
+
+	/**
+	 * @param useSharedCache whether to use the cache shared across sessions; if null, the
+	 *            {@link HtmlFormEntryConstants#GP_SHARED_METADATA_RESOLUTION_CACHE} global property
+	 *            is checked on first use
+	 */
+	public MetadataResolutionCache(Boolean useSharedCache) {
+		this.useSharedCache = useSharedCache;
+	}
+
+	/**
+	 * Binds the given cache to the current thread, so that it is used by the lookup methods of
+	 * {@link HtmlFormEntryUtil}
+	 *
+	 * @param cache the cache to bind, or null to unbind
+	 * @return the cache that was previously bound to the current thread, if any
+	 */
+	public static MetadataResolutionCache bind(MetadataResolutionCache cache) {
+		MetadataResolutionCache previous = current.get();
+		if (cache == null) {
+			current.remove();
+		} else {
+			current.set(cache);
+		}
+		return previous;
+	}
+
+	/**
+	 * @return the cache bound to the current thread, or null if there is none
+	 */
+	public static MetadataResolutionCache getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * Clears the cache shared across sessions, e.g. after metadata was changed
+	 */
+	public static void clearSharedCache() {
+		sharedIds.clear();
+	}
+
+	/**
+	 * Returns whether a result, possibly null, is cached for the given identifier. If it is not
+	 * cached in this session but is known to the shared cache, it is loaded by primary key and cached
+	 * in this session.
+	 *
+	 * @param type the type of object being looked up
+	 * @param identifier the identifier used for the lookup
+	 * @return true if {@link #get(Class, String)} will return the result of the lookup
+	 * @should return false for an identifier that has not been resolved
+	 * @should return true for a negative result
+	 * @should return the cached result of a previous lookup
+	 * @should count hits and misses
+	 * @should not cache locations that depend on the session
+	 * @should not share results across sessions once metadata has changed
+	 * @should keep sharing results across sessions when an encounter is saved
+	 */
+	public boolean contains(Class<? extends OpenmrsObject> type, String identifier) {
+		String key = getKey(type, identifier);
+		if (resolved.containsKey(key)) {
+			hitCount++;
+			totalHitCount.incrementAndGet();
+			return true;
+		}
+		if (isUsingSharedCache()) {
+			Integer id = sharedIds.get(key);
+			if (id != null) {
+				OpenmrsObject item = HtmlFormEntryUtil.getService().getItemById(type, id);
+				if (item != null) {
+					resolved.put(key, item);
+					hitCount++;
+					sharedHitCount++;
+					totalHitCount.incrementAndGet();
+					totalSharedHitCount.incrementAndGet();
+					return true;
+				}
+				sharedIds.remove(key);
+			}
+		}
+		missCount++;
+		totalMissCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * @param type the type of object being looked up
+	 * @param identifier the identifier used for the lookup
+	 * @return the cached result, or null if the cached result is that no object was found
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends OpenmrsObject> T get(Class<T> type, String identifier) {
+		Object value = resolved.get(getKey(type, identifier));
+		return value == NOT_FOUND ? null : (T) value;
+	}
+
+	/**
+	 * Caches the result of a lookup
+	 *
+	 * @param type the type of object being looked up
+	 * @param identifier the identifier used for the lookup
+	 * @param value the result of the lookup, or null if no object was found
+	 * @return the value
+	 */
+	public <T extends OpenmrsObject> T put(Class<T> type, String identifier, T value) {
+		String key = getKey(type, identifier);
+		resolved.put(key, value == null ? NOT_FOUND : value);
+		if (value != null && value.getId() != null && isUsingSharedCache()) {
+			sharedIds.put(key, value.getId());
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number of lookups that were answered by the cache
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of lookups that had to go to the service layer
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of hits that were answered by the cache shared across sessions (these still
+	 *         load the object by primary key)
+	 */
+	public long getSharedHitCount() {
+		return sharedHitCount;
+	}
+
+	/**
+	 * @return the number of lookups answered by the caches of all sessions since the counters were reset
+	 */
+	public static long getTotalHitCount() {
+		return totalHitCount.get();
+	}
+
+	/**
+	 * @return the number of lookups the caches of all sessions could not answer since the counters were
+	 *         reset
+	 */
+	public static long getTotalMissCount() {
+		return totalMissCount.get();
+	}
+
+	/**
+	 * @return the number of hits answered by the cache shared across sessions since the counters were
+	 *         reset
+	 */
+	public static long getTotalSharedHitCount() {
+		return totalSharedHitCount.get();
+	}
+
+	/**
+	 * Resets the counters of all sessions
+	 */
+	public static void resetTotals() {
+		totalHitCount.set(0);
+		totalMissCount.set(0);
+		totalSharedHitCount.set(0);
+	}
+
+	private boolean isUsingSharedCache() {
+		if (useSharedCache == null) {
+			useSharedCache = HtmlFormEntryGlobalProperties.SHARED_METADATA_RESOLUTION_CACHE();
+		}
+		return useSharedCache;
+	}
+
+	private String getKey(Class<?> type, String identifier) {
+		return type.getName() + "|" + identifier;
+	}
+}
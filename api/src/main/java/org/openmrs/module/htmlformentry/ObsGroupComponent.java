@@ -28,6 +28,8 @@ public class ObsGroupComponent {
 	/** Logger for this class and subclasses */
 	protected final static Log log = LogFactory.getLog(ObsGroupComponent.class);
 
+	private final static String OBS_GROUP_PATH_KEY = "htmlformentry.obsGroupPath";
+
 	public ObsGroupComponent() {
 	}
 
@@ -252,11 +254,21 @@ public class ObsGroupComponent {
 	/**
 	 * 
 	 * returns the obsgroup hierarchy path of an obsgroup node in the xml, including itself
+	 * (the path is remembered on the node, so the grouping concepts are only resolved once per node)
 	 * 
 	 * @param node
 	 * @return
 	 */
 	public static String getObsGroupPath(Node node){
+		String path = (String) node.getUserData(OBS_GROUP_PATH_KEY);
+		if (path == null) {
+			path = calculateObsGroupPath(node);
+			node.setUserData(OBS_GROUP_PATH_KEY, path, null);
+		}
+		return path;
+	}
+
+	private static String calculateObsGroupPath(Node node){
 		StringBuilder st = new StringBuilder();
 		while (!node.getNodeName().equals("htmlform")){
 			if (node.getNodeName().equals("obsgroup")){
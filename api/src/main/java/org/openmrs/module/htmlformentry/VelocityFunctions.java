@@ -21,8 +21,11 @@ import org.openmrs.logic.result.EmptyResult;
 import org.openmrs.logic.result.Result;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public class VelocityFunctions {
@@ -32,6 +35,14 @@ public class VelocityFunctions {
 	private LogicService logicService;
 	private ProgramWorkflowService programWorkflowService;
 	
+	// the results of patient data queries are remembered for the rest of the session, since forms often call the
+	// same function with the same arguments in several places
+	private Map<Integer, List<Obs>> allObsCache = new HashMap<Integer, List<Obs>>();
+	private Map<Integer, Obs> latestObsCache = new HashMap<Integer, Obs>();
+	private Map<Integer, Obs> earliestObsCache = new HashMap<Integer, Obs>();
+	private Map<Integer, Integer> obsCountCache = new HashMap<Integer, Integer>();
+	private Map<EncounterType, Encounter> latestEncounterCache = new HashMap<EncounterType, Encounter>();
+	
 	public VelocityFunctions(FormEntrySession session) {
 		this.session = session;
 	}
@@ -58,7 +69,18 @@ public class VelocityFunctions {
 		if ("testing-html-form-entry".equals(session.getPatient().getUuid()))
 			throw new CannotBePreviewedException();
     }
+	
+	/**
+	 * @return whether the session's patient has been saved, and so may have data to query
+	 */
+	private boolean hasSavedPatient() {
+		return session.getPatient() != null && session.getPatient().getPatientId() != null;
+	}
 
+	/**
+	 * @return all the obs of the passed conceptId, which may not be changed
+	 * @should not let the cached obs be changed
+	 */
 	public List<Obs> allObs(Integer conceptId) {
 		if (session.getPatient() == null)
 			return new ArrayList<Obs>();
@@ -66,20 +88,32 @@ public class VelocityFunctions {
 		Patient p = session.getPatient();
 		if (p == null)
 			return new ArrayList<Obs>();
-		else
-			return getObsService().getObservationsByPersonAndConcept(p, new Concept(conceptId));
+		else {
+			List<Obs> obs = allObsCache.get(conceptId);
+			if (obs == null) {
+				obs = getObsService().getObservationsByPersonAndConcept(p, new Concept(conceptId));
+				allObsCache.put(conceptId, obs);
+			}
+			// the list is kept for later calls, so a template must not change it
+			return Collections.unmodifiableList(obs);
+		}
 	}
 	
 	/**
 	 * @return the most recent obs given the passed conceptId
 	 * @should return the most recent obs given the passed conceptId
+	 * @should only query once for the same conceptId
 	 */
 	public Obs latestObs(Integer conceptId) {
-		List<Obs> obs = allObs(conceptId);
-		if (obs == null || obs.isEmpty())
+		if (session.getPatient() == null)
 			return null;
-		else
-			return obs.get(0);
+		cannotBePreviewed();
+		if (!hasSavedPatient())
+			return null;
+		if (!latestObsCache.containsKey(conceptId)) {
+			latestObsCache.put(conceptId, HtmlFormEntryUtil.getService().getLatestObs(session.getPatient(), new Concept(conceptId)));
+		}
+		return latestObsCache.get(conceptId);
 	}
 	
 	/**
@@ -87,11 +121,33 @@ public class VelocityFunctions {
 	 * @should return the first obs given the passed conceptId
 	 */
 	public Obs earliestObs(Integer conceptId) {
-		List<Obs> obs = allObs(conceptId);
-		if (obs == null || obs.isEmpty())
+		if (session.getPatient() == null)
 			return null;
-		else
-			return obs.get(obs.size() - 1);
+		cannotBePreviewed();
+		if (!hasSavedPatient())
+			return null;
+		if (!earliestObsCache.containsKey(conceptId)) {
+			earliestObsCache.put(conceptId, HtmlFormEntryUtil.getService().getEarliestObs(session.getPatient(), new Concept(conceptId)));
+		}
+		return earliestObsCache.get(conceptId);
+	}
+	
+	/**
+	 * @return the number of obs given the passed conceptId
+	 * @should return the number of obs given the passed conceptId
+	 */
+	public Integer countObs(Integer conceptId) {
+		if (session.getPatient() == null)
+			return 0;
+		cannotBePreviewed();
+		if (!hasSavedPatient())
+			return 0;
+		Integer count = obsCountCache.get(conceptId);
+		if (count == null) {
+			count = HtmlFormEntryUtil.getService().getObsCount(session.getPatient(), new Concept(conceptId));
+			obsCountCache.put(conceptId, count);
+		}
+		return count;
 	}
 	
 	/**
@@ -126,13 +182,17 @@ public class VelocityFunctions {
 	 * @should return the most recent encounter of any type if no type specified
 	 */
 	public Encounter latestEncounter(EncounterType type) {
-		List<Encounter> encounters = allEncounters(type);
-		if (encounters == null || encounters.isEmpty()) {
+		if (session.getPatient() == null) {
 			return null;
 		}
-		else {
-			return encounters.get(encounters.size() - 1);
+		cannotBePreviewed();
+		if (!hasSavedPatient()) {
+			return null;
+		}
+		if (!latestEncounterCache.containsKey(type)) {
+			latestEncounterCache.put(type, HtmlFormEntryUtil.getService().getLatestEncounter(session.getPatient(), type));
 		}
+		return latestEncounterCache.get(type);
 	}
 	
 	/**
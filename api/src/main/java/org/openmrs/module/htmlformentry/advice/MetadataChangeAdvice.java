@@ -0,0 +1,125 @@
+package org.openmrs.module.htmlformentry.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.htmlformentry.MetadataResolutionCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Counts the changes made through the core services it advises (see the advice section of config.xml),
+ * so that caches built from their data can tell when they are out of date. A cache remembers the
+ * {@link #getVersion(Class)} of the service it was built from, and is rebuilt once the version changes.
+ * Each change to metadata (i.e. to anything but the patient data types in {@link #PATIENT_DATA_TYPES})
+ * also clears the results that {@link MetadataResolutionCache} shares across sessions, so that saving
+ * encounters, patients or program enrollments leaves them alone.
+ * <p/>
+ * Any method whose name starts with one of {@link #CHANGE_METHOD_PREFIXES} is counted as a change.
+ * The rest of the name is taken as the type that was changed (e.g. saveEncounterType changes
+ * EncounterType), and each type has a version of its own (see {@link #getTypeVersion(Class)}), so
+ * that caches of one kind of metadata are not rebuilt each time an encounter or a patient is saved.
+ * Changes made outside of the API, e.g. directly in the database, are not seen.
+ */
+public class MetadataChangeAdvice implements AfterReturningAdvice {
+
+	private static final String[] CHANGE_METHOD_PREFIXES = { "save", "create", "update", "purge", "delete", "retire",
+	        "unretire", "void", "unvoid", "merge" };
+
+	// the simple names of the types changed by saving patient data, see getChangedType
+	private static final Set<String> PATIENT_DATA_TYPES = new HashSet<String>(Arrays.asList("Encounter", "Obs",
+	    "Observation", "Person", "Patient", "Patients", "DuplicatePatients", "PersonName", "PersonAddress",
+	    "PersonAttribute", "PatientIdentifier", "PatientProgram", "PatientState", "Relationship", "Order", "DrugOrder"));
+
+	private static final ConcurrentMap<Class<?>, AtomicLong> versions = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	// by the simple name of the changed type
+	private static final ConcurrentMap<String, AtomicLong> typeVersions = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object, java.lang.reflect.Method,
+	 *      java.lang.Object[], java.lang.Object)
+	 * @should only change the version of the changed type
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (isChange(method.getName())) {
+			changed(method.getDeclaringClass());
+			String changedType = getChangedType(method.getName());
+			increment(typeVersions, changedType);
+			if (!PATIENT_DATA_TYPES.contains(changedType)) {
+				MetadataResolutionCache.clearSharedCache();
+			}
+		}
+	}
+
+	/**
+	 * @param service the service interface, e.g. ConceptService
+	 * @return a number that changes each time data is changed through the service
+	 */
+	public static long getVersion(Class<?> service) {
+		AtomicLong version = versions.get(service);
+		return version == null ? 0 : version.get();
+	}
+
+	/**
+	 * @param type the type of the data, e.g. Location
+	 * @return a number that changes each time data of the type is changed through an advised service
+	 */
+	public static long getTypeVersion(Class<?> type) {
+		AtomicLong version = typeVersions.get(type.getSimpleName());
+		return version == null ? 0 : version.get();
+	}
+
+	/**
+	 * Records that data was changed through the given service
+	 *
+	 * @param service the service interface, e.g. ConceptService
+	 */
+	public static void changed(Class<?> service) {
+		increment(versions, service);
+	}
+
+	private static <K> void increment(ConcurrentMap<K, AtomicLong> versions, K key) {
+		AtomicLong version = versions.get(key);
+		if (version == null) {
+			versions.putIfAbsent(key, new AtomicLong());
+			version = versions.get(key);
+		}
+		version.incrementAndGet();
+	}
+
+	/**
+	 * @param methodName the name of a service method
+	 * @return whether the method changes data
+	 * @should return true for methods that change data
+	 * @should return false for methods that only read data
+	 */
+	public static boolean isChange(String methodName) {
+		for (String prefix : CHANGE_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param methodName the name of a service method that changes data
+	 * @return the simple name of the type the method changes, e.g. EncounterType for saveEncounterType
+	 * @should return the rest of the method name after the change prefix
+	 */
+	public static String getChangedType(String methodName) {
+		for (String prefix : CHANGE_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return methodName.substring(prefix.length());
+			}
+		}
+		return methodName;
+	}
+
+}
@@ -1,10 +1,21 @@
 package org.openmrs.module.htmlformentry.db;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
+import org.openmrs.Obs;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.element.PersonStub;
@@ -67,7 +78,12 @@ public interface HtmlFormEntryDAO {
 	/**
      * @see HtmlFormEntryService#getProviderStub()
      */
-	public List<PersonStub> getUsersAsPersonStubs(String roleName);
+	public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer firstResult, Integer maxResults);
+	
+	/**
+	 * @see HtmlFormEntryService#isUserWithRole(Integer, String)
+	 */
+	public boolean isUserWithRole(Integer personId, String roleName);
 	
 	/**
 	 * Given a uuid and a class, fetch the OpenMRS object associated with that uuid
@@ -85,8 +101,98 @@ public interface HtmlFormEntryDAO {
 	public OpenmrsObject getItemByName(Class<? extends OpenmrsMetadata> type, String name);
 	
 	/**
-     * @see HtmlFormEntryService#getPersonIdsHavingAttributes(String attributeId, String attributeValue)
-     */      
-	public List<Integer> getPersonIdHavingAttributes(String attributeId, String attributeValue);
+	 * @see HtmlFormEntryService#getItemsByUuid(Class, Collection)
+	 */
+	public Map<String, OpenmrsObject> getItemsByUuid(Class<? extends OpenmrsObject> type, Collection<String> uuids);
+	
+	/**
+	 * @see HtmlFormEntryService#getItemsById(Class, Collection)
+	 */
+	public Map<Integer, OpenmrsObject> getItemsById(Class<? extends OpenmrsObject> type, Collection<Integer> ids);
+	
+	/**
+	 * @see HtmlFormEntryService#getItemsByName(Class, Collection)
+	 */
+	public Map<String, OpenmrsObject> getItemsByName(Class<? extends OpenmrsMetadata> type, Collection<String> names);
+	
+	/**
+	 * @see HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)
+	 */
+	public List<Integer> getPersonIdsHavingAttribute(Integer personAttributeTypeId, String attributeValue, Integer maxResults);
+	
+	/**
+	 * Returns the people having all the given attributes and enrolled in all the given programs
+	 * 
+	 * @see HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)
+	 */
+	public List<PersonStub> getPeopleAsPersonStubs(List<Integer> personAttributeTypeIds, List<String> attributeValues,
+	                                               List<Integer> programIds, Collection<Integer> personIdsToExclude,
+	                                               Integer firstResult, Integer maxResults);
+	
+	/**
+	 * Returns the people with a name matching all the given words (each word being the start of a given,
+	 * middle or family name), or with the given identifier, who have all the given attributes and are
+	 * enrolled in all the given programs
+	 * 
+	 * @see HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)
+	 */
+	public List<PersonStub> searchPersonStubs(List<String> nameWords, String identifier, List<Integer> personAttributeTypeIds,
+	                                          List<String> attributeValues, List<Integer> programIds, Integer firstResult,
+	                                          Integer maxResults);
+	
+	/**
+	 * @see HtmlFormEntryService#getPersonStubs(Collection)
+	 */
+	public List<PersonStub> getPersonStubs(Collection<Integer> personIds);
+
+	/**
+	 * @see HtmlFormEntryService#getConceptsWithNamesAndAnswers(Collection, Collection)
+	 */
+	public List<Concept> getConceptsWithNamesAndAnswers(Collection<Integer> conceptIds, Collection<String> conceptUuids);
+	
+	/**
+	 * @see HtmlFormEntryService#getConceptsWithNames(Collection)
+	 */
+	public List<Concept> getConceptsWithNames(Collection<ConceptClass> conceptClasses);
+	
+	/**
+	 * @see HtmlFormEntryService#getChangeFingerprint(Class)
+	 */
+	public String getChangeFingerprint(Class<? extends OpenmrsObject> type);
+	
+	/**
+	 * @see HtmlFormEntryService#getDrugsWithConcepts()
+	 */
+	public List<Drug> getDrugsWithConcepts();
+	
+	/**
+	 * @see HtmlFormEntryService#getLatestObs(Person, Concept)
+	 */
+	public Obs getLatestObs(Person person, Concept concept);
+	
+	/**
+	 * @see HtmlFormEntryService#getEarliestObs(Person, Concept)
+	 */
+	public Obs getEarliestObs(Person person, Concept concept);
+	
+	/**
+	 * @see HtmlFormEntryService#getObsCount(Person, Concept)
+	 */
+	public Integer getObsCount(Person person, Concept concept);
+	
+	/**
+	 * @see HtmlFormEntryService#getLatestEncounter(Patient, EncounterType)
+	 */
+	public Encounter getLatestEncounter(Patient patient, EncounterType encounterType);
+	
+	/**
+	 * @see HtmlFormEntryService#getEncounterIds(Form, Date, Date)
+	 */
+	public List<Integer> getEncounterIds(Form form, Date fromDate, Date toDate);
+	
+	/**
+	 * @see HtmlFormEntryService#getEncounters(List)
+	 */
+	public List<Encounter> getEncounters(List<Integer> encounterIds);
 
 }
@@ -1,19 +1,44 @@
 package org.openmrs.module.htmlformentry.db.hibernate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Expression;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.transform.Transformers;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
+import org.openmrs.Obs;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.db.HtmlFormEntryDAO;
 import org.openmrs.module.htmlformentry.element.PersonStub;
@@ -25,6 +50,16 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 
 	private static Log log = LogFactory.getLog(HibernateHtmlFormEntryDAO.class);
 	
+	// the maximum number of values bound to a single "in" clause
+	private static final int MAX_IN_CLAUSE_SIZE = 500;
+	
+	// the names of non-voided people, one row per person: their preferred name, or their first name if none is preferred
+	private static final String PERSON_STUB_QUERY = "select p.person_id as id, pn.given_name as givenName, pn.family_name as familyName,"
+	        + " pn.middle_name as middleName, pn.family_name2 as familyName2 from person p, person_name pn"
+	        + " where p.voided = 0 and pn.person_id = p.person_id and pn.person_name_id = (select min(pn2.person_name_id)"
+	        + " from person_name pn2 where pn2.person_id = p.person_id and pn2.voided = 0 and (pn2.preferred = 1 or not exists"
+	        + " (select 1 from person_name pn3 where pn3.person_id = p.person_id and pn3.voided = 0 and pn3.preferred = 1)))";
+	
     private SessionFactory sessionFactory;
     
     public void setSessionFactory(SessionFactory sessionFactory) {
@@ -81,12 +116,19 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 	
 	@Override
     @SuppressWarnings("unchecked")
-	public List<PersonStub> getUsersAsPersonStubs(String roleName){
+	public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer firstResult, Integer maxResults){
 	    String query = " select  u.person_id as id, pn.given_name as givenName, pn.family_name as familyName, pn.middle_name as middleName, pn.family_name2 as familyName2 from users u, person_name pn, user_role ur where u.retired = 0 and u.person_id = pn.person_id and pn.voided = 0 and u.user_id = ur.user_id  ";
 	    if (roleName != null)
-	        query += " and ur.role = '" + roleName + "' ";
-	     query += " order by familyName ";
-	    return (List<PersonStub>) sessionFactory.getCurrentSession().createSQLQuery(query)
+	        query += " and ur.role = :roleName ";
+	     query += " order by familyName, id ";
+	    SQLQuery sqlQuery = sessionFactory.getCurrentSession().createSQLQuery(query);
+	    if (roleName != null)
+	    	sqlQuery.setString("roleName", roleName);
+	    if (firstResult != null)
+	    	sqlQuery.setFirstResult(firstResult);
+	    if (maxResults != null)
+	    	sqlQuery.setMaxResults(maxResults);
+	    return (List<PersonStub>) sqlQuery
 	    .addScalar("id")
 	    .addScalar("givenName")
 	    .addScalar("familyName")
@@ -95,6 +137,19 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 	    .setResultTransformer(Transformers.aliasToBean(PersonStub.class)).list();
 	}
 
+	@Override
+	public boolean isUserWithRole(Integer personId, String roleName) {
+		// the same users as getUsersAsPersonStubs
+		String query = "select count(*) from users u, user_role ur where u.person_id = :personId and u.retired = 0 and u.user_id = ur.user_id ";
+		if (roleName != null)
+			query += " and ur.role = :roleName ";
+		SQLQuery sqlQuery = sessionFactory.getCurrentSession().createSQLQuery(query);
+		sqlQuery.setInteger("personId", personId);
+		if (roleName != null)
+			sqlQuery.setString("roleName", roleName);
+		return ((Number) sqlQuery.uniqueResult()).intValue() > 0;
+	}
+
 	 @Override
     public OpenmrsObject getItemByUuid(Class<? extends OpenmrsObject> type, String uuid) {
 		try {
@@ -142,12 +197,409 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
     
     @Override
     @SuppressWarnings("unchecked")
-	public List<Integer> getPersonIdHavingAttributes(String attribute, String attributeValue) {
-	    String query =  "select distinct(pa.person_id) from person_attribute pa, person_attribute_type pat where pa.person_attribute_type_id = pat.person_attribute_type_id and pat.name='" + attribute + "'";
-		if(attributeValue != null)
-		{
-			query = query + " and value='" + attributeValue + "'";
-		}
-	    return (List<Integer>)sessionFactory.getCurrentSession().createSQLQuery(query).list();
+    public Map<String, OpenmrsObject> getItemsByUuid(Class<? extends OpenmrsObject> type, Collection<String> uuids) {
+    	Map<String, OpenmrsObject> ret = new HashMap<String, OpenmrsObject>();
+    	try {
+    		for (List<String> batch : partition(uuids)) {
+    			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(type);
+    			criteria.add(Restrictions.in("uuid", batch));
+    			for (OpenmrsObject item : (List<OpenmrsObject>) criteria.list()) {
+    				ret.put(item.getUuid(), item);
+    			}
+    		}
+    	}
+    	catch(Exception e) {
+    		log.error("Error fetching items by uuid:" + e);
+    	}
+    	return ret;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, OpenmrsObject> getItemsById(Class<? extends OpenmrsObject> type, Collection<Integer> ids) {
+    	Map<Integer, OpenmrsObject> ret = new HashMap<Integer, OpenmrsObject>();
+    	try {
+    		ClassMetadata metadata = sessionFactory.getClassMetadata(type);
+    		for (List<Integer> batch : partition(ids)) {
+    			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(type);
+    			criteria.add(Restrictions.in(metadata.getIdentifierPropertyName(), batch));
+    			for (OpenmrsObject item : (List<OpenmrsObject>) criteria.list()) {
+    				ret.put((Integer) metadata.getIdentifier(item, EntityMode.POJO), item);
+    			}
+    		}
+    	}
+    	catch(Exception e) {
+    		log.error("Error fetching items by id:" + e);
+    	}
+    	return ret;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, OpenmrsObject> getItemsByName(Class<? extends OpenmrsMetadata> type, Collection<String> names) {
+    	Map<String, OpenmrsObject> ret = new HashMap<String, OpenmrsObject>();
+    	Set<String> ambiguous = new HashSet<String>();
+    	Set<String> lowerCaseNames = new LinkedHashSet<String>();
+    	for (String name : names) {
+    		lowerCaseNames.add(name.toLowerCase());
+    	}
+    	// as in getItemByName, this fails for types like "Role" which don't have a directly-referenceable name property
+    	try {
+    		for (List<String> batch : partition(lowerCaseNames)) {
+    			// each ignoreCase() comparison is lower(name) = ?, with the name already in lower case
+    			Disjunction nameMatches = Restrictions.disjunction();
+    			for (String name : batch) {
+    				nameMatches.add(Restrictions.eq("name", name).ignoreCase());
+    			}
+    			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(type);
+    			criteria.add(nameMatches);
+    			for (OpenmrsMetadata item : (List<OpenmrsMetadata>) criteria.list()) {
+    				String name = item.getName().toLowerCase();
+    				if (ret.put(name, item) != null) {
+    					ambiguous.add(name);
+    				}
+    			}
+    		}
+    	}
+    	catch(Exception e) {
+    		log.error("Error fetching items by name:" + e);
+    	}
+    	ret.keySet().removeAll(ambiguous);
+    	return ret;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+	public List<Integer> getPersonIdsHavingAttribute(Integer personAttributeTypeId, String attributeValue, Integer maxResults) {
+    	// the query text only depends on whether there is a value, so the database can reuse its plan
+    	String query = "select distinct pa.person_id from person_attribute pa where pa.person_attribute_type_id = :typeId";
+    	if (attributeValue != null) {
+    		query += " and pa.value = :value";
+    	}
+    	query += " order by pa.person_id";
+    	SQLQuery sqlQuery = sessionFactory.getCurrentSession().createSQLQuery(query);
+    	sqlQuery.setInteger("typeId", personAttributeTypeId);
+    	if (attributeValue != null) {
+    		sqlQuery.setString("value", attributeValue);
+    	}
+    	if (maxResults != null) {
+    		sqlQuery.setMaxResults(maxResults);
+    	}
+    	List<Integer> ret = new ArrayList<Integer>();
+    	for (Object personId : sqlQuery.list()) {
+    		ret.add(((Number) personId).intValue());
+    	}
+    	return ret;
+    }
+    
+    @Override
+    public List<PersonStub> getPeopleAsPersonStubs(List<Integer> personAttributeTypeIds, List<String> attributeValues,
+                                                   List<Integer> programIds, Collection<Integer> personIdsToExclude,
+                                                   Integer firstResult, Integer maxResults) {
+    	StringBuilder query = new StringBuilder(PERSON_STUB_QUERY);
+    	Map<String, Object> parameters = new HashMap<String, Object>();
+    	appendAttributeAndProgramFilters(query, parameters, personAttributeTypeIds, attributeValues, programIds);
+    	List<List<Integer>> excluded = personIdsToExclude == null ? new ArrayList<List<Integer>>() : partition(personIdsToExclude);
+    	for (int i = 0; i < excluded.size(); i++) {
+    		query.append(" and p.person_id not in (:excluded" + i + ")");
+    	}
+    	query.append(" order by pn.family_name, pn.given_name, p.person_id");
+    	
+    	SQLQuery sqlQuery = sessionFactory.getCurrentSession().createSQLQuery(query.toString());
+    	for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+    		sqlQuery.setParameter(parameter.getKey(), parameter.getValue());
+    	}
+    	for (int i = 0; i < excluded.size(); i++) {
+    		sqlQuery.setParameterList("excluded" + i, excluded.get(i));
+    	}
+    	return listPersonStubs(sqlQuery, firstResult, maxResults);
+    }
+    
+    @Override
+    public List<PersonStub> searchPersonStubs(List<String> nameWords, String identifier, List<Integer> personAttributeTypeIds,
+                                              List<String> attributeValues, List<Integer> programIds, Integer firstResult,
+                                              Integer maxResults) {
+    	StringBuilder query = new StringBuilder(PERSON_STUB_QUERY);
+    	Map<String, Object> parameters = new HashMap<String, Object>();
+    	
+    	// each word must start one of the names of one of the person's names, or the whole phrase must be an identifier
+    	List<String> conditions = new ArrayList<String>();
+    	if (nameWords != null && !nameWords.isEmpty()) {
+    		List<String> wordConditions = new ArrayList<String>();
+    		for (int i = 0; i < nameWords.size(); i++) {
+    			wordConditions.add("exists (select 1 from person_name n where n.person_id = p.person_id and n.voided = 0"
+    			        + " and (n.given_name like :word" + i + " or n.middle_name like :word" + i
+    			        + " or n.family_name like :word" + i + " or n.family_name2 like :word" + i + "))");
+    			parameters.put("word" + i, nameWords.get(i) + "%");
+    		}
+    		conditions.add("(" + StringUtils.join(wordConditions, " and ") + ")");
+    	}
+    	if (identifier != null) {
+    		conditions.add("exists (select 1 from patient_identifier pi where pi.patient_id = p.person_id and pi.voided = 0"
+    		        + " and pi.identifier = :identifier)");
+    		parameters.put("identifier", identifier);
+    	}
+    	if (!conditions.isEmpty()) {
+    		query.append(" and (").append(StringUtils.join(conditions, " or ")).append(")");
+    	}
+    	appendAttributeAndProgramFilters(query, parameters, personAttributeTypeIds, attributeValues, programIds);
+    	query.append(" order by pn.family_name, pn.given_name, p.person_id");
+    	
+    	SQLQuery sqlQuery = sessionFactory.getCurrentSession().createSQLQuery(query.toString());
+    	for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+    		sqlQuery.setParameter(parameter.getKey(), parameter.getValue());
+    	}
+    	return listPersonStubs(sqlQuery, firstResult, maxResults);
+    }
+    
+    /**
+     * Adds a subquery per attribute and program to a query selecting from person p, so that the database
+     * intersects them
+     */
+    private void appendAttributeAndProgramFilters(StringBuilder query, Map<String, Object> parameters,
+                                                  List<Integer> personAttributeTypeIds, List<String> attributeValues,
+                                                  List<Integer> programIds) {
+    	if (personAttributeTypeIds != null) {
+    		for (int i = 0; i < personAttributeTypeIds.size(); i++) {
+    			query.append(" and exists (select 1 from person_attribute pa where pa.person_id = p.person_id"
+    			        + " and pa.person_attribute_type_id = :attributeType" + i);
+    			parameters.put("attributeType" + i, personAttributeTypeIds.get(i));
+    			String attributeValue = attributeValues != null && attributeValues.size() > i ? attributeValues.get(i) : null;
+    			if (attributeValue != null) {
+    				query.append(" and pa.value = :attributeValue" + i);
+    				parameters.put("attributeValue" + i, attributeValue);
+    			}
+    			query.append(")");
+    		}
+    	}
+    	if (programIds != null) {
+    		for (int i = 0; i < programIds.size(); i++) {
+    			query.append(" and exists (select 1 from patient_program pp, patient pt where pp.patient_id = p.person_id"
+    			        + " and pt.patient_id = pp.patient_id and pt.voided = 0 and pp.voided = 0 and pp.program_id = :program" + i + ")");
+    			parameters.put("program" + i, programIds.get(i));
+    		}
+    	}
+    }
+    
+    @Override
+    public List<PersonStub> getPersonStubs(Collection<Integer> personIds) {
+    	List<PersonStub> ret = new ArrayList<PersonStub>();
+    	if (personIds == null) {
+    		return ret;
+    	}
+    	for (List<Integer> batch : partition(new LinkedHashSet<Integer>(personIds))) {
+    		ret.addAll(listPersonStubs(sessionFactory.getCurrentSession()
+    		        .createSQLQuery(PERSON_STUB_QUERY + " and p.person_id in (:personIds)")
+    		        .setParameterList("personIds", batch)));
+    	}
+    	// each batch comes back sorted, but the batches themselves still need to be merged
+    	Collections.sort(ret, new Comparator<PersonStub>() {
+    		
+    		@Override
+    		public int compare(PersonStub left, PersonStub right) {
+    			int ret = compareNames(left.getFamilyName(), right.getFamilyName());
+    			if (ret == 0) {
+    				ret = compareNames(left.getGivenName(), right.getGivenName());
+    			}
+    			return ret != 0 ? ret : left.getId().compareTo(right.getId());
+    		}
+    		
+    		private int compareNames(String left, String right) {
+    			if (left == null || right == null) {
+    				return left == null ? (right == null ? 0 : 1) : -1;
+    			}
+    			return left.compareToIgnoreCase(right);
+    		}
+    	});
+    	return ret;
+    }
+    
+    private List<PersonStub> listPersonStubs(SQLQuery sqlQuery, Integer firstResult, Integer maxResults) {
+    	if (firstResult != null) {
+    		sqlQuery.setFirstResult(firstResult);
+    	}
+    	if (maxResults != null) {
+    		sqlQuery.setMaxResults(maxResults);
+    	}
+    	return listPersonStubs(sqlQuery);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<PersonStub> listPersonStubs(SQLQuery sqlQuery) {
+    	return (List<PersonStub>) sqlQuery
+    	.addScalar("id")
+    	.addScalar("givenName")
+    	.addScalar("familyName")
+    	.addScalar("middleName")
+    	.addScalar("familyName2")
+    	.setResultTransformer(Transformers.aliasToBean(PersonStub.class)).list();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Concept> getConceptsWithNamesAndAnswers(Collection<Integer> conceptIds, Collection<String> conceptUuids) {
+    	// concepts are fetched with their names first, and then their answers in a second query, since fetching
+    	// both collections in one query would return the cartesian product of names and answers
+    	Set<Concept> concepts = new LinkedHashSet<Concept>();
+    	if (conceptIds != null) {
+    		for (List<?> batch : partition(conceptIds)) {
+    			concepts.addAll(sessionFactory.getCurrentSession()
+    			        .createQuery("select distinct c from Concept c left join fetch c.names where c.conceptId in (:values)")
+    			        .setParameterList("values", batch).list());
+    		}
+    	}
+    	if (conceptUuids != null) {
+    		for (List<?> batch : partition(conceptUuids)) {
+    			concepts.addAll(sessionFactory.getCurrentSession()
+    			        .createQuery("select distinct c from Concept c left join fetch c.names where c.uuid in (:values)")
+    			        .setParameterList("values", batch).list());
+    		}
+    	}
+    	List<Integer> foundIds = new ArrayList<Integer>();
+    	for (Concept concept : concepts) {
+    		foundIds.add(concept.getConceptId());
+    	}
+    	for (List<?> batch : partition(foundIds)) {
+    		// the results are already in the session, this just initializes their answers
+    		sessionFactory.getCurrentSession()
+    		        .createQuery("select distinct c from Concept c left join fetch c.answers where c.conceptId in (:values)")
+    		        .setParameterList("values", batch).list();
+    	}
+    	return new ArrayList<Concept>(concepts);
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Concept> getConceptsWithNames(Collection<ConceptClass> conceptClasses) {
+    	if (conceptClasses == null || conceptClasses.isEmpty()) {
+    		return new ArrayList<Concept>();
+    	}
+    	return sessionFactory.getCurrentSession()
+    	        .createQuery("select distinct c from Concept c left join fetch c.names where c.conceptClass in (:classes) and c.retired = false")
+    	        .setParameterList("classes", conceptClasses).list();
+    }
+    
+    @Override
+    public String getChangeFingerprint(Class<? extends OpenmrsObject> type) {
+    	// not every type maps both dates (e.g. dateChanged was only mapped for some metadata in later versions)
+    	List<String> properties = Arrays.asList(sessionFactory.getClassMetadata(type).getPropertyNames());
+    	StringBuilder hql = new StringBuilder("select count(*)");
+    	for (String date : new String[] { "dateCreated", "dateChanged" }) {
+    		if (properties.contains(date)) {
+    			hql.append(", max(x.").append(date).append(")");
+    		}
+    	}
+    	hql.append(" from ").append(type.getName()).append(" x");
+    	Object result = sessionFactory.getCurrentSession().createQuery(hql.toString()).uniqueResult();
+    	Object[] row = result instanceof Object[] ? (Object[]) result : new Object[] { result };
+    	StringBuilder ret = new StringBuilder().append(row[0]);
+    	for (int i = 1; i < row.length; i++) {
+    		ret.append("|").append(toMillis(row[i]));
+    	}
+    	return ret.toString();
+    }
+    
+    private Long toMillis(Object date) {
+    	return date == null ? null : ((Date) date).getTime();
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Drug> getDrugsWithConcepts() {
+    	return sessionFactory.getCurrentSession()
+    	        .createQuery("select d from Drug d left join fetch d.concept left join fetch d.dosageForm left join fetch d.route"
+    	                + " where d.retired = false order by d.name")
+    	        .list();
+    }
+    
+    @Override
+    public Obs getLatestObs(Person person, Concept concept) {
+    	Criteria criteria = createObsCriteria(person, concept);
+    	criteria.addOrder(Order.desc("obsDatetime"));
+    	criteria.addOrder(Order.desc("obsId"));
+    	criteria.setMaxResults(1);
+    	return (Obs) criteria.uniqueResult();
+    }
+    
+    @Override
+    public Obs getEarliestObs(Person person, Concept concept) {
+    	Criteria criteria = createObsCriteria(person, concept);
+    	criteria.addOrder(Order.asc("obsDatetime"));
+    	criteria.addOrder(Order.asc("obsId"));
+    	criteria.setMaxResults(1);
+    	return (Obs) criteria.uniqueResult();
+    }
+    
+    @Override
+    public Integer getObsCount(Person person, Concept concept) {
+    	Criteria criteria = createObsCriteria(person, concept);
+    	criteria.setProjection(Projections.rowCount());
+    	return ((Number) criteria.uniqueResult()).intValue();
+    }
+    
+    private Criteria createObsCriteria(Person person, Concept concept) {
+    	Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Obs.class);
+    	criteria.add(Restrictions.eq("person", person));
+    	criteria.add(Restrictions.eq("concept", concept));
+    	criteria.add(Restrictions.eq("voided", false));
+    	return criteria;
+    }
+    
+    @Override
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType) {
+    	Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+    	criteria.add(Restrictions.eq("patient", patient));
+    	if (encounterType != null) {
+    		criteria.add(Restrictions.eq("encounterType", encounterType));
+    	}
+    	criteria.add(Restrictions.eq("voided", false));
+    	criteria.addOrder(Order.desc("encounterDatetime"));
+    	criteria.addOrder(Order.desc("encounterId"));
+    	criteria.setMaxResults(1);
+    	return (Encounter) criteria.uniqueResult();
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<Integer> getEncounterIds(Form form, Date fromDate, Date toDate) {
+    	Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+    	criteria.add(Restrictions.eq("form", form));
+    	if (fromDate != null) {
+    		criteria.add(Restrictions.ge("encounterDatetime", fromDate));
+    	}
+    	if (toDate != null) {
+    		criteria.add(Restrictions.le("encounterDatetime", toDate));
+    	}
+    	criteria.add(Restrictions.eq("voided", false));
+    	criteria.setProjection(Projections.property("encounterId"));
+    	criteria.addOrder(Order.asc("encounterId"));
+    	return criteria.list();
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<Encounter> getEncounters(List<Integer> encounterIds) {
+    	List<Encounter> encounters = new ArrayList<Encounter>();
+    	for (List<Integer> batch : partition(encounterIds)) {
+    		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+    		criteria.add(Restrictions.in("encounterId", batch));
+    		criteria.addOrder(Order.asc("encounterId"));
+    		encounters.addAll(criteria.list());
+    	}
+    	return encounters;
+    }
+    
+    /**
+     * Splits the given values into lists small enough to bind to a single "in" clause
+     */
+    private <T> List<List<T>> partition(Collection<T> values) {
+    	List<List<T>> batches = new ArrayList<List<T>>();
+    	List<T> batch = null;
+    	for (T value : values) {
+    		if (batch == null || batch.size() == MAX_IN_CLAUSE_SIZE) {
+    			batch = new ArrayList<T>();
+    			batches.add(batch);
+    		}
+    		batch.add(value);
+    	}
+    	return batches;
     }
 }
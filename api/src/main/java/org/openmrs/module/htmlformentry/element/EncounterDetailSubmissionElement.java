@@ -1,7 +1,9 @@
 package org.openmrs.module.htmlformentry.element;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -24,6 +26,7 @@ import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.FormSubmissionError;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
@@ -34,13 +37,16 @@ import org.openmrs.module.htmlformentry.widget.DateWidget;
 import org.openmrs.module.htmlformentry.widget.DropdownWidget;
 import org.openmrs.module.htmlformentry.widget.EncounterTypeWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
+import org.openmrs.module.htmlformentry.widget.MetadataOptionCache;
 import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.RemoteOptionsWidget;
 import org.openmrs.module.htmlformentry.widget.SingleOptionWidget;
 import org.openmrs.module.htmlformentry.widget.TimeWidget;
 import org.openmrs.module.htmlformentry.widget.ToggleWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.web.WebConstants;
 import org.springframework.util.StringUtils;
 
 /**
@@ -63,6 +69,11 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
 
     private ErrorWidget providerErrorWidget;
 
+    // whether the provider dropdown loads the users from the server, and the role they must have (null for all users)
+    private boolean remoteProviders = false;
+
+    private String remoteProviderRole;
+
     private SingleOptionWidget locationWidget;
 
     private ErrorWidget locationErrorWidget;
@@ -156,7 +167,7 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                     if (role == null) {
                         throw new RuntimeException("Cannot find role: " + parameters.get("role"));
                     } else {
-                        users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(role.getRole());
+                        users = getProviderUsers(role.getRole(), parameters);
                     }
                 }
 
@@ -167,11 +178,11 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                         String defaultRole = OpenmrsConstants.PROVIDER_ROLE;
                         Role role = Context.getUserService().getRole(defaultRole);
                         if (role != null) {
-                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(role.getRole());
+                            users = getProviderUsers(role.getRole(), parameters);
                         }
                         // If this role isn't used, default to all Users
-                        if (users.isEmpty()) {
-                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(null);
+                        if (users.isEmpty() && !remoteProviders) {
+                            users = getProviderUsers(null, parameters);
                         }
                     } else {
                         // in OpenMRS 1.9+, get all suitable providers
@@ -186,6 +197,19 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 }
                 providerOptions.addAll(providerUsers);
 
+                if (remoteProviders) {
+                    // too many users to write into the page, the dropdown loads them a page at a time once it is used
+                    String url = "/" + WebConstants.WEBAPP_NAME + "/module/htmlformentry/providerOptions.form";
+                    if (remoteProviderRole != null) {
+                        try {
+                            url += "?role=" + URLEncoder.encode(remoteProviderRole, "UTF-8");
+                        }
+                        catch (UnsupportedEncodingException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                    providerWidget = new RemoteOptionsWidget(url);
+                }
             }
 
             // Set default values as appropriate
@@ -343,11 +367,6 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
 
             }
 
-            // if no locations have been specified by the order attribute, use all non-retired locations
-            if (locations.isEmpty()) {
-                locations = Context.getLocationService().getAllLocations(false);
-            }
-
             // Set default values
             Location defaultLocation = null;
             if (context.getExistingEncounter() != null) {
@@ -361,23 +380,36 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
             defaultLocation = defaultLocation == null ? context.getDefaultLocation() : defaultLocation;
             locationWidget.setInitialValue(defaultLocation);
 
-            // if in EDIT mode, make sure that the default/selected location is one of the location options, so we don't accidentally lose it
-            if (defaultLocation != null && context.getMode().equals(Mode.EDIT)) {
-               if (!locations.contains(defaultLocation)) {
-                   locations.add(defaultLocation);
-               }
-            }
+            // if no locations have been specified by the tags or order attribute, use all non-retired locations,
+            // which are shared between all the location widgets and already sorted
+            if (locations.isEmpty()) {
+                String selectedValue = defaultLocation == null ? null : defaultLocation.getId().toString();
+                locationOptions = MetadataOptionCache.getLocationOptions(false, selectedValue);
 
-            // now create the actual location options
-            for (Location location : locations) {
-                String label = HtmlFormEntryUtil.format(location);
-                Option option = new Option(label, location.getId().toString(), location.equals(defaultLocation));
-                locationOptions.add(option);
-            }
+                // if in EDIT mode, make sure that the default/selected location is one of the location options, so we don't accidentally lose it
+                if (selectedValue != null && context.getMode().equals(Mode.EDIT) && !containsValue(locationOptions, selectedValue)) {
+                    locationOptions.add(new Option(HtmlFormEntryUtil.format(defaultLocation), selectedValue, true));
+                    Collections.sort(locationOptions, new OptionComparator());
+                }
+            } else {
+                // if in EDIT mode, make sure that the default/selected location is one of the location options, so we don't accidentally lose it
+                if (defaultLocation != null && context.getMode().equals(Mode.EDIT)) {
+                   if (!locations.contains(defaultLocation)) {
+                       locations.add(defaultLocation);
+                   }
+                }
+
+                // now create the actual location options
+                for (Location location : locations) {
+                    String label = HtmlFormEntryUtil.format(location);
+                    Option option = new Option(label, location.getId().toString(), location.equals(defaultLocation));
+                    locationOptions.add(option);
+                }
 
-            // sort options (if a specific order hasn't been specified
-            if (parameters.get("order") == null) {
-                Collections.sort(locationOptions, new OptionComparator());
+                // sort options (if a specific order hasn't been specified
+                if (parameters.get("order") == null) {
+                    Collections.sort(locationOptions, new OptionComparator());
+                }
             }
 
             if ("autocomplete".equals(parameters.get("type"))) {
@@ -428,6 +460,35 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
      *
      * @return
      */
+    private boolean containsValue(List<Option> options, String value) {
+        for (Option option : options) {
+            if (value.equals(option.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the users with the given role to choose the provider from, unless there are too many of them to
+     * write into the page (see {@link HtmlFormEntryGlobalProperties#REMOTE_OPTIONS_THRESHOLD}), in which case
+     * the dropdown is set up to load them from the server and no users are returned
+     */
+    private List<PersonStub> getProviderUsers(String roleName, Map<String, Object> parameters) {
+        HtmlFormEntryService service = Context.getService(HtmlFormEntryService.class);
+        int threshold = HtmlFormEntryGlobalProperties.REMOTE_OPTIONS_THRESHOLD();
+        if (threshold == 0 || "autocomplete".equals(parameters.get("type"))) {
+            return service.getUsersAsPersonStubs(roleName);
+        }
+        List<PersonStub> users = service.getUsersAsPersonStubs(roleName, threshold + 1);
+        if (users.size() <= threshold) {
+            return users;
+        }
+        remoteProviders = true;
+        remoteProviderRole = roleName;
+        return new ArrayList<PersonStub>();
+    }
+
     private boolean openmrsVersionDoesNotSupportProviders() {
         return OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.6")
                 || OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.7")
@@ -658,6 +719,10 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 Person provider = (Person) convertValueToProvider(value);
                 if (provider == null)
                     throw new Exception("required");
+                // the browser was not given the users to choose from, so check that the provider is one of them
+                if (remoteProviders && !provider.equals(context.getExistingEncounter() == null ? null : context.getExistingEncounter().getProvider())
+                        && !Context.getService(HtmlFormEntryService.class).isUserWithRole(provider.getPersonId(), remoteProviderRole))
+                    throw new Exception("htmlformentry.error.autoCompleteOptionNotValid");
             }
         } catch (Exception ex) {
             ret.add(new FormSubmissionError(context.getFieldName(providerErrorWidget), Context.getMessageSourceService()
@@ -17,12 +17,14 @@ import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlFormEntryConstants;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
 import org.openmrs.module.htmlformentry.comparator.OptionComparator;
 import org.openmrs.module.htmlformentry.schema.ObsField;
 import org.openmrs.module.htmlformentry.schema.ObsFieldAnswer;
+import org.openmrs.module.htmlformentry.search.ConceptSearchIndexes;
 import org.openmrs.module.htmlformentry.widget.CheckboxWidget;
 import org.openmrs.module.htmlformentry.widget.ConceptSearchAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.DateTimeWidget;
@@ -30,11 +32,13 @@ import org.openmrs.module.htmlformentry.widget.DateWidget;
 import org.openmrs.module.htmlformentry.widget.DropdownWidget;
 import org.openmrs.module.htmlformentry.widget.DynamicAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
+import org.openmrs.module.htmlformentry.widget.MetadataOptionCache;
 import org.openmrs.module.htmlformentry.widget.NumberFieldWidget;
 import org.openmrs.module.htmlformentry.widget.Option;
 import org.openmrs.module.htmlformentry.widget.PersonStubWidget;
 import org.openmrs.module.htmlformentry.widget.RadioButtonsWidget;
 import org.openmrs.module.htmlformentry.widget.RemoteJsonAutocompleteWidget;
+import org.openmrs.module.htmlformentry.widget.RemoteOptionsWidget;
 import org.openmrs.module.htmlformentry.widget.SingleOptionWidget;
 import org.openmrs.module.htmlformentry.widget.TextFieldWidget;
 import org.openmrs.module.htmlformentry.widget.TimeWidget;
@@ -47,6 +51,8 @@ import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.web.WebConstants;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -109,6 +115,9 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 	
 	private List<String> answerLabels = new ArrayList<String>();
 	
+	// the classes of the answers of a dropdown with too many answers to write them into the page, or null
+	private List<ConceptClass> remoteAnswerClasses;
+	
 	private String answerLabel;
 	
 	private Obs existingObs; // in edit mode, this allows submission to check whether the obs has been modified or not
@@ -450,16 +459,16 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
                     List<Location> locationList = HtmlFormEntryUtil.getLocationsByTags(HtmlFormEntryConstants.ANSWER_LOCATION_TAGS, parameters);
                     if ((locationList == null) ||
                             (locationList != null && locationList.size()<1)){
-                        // if no locations by tags are found then get all locations
-                        locationList = Context.getLocationService().getAllLocations();
-                    }
-
-                    for (Location location : locationList) {
+                        // if no locations by tags are found then use all locations, which are shared between widgets and already sorted
+                        locationOptions = MetadataOptionCache.getLocationOptions(true, initialValue);
+                    } else {
+                        for (Location location : locationList) {
                             String label = HtmlFormEntryUtil.format(location);
                             Option option = new Option(label, location.getId().toString(), location.getId().toString().equals(initialValue));
                             locationOptions.add(option);
-                       }
-                    Collections.sort(locationOptions, new OptionComparator());
+                        }
+                        Collections.sort(locationOptions, new OptionComparator());
+                    }
 
                     // if initialValueIsSet=false, no initial/default location, hence this shows the 'select input' field as first option
                     boolean initialValueIsSet = !(initialValue == null);
@@ -606,6 +615,7 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 					}
 				} else if (parameters.get("answerClasses") != null && !"autocomplete".equals(parameters.get("style"))) {
 					try {
+						List<ConceptClass> answerClasses = new ArrayList<ConceptClass>();
 						for (StringTokenizer st = new StringTokenizer(parameters.get("answerClasses"), ","); st
 						        .hasMoreTokens();) {
 							String className = st.nextToken().trim();
@@ -613,9 +623,16 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 							if (cc == null) {
 								throw new RuntimeException("Cannot find concept class " + className);
 							}
-							conceptAnswers.addAll(Context.getConceptService().getConceptsByClass(cc));
+							answerClasses.add(cc);
+						}
+						if (hasTooManyAnswersToWrite(answerClasses, parameters)) {
+							remoteAnswerClasses = answerClasses;
+						} else {
+							for (ConceptClass cc : answerClasses) {
+								conceptAnswers.addAll(Context.getConceptService().getConceptsByClass(cc));
+							}
+							Collections.sort(conceptAnswers, conceptNameComparator);
 						}
-						Collections.sort(conceptAnswers, conceptNameComparator);
 					}
 					catch (Exception ex) {
 						throw new RuntimeException("Error in answer class list for concept " + concept.getConceptId() + " ("
@@ -704,6 +721,16 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
                         }
                         valueWidget = widget;
 
+                    } else if (remoteAnswerClasses != null) {
+                        // the answers are loaded from the server a page at a time, once the dropdown is used
+                        try {
+                            valueWidget = new RemoteOptionsWidget("/" + WebConstants.WEBAPP_NAME + "/module/htmlformentry/conceptOptions.form?answerclasses="
+                                    + URLEncoder.encode(getClassNames(remoteAnswerClasses), "UTF-8"), size);
+                        }
+                        catch (UnsupportedEncodingException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                        ((RemoteOptionsWidget) valueWidget).addOption(new Option());
                     } else {
 			            // Show Radio Buttons if specified, otherwise default to Drop
 						// Down 
@@ -745,7 +772,12 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 							throw new IllegalArgumentException("Invalid default value. Cannot find concept: " + defaultValue);
 						}
 						
-						if (!conceptAnswers.contains(initialValue)) {
+						if (remoteAnswerClasses != null) {
+							if (!isRemoteAnswer(initialValue)) {
+								throw new IllegalArgumentException("Invalid default value: " + defaultValue
+								        + ". The answer must be a non-retired concept of class " + getClassNames(remoteAnswerClasses));
+							}
+						} else if (!conceptAnswers.contains(initialValue)) {
 							String allowedIds = "";
 							for (Concept conceptAnswer : conceptAnswers) {
 								allowedIds += conceptAnswer.getId() + ", ";
@@ -1123,6 +1155,17 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 			    "htmlformentry.error.cannotBeInFuture")));
 		}
 		
+		// the browser was not given the answers to choose from, so check that the value is one of them (an
+		// unchanged answer is kept even if its concept has been retired since)
+		if (remoteAnswerClasses != null && value instanceof String && StringUtils.isNotBlank((String) value)) {
+			Concept answer = HtmlFormEntryUtil.getConcept(((String) value).trim());
+			boolean unchanged = answer != null && existingObs != null && answer.equals(existingObs.getValueCoded());
+			if (!unchanged && !isRemoteAnswer(answer)) {
+				ret.add(new FormSubmissionError(valueWidget, Context.getMessageSourceService().getMessage(
+				    "htmlformentry.error.autoCompleteOptionNotValid")));
+			}
+		}
+		
 		if (required) {
 			if (value == null) {
 				ret.add(new FormSubmissionError(valueWidget, Context.getMessageSourceService().getMessage(
@@ -1256,6 +1299,35 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
         }
     }
 
+	/**
+	 * Tells whether a dropdown of the concepts of the given classes should load them from the server rather
+	 * than have them all written into the page (see {@link HtmlFormEntryGlobalProperties#REMOTE_OPTIONS_THRESHOLD})
+	 */
+	private boolean hasTooManyAnswersToWrite(List<ConceptClass> answerClasses, Map<String, String> parameters) {
+		int threshold = HtmlFormEntryGlobalProperties.REMOTE_OPTIONS_THRESHOLD();
+		if (threshold == 0 || answerConcept != null || "radio".equals(parameters.get("style"))
+		        || "true".equals(parameters.get("multiple")) || parameters.get("answerLabels") != null
+		        || parameters.get("answerCodes") != null) {
+			return false;
+		}
+		return ConceptSearchIndexes.getIndexForClasses(Context.getLocale(), answerClasses).getConceptCount() > threshold;
+	}
+	
+	private boolean isRemoteAnswer(Concept answer) {
+		return answer != null && !answer.isRetired() && remoteAnswerClasses.contains(answer.getConceptClass());
+	}
+	
+	private String getClassNames(List<ConceptClass> conceptClasses) {
+		StringBuilder sb = new StringBuilder();
+		for (ConceptClass conceptClass : conceptClasses) {
+			if (sb.length() > 0) {
+				sb.append(",");
+			}
+			sb.append(conceptClass.getName());
+		}
+		return sb.toString();
+	}
+	
 	private Comparator<Concept> conceptNameComparator = new Comparator<Concept>() {
 		
 		@Override
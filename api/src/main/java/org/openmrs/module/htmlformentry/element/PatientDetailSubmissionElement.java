@@ -30,11 +30,11 @@ import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.ValidationException;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
-import org.openmrs.module.htmlformentry.comparator.OptionComparator;
 import org.openmrs.module.htmlformentry.widget.AddressWidget;
 import org.openmrs.module.htmlformentry.widget.DateWidget;
 import org.openmrs.module.htmlformentry.widget.DropdownWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
+import org.openmrs.module.htmlformentry.widget.MetadataOptionCache;
 import org.openmrs.module.htmlformentry.widget.HiddenFieldWidget;
 import org.openmrs.module.htmlformentry.widget.NameWidget;
 import org.openmrs.module.htmlformentry.widget.NumberFieldWidget;
@@ -50,7 +50,6 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -188,12 +187,8 @@ public class PatientDetailSubmissionElement implements HtmlGeneratorElement, For
 			defaultLocation = defaultLocation == null ? context.getDefaultLocation() : defaultLocation;
             identifierLocationWidget.setInitialValue(defaultLocation);
 
-            List<Option> locationOptions = new ArrayList<Option>();
-            for(Location location:Context.getLocationService().getAllLocations()) {
-                Option option = new Option(location.getName(), location.getId().toString(), location.equals(defaultLocation));
-                locationOptions.add(option);
-            }
-            Collections.sort(locationOptions, new OptionComparator());
+            List<Option> locationOptions = MetadataOptionCache.getLocationOptions(true,
+                defaultLocation == null ? null : defaultLocation.getId().toString());
 
             // if initialValueIsSet=false, no initial/default location, hence this shows the 'select input' field as first option
             boolean initialValueIsSet = !(defaultLocation == null);
@@ -45,6 +45,7 @@ public class RelationshipSubmissionElement implements HtmlGeneratorElement,
     private static String FIELD_PROGRAMS = "programIds";
     private static String FIELD_DISPLAY = "display";
     private static String FIELD_LABEL_TEXT = "labelText";
+    private static String FIELD_MAX_OPTIONS = "maxOptions";
 
     private static String DISPLAY_SEARCH = "search";
     private static String DISPLAY_DROPDOWN = "dropDown";
@@ -58,6 +59,7 @@ public class RelationshipSubmissionElement implements HtmlGeneratorElement,
     private String personPrograms;
     private String display;
     private String labelText = null;
+    private Integer maxOptions = null;
 
 
     private List<RelationshipType> relationshipsToCreate = new ArrayList<RelationshipType>();
@@ -143,6 +145,16 @@ public class RelationshipSubmissionElement implements HtmlGeneratorElement,
 
         labelText = parameters.get(FIELD_LABEL_TEXT);
 
+        // limits the number of people listed in the dropDown display, for programs with many patients
+        String maxOptionsStr = parameters.get(FIELD_MAX_OPTIONS);
+        if (maxOptionsStr != null && maxOptionsStr.trim().length() > 0) {
+            try {
+                maxOptions = Integer.valueOf(maxOptionsStr.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Relationship tag maxOptions parameter " + maxOptionsStr + " is not a number.");
+            }
+        }
+
         context.registerWidget(relationshipWidget);
         context.registerErrorWidget(personWidget, personErrorWidget);
 
@@ -250,7 +262,7 @@ public class RelationshipSubmissionElement implements HtmlGeneratorElement,
                 List<Person> personsToExclude = new ArrayList<Person>();
                 // exclude the exisiting patient from any results
                 personsToExclude.add(context.getExistingPatient());
-                personStubWidget.setOptions(Context.getService(HtmlFormEntryService.class).getPeopleAsPersonStubs(searchAttributes, attributeValues, progIds, personsToExclude));
+                personStubWidget.setOptions(Context.getService(HtmlFormEntryService.class).getPeopleAsPersonStubs(searchAttributes, attributeValues, progIds, personsToExclude, null, maxOptions));
             }
 
             if (relationshipWidget != null) {
@@ -0,0 +1,84 @@
+package org.openmrs.module.htmlformentry.export;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands the chunks of an export built by several workers back to the writing thread in order. Chunks
+ * are numbered from 0; a worker that gets more than capacity chunks ahead of the next chunk to be
+ * written waits, so at most capacity chunks are ever held in memory.
+ * <p/>
+ * As long as chunks are given out to workers in order, this can't deadlock: the worker holding the
+ * next chunk to be written is never made to wait.
+ */
+class ExportReorderBuffer<T> {
+
+	private final int capacity;
+
+	private final Map<Integer, T> chunks = new HashMap<Integer, T>();
+
+	private int next = 0;
+
+	private Throwable failure;
+
+	/**
+	 * @param capacity the number of chunks that may be held before workers have to wait
+	 */
+	public ExportReorderBuffer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Adds a chunk, waiting until it is within capacity of the next chunk to be taken
+	 *
+	 * @param index the number of the chunk
+	 * @param chunk the chunk
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IllegalStateException if the export has failed
+	 * @should wait while the chunk is too far ahead
+	 */
+	public synchronized void put(int index, T chunk) throws InterruptedException {
+		while (failure == null && index >= next + capacity) {
+			wait();
+		}
+		if (failure != null)
+			throw new IllegalStateException("Export failed", failure);
+		chunks.put(index, chunk);
+		notifyAll();
+	}
+
+	/**
+	 * Removes and returns the next chunk, waiting until it has been added
+	 *
+	 * @return the next chunk
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IllegalStateException if the export has failed
+	 * @should return chunks in order
+	 * @should throw if a worker failed
+	 */
+	public synchronized T take() throws InterruptedException {
+		while (failure == null && !chunks.containsKey(next)) {
+			wait();
+		}
+		if (failure != null)
+			throw new IllegalStateException("Export failed", failure);
+		T chunk = chunks.remove(next++);
+		notifyAll();
+		return chunk;
+	}
+
+	/**
+	 * Marks the export as failed, waking up everyone waiting on the buffer. Only the first failure is
+	 * kept.
+	 *
+	 * @param t the cause of the failure
+	 */
+	public synchronized void fail(Throwable t) {
+		if (failure == null)
+			failure = t;
+		notifyAll();
+	}
+
+}
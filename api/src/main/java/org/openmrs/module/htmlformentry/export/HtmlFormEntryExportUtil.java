@@ -1,13 +1,20 @@
 package org.openmrs.module.htmlformentry.export;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -22,13 +29,17 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
+import org.openmrs.Form;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.User;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.FormSubmissionController;
 import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.Translator;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
@@ -37,6 +48,7 @@ import org.openmrs.module.htmlformentry.schema.HtmlFormField;
 import org.openmrs.module.htmlformentry.schema.HtmlFormSchema;
 import org.openmrs.module.htmlformentry.schema.ObsField;
 import org.openmrs.module.htmlformentry.schema.ObsGroup;
+import org.openmrs.util.OpenmrsConstants;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -47,7 +59,12 @@ public class HtmlFormEntryExportUtil {
     
     protected final static Log log = LogFactory.getLog(HtmlFormEntryExportUtil.class);
     
-    private static DateFormat DATE_FORMATTER = new SimpleDateFormat("dd-MMM-yyyy");
+    private static final ThreadLocal<DateFormat> DATE_FORMATTER = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("dd-MMM-yyyy");
+        }
+    };
     
     private static final String DEFAULT_QUOTE = "\"";
 
@@ -57,6 +74,11 @@ public class HtmlFormEntryExportUtil {
     
     private static final String EMPTY = "";
     
+    /**
+     * The number of encounters loaded at a time by {@link #writeHtmlFormExport(HtmlForm, Date, Date, List, Writer, Locale, List)}
+     */
+    public static final int DEFAULT_EXPORT_PAGE_SIZE = 100;
+    
     /**
      * returns a Map<Integer, String> of all form sections, in order, 
      * where the String value is either the specified name, or an arbitrary one if none was given.
@@ -162,7 +184,7 @@ public class HtmlFormEntryExportUtil {
         
        //this should move existing obs from session to tag handlers.
         FormEntrySession session = new FormEntrySession(e.getPatient(), e, FormEntryContext.Mode.VIEW, htmlform, null); // session gets a null HttpSession
-        session.getHtmlToDisplay();
+        session.analyzeForm();
         
         if (log.isDebugEnabled()){
             Map<Concept, List<Obs>>  map = session.getContext().getExistingObs();
@@ -240,7 +262,7 @@ public class HtmlFormEntryExportUtil {
      */ 
     public static String generateColumnHeadersFromHtmlForm(HtmlForm form, List<String> extraCols, StringBuffer sb, List<PatientIdentifierType> pitList) throws Exception {
         FormEntrySession session = new FormEntrySession(HtmlFormEntryUtil.getFakePerson(), form, null); // session gets a null HttpSession
-        session.getHtmlToDisplay();
+        session.analyzeForm();
         HtmlFormSchema hfs = session.getContext().getSchema();
         
         sb.
@@ -363,37 +385,175 @@ public class HtmlFormEntryExportUtil {
      */
     public static String generateColumnDataFromHtmlForm(List<Encounter> encounters, HtmlForm form, List<String> extraCols, StringBuffer sb, Locale locale,List<PatientIdentifierType> pitList) throws Exception {
         for (Encounter e: encounters){
-            
-            sb.append(DEFAULT_QUOTE).append(e.getEncounterId()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);         
-            sb.append(DEFAULT_QUOTE).append(DATE_FORMATTER.format(e.getEncounterDatetime())).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
-            sb.append(DEFAULT_QUOTE).append(e.getLocation().getName()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
-            sb.append(DEFAULT_QUOTE).append(e.getProvider().getGivenName()+ " " + e.getProvider().getFamilyName()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
-            sb.append(DEFAULT_QUOTE).append((e.getPatient() != null ? e.getPatient().getPatientId() : EMPTY)).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);       
-            int index = 1;
-            for (PatientIdentifierType pit :  pitList){
-                sb.append(DEFAULT_QUOTE).append(e.getPatient().getPatientIdentifier(pit)).append(DEFAULT_QUOTE);
-                if (index < pitList.size())
-                    sb.append(DEFAULT_COLUMN_SEPARATOR);
-                index ++;
+            sb = appendEncounterRow(e, form, extraCols, sb, locale, pitList);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 
+     * Writes the data rows for the encounters with the given ids. The encounters are loaded pageSize at a time,
+     * each row is written to the writer as soon as it is built, and the hibernate session is flushed and cleared
+     * after each page, so neither the encounters nor the export are ever held in memory as a whole.
+     * <p/>
+     * Since the hibernate session is cleared, the form, its encounter type and the identifier types passed in
+     * should already be initialized (generating the column headers first takes care of this), and the caller
+     * should not hold on to other objects loaded in the same session.
+     * 
+     * @param encounterIds
+     * @param form
+     * @param extraCols
+     * @param writer
+     * @param locale
+     * @param pitList
+     * @param pageSize the number of encounters to load at a time
+     * @return the number of rows written
+     * @throws Exception
+     * @should write a row for each encounter
+     */
+    public static int writeColumnDataFromHtmlForm(List<Integer> encounterIds, HtmlForm form, List<String> extraCols, Writer writer, Locale locale, List<PatientIdentifierType> pitList, int pageSize) throws Exception {
+        int rows = 0;
+        for (int start = 0; start < encounterIds.size(); start += pageSize){
+            List<Integer> page = encounterIds.subList(start, Math.min(start + pageSize, encounterIds.size()));
+            for (Encounter e : HtmlFormEntryUtil.getService().getEncounters(page)){
+                writer.write(appendEncounterRow(e, form, extraCols, new StringBuffer(), locale, pitList).toString());
+                rows++;
             }
-            
-            FormEntrySession session = new FormEntrySession(e.getPatient(), e, Mode.VIEW, form, null); // session doesn't get HttpSession
-            session.getHtmlToDisplay();
-            FormSubmissionController  fsa = session.getSubmissionController();
-            List<FormSubmissionControllerAction> actions = fsa.getActions();
-            for (FormSubmissionControllerAction fsca : actions){
-                if (fsca instanceof ObsSubmissionElement){
-                    ObsSubmissionElement ose = (ObsSubmissionElement) fsca;
-                    sb = appendObsToRow(ose, sb, extraCols, locale);   
-                } else {
-                    //TODO: add programs, orders, logic, etc...
-                    // just make sure these are in the headers too...
-                }
+            writer.flush();
+            Context.flushSession();
+            Context.clearSession();
+        }
+        return rows;
+    }
+    
+    /**
+     * 
+     * Same as {@link #writeColumnDataFromHtmlForm(List, HtmlForm, List, Writer, Locale, List, int)}, but the rows
+     * are built by workerCount threads at once. Each page of encounters is a chunk of work: the workers take
+     * chunks in order, build their rows in their own hibernate session, and the calling thread writes the chunks
+     * out in encounter order as they become available. Workers that get too far ahead of the writer wait, so only
+     * a couple of chunks per worker are ever held in memory.
+     * <p/>
+     * Each worker has its own user context, authenticated as the caller's user, and reloads the form and the
+     * identifier types by id in its own session, so no hibernate object or user context is shared between
+     * threads. Since the workers use their own sessions, they only see committed data. The caller's session is
+     * left untouched.
+     * 
+     * @param encounterIds
+     * @param form
+     * @param extraCols
+     * @param writer
+     * @param locale
+     * @param pitList
+     * @param pageSize the number of encounters in each chunk
+     * @param workerCount the number of threads building rows; with 1 or less the rows are built on the calling
+     *            thread
+     * @return the number of rows written
+     * @throws Exception
+     */
+    public static int writeColumnDataFromHtmlForm(final List<Integer> encounterIds, final HtmlForm form, final List<String> extraCols, Writer writer, final Locale locale, final List<PatientIdentifierType> pitList, final int pageSize, int workerCount) throws Exception {
+        final int chunkCount = (encounterIds.size() + pageSize - 1) / pageSize;
+        if (workerCount <= 1 || chunkCount <= 1)
+            return writeColumnDataFromHtmlForm(encounterIds, form, extraCols, writer, locale, pitList, pageSize);
+        
+        workerCount = Math.min(workerCount, chunkCount);
+        final ExportReorderBuffer<ExportChunk> buffer = new ExportReorderBuffer<ExportChunk>(2 * workerCount);
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Integer formId = form.getId();
+        final List<Integer> pitIds = new ArrayList<Integer>();
+        for (PatientIdentifierType pit : pitList){
+            pitIds.add(pit.getPatientIdentifierTypeId());
+        }
+        final Integer userId = Context.isAuthenticated() ? Context.getAuthenticatedUser().getUserId() : null;
+        final Locale userLocale = Context.getLocale();
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        try {
+            for (int i = 0; i < workerCount; i++){
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            Context.openSession();
+                            ExportUserContext userContext = new ExportUserContext(userId);
+                            userContext.setLocale(userLocale);
+                            Context.setUserContext(userContext);
+                            for (int chunk = nextChunk.getAndIncrement(); chunk < chunkCount; chunk = nextChunk.getAndIncrement()){
+                                int start = chunk * pageSize;
+                                List<Integer> page = encounterIds.subList(start, Math.min(start + pageSize, encounterIds.size()));
+                                // the session is cleared after each chunk, so everything is reloaded for the next one
+                                userContext.loadUser();
+                                HtmlForm workerForm = HtmlFormEntryUtil.getService().getHtmlForm(formId);
+                                List<PatientIdentifierType> workerPitList = new ArrayList<PatientIdentifierType>();
+                                for (Integer pitId : pitIds){
+                                    workerPitList.add(Context.getPatientService().getPatientIdentifierType(pitId));
+                                }
+                                StringBuffer sb = new StringBuffer();
+                                int rows = 0;
+                                for (Encounter e : HtmlFormEntryUtil.getService().getEncounters(page)){
+                                    appendEncounterRow(e, workerForm, extraCols, sb, locale, workerPitList);
+                                    rows++;
+                                }
+                                Context.clearSession();
+                                buffer.put(chunk, new ExportChunk(sb.toString(), rows));
+                            }
+                        } catch (Throwable t){
+                            buffer.fail(t);
+                        } finally {
+                            Context.closeSession();
+                        }
+                    }
+                });
+            }
+            int rows = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++){
+                ExportChunk c = buffer.take();
+                writer.write(c.getRows());
+                writer.flush();
+                rows += c.getRowCount();
             }
-            session = null;
-            sb.append(DEFAULT_LINE_SEPARATOR);
+            return rows;
+        } catch (Exception ex){
+            // stops workers that are still running
+            buffer.fail(ex);
+            throw ex;
+        } finally {
+            workers.shutdown();
         }
-        return sb.toString();
+    }
+    
+    /**
+     * 
+     * Writes the data row for a single encounter
+     */
+    private static StringBuffer appendEncounterRow(Encounter e, HtmlForm form, List<String> extraCols, StringBuffer sb, Locale locale, List<PatientIdentifierType> pitList) throws Exception {
+        sb.append(DEFAULT_QUOTE).append(e.getEncounterId()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);         
+        sb.append(DEFAULT_QUOTE).append(DATE_FORMATTER.get().format(e.getEncounterDatetime())).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
+        sb.append(DEFAULT_QUOTE).append(e.getLocation().getName()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
+        sb.append(DEFAULT_QUOTE).append(e.getProvider().getGivenName()+ " " + e.getProvider().getFamilyName()).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);
+        sb.append(DEFAULT_QUOTE).append((e.getPatient() != null ? e.getPatient().getPatientId() : EMPTY)).append(DEFAULT_QUOTE).append(DEFAULT_COLUMN_SEPARATOR);       
+        int index = 1;
+        for (PatientIdentifierType pit :  pitList){
+            sb.append(DEFAULT_QUOTE).append(e.getPatient().getPatientIdentifier(pit)).append(DEFAULT_QUOTE);
+            if (index < pitList.size())
+                sb.append(DEFAULT_COLUMN_SEPARATOR);
+            index ++;
+        }
+        
+        FormEntrySession session = new FormEntrySession(e.getPatient(), e, Mode.VIEW, form, null); // session doesn't get HttpSession
+        session.analyzeForm();
+        FormSubmissionController  fsa = session.getSubmissionController();
+        List<FormSubmissionControllerAction> actions = fsa.getActions();
+        for (FormSubmissionControllerAction fsca : actions){
+            if (fsca instanceof ObsSubmissionElement){
+                ObsSubmissionElement ose = (ObsSubmissionElement) fsca;
+                sb = appendObsToRow(ose, sb, extraCols, locale);   
+            } else {
+                //TODO: add programs, orders, logic, etc...
+                // just make sure these are in the headers too...
+            }
+        }
+        session = null;
+        sb.append(DEFAULT_LINE_SEPARATOR);
+        return sb;
     }
     
     /**
@@ -482,6 +642,37 @@ public class HtmlFormEntryExportUtil {
         return sb;
     }
     
+    /**
+     * Exports an htmlform to a csv written to the given writer. Unlike
+     * {@link #buildHtmlFormExport(List, HtmlForm, List, StringBuffer, Locale, List)}, the encounters are read
+     * from the database a page at a time as the export is written, so this can be used for exports of any size.
+     * The rows are built by the number of threads given by the {@link org.openmrs.module.htmlformentry.HtmlFormEntryConstants#GP_EXPORT_WORKER_COUNT}
+     * global property.
+     * 
+     * @param htmlForm
+     * @param fromDate the earliest encounter date to export, or null for no lower bound
+     * @param toDate the latest encounter date to export, or null for no upper bound
+     * @param extraCols
+     * @param writer
+     * @param locale
+     * @param pitList
+     * @return the number of data rows written
+     * @throws IOException if writing to the writer fails
+     */
+    public static int writeHtmlFormExport(HtmlForm htmlForm, Date fromDate, Date toDate, List<String> extraCols, Writer writer, Locale locale, List<PatientIdentifierType> pitList) throws IOException {
+        Form form = htmlForm.getForm();
+        List<Integer> encounterIds = HtmlFormEntryUtil.getService().getEncounterIds(form, fromDate, toDate);
+        try {
+            writer.write(HtmlFormEntryExportUtil.generateColumnHeadersFromHtmlForm(htmlForm, extraCols, new StringBuffer(), pitList));
+            return HtmlFormEntryExportUtil.writeColumnDataFromHtmlForm(encounterIds, htmlForm, extraCols, writer, locale, pitList, DEFAULT_EXPORT_PAGE_SIZE, HtmlFormEntryGlobalProperties.EXPORT_WORKER_COUNT());
+        } catch (IOException ex){
+            throw ex;
+        } catch (Exception ex){
+            log.error("Unable to export form " + form, ex);
+            throw new RuntimeException("Unable to export form.  Check the log for details.  Underlying error was: " + ex.getMessage());
+        }
+    }
+    
     /**
      * 
      * format the obs value
@@ -506,4 +697,74 @@ public class HtmlFormEntryExportUtil {
         return ret;
     }
     
+    /**
+     * The user context of an export worker. The worker threads cannot log in again as the caller, and the
+     * caller's own user context (and its user) must not be used from another thread, so this context is
+     * authenticated as the caller's user by loading that user in the worker's own session.
+     */
+    private static class ExportUserContext extends UserContext {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Integer userId;
+        
+        private User user;
+        
+        public ExportUserContext(Integer userId) {
+            this.userId = userId;
+        }
+        
+        /**
+         * (Re)loads the user in the current session
+         */
+        public void loadUser() {
+            if (userId == null)
+                return;
+            Context.addProxyPrivilege(OpenmrsConstants.PRIV_VIEW_USERS);
+            try {
+                user = Context.getUserService().getUser(userId);
+            } finally {
+                Context.removeProxyPrivilege(OpenmrsConstants.PRIV_VIEW_USERS);
+            }
+        }
+        
+        @Override
+        public User getAuthenticatedUser() {
+            return user;
+        }
+        
+        @Override
+        public boolean isAuthenticated() {
+            return user != null;
+        }
+        
+        @Override
+        public boolean hasPrivilege(String privilege) {
+            return super.hasPrivilege(privilege) || (user != null && user.hasPrivilege(privilege));
+        }
+    }
+    
+    /**
+     * The rows built by a worker for one page of encounters
+     */
+    private static class ExportChunk {
+        
+        private final String rows;
+        
+        private final int rowCount;
+        
+        public ExportChunk(String rows, int rowCount) {
+            this.rows = rows;
+            this.rowCount = rowCount;
+        }
+        
+        public String getRows() {
+            return rows;
+        }
+        
+        public int getRowCount() {
+            return rowCount;
+        }
+    }
+    
 }
@@ -8,7 +8,9 @@ import java.util.Map;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.module.htmlformentry.BadFormDesignException;
+import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.element.HtmlGeneratorElement;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
@@ -64,6 +66,14 @@ public abstract class AbstractTagHandler implements TagHandler {
         return attributes;
     }
 
+    /**
+     * Generates the HTML for an element, unless the form is only being analyzed (see
+     * {@link FormEntryContext#isAnalyzeOnly()}), in which case no HTML is needed
+     */
+    protected String generateHtml(HtmlGeneratorElement element, FormEntryContext context) {
+        return context.isAnalyzeOnly() ? "" : element.generateHtml(context);
+    }
+
     protected String toJson(Object object) {
         try {
             return new ObjectMapper().writeValueAsString(object);
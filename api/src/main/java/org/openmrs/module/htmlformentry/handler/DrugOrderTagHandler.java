@@ -32,7 +32,7 @@ public class DrugOrderTagHandler extends SubstitutionTagHandler {
 		DrugOrderSubmissionElement element = new DrugOrderSubmissionElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 		
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
     }
 
 }
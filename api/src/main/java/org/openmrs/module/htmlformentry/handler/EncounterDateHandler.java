@@ -29,7 +29,7 @@ public class EncounterDateHandler extends SubstitutionTagHandler {
         EncounterDetailSubmissionElement element = new EncounterDetailSubmissionElement(session.getContext(), temp);
         session.getSubmissionController().addAction(element);
         
-        return element.generateHtml(session.getContext());
+        return generateHtml(element, session.getContext());
     }
 
 }
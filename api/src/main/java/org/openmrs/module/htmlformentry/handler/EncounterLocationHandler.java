@@ -36,7 +36,7 @@ public class EncounterLocationHandler extends SubstitutionTagHandler {
         EncounterDetailSubmissionElement element = new EncounterDetailSubmissionElement(session.getContext(), temp);
         session.getSubmissionController().addAction(element);
         
-        return element.generateHtml(session.getContext());
+        return generateHtml(element, session.getContext());
     }
 
 }
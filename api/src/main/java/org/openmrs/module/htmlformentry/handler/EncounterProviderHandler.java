@@ -35,7 +35,7 @@ public class EncounterProviderHandler extends SubstitutionTagHandler {
         EncounterDetailSubmissionElement element = new EncounterDetailSubmissionElement(session.getContext(), temp);
         session.getSubmissionController().addAction(element);
         
-        return element.generateHtml(session.getContext());
+        return generateHtml(element, session.getContext());
     }
 
 }
@@ -20,7 +20,7 @@ public class EncounterVoidHandler extends SubstitutionTagHandler {
         EncounterDetailSubmissionElement element = new EncounterDetailSubmissionElement(session.getContext(), temp);
         session.getSubmissionController().addAction(element);
         
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
 	}
 
 }
@@ -30,7 +30,7 @@ public class EnrollInProgramHandler extends SubstitutionTagHandler implements Ta
 		EnrollInProgramElement element = new EnrollInProgramElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 		
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
 	}
 	
 }
@@ -24,6 +24,6 @@ public class ExitFromCareTagHandler extends SubstitutionTagHandler{
         ExitFromCareSubmissionElement element = new ExitFromCareSubmissionElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
     }
 }
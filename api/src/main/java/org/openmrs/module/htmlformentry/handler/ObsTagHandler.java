@@ -38,7 +38,7 @@ public class ObsTagHandler extends AbstractTagHandler {
         FormEntryContext context = session.getContext();
         ObsSubmissionElement element = new ObsSubmissionElement(context, getAttributes(node));
         session.getSubmissionController().addAction(element);
-        out.print(element.generateHtml(context));
+        out.print(generateHtml(element, context));
 
         context.pushToStack(element);
         return true;
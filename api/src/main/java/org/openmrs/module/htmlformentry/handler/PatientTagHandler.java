@@ -32,6 +32,6 @@ public class PatientTagHandler extends SubstitutionTagHandler {
 		PatientDetailSubmissionElement element = new PatientDetailSubmissionElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
 	}
 }
@@ -31,7 +31,7 @@ public class RelationshipTagHandler extends SubstitutionTagHandler {
 		RelationshipSubmissionElement element = new RelationshipSubmissionElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 		
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
     }
 
 }
@@ -30,7 +30,7 @@ public class StandardRegimenTagHandler extends SubstitutionTagHandler {
     	StandardRegimenElement element = new StandardRegimenElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
 		
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
     }
     
 }
@@ -17,6 +17,8 @@ public class VelocityHandler extends SubstitutionTagHandler {
 
     @Override
     protected String getSubstitution(FormEntrySession session, FormSubmissionController controllerActions, Map<String, String> parameters) {
+        if (session.getContext().isAnalyzeOnly())
+            return "";
         String expression = parameters.get("expression");
         String className = parameters.get("class");
         String complexExpression = parameters.get("complexExpression");
@@ -50,7 +50,7 @@ public class WorkflowStateTagHandler extends SubstitutionTagHandler {
                                      Map<String, String> parameters) {
     	WorkflowStateSubmissionElement element = new WorkflowStateSubmissionElement(session.getContext(), parameters);
 		session.getSubmissionController().addAction(element);
-		return element.generateHtml(session.getContext());
+		return generateHtml(element, session.getContext());
     }
 	
 }
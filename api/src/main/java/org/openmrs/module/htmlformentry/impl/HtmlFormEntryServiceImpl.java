@@ -2,35 +2,51 @@ package org.openmrs.module.htmlformentry.impl;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.runtime.RuntimeConstants;
-import org.apache.velocity.runtime.log.CommonsLogLogChute;
-import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
+import org.openmrs.Obs;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.Program;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.htmlformentry.BadFormDesignException;
+import org.openmrs.module.htmlformentry.ExpiringCache;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGenerator;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.db.HtmlFormEntryDAO;
 import org.openmrs.module.htmlformentry.element.PersonStub;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.matching.FormPlan;
+import org.openmrs.module.htmlformentry.velocity.VelocityTemplateCache;
 
 /**
  * Standard implementation of the HtmlFormEntryService
@@ -42,6 +58,25 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
     private HtmlFormEntryDAO dao;
     private static Map<String, TagHandler> handlers = new LinkedHashMap<String, TagHandler>();
     private String basicFormXmlTemplate;
+    /**
+     * Maximum number of plans kept in {@link #formPlans}
+     */
+    public static final int FORM_PLAN_CACHE_MAX_SIZE = 100;
+    
+    // the plans of saved forms, least recently used first, by form id, locale and the roles that restrict the
+    // form (see getFormPlan)
+    @SuppressWarnings("serial")
+    private static Map<String, FormPlan> formPlans = Collections.synchronizedMap(new LinkedHashMap<String, FormPlan>(16,
+            0.75f, true) {
+    	
+    	@Override
+    	protected boolean removeEldestEntry(Map.Entry<String, FormPlan> eldest) {
+    		return size() > FORM_PLAN_CACHE_MAX_SIZE;
+    	}
+    });
+    
+    // the people having each person attribute type, value and result limit looked up recently
+    private static ExpiringCache<String, List<Integer>> personIdsByAttribute = new ExpiringCache<String, List<Integer>>(1000);
 
 	/*
 	 * Optimization to minimize database hits for the needs-name-and-description-migration check.
@@ -120,11 +155,15 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
             htmlForm.setDateChanged(new Date());
         }
         Context.getFormService().saveForm(htmlForm.getForm());
+        HtmlFormEntryGenerator.clearTemplateCache(htmlForm);
+        clearFormPlans(htmlForm);
         return dao.saveHtmlForm(htmlForm);
     }
     
     @Override
     public void purgeHtmlForm(HtmlForm htmlForm) {
+        HtmlFormEntryGenerator.clearTemplateCache(htmlForm);
+        clearFormPlans(htmlForm);
         dao.deleteHtmlForm(htmlForm);
     }
 
@@ -155,18 +194,6 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
 	 */
 	@Override
     public String getStartingFormXml(HtmlForm form) {
-		VelocityEngine velocityEngine = new VelocityEngine();
-        velocityEngine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, 
-        		"org.apache.velocity.runtime.log.CommonsLogLogChute");
-        velocityEngine.setProperty(CommonsLogLogChute.LOGCHUTE_COMMONS_LOG_NAME,
-        		"htmlformentry_velocity");
-        try {
-            velocityEngine.init();
-        }
-        catch (Exception e) {
-            log.error("Error initializing Velocity engine", e);
-        }
-
         VelocityContext velocityContext = new VelocityContext();
         velocityContext.put("htmlForm", form);
         velocityContext.put("identifierTypes", Context.getPatientService().getAllPatientIdentifierTypes(false));
@@ -174,7 +201,7 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
         
         StringWriter writer = new StringWriter();
         try {
-            velocityEngine.evaluate(velocityContext, writer, "Basic HTML Form", getBasicFormXmlTemplate());
+            VelocityTemplateCache.getTemplate(getBasicFormXmlTemplate()).merge(velocityContext, writer);
             String result = writer.toString();
             return result;
         } catch (Exception ex) {
@@ -185,8 +212,23 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
 	
     @Override
 	public List<PersonStub> getUsersAsPersonStubs(String roleName){
-	    return  dao.getUsersAsPersonStubs(roleName);
+	    return  dao.getUsersAsPersonStubs(roleName, null, null);
 	}
+    
+    @Override
+    public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer maxResults) {
+    	return dao.getUsersAsPersonStubs(roleName, null, maxResults);
+    }
+    
+    @Override
+    public List<PersonStub> getUsersAsPersonStubs(String roleName, Integer firstResult, Integer maxResults) {
+    	return dao.getUsersAsPersonStubs(roleName, firstResult, maxResults);
+    }
+    
+    @Override
+    public boolean isUserWithRole(Integer personId, String roleName) {
+    	return dao.isUserWithRole(personId, roleName);
+    }
 
     @Override
     public OpenmrsObject getItemByUuid(Class<? extends OpenmrsObject> type, String uuid) {
@@ -203,105 +245,266 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
 	    return dao.getItemByName(type, name);
     }
     
+    @Override
+    public Map<String, OpenmrsObject> getItemsByUuid(Class<? extends OpenmrsObject> type, Collection<String> uuids) {
+    	return dao.getItemsByUuid(type, uuids);
+    }
+    
+    @Override
+    public Map<Integer, OpenmrsObject> getItemsById(Class<? extends OpenmrsObject> type, Collection<Integer> ids) {
+    	return dao.getItemsById(type, ids);
+    }
+    
+    @Override
+    public Map<String, OpenmrsObject> getItemsByName(Class<? extends OpenmrsMetadata> type, Collection<String> names) {
+    	return dao.getItemsByName(type, names);
+    }
+    
+    @Override
+    public List<Concept> getConceptsWithNamesAndAnswers(Collection<Integer> conceptIds, Collection<String> conceptUuids) {
+    	return dao.getConceptsWithNamesAndAnswers(conceptIds, conceptUuids);
+    }
+    
+    @Override
+    public List<Concept> getConceptsWithNames(Collection<ConceptClass> conceptClasses) {
+    	return dao.getConceptsWithNames(conceptClasses);
+    }
+    
+    @Override
+    public String getChangeFingerprint(Class<? extends OpenmrsObject> type) {
+    	return dao.getChangeFingerprint(type);
+    }
+    
+    @Override
+    public List<Drug> getDrugsWithConcepts() {
+    	return dao.getDrugsWithConcepts();
+    }
+    
+    @Override
+    public Obs getLatestObs(Person person, Concept concept) {
+    	return dao.getLatestObs(person, concept);
+    }
+    
+    @Override
+    public Obs getEarliestObs(Person person, Concept concept) {
+    	return dao.getEarliestObs(person, concept);
+    }
+    
+    @Override
+    public Integer getObsCount(Person person, Concept concept) {
+    	return dao.getObsCount(person, concept);
+    }
+    
+    @Override
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType) {
+    	return dao.getLatestEncounter(patient, encounterType);
+    }
+    
+    @Override
+    public List<Integer> getEncounterIds(Form form, Date fromDate, Date toDate) {
+    	return dao.getEncounterIds(form, fromDate, toDate);
+    }
+    
+    @Override
+    public List<Encounter> getEncounters(List<Integer> encounterIds) {
+    	return dao.getEncounters(encounterIds);
+    }
+    
+    @Override
+    public FormPlan getFormPlan(HtmlForm htmlForm) {
+    	// like the form itself, the plan depends on the locale and, through <restrictByRole>, on the user's roles
+    	String key = getFormPlanKey(htmlForm);
+    	FormPlan plan = key == null ? null : formPlans.get(key);
+    	if (plan == null || !plan.isCurrent(htmlForm)) {
+    		try {
+    			plan = FormPlan.compile(htmlForm);
+    		}
+    		catch (Exception ex) {
+    			throw new APIException("Unable to compile the plan of form " + htmlForm.getName(), ex);
+    		}
+    		if (key != null) {
+    			formPlans.put(key, plan);
+    		}
+    	}
+    	return plan;
+    }
+    
+    private String getFormPlanKey(HtmlForm htmlForm) {
+    	if (htmlForm.getId() == null) {
+    		return null;
+    	}
+    	StringBuilder key = new StringBuilder().append(htmlForm.getId()).append("|").append(Context.getLocale());
+    	User user = Context.getAuthenticatedUser();
+    	if (user != null && htmlForm.getXmlData() != null && htmlForm.getXmlData().contains("<restrictByRole")) {
+    		Set<String> roles = new TreeSet<String>();
+    		for (Role role : user.getAllRoles()) {
+    			roles.add(role.getRole());
+    		}
+    		key.append("|").append(roles);
+    	}
+    	return key.toString();
+    }
+    
+    /**
+     * Drops the cached plans of the given form
+     */
+    private static void clearFormPlans(HtmlForm htmlForm) {
+    	if (htmlForm.getId() == null) {
+    		return;
+    	}
+    	String prefix = htmlForm.getId() + "|";
+    	synchronized (formPlans) {
+    		for (Iterator<String> i = formPlans.keySet().iterator(); i.hasNext();) {
+    			if (i.next().startsWith(prefix)) {
+    				i.remove();
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Drops all cached form plans, e.g. when the module is stopped
+     */
+    public static void clearFormPlans() {
+    	formPlans.clear();
+    }
+    
     @Override
     public List<Integer> getPersonIdsHavingAttributes(String attribute, String attributeValue) {
-    		    
-    	return dao.getPersonIdHavingAttributes(attribute, attributeValue);
+    	PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeTypeByName(attribute);
+    	if (attributeType == null) {
+    		return new ArrayList<Integer>();
+    	}
+    	return getPersonIdsHavingAttribute(attributeType, attributeValue, null);
+    }
+    
+    @Override
+    public List<Integer> getPersonIdsHavingAttribute(PersonAttributeType attributeType, String attributeValue,
+                                                     Integer maxResults) {
+    	long ttlMillis = HtmlFormEntryGlobalProperties.PERSON_ATTRIBUTE_CACHE_SECONDS() * 1000L;
+    	// only a given value is followed by '=', so a missing value and the string "null" get different keys
+    	String key = attributeType.getPersonAttributeTypeId() + ":" + maxResults
+    	        + (attributeValue == null ? "" : "=" + attributeValue);
+    	List<Integer> personIds = ttlMillis > 0 ? personIdsByAttribute.get(key, ttlMillis) : null;
+    	if (personIds == null) {
+    		personIds = Collections.unmodifiableList(dao.getPersonIdsHavingAttribute(
+    		    attributeType.getPersonAttributeTypeId(), attributeValue, maxResults));
+    		if (ttlMillis > 0) {
+    			personIdsByAttribute.put(key, personIds);
+    		}
+    	}
+    	return personIds;
     }
 	 	
 	@Override
     public List<PersonStub> getPeopleAsPersonStubs(List<String> attributes, List<String> attributeValues, List<String> programIds, List<Person> personsToExclude){
-		List<PersonStub> stubs = new ArrayList<PersonStub>();
+		return getPeopleAsPersonStubs(attributes, attributeValues, programIds, personsToExclude, null, null);
+	}
+	
+	@Override
+	public List<PersonStub> getPeopleAsPersonStubs(List<String> attributes, List<String> attributeValues,
+	                                               List<String> programIds, List<Person> personsToExclude,
+	                                               Integer firstResult, Integer maxResults) {
+		List<Integer> attributeTypeIds = getPersonAttributeTypeIds(attributes);
+		// nobody can have an attribute that does not exist
+		if (attributeTypeIds == null) {
+			return new ArrayList<PersonStub>();
+		}
 		
-		Set<Integer> attributeMatches = null;
-		Set<Integer> programMatches = null;
+		List<Integer> programMatchIds = getProgramIds(programIds);
+		boolean programsRequested = programIds != null && hasNonBlank(programIds);
 		
-		if(attributes != null)
-		{
-			for(int i = 0; i < attributes.size(); i++)
-			{
-				String attr = attributes.get(i);
-				String val = null;
-				if(attributeValues != null && attributeValues.size() > i)
-				{
-					val = attributeValues.get(i);
-				}
-				
-				Set<Integer> setOfIds = new HashSet<Integer>();
-				setOfIds.addAll(getPersonIdsHavingAttributes(attr, val));
-					
-				if(attributeMatches != null)
-				{
-					attributeMatches.retainAll(setOfIds);
-				}
-				else
-				{
-					attributeMatches = setOfIds;
+		// people are only matched on the programs that could be found, but if none could be, nobody matches
+		if ((programsRequested && programMatchIds.isEmpty()) || (attributeTypeIds.isEmpty() && programMatchIds.isEmpty())) {
+			return new ArrayList<PersonStub>();
+		}
+		
+		Set<Integer> personIdsToExclude = new HashSet<Integer>();
+		if (personsToExclude != null) {
+			for (Person person : personsToExclude) {
+				if (person != null && person.getPersonId() != null) {
+					personIdsToExclude.add(person.getPersonId());
 				}
 			}
 		}
 		
-		if(programIds != null)
-		{
-			for(String prog: programIds)
-		{
-				if(prog != null && prog.trim().length() > 0)
-				{
-					Program personProgram = HtmlFormEntryUtil.getProgram(prog);
-					
-					if(personProgram != null)
-					{
-						Cohort pp = Context.getPatientSetService().getPatientsInProgram(personProgram, null, null);
-						if(programMatches != null)
-						{
-							programMatches.retainAll(pp.getMemberIds());
-						}
-						else 
-						{
-							programMatches = pp.getMemberIds();
-						}
-					}
+		return dao.getPeopleAsPersonStubs(attributeTypeIds, attributeValues, programMatchIds, personIdsToExclude,
+		    firstResult, maxResults);
+	}
+	
+	@Override
+	public List<PersonStub> searchPeopleAsPersonStubs(String searchPhrase, List<String> attributes,
+	                                                  List<String> attributeValues, List<String> programIds,
+	                                                  Integer firstResult, Integer maxResults) {
+		List<String> nameWords = new ArrayList<String>();
+		if (searchPhrase != null) {
+			for (String word : searchPhrase.trim().split("[\\s,]+")) {
+				if (word.length() > 0) {
+					nameWords.add(word);
 				}
 			}
 		}
-		
-		Set<Integer> results;
-		
-		// if no attributes specified, just use to the program matches
-		if (attributes == null || attributes.isEmpty()) {
-			results = programMatches;
+		if (nameWords.isEmpty()) {
+			return new ArrayList<PersonStub>();
 		}
-		// if no programs specified, just use the attribute matches
-		else if (programIds == null || programIds.isEmpty()) {
-			results = attributeMatches;
+		// also search on patient identifier if the query contains a number
+		String identifier = searchPhrase.matches(".*\\d+.*") ? searchPhrase.trim() : null;
+		
+		List<Integer> attributeTypeIds = getPersonAttributeTypeIds(attributes);
+		if (attributeTypeIds == null) {
+			return new ArrayList<PersonStub>();
 		}
-		// otherwise, intersect the results
-		else {
-			results = programMatches;
-			if (results != null) {
-				results.retainAll(attributeMatches);
+		return dao.searchPersonStubs(nameWords, identifier, attributeTypeIds, attributeValues, getProgramIds(programIds),
+		    firstResult, maxResults);
+	}
+	
+	/**
+	 * @return the ids of the person attribute types with the given names, or null if one of them does not exist
+	 */
+	private List<Integer> getPersonAttributeTypeIds(List<String> attributes) {
+		List<Integer> attributeTypeIds = new ArrayList<Integer>();
+		if (attributes != null) {
+			for (String attr : attributes) {
+				PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeTypeByName(attr);
+				if (attributeType == null) {
+					return null;
+				}
+				attributeTypeIds.add(attributeType.getPersonAttributeTypeId());
 			}
 		}
-		
-		
-		if(results != null)
-		{
-			//now iterate through the results, returning person stubs
-			for(Integer id : results)
-			{
-				Person person = Context.getPersonService().getPerson(id);
-				if(person != null && !personsToExclude.contains(person))
-				{
-					PersonStub pStub = new PersonStub();
-					pStub.setGivenName(person.getGivenName());
-					pStub.setFamilyName(person.getFamilyName());
-					pStub.setMiddleName(person.getMiddleName());
-				pStub.setId(id);
-					stubs.add(pStub);
+		return attributeTypeIds;
+	}
+	
+	/**
+	 * @return the ids of the programs that could be found, skipping blank and unknown ones
+	 */
+	private List<Integer> getProgramIds(List<String> programIds) {
+		List<Integer> ret = new ArrayList<Integer>();
+		if (programIds != null) {
+			for (String prog : programIds) {
+				if (prog != null && prog.trim().length() > 0) {
+					Program personProgram = HtmlFormEntryUtil.getProgram(prog);
+					if (personProgram != null) {
+						ret.add(personProgram.getProgramId());
+					}
 				}
 			}
 		}
-		return stubs;
+		return ret;
+	}
+	
+	private boolean hasNonBlank(List<String> values) {
+		for (String value : values) {
+			if (value != null && value.trim().length() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	@Override
+	public List<PersonStub> getPersonStubs(Collection<Integer> personIds) {
+		return dao.getPersonStubs(personIds);
 	}
 	
 	@Override
@@ -0,0 +1,199 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGenerator;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.MetadataResolutionCache;
+import org.openmrs.module.htmlformentry.ObsGroupComponent;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The obs questions, answers and obs groups of an {@link HtmlForm}, compiled once so that the obs of
+ * many encounters can be matched to the form without creating a {@link org.openmrs.module.htmlformentry.FormEntrySession}
+ * (and so running the tag handlers) for each encounter. Existing obs are matched as they are when the
+ * form is viewed, so {@link #match(Encounter)} finds the same obs as the {@code <obs>} and
+ * {@code <obsgroup>} tags of a session would.
+ * <p/>
+ * A plan is immutable and can be shared between threads. The concepts it holds are only compared with
+ * the concepts of existing obs, so a plan can also outlive the hibernate session it was compiled in.
+ * <p/>
+ * Conditional content ({@code <includeIf>}, {@code <excludeIf>}, {@code <ifMode>} and the like) is not
+ * evaluated, since it may depend on the patient: every {@code <obs>} and {@code <obsgroup>} tag of the
+ * form is part of the plan. Orders and other kinds of data are not matched.
+ * <p/>
+ * Use {@link org.openmrs.module.htmlformentry.HtmlFormEntryService#getFormPlan(HtmlForm)} to get the
+ * plan of a saved form, which is only compiled again when the form changes.
+ */
+public class FormPlan {
+
+	private final Integer htmlFormId;
+
+	private final Date dateChanged;
+
+	private final List<FormPlanItem> items;
+
+	private final List<ObsPlanItem> obsItems;
+
+	private FormPlan(HtmlForm htmlForm, List<FormPlanItem> items) {
+		this.htmlFormId = htmlForm.getId();
+		this.dateChanged = htmlForm.getDateChanged() == null ? null : new Date(htmlForm.getDateChanged().getTime());
+		this.items = items;
+		List<ObsPlanItem> obsItems = new ArrayList<ObsPlanItem>();
+		collectObsItems(items, obsItems);
+		this.obsItems = Collections.unmodifiableList(obsItems);
+	}
+
+	/**
+	 * Compiles the plan of a form
+	 *
+	 * @param htmlForm the form
+	 * @return the plan
+	 * @throws Exception if the form can't be preprocessed
+	 * @should compile the obs and obs groups of the form
+	 */
+	public static FormPlan compile(HtmlForm htmlForm) throws Exception {
+		FormEntryContext context = new FormEntryContext(Mode.VIEW);
+		MetadataResolutionCache previous = MetadataResolutionCache.bind(context.getMetadataResolutionCache());
+		try {
+			HtmlFormEntryGenerator generator = new HtmlFormEntryGenerator();
+			Document doc = generator.compileTemplate(htmlForm, htmlForm.getXmlData(), context);
+			generator.prefetchConcepts(doc);
+			return new FormPlan(htmlForm, compileChildren(HtmlFormEntryUtil.findChild(doc, "htmlform")));
+		}
+		finally {
+			MetadataResolutionCache.bind(previous);
+		}
+	}
+
+	private static List<FormPlanItem> compileChildren(Node node) {
+		List<FormPlanItem> items = new ArrayList<FormPlanItem>();
+		compileChildren(node, items);
+		return Collections.unmodifiableList(items);
+	}
+
+	private static void compileChildren(Node node, List<FormPlanItem> items) {
+		NodeList children = node.getChildNodes();
+		for (int i = 0; i < children.getLength(); ++i) {
+			Node child = children.item(i);
+			if (child.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			if ("obs".equals(child.getNodeName())) {
+				items.add(ObsPlanItem.compile(getAttributes(child)));
+			} else if ("obsgroup".equals(child.getNodeName())) {
+				items.add(compileObsGroup(child));
+			} else {
+				compileChildren(child, items);
+			}
+		}
+	}
+
+	private static ObsGroupPlanItem compileObsGroup(Node node) {
+		String groupingConceptId = getAttributes(node).get("groupingConceptId");
+		if (groupingConceptId == null) {
+			throw new IllegalArgumentException("obsgroup tag requires a groupingConceptId attribute");
+		}
+		Concept groupingConcept = HtmlFormEntryUtil.getConcept(groupingConceptId);
+		if (groupingConcept == null) {
+			throw new IllegalArgumentException("could not find concept " + groupingConceptId
+			        + " as grouping obs for an obsgroup tag");
+		}
+		List<ObsGroupComponent> questionsAndAnswers = Collections.unmodifiableList(ObsGroupComponent
+		        .findQuestionsAndAnswersForGroup(groupingConceptId, node));
+		return new ObsGroupPlanItem(groupingConcept, groupingConceptId, ObsGroupComponent.getObsGroupPath(node),
+		        questionsAndAnswers, compileChildren(node));
+	}
+
+	private static Map<String, String> getAttributes(Node node) {
+		Map<String, String> attributes = new HashMap<String, String>();
+		NamedNodeMap map = node.getAttributes();
+		for (int i = 0; i < map.getLength(); ++i) {
+			attributes.put(map.item(i).getNodeName(), map.item(i).getNodeValue());
+		}
+		return attributes;
+	}
+
+	private static void collectObsItems(List<FormPlanItem> items, List<ObsPlanItem> obsItems) {
+		for (FormPlanItem item : items) {
+			if (item instanceof ObsPlanItem) {
+				obsItems.add((ObsPlanItem) item);
+			} else {
+				collectObsItems(((ObsGroupPlanItem) item).getChildren(), obsItems);
+			}
+		}
+	}
+
+	/**
+	 * Matches the obs of an encounter to the plan, in the same way as viewing the encounter with the
+	 * form would
+	 *
+	 * @param encounter the encounter
+	 * @return the obs and obs groups matched to each item of the plan
+	 * @should match the same obs as viewing the form
+	 * @should match the obs of many encounters
+	 */
+	public FormPlanMatch match(Encounter encounter) {
+		FormEntryContext context = new FormEntryContext(Mode.VIEW);
+		context.setupExistingData(encounter);
+		FormPlanMatch result = new FormPlanMatch(encounter);
+
+		List<ObsGroupPlanItem> unmatchedGroups = new ArrayList<ObsGroupPlanItem>();
+		for (FormPlanItem item : items) {
+			item.match(context, result, unmatchedGroups);
+		}
+		if (unmatchedGroups.size() > 0) {
+			// the second pass over unmatched obs groups, as done by FormEntrySession
+			if (unmatchedGroups.size() > 1 && context.getExistingObsInGroupsCount() > 0)
+				context.setGuessingInd(true);
+			context.setUnmatchedMode(true);
+			for (ObsGroupPlanItem group : unmatchedGroups) {
+				group.match(context, result, null);
+			}
+		}
+		result.setGuessing(context.isGuessingInd());
+		return result;
+	}
+
+	/**
+	 * @param htmlForm a form
+	 * @return whether this plan was compiled from the current version of the given form
+	 */
+	public boolean isCurrent(HtmlForm htmlForm) {
+		if (htmlFormId == null || !htmlFormId.equals(htmlForm.getId())) {
+			return false;
+		}
+		Date formDateChanged = htmlForm.getDateChanged();
+		return dateChanged == null ? formDateChanged == null : formDateChanged != null
+		        && dateChanged.getTime() == formDateChanged.getTime();
+	}
+
+	/**
+	 * @return the top level items of the plan, in the order they appear in the form
+	 */
+	public List<FormPlanItem> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return every obs item of the plan, including those inside obs groups, in the order they appear in
+	 *         the form
+	 */
+	public List<ObsPlanItem> getObsItems() {
+		return obsItems;
+	}
+
+}
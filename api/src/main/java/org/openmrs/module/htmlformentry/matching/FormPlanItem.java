@@ -0,0 +1,26 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.List;
+
+import org.openmrs.module.htmlformentry.FormEntryContext;
+
+/**
+ * An element of a {@link FormPlan}: either an {@code <obs>} tag ({@link ObsPlanItem}) or an
+ * {@code <obsgroup>} tag ({@link ObsGroupPlanItem}). Items are immutable, and match existing data
+ * through a {@link FormEntryContext} in the same way as the elements built by the tag handlers.
+ */
+public abstract class FormPlanItem {
+
+	/**
+	 * Matches this item against the existing data held by the context, recording what it matched in
+	 * the result
+	 *
+	 * @param context the context holding the existing data of the encounter being matched
+	 * @param result the result to record matches in
+	 * @param unmatchedGroups obs groups that could not be matched are added to this list, to be
+	 *            matched again once the whole form has been seen; null when that second pass is
+	 *            being done
+	 */
+	abstract void match(FormEntryContext context, FormPlanMatch result, List<ObsGroupPlanItem> unmatchedGroups);
+
+}
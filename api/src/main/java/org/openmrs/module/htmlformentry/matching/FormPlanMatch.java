@@ -0,0 +1,117 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+/**
+ * The result of matching the obs of an encounter against a {@link FormPlan} (see
+ * {@link FormPlan#match(Encounter)}): which existing obs and obs groups were matched to which items
+ * of the plan.
+ */
+public class FormPlanMatch {
+
+	private final Encounter encounter;
+
+	private final Map<ObsPlanItem, List<Obs>> obsByItem = new HashMap<ObsPlanItem, List<Obs>>();
+
+	private final Map<ObsGroupPlanItem, Obs> obsGroupByItem = new HashMap<ObsGroupPlanItem, Obs>();
+
+	private final Set<Obs> matchedObs = new LinkedHashSet<Obs>();
+
+	private boolean guessing = false;
+
+	FormPlanMatch(Encounter encounter) {
+		this.encounter = encounter;
+	}
+
+	void addObs(ObsPlanItem item, Obs obs) {
+		if (obs != null) {
+			List<Obs> list = obsByItem.get(item);
+			if (list == null) {
+				list = new ArrayList<Obs>();
+				obsByItem.put(item, list);
+			}
+			list.add(obs);
+			matchedObs.add(obs);
+		}
+	}
+
+	void addObsGroup(ObsGroupPlanItem item, Obs obsGroup) {
+		if (obsGroup != null) {
+			obsGroupByItem.put(item, obsGroup);
+			matchedObs.add(obsGroup);
+		}
+	}
+
+	void setGuessing(boolean guessing) {
+		this.guessing = guessing;
+	}
+
+	public Encounter getEncounter() {
+		return encounter;
+	}
+
+	/**
+	 * @param item an obs item of the plan
+	 * @return the obs matched to the item, or null if none was
+	 */
+	public Obs getObs(ObsPlanItem item) {
+		List<Obs> list = obsByItem.get(item);
+		return list == null ? null : list.get(0);
+	}
+
+	/**
+	 * @param item an obs item of the plan
+	 * @return all the obs matched to the item (more than one only for autocompletes that select
+	 *         multiple answers)
+	 */
+	public List<Obs> getAllObs(ObsPlanItem item) {
+		List<Obs> list = obsByItem.get(item);
+		return list == null ? Collections.<Obs> emptyList() : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @param item an obs group item of the plan
+	 * @return the obs group matched to the item, or null if none was
+	 */
+	public Obs getObsGroup(ObsGroupPlanItem item) {
+		return obsGroupByItem.get(item);
+	}
+
+	/**
+	 * @return every obs and obs group matched to an item of the plan
+	 */
+	public Set<Obs> getMatchedObs() {
+		return Collections.unmodifiableSet(matchedObs);
+	}
+
+	/**
+	 * @return the non-voided obs of the encounter that were not matched to any item of the plan
+	 */
+	public List<Obs> getUnmatchedObs() {
+		List<Obs> ret = new ArrayList<Obs>();
+		for (Obs obs : encounter.getAllObs(false)) {
+			if (!matchedObs.contains(obs)) {
+				ret.add(obs);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return whether some obs groups had to be matched by guessing, as when viewing the form (see
+	 *         {@link org.openmrs.module.htmlformentry.FormEntryContext#isGuessingInd()})
+	 */
+	public boolean isGuessing() {
+		return guessing;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.List;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.ObsGroupComponent;
+import org.openmrs.module.htmlformentry.handler.ObsGroupTagHandler;
+import org.openmrs.module.htmlformentry.schema.ObsGroup;
+
+/**
+ * The part of a {@link FormPlan} for an {@code <obsgroup>} tag: its grouping concept, its path in the
+ * obs group hierarchy, the questions and answers used to pick the best matching existing obs group,
+ * and the items inside it. This mirrors the matching done by {@link ObsGroupTagHandler}.
+ */
+public class ObsGroupPlanItem extends FormPlanItem {
+
+	private final Concept groupingConcept;
+
+	private final String groupingConceptId;
+
+	private final String path;
+
+	private final List<ObsGroupComponent> questionsAndAnswers;
+
+	private final List<FormPlanItem> children;
+
+	ObsGroupPlanItem(Concept groupingConcept, String groupingConceptId, String path,
+	    List<ObsGroupComponent> questionsAndAnswers, List<FormPlanItem> children) {
+		this.groupingConcept = groupingConcept;
+		this.groupingConceptId = groupingConceptId;
+		this.path = path;
+		this.questionsAndAnswers = questionsAndAnswers;
+		this.children = children;
+	}
+
+	@Override
+	void match(FormEntryContext context, FormPlanMatch result, List<ObsGroupPlanItem> unmatchedGroups) {
+		Obs group;
+		if (context.isUnmatchedMode()) {
+			group = context.getNextUnmatchedObsGroup(path);
+		} else {
+			group = context.findBestMatchingObsGroup(questionsAndAnswers, groupingConceptId, path);
+			if (group == null) {
+				// as for the tag, the contents are only matched on the second pass
+				unmatchedGroups.add(this);
+				return;
+			}
+		}
+		result.addObsGroup(this, group);
+		context.beginObsGroup(groupingConcept, group, new ObsGroup(groupingConcept, null));
+		for (FormPlanItem child : children) {
+			child.match(context, result, unmatchedGroups);
+		}
+		context.endObsGroup();
+	}
+
+	public Concept getGroupingConcept() {
+		return groupingConcept;
+	}
+
+	/**
+	 * @return the path of this group in the obs group hierarchy (see
+	 *         {@link ObsGroupComponent#getObsGroupPath(org.w3c.dom.Node)})
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the questions and answers of this group, which must not be modified
+	 */
+	public List<ObsGroupComponent> getQuestionsAndAnswers() {
+		return questionsAndAnswers;
+	}
+
+	public List<FormPlanItem> getChildren() {
+		return children;
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.element.ObsSubmissionElement;
+
+/**
+ * The part of a {@link FormPlan} for a single {@code <obs>} tag: the question (or questions, for a
+ * concept select), the answer if the tag is for a specific answer, and how existing obs are matched
+ * to it. This mirrors the matching done by {@link ObsSubmissionElement}.
+ */
+public class ObsPlanItem extends FormPlanItem {
+
+	/**
+	 * How existing obs are matched to an {@code <obs>} tag
+	 */
+	public enum MatchStyle {
+		/** the first obs for the question, with the answer if there is one */
+		ANSWER,
+		/** the first obs for any of the questions, with the answer */
+		CONCEPT_SELECT,
+		/** a boolean checkbox, matching the obs with the checkbox's value */
+		BOOLEAN_CHECKBOX,
+		/** a numeric checkbox, matching the obs with the checkbox's value */
+		NUMERIC_CHECKBOX,
+		/** an autocomplete that selects multiple answers, matching every obs for the question */
+		ALL_ANSWERS
+	}
+
+	private final Concept question;
+
+	private final List<Concept> questions;
+
+	private final Concept answer;
+
+	private final MatchStyle matchStyle;
+
+	private final String value;
+
+	private ObsPlanItem(Concept question, List<Concept> questions, Concept answer, MatchStyle matchStyle, String value) {
+		this.question = question;
+		this.questions = questions;
+		this.answer = answer;
+		this.matchStyle = matchStyle;
+		this.value = value;
+	}
+
+	/**
+	 * Builds the plan item for an {@code <obs>} tag
+	 *
+	 * @param parameters the attributes of the tag
+	 * @return the plan item
+	 */
+	static ObsPlanItem compile(Map<String, String> parameters) {
+		String conceptId = parameters.get("conceptId");
+		String conceptIds = parameters.get("conceptIds");
+		if (conceptId != null && conceptIds != null)
+			throw new IllegalArgumentException("You can't use conceptId and conceptIds in the same tag!");
+		else if (conceptId == null && conceptIds == null)
+			throw new IllegalArgumentException("You must include either conceptId or conceptIds in an obs tag");
+
+		Concept answer = null;
+		if (StringUtils.isNotBlank(parameters.get("answerConceptId"))) {
+			answer = getConcept(parameters.get("answerConceptId"), parameters);
+		}
+
+		if (conceptIds != null) {
+			List<Concept> questions = new ArrayList<Concept>();
+			for (StringTokenizer st = new StringTokenizer(conceptIds, ","); st.hasMoreTokens();) {
+				questions.add(getConcept(st.nextToken().trim(), parameters));
+			}
+			return new ObsPlanItem(null, Collections.unmodifiableList(questions), answer, MatchStyle.CONCEPT_SELECT, null);
+		}
+
+		Concept question = getConcept(conceptId, parameters);
+		String style = parameters.get("style");
+		if (question.getDatatype().isBoolean() && "checkbox".equals(style)) {
+			// anything but 'false' is treated as 'true', as by the obs tag
+			String value = "false".equals(parameters.get("value")) ? "false" : "true";
+			return new ObsPlanItem(question, null, answer, MatchStyle.BOOLEAN_CHECKBOX, value);
+		} else if (question.getDatatype().isNumeric() && "checkbox".equals(style)) {
+			return new ObsPlanItem(question, null, answer, MatchStyle.NUMERIC_CHECKBOX, parameters.get("answer"));
+		} else if ("autocomplete".equals(style) && "true".equals(parameters.get("selectMulti"))) {
+			return new ObsPlanItem(question, null, answer, MatchStyle.ALL_ANSWERS, null);
+		}
+		return new ObsPlanItem(question, null, answer, MatchStyle.ANSWER, null);
+	}
+
+	private static Concept getConcept(String identifier, Map<String, String> parameters) {
+		Concept concept = HtmlFormEntryUtil.getConcept(identifier);
+		if (concept == null)
+			throw new IllegalArgumentException("Cannot find concept for value " + identifier + " in obs tag. Parameters: "
+			        + parameters);
+		return concept;
+	}
+
+	@Override
+	void match(FormEntryContext context, FormPlanMatch result, List<ObsGroupPlanItem> unmatchedGroups) {
+		if (context.getCurrentObsGroupConcepts().size() > 0) {
+			result.addObs(this, context.getObsFromCurrentGroup(question, answer));
+		} else if (matchStyle == MatchStyle.CONCEPT_SELECT) {
+			result.addObs(this, context.removeExistingObs(questions, answer));
+		} else if (matchStyle == MatchStyle.BOOLEAN_CHECKBOX) {
+			result.addObs(this, context.removeExistingObs(question, Boolean.valueOf(value)));
+		} else if (matchStyle == MatchStyle.NUMERIC_CHECKBOX) {
+			result.addObs(this, context.removeExistingObs(question, value));
+		} else if (matchStyle == MatchStyle.ALL_ANSWERS) {
+			List<Obs> obs = context.removeExistingObs(question);
+			if (obs != null) {
+				for (Obs o : obs) {
+					result.addObs(this, o);
+				}
+			}
+		} else {
+			result.addObs(this, context.removeExistingObs(question, answer));
+		}
+	}
+
+	/**
+	 * @return the question, or null for a concept select
+	 */
+	public Concept getQuestion() {
+		return question;
+	}
+
+	/**
+	 * @return the questions of a concept select, or null
+	 */
+	public List<Concept> getQuestions() {
+		return questions;
+	}
+
+	/**
+	 * @return the answer the tag is for, or null
+	 */
+	public Concept getAnswer() {
+		return answer;
+	}
+
+	public MatchStyle getMatchStyle() {
+		return matchStyle;
+	}
+
+}
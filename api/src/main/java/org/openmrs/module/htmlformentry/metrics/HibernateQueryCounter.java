@@ -0,0 +1,54 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openmrs.api.context.Context;
+
+/**
+ * Counts queries using the statistics of the hibernate session factory, which are switched on while
+ * the counter is in use. The statistics are global, so queries issued by other threads at the same
+ * time are counted too: the counts are only exact on a quiet server.
+ */
+public class HibernateQueryCounter implements QueryCounter {
+
+	private final Statistics statistics;
+
+	private final boolean wasEnabled;
+
+	private HibernateQueryCounter(Statistics statistics) {
+		this.statistics = statistics;
+		this.wasEnabled = statistics.isStatisticsEnabled();
+		if (!wasEnabled)
+			statistics.setStatisticsEnabled(true);
+	}
+
+	/**
+	 * @return a counter for the session factory of the application, or null if there is none
+	 */
+	public static QueryCounter create() {
+		List<SessionFactory> sessionFactories = Context.getRegisteredComponents(SessionFactory.class);
+		if (sessionFactories == null || sessionFactories.isEmpty())
+			return null;
+		return new HibernateQueryCounter(sessionFactories.get(0).getStatistics());
+	}
+
+	/**
+	 * @see QueryCounter#getQueryCount()
+	 */
+	public long getQueryCount() {
+		return statistics.getPrepareStatementCount();
+	}
+
+	/**
+	 * Switches the statistics off again, if they were off before
+	 *
+	 * @see QueryCounter#release()
+	 */
+	public void release() {
+		if (!wasEnabled)
+			statistics.setStatisticsEnabled(false);
+	}
+
+}
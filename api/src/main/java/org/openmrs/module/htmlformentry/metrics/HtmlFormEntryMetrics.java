@@ -0,0 +1,158 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.htmlformentry.HtmlForm;
+
+/**
+ * Collects latency histograms for the stages of generating and submitting forms, so that slow
+ * forms, slow preprocessing stages and slow tags can be found on a running server.
+ * <p/>
+ * Stages are named after what they time:
+ * <ul>
+ * <li>{@code createForm}, {@code analyzeForm}, {@code validateSubmission}, {@code handleFormSubmission}
+ * and {@code applyActions} for the main steps of showing and submitting a form</li>
+ * <li>{@code createForm.<stage>} for the preprocessing stages of the generator, e.g.
+ * {@code createForm.applyMacros}</li>
+ * <li>{@code applyTags.<tag>} for the time spent in the handler of each kind of tag, not counting
+ * the tags inside it, e.g. {@code applyTags.obs}</li>
+ * <li>{@code applyActions.<phase>} for the phases of applying the actions of a submission, e.g.
+ * {@code applyActions.voidObs}</li>
+ * </ul>
+ * Every stage is counted across all forms. The main steps (the stages without a '.') are also counted
+ * per form.
+ */
+public class HtmlFormEntryMetrics {
+
+	private static final Log log = LogFactory.getLog(HtmlFormEntryMetrics.class);
+
+	private static final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private static final ConcurrentMap<Integer, ConcurrentMap<String, LatencyHistogram>> formStages = new ConcurrentHashMap<Integer, ConcurrentMap<String, LatencyHistogram>>();
+
+	private static final List<StageTimingListener> listeners = new CopyOnWriteArrayList<StageTimingListener>();
+
+	private static volatile boolean enabled = true;
+
+	/**
+	 * @return the time to pass to {@link #record(String, HtmlForm, long)} once the stage completes
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records that a stage has completed
+	 *
+	 * @param stage the name of the stage
+	 * @param htmlForm the form, or null if not known
+	 * @param startNanos the value returned by {@link #start()} when the stage started
+	 */
+	public static void record(String stage, HtmlForm htmlForm, long startNanos) {
+		if (enabled) {
+			recordNanos(stage, htmlForm == null ? null : htmlForm.getId(), System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Records that a stage has completed
+	 *
+	 * @param stage the name of the stage
+	 * @param htmlFormId the id of the form, or null if not known
+	 * @param nanos how long the stage took, in nanoseconds
+	 */
+	public static void recordNanos(String stage, Integer htmlFormId, long nanos) {
+		if (!enabled) {
+			return;
+		}
+		getHistogram(stages, stage).record(nanos);
+		if (htmlFormId != null && stage.indexOf('.') < 0) {
+			ConcurrentMap<String, LatencyHistogram> forForm = formStages.get(htmlFormId);
+			if (forForm == null) {
+				formStages.putIfAbsent(htmlFormId, new ConcurrentHashMap<String, LatencyHistogram>());
+				forForm = formStages.get(htmlFormId);
+			}
+			getHistogram(forForm, stage).record(nanos);
+		}
+		for (StageTimingListener listener : listeners) {
+			try {
+				listener.stageCompleted(stage, htmlFormId, nanos);
+			}
+			catch (RuntimeException ex) {
+				log.warn("Error in stage timing listener " + listener, ex);
+			}
+		}
+	}
+
+	private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> histograms, String stage) {
+		LatencyHistogram histogram = histograms.get(stage);
+		if (histogram == null) {
+			histograms.putIfAbsent(stage, new LatencyHistogram());
+			histogram = histograms.get(stage);
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return a snapshot of every stage, across all forms, by stage name
+	 * @should return the stages recorded
+	 */
+	public static Map<String, LatencySnapshot> getStageSnapshots() {
+		return getSnapshots(stages);
+	}
+
+	/**
+	 * @return a snapshot of the main steps of each form, by html form id and stage name
+	 * @should only count the main steps per form
+	 */
+	public static Map<Integer, Map<String, LatencySnapshot>> getFormSnapshots() {
+		Map<Integer, Map<String, LatencySnapshot>> ret = new TreeMap<Integer, Map<String, LatencySnapshot>>();
+		for (Map.Entry<Integer, ConcurrentMap<String, LatencyHistogram>> e : formStages.entrySet()) {
+			ret.put(e.getKey(), getSnapshots(e.getValue()));
+		}
+		return ret;
+	}
+
+	private static Map<String, LatencySnapshot> getSnapshots(Map<String, LatencyHistogram> histograms) {
+		Map<String, LatencySnapshot> ret = new TreeMap<String, LatencySnapshot>();
+		for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+			ret.put(e.getKey(), e.getValue().getSnapshot());
+		}
+		return ret;
+	}
+
+	/**
+	 * Discards everything recorded so far
+	 */
+	public static void reset() {
+		stages.clear();
+		formStages.clear();
+	}
+
+	public static void addListener(StageTimingListener listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(StageTimingListener listener) {
+		listeners.remove(listener);
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled whether timings should be recorded (and listeners notified)
+	 */
+	public static void setEnabled(boolean enabled) {
+		HtmlFormEntryMetrics.enabled = enabled;
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of how long something took, with fixed, roughly logarithmic buckets. Recording is
+ * lock-free: the counters are striped by thread, so that threads recording at the same time rarely
+ * touch the same counters, and are only added up when a {@link LatencySnapshot} is taken.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The upper bounds of the buckets, in microseconds. There is one more bucket, for anything slower
+	 * than the last bound.
+	 */
+	public static final long[] BUCKET_BOUNDS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000,
+	        250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+	private static final int STRIPES = 4;
+
+	// the layout of each stripe: one counter per bucket, then the count, the total and the maximum
+	private static final int COUNT = BUCKET_BOUNDS_MICROS.length + 1;
+
+	private static final int TOTAL_NANOS = COUNT + 1;
+
+	private static final int MAX_NANOS = COUNT + 2;
+
+	private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+	public LatencyHistogram() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new AtomicLongArray(MAX_NANOS + 1);
+		}
+	}
+
+	/**
+	 * Records one occurrence
+	 *
+	 * @param nanos how long it took, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		AtomicLongArray stripe = stripes[(int) (Thread.currentThread().getId() % STRIPES)];
+		stripe.incrementAndGet(getBucket(nanos));
+		stripe.incrementAndGet(COUNT);
+		stripe.addAndGet(TOTAL_NANOS, nanos);
+		long max = stripe.get(MAX_NANOS);
+		while (nanos > max && !stripe.compareAndSet(MAX_NANOS, max, nanos)) {
+			max = stripe.get(MAX_NANOS);
+		}
+	}
+
+	private static int getBucket(long nanos) {
+		long micros = nanos / 1000;
+		for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+			if (micros <= BUCKET_BOUNDS_MICROS[i])
+				return i;
+		}
+		return BUCKET_BOUNDS_MICROS.length;
+	}
+
+	/**
+	 * @return the counts recorded so far. Occurrences recorded while the snapshot is taken may be
+	 *         partly included.
+	 */
+	public LatencySnapshot getSnapshot() {
+		long[] buckets = new long[BUCKET_BOUNDS_MICROS.length + 1];
+		long count = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] += stripe.get(i);
+			}
+			count += stripe.get(COUNT);
+			totalNanos += stripe.get(TOTAL_NANOS);
+			maxNanos = Math.max(maxNanos, stripe.get(MAX_NANOS));
+		}
+		return new LatencySnapshot(count, totalNanos, maxNanos, buckets);
+	}
+
+}
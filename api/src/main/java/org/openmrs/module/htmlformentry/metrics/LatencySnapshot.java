@@ -0,0 +1,77 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+/**
+ * The counts of a {@link LatencyHistogram} at one point in time. Times are in milliseconds, and
+ * percentiles are estimated as the upper bound of the bucket they fall in.
+ */
+public class LatencySnapshot {
+
+	private final long count;
+
+	private final long totalNanos;
+
+	private final long maxNanos;
+
+	private final long[] buckets;
+
+	public LatencySnapshot(long count, long totalNanos, long maxNanos, long[] buckets) {
+		this.count = count;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.buckets = buckets;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getTotalMillis() {
+		return totalNanos / 1000000d;
+	}
+
+	public double getMeanMillis() {
+		return count == 0 ? 0 : totalNanos / 1000000d / count;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos / 1000000d;
+	}
+
+	public double getP50Millis() {
+		return getPercentileMillis(0.5);
+	}
+
+	public double getP95Millis() {
+		return getPercentileMillis(0.95);
+	}
+
+	public double getP99Millis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * @param fraction the percentile, between 0 and 1
+	 * @return the upper bound of the bucket the percentile falls in, or the maximum if it falls in the
+	 *         last bucket (or is lower than the upper bound of its bucket)
+	 */
+	public double getPercentileMillis(double fraction) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_MICROS.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank)
+				return Math.min(LatencyHistogram.BUCKET_BOUNDS_MICROS[i] / 1000d, getMaxMillis());
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * @return the number of occurrences in each bucket (see {@link LatencyHistogram#BUCKET_BOUNDS_MICROS})
+	 */
+	public long[] getBuckets() {
+		return buckets.clone();
+	}
+
+}
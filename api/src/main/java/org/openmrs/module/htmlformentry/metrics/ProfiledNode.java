@@ -0,0 +1,114 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The time spent, and the queries issued, while one tag of a form was turned into html, as recorded
+ * by a {@link RenderProfiler}. The totals include the tags inside this one; the self figures only
+ * count what the handler of this tag did itself.
+ */
+public class ProfiledNode {
+
+	private final String tagName;
+
+	private final String path;
+
+	private final String label;
+
+	private final int depth;
+
+	private final long offsetNanos;
+
+	private long totalNanos;
+
+	private long childNanos;
+
+	private long totalQueries;
+
+	private long childQueries;
+
+	private final List<ProfiledNode> children = new ArrayList<ProfiledNode>();
+
+	public ProfiledNode(String tagName, String path, String label, int depth, long offsetNanos) {
+		this.tagName = tagName;
+		this.path = path;
+		this.label = label;
+		this.depth = depth;
+		this.offsetNanos = offsetNanos;
+	}
+
+	/**
+	 * Called by the profiler once the tag and everything inside it is done
+	 */
+	void complete(long totalNanos, long totalQueries) {
+		this.totalNanos = totalNanos;
+		this.totalQueries = totalQueries;
+		for (ProfiledNode child : children) {
+			childNanos += child.getTotalNanos();
+			childQueries += child.getTotalQueries();
+		}
+	}
+
+	void addChild(ProfiledNode child) {
+		children.add(child);
+	}
+
+	public String getTagName() {
+		return tagName;
+	}
+
+	/**
+	 * @return where the tag is in the form, e.g. {@code htmlform/section[2]/obs[3]}
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the attributes that identify the tag, e.g. {@code conceptId="5089"}, or an empty string
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return when the tag started, in nanoseconds after the first profiled tag of the form started
+	 */
+	public long getOffsetNanos() {
+		return offsetNanos;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public long getSelfNanos() {
+		return Math.max(0, totalNanos - childNanos);
+	}
+
+	public double getTotalMillis() {
+		return totalNanos / 1000000d;
+	}
+
+	public double getSelfMillis() {
+		return getSelfNanos() / 1000000d;
+	}
+
+	public long getTotalQueries() {
+		return totalQueries;
+	}
+
+	public long getSelfQueries() {
+		return Math.max(0, totalQueries - childQueries);
+	}
+
+	public List<ProfiledNode> getChildren() {
+		return children;
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+/**
+ * Counts the database queries issued so far, so that a {@link RenderProfiler} can tell how many queries
+ * each tag of a form issued
+ */
+public interface QueryCounter {
+
+	/**
+	 * @return the number of queries issued so far
+	 */
+	public long getQueryCount();
+
+	/**
+	 * Called once the counter is no longer needed
+	 */
+	public void release();
+
+}
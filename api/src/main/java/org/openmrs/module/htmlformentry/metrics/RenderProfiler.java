@@ -0,0 +1,185 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Records, for each tag of one form that has a tag handler, how long it took to turn into html and
+ * how many queries it issued, so that form designers can see which tags make a form slow. A profiler
+ * is attached to one form entry session, and is not thread-safe.
+ * <p/>
+ * Tags are identified by their path in the form rather than by line number, since the form has
+ * already been through macros, repeats and translations when the tags are handled.
+ *
+ * @see org.openmrs.module.htmlformentry.FormEntrySession#setRenderProfiler(RenderProfiler)
+ */
+public class RenderProfiler {
+
+	/**
+	 * The attributes shown next to a tag name to tell tags of the same kind apart
+	 */
+	private static final String[] LABEL_ATTRIBUTES = { "id", "conceptId", "conceptIds", "groupingConceptId", "programId",
+	        "type", "role", "expression", "test", "complexExpression" };
+
+	private final QueryCounter queryCounter;
+
+	private final List<ProfiledNode> roots = new ArrayList<ProfiledNode>();
+
+	private final LinkedList<Frame> stack = new LinkedList<Frame>();
+
+	private long firstStartNanos;
+
+	private long lastEndNanos;
+
+	/**
+	 * @param queryCounter counts queries, or null if queries should not be counted
+	 */
+	public RenderProfiler(QueryCounter queryCounter) {
+		this.queryCounter = queryCounter;
+	}
+
+	/**
+	 * Called before the handler of a tag starts
+	 *
+	 * @param node the tag
+	 */
+	public void enter(Node node) {
+		Frame parent = stack.peek();
+		long now = System.nanoTime();
+		if (roots.isEmpty())
+			firstStartNanos = now;
+		ProfiledNode profiled = new ProfiledNode(node.getNodeName(), getPath(node), getLabel(node), stack.size(), now
+		        - firstStartNanos);
+		if (parent == null)
+			roots.add(profiled);
+		else
+			parent.node.addChild(profiled);
+		stack.push(new Frame(profiled, now, getQueryCount()));
+	}
+
+	/**
+	 * Called once the handler of the tag last passed to {@link #enter(Node)} has finished with it
+	 *
+	 * @should count nested tags in the totals but not in the self figures of their parent
+	 */
+	public void exit() {
+		Frame frame = stack.pop();
+		lastEndNanos = System.nanoTime();
+		frame.node.complete(lastEndNanos - frame.startNanos, getQueryCount() - frame.startQueries);
+	}
+
+	/**
+	 * Releases the query counter. The results stay available.
+	 */
+	public void finish() {
+		if (queryCounter != null)
+			queryCounter.release();
+	}
+
+	private long getQueryCount() {
+		return queryCounter == null ? 0 : queryCounter.getQueryCount();
+	}
+
+	/**
+	 * @return whether queries are being counted
+	 */
+	public boolean isCountingQueries() {
+		return queryCounter != null;
+	}
+
+	/**
+	 * @return the outermost profiled tags, each with the tags inside it
+	 */
+	public List<ProfiledNode> getRoots() {
+		return roots;
+	}
+
+	/**
+	 * @return every profiled tag, in document order, each followed by the tags inside it
+	 * @should list nested tags after their parent
+	 */
+	public List<ProfiledNode> getNodes() {
+		List<ProfiledNode> ret = new ArrayList<ProfiledNode>();
+		addNodes(roots, ret);
+		return ret;
+	}
+
+	private void addNodes(List<ProfiledNode> nodes, List<ProfiledNode> ret) {
+		for (ProfiledNode node : nodes) {
+			ret.add(node);
+			addNodes(node.getChildren(), ret);
+		}
+	}
+
+	/**
+	 * @return the time spent in all the outermost profiled tags, in nanoseconds
+	 */
+	public long getTotalNanos() {
+		long ret = 0;
+		for (ProfiledNode root : roots) {
+			ret += root.getTotalNanos();
+		}
+		return ret;
+	}
+
+	public double getTotalMillis() {
+		return getTotalNanos() / 1000000d;
+	}
+
+	/**
+	 * @return the time from the start of the first profiled tag to the end of the last one, in
+	 *         nanoseconds, including the time spent between them on plain html
+	 */
+	public long getElapsedNanos() {
+		return roots.isEmpty() ? 0 : lastEndNanos - firstStartNanos;
+	}
+
+	private static String getPath(Node node) {
+		StringBuilder sb = new StringBuilder();
+		for (Node n = node; n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode()) {
+			int index = 1;
+			for (Node sibling = n.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+				if (sibling.getNodeType() == Node.ELEMENT_NODE && sibling.getNodeName().equals(n.getNodeName()))
+					++index;
+			}
+			String step = index == 1 ? n.getNodeName() : n.getNodeName() + "[" + index + "]";
+			sb.insert(0, sb.length() == 0 ? step : step + "/");
+		}
+		return sb.toString();
+	}
+
+	private static String getLabel(Node node) {
+		if (!(node instanceof Element))
+			return "";
+		Element element = (Element) node;
+		StringBuilder sb = new StringBuilder();
+		for (String attribute : LABEL_ATTRIBUTES) {
+			if (element.hasAttribute(attribute)) {
+				if (sb.length() > 0)
+					sb.append(" ");
+				sb.append(attribute).append("=\"").append(element.getAttribute(attribute)).append("\"");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static class Frame {
+
+		private final ProfiledNode node;
+
+		private final long startNanos;
+
+		private final long startQueries;
+
+		public Frame(ProfiledNode node, long startNanos, long startQueries) {
+			this.node = node;
+			this.startNanos = startNanos;
+			this.startQueries = startQueries;
+		}
+	}
+
+}
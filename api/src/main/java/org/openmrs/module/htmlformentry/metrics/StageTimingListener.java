@@ -0,0 +1,19 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+/**
+ * Notified each time a stage of generating or submitting a form completes, so that the timings
+ * collected by {@link HtmlFormEntryMetrics} can also be sent elsewhere (a monitoring system, a log).
+ * Listeners are called on the thread that ran the stage, so they must be fast and thread-safe.
+ *
+ * @see HtmlFormEntryMetrics#addListener(StageTimingListener)
+ */
+public interface StageTimingListener {
+
+	/**
+	 * @param stage the name of the stage, e.g. {@code createForm.applyMacros} or {@code applyTags.obs}
+	 * @param htmlFormId the id of the form, or null if not known at this stage
+	 * @param nanos how long the stage took, in nanoseconds
+	 */
+	public void stageCompleted(String stage, Integer htmlFormId, long nanos);
+
+}
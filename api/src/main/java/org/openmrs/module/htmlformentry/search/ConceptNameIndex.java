@@ -0,0 +1,331 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+
+/**
+ * An in-memory index of the names of a set of concepts in one locale, used to answer the type-ahead
+ * searches of concept autocomplete fields without going to the database.
+ * <p/>
+ * Names are split into words the same way for indexing and searching, and a name matches a query when
+ * each word of the query is the start of one of the words of the name, as with concept words. The words
+ * are kept in a sorted array, so the names having a word starting with a prefix are found by a binary
+ * search. The index is immutable once built and can be shared between threads.
+ */
+public class ConceptNameIndex {
+
+	private final Locale locale;
+
+	// one element per indexed name
+	private final Entry[] entries;
+
+	private final String[][] entryWords;
+
+	private final String[] normalizedNames;
+
+	// every word of every name, sorted, with the index of the name it comes from
+	private final String[] words;
+
+	private final int[] wordEntries;
+
+	// one name of each concept, ordered by display name
+	private final int[] conceptEntries;
+
+	/**
+	 * @param entries the names to index
+	 * @param locale the locale used to normalize the names and queries
+	 */
+	public ConceptNameIndex(List<Entry> entries, Locale locale) {
+		this.locale = locale;
+		this.entries = entries.toArray(new Entry[entries.size()]);
+		this.entryWords = new String[this.entries.length][];
+		this.normalizedNames = new String[this.entries.length];
+
+		List<WordRef> refs = new ArrayList<WordRef>();
+		for (int i = 0; i < this.entries.length; i++) {
+			normalizedNames[i] = normalize(this.entries[i].getName());
+			entryWords[i] = split(normalizedNames[i]);
+			for (String word : new HashSet<String>(Arrays.asList(entryWords[i]))) {
+				refs.add(new WordRef(word, i));
+			}
+		}
+		Collections.sort(refs);
+		words = new String[refs.size()];
+		wordEntries = new int[refs.size()];
+		for (int i = 0; i < refs.size(); i++) {
+			words[i] = refs.get(i).word;
+			wordEntries[i] = refs.get(i).entry;
+		}
+
+		List<Integer> firstEntries = new ArrayList<Integer>();
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (int i = 0; i < this.entries.length; i++) {
+			if (conceptIds.add(this.entries[i].getConceptId())) {
+				firstEntries.add(i);
+			}
+		}
+		Collections.sort(firstEntries, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer left, Integer right) {
+				return normalize(ConceptNameIndex.this.entries[left].getDisplayName()).compareTo(
+				    normalize(ConceptNameIndex.this.entries[right].getDisplayName()));
+			}
+		});
+		conceptEntries = new int[firstEntries.size()];
+		for (int i = 0; i < conceptEntries.length; i++) {
+			conceptEntries[i] = firstEntries.get(i);
+		}
+	}
+
+	/**
+	 * Indexes the non-voided names of the given concepts that are in the given locale or its language.
+	 * Retired concepts are skipped.
+	 *
+	 * @param concepts the concepts, with their names loaded
+	 * @param locale the locale
+	 * @return the index
+	 */
+	public static ConceptNameIndex forConcepts(Collection<Concept> concepts, Locale locale) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Concept concept : concepts) {
+			if (concept.isRetired()) {
+				continue;
+			}
+			ConceptName displayName = concept.getName(locale);
+			if (displayName == null) {
+				displayName = concept.getName();
+			}
+			String display = displayName == null ? null : displayName.getName();
+			for (ConceptName name : concept.getNames()) {
+				if (!name.isVoided() && isInLocale(name.getLocale(), locale)) {
+					entries.add(new Entry(concept.getConceptId(), name.getName(), display == null ? name.getName() : display));
+				}
+			}
+		}
+		return new ConceptNameIndex(entries, locale);
+	}
+
+	/**
+	 * Finds the concepts having a name that matches the query. Each concept is returned once. Concepts
+	 * whose name starts with the whole query come first, then shorter names before longer ones.
+	 *
+	 * @param query the words typed by the user
+	 * @param maxResults the maximum number of concepts to return, or null for all of them
+	 * @return the best matching name of each matching concept
+	 * @should find concepts by the start of any word of their names
+	 * @should require every word of the query to match
+	 * @should return each concept once
+	 * @should return names starting with the query first
+	 * @should return at most the given number of results
+	 * @should return an empty list for a blank query
+	 */
+	public List<Entry> search(String query, Integer maxResults) {
+		String normalizedQuery = normalize(query);
+		String[] queryWords = split(normalizedQuery);
+		if (queryWords.length == 0) {
+			return new ArrayList<Entry>();
+		}
+
+		// scan the entries of the longest word of the query, which has the fewest of them
+		String longest = queryWords[0];
+		for (String queryWord : queryWords) {
+			if (queryWord.length() > longest.length()) {
+				longest = queryWord;
+			}
+		}
+		final List<Integer> matches = new ArrayList<Integer>();
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int i = lowerBound(longest); i < words.length && words[i].startsWith(longest); i++) {
+			int entry = wordEntries[i];
+			if (seen.add(entry) && matchesAll(entryWords[entry], queryWords)) {
+				matches.add(entry);
+			}
+		}
+
+		final String fullQuery = normalizedQuery.trim();
+		Collections.sort(matches, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer left, Integer right) {
+				boolean leftStarts = normalizedNames[left].startsWith(fullQuery);
+				boolean rightStarts = normalizedNames[right].startsWith(fullQuery);
+				if (leftStarts != rightStarts) {
+					return leftStarts ? -1 : 1;
+				}
+				if (normalizedNames[left].length() != normalizedNames[right].length()) {
+					return normalizedNames[left].length() - normalizedNames[right].length();
+				}
+				return normalizedNames[left].compareTo(normalizedNames[right]);
+			}
+		});
+
+		List<Entry> ret = new ArrayList<Entry>();
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (Integer match : matches) {
+			if (maxResults != null && ret.size() >= maxResults) {
+				break;
+			}
+			if (conceptIds.add(entries[match].getConceptId())) {
+				ret.add(entries[match]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Lists the indexed concepts a page at a time, e.g. to fill a dropdown of all of them
+	 *
+	 * @param start the number of concepts to skip
+	 * @param length the maximum number of concepts to return, or null for all of them
+	 * @return one entry per concept, ordered by display name
+	 * @should return each concept once ordered by display name
+	 * @should return the given page of concepts
+	 */
+	public List<Entry> getConcepts(int start, Integer length) {
+		int end = length == null ? conceptEntries.length : (int) Math.min(conceptEntries.length, (long) start + length);
+		List<Entry> ret = new ArrayList<Entry>();
+		for (int i = Math.max(0, start); i < end; i++) {
+			ret.add(entries[conceptEntries[i]]);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of concepts indexed
+	 */
+	public int getConceptCount() {
+		return conceptEntries.length;
+	}
+
+	/**
+	 * @return the number of names indexed
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	private int lowerBound(String prefix) {
+		int low = 0;
+		int high = words.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (words[mid].compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static boolean matchesAll(String[] nameWords, String[] queryWords) {
+		for (String queryWord : queryWords) {
+			boolean found = false;
+			for (String nameWord : nameWords) {
+				if (nameWord.startsWith(queryWord)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String normalize(String s) {
+		return s == null ? "" : s.toLowerCase(locale);
+	}
+
+	private static String[] split(String normalized) {
+		List<String> ret = new ArrayList<String>();
+		for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0) {
+				ret.add(word);
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	private static boolean isInLocale(Locale nameLocale, Locale locale) {
+		return nameLocale == null || nameLocale.equals(locale) || nameLocale.getLanguage().equals(locale.getLanguage());
+	}
+
+	/**
+	 * One indexed concept name
+	 */
+	public static class Entry {
+
+		private final Integer conceptId;
+
+		private final String name;
+
+		private final String displayName;
+
+		/**
+		 * @param conceptId the id of the concept
+		 * @param name the name that is searched
+		 * @param displayName the name the concept is usually shown with in the index locale
+		 */
+		public Entry(Integer conceptId, String name, String displayName) {
+			this.conceptId = conceptId;
+			this.name = name;
+			this.displayName = displayName;
+		}
+
+		public Integer getConceptId() {
+			return conceptId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		/**
+		 * @return the name itself when it is the display name, and otherwise the display name, so that
+		 *         synonyms are shown with the usual name of the concept
+		 */
+		public String getValue() {
+			return name.equalsIgnoreCase(displayName) ? name : displayName;
+		}
+	}
+
+	private static class WordRef implements Comparable<WordRef> {
+
+		private final String word;
+
+		private final int entry;
+
+		public WordRef(String word, int entry) {
+			this.word = word;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(WordRef other) {
+			int ret = word.compareTo(other.word);
+			return ret != 0 ? ret : entry - other.entry;
+		}
+	}
+
+}
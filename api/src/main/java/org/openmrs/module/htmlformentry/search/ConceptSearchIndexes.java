@@ -0,0 +1,125 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+
+/**
+ * Keeps the {@link ConceptNameIndex}es used by the concept search of autocomplete fields, one per locale
+ * and answer set (a list of concept ids or of concept classes). An index is built the first time it is
+ * needed, and is built again once a change has been made through the ConceptService (see
+ * {@link MetadataChangeAdvice}). The least recently used indexes are dropped when there are more than
+ * {@link #MAX_INDEXES}.
+ */
+public class ConceptSearchIndexes {
+
+	private static final Log log = LogFactory.getLog(ConceptSearchIndexes.class);
+
+	public static final int MAX_INDEXES = 50;
+
+	private static final Map<String, VersionedIndex> indexes = Collections
+	        .synchronizedMap(new LinkedHashMap<String, VersionedIndex>(16, 0.75f, true) {
+
+		        private static final long serialVersionUID = 1L;
+
+		        @Override
+		        protected boolean removeEldestEntry(Map.Entry<String, VersionedIndex> eldest) {
+			        return size() > MAX_INDEXES;
+		        }
+	        });
+
+	/**
+	 * @param locale the locale of the names to search
+	 * @param conceptIds the ids of the concepts to search
+	 * @return the index of the names of the given concepts
+	 * @should rebuild the index after a concept is changed
+	 */
+	public static ConceptNameIndex getIndexForConcepts(Locale locale, Collection<Integer> conceptIds) {
+		String key = locale + "|ids|" + new TreeSet<Integer>(conceptIds);
+		VersionedIndex index = getCurrent(key);
+		if (index == null) {
+			long version = MetadataChangeAdvice.getVersion(ConceptService.class);
+			List<Concept> concepts = Context.getService(HtmlFormEntryService.class).getConceptsWithNamesAndAnswers(
+			    conceptIds, null);
+			index = put(key, new VersionedIndex(ConceptNameIndex.forConcepts(concepts, locale), version));
+		}
+		return index.index;
+	}
+
+	/**
+	 * @param locale the locale of the names to search
+	 * @param conceptClasses the classes of the concepts to search
+	 * @return the index of the names of the concepts of the given classes
+	 */
+	public static ConceptNameIndex getIndexForClasses(Locale locale, Collection<ConceptClass> conceptClasses) {
+		TreeSet<Integer> classIds = new TreeSet<Integer>();
+		List<ConceptClass> classes = new ArrayList<ConceptClass>();
+		for (ConceptClass conceptClass : conceptClasses) {
+			if (conceptClass != null) {
+				classIds.add(conceptClass.getConceptClassId());
+				classes.add(conceptClass);
+			}
+		}
+		String key = locale + "|classes|" + classIds;
+		VersionedIndex index = getCurrent(key);
+		if (index == null) {
+			long version = MetadataChangeAdvice.getVersion(ConceptService.class);
+			long start = System.currentTimeMillis();
+			List<Concept> concepts = Context.getService(HtmlFormEntryService.class).getConceptsWithNames(classes);
+			index = put(key, new VersionedIndex(ConceptNameIndex.forConcepts(concepts, locale), version));
+			if (log.isDebugEnabled()) {
+				log.debug("Indexed " + index.index.size() + " names of concept classes " + classIds + " in "
+				        + (System.currentTimeMillis() - start) + " ms");
+			}
+		}
+		return index.index;
+	}
+
+	/**
+	 * Drops all the indexes, e.g. after concepts were changed outside of the API
+	 */
+	public static void clear() {
+		indexes.clear();
+	}
+
+	private static VersionedIndex getCurrent(String key) {
+		VersionedIndex index = indexes.get(key);
+		if (index != null && index.version != MetadataChangeAdvice.getVersion(ConceptService.class)) {
+			return null;
+		}
+		return index;
+	}
+
+	private static VersionedIndex put(String key, VersionedIndex index) {
+		indexes.put(key, index);
+		return index;
+	}
+
+	private static class VersionedIndex {
+
+		private final ConceptNameIndex index;
+
+		// the version of the ConceptService data the index was built from
+		private final long version;
+
+		public VersionedIndex(ConceptNameIndex index, long version) {
+			this.index = index;
+			this.version = version;
+		}
+	}
+
+}
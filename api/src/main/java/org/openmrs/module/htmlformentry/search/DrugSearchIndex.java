@@ -0,0 +1,215 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Drug;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+
+/**
+ * An in-memory copy of the non-retired drugs, with the names of their dosage form, route and concept in
+ * one locale, used to answer the drug searches of drug order fields without going to the database.
+ * <p/>
+ * There is one index per locale (see {@link #getIndex(Locale)}). It is built from the drug table the
+ * first time it is needed, and built again once a change has been made through the ConceptService
+ * (see {@link MetadataChangeAdvice}), which is also where drugs are saved.
+ */
+public class DrugSearchIndex {
+
+	private static final Map<Locale, DrugSearchIndex> indexes = new ConcurrentHashMap<Locale, DrugSearchIndex>();
+
+	private final Entry[] entries;
+
+	private final String[] normalizedNames;
+
+	private final Locale locale;
+
+	// the version of the ConceptService data the index was built from
+	private final long version;
+
+	/**
+	 * @param entries the drugs, in the order they are returned by searches
+	 * @param locale the locale used to normalize the names and queries
+	 * @param version the version of the ConceptService data the entries come from
+	 */
+	public DrugSearchIndex(List<Entry> entries, Locale locale, long version) {
+		this.entries = entries.toArray(new Entry[entries.size()]);
+		this.normalizedNames = new String[this.entries.length];
+		for (int i = 0; i < this.entries.length; i++) {
+			normalizedNames[i] = normalize(this.entries[i].getName(), locale);
+		}
+		this.locale = locale;
+		this.version = version;
+	}
+
+	/**
+	 * @param locale the locale
+	 * @return the current index of the drugs in the given locale, built if needed
+	 */
+	public static DrugSearchIndex getIndex(Locale locale) {
+		DrugSearchIndex index = indexes.get(locale);
+		if (index == null || index.version != MetadataChangeAdvice.getVersion(ConceptService.class)) {
+			index = build(locale);
+			indexes.put(locale, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops all the indexes, e.g. after drugs were changed outside of the API
+	 */
+	public static void clear() {
+		indexes.clear();
+	}
+
+	/**
+	 * Finds the drugs whose name contains the query, in the order of their names
+	 *
+	 * @param query the text typed by the user
+	 * @param start the number of matching drugs to skip
+	 * @param length the maximum number of drugs to return, or null for all of them
+	 * @return the matching drugs
+	 * @should find drugs whose name contains the query
+	 * @should return the given page of drugs
+	 */
+	public List<Entry> search(String query, int start, Integer length) {
+		String normalizedQuery = normalize(query, locale).trim();
+		List<Entry> ret = new ArrayList<Entry>();
+		int skipped = 0;
+		for (int i = 0; i < entries.length && (length == null || ret.size() < length); i++) {
+			if (normalizedNames[i].contains(normalizedQuery)) {
+				if (skipped < start) {
+					skipped++;
+				} else {
+					ret.add(entries[i]);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of drugs indexed
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	private static DrugSearchIndex build(Locale locale) {
+		long version = MetadataChangeAdvice.getVersion(ConceptService.class);
+		HtmlFormEntryService service = Context.getService(HtmlFormEntryService.class);
+		List<Drug> drugs = service.getDrugsWithConcepts();
+
+		// load the names of all the concepts the drugs refer to at once, rather than one concept at a time
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (Drug drug : drugs) {
+			addConceptId(conceptIds, drug.getDosageForm());
+			addConceptId(conceptIds, drug.getRoute());
+			addConceptId(conceptIds, drug.getConcept());
+		}
+		service.getConceptsWithNamesAndAnswers(conceptIds, null);
+
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Drug drug : drugs) {
+			entries.add(new Entry(drug.getDrugId(), drug.getName(), getName(drug.getDosageForm(), locale), getName(
+			    drug.getRoute(), locale), drug.getDoseStrength(), drug.getUnits(), drug.getCombination(), getName(
+			    drug.getConcept(), locale)));
+		}
+		return new DrugSearchIndex(entries, locale, version);
+	}
+
+	private static void addConceptId(Set<Integer> conceptIds, Concept concept) {
+		if (concept != null) {
+			conceptIds.add(concept.getConceptId());
+		}
+	}
+
+	private static String getName(Concept concept, Locale locale) {
+		if (concept == null) {
+			return null;
+		}
+		ConceptName name = concept.getName(locale);
+		return name == null ? null : name.getName();
+	}
+
+	private static String normalize(String s, Locale locale) {
+		return s == null ? "" : s.toLowerCase(locale);
+	}
+
+	/**
+	 * One indexed drug, with the names of its concepts already looked up
+	 */
+	public static class Entry {
+
+		private final Integer id;
+
+		private final String name;
+
+		private final String dosageForm;
+
+		private final String route;
+
+		private final Double doseStrength;
+
+		private final String units;
+
+		private final Boolean combination;
+
+		private final String concept;
+
+		public Entry(Integer id, String name, String dosageForm, String route, Double doseStrength, String units,
+		    Boolean combination, String concept) {
+			this.id = id;
+			this.name = name;
+			this.dosageForm = dosageForm;
+			this.route = route;
+			this.doseStrength = doseStrength;
+			this.units = units;
+			this.combination = combination;
+			this.concept = concept;
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDosageForm() {
+			return dosageForm;
+		}
+
+		public String getRoute() {
+			return route;
+		}
+
+		public Double getDoseStrength() {
+			return doseStrength;
+		}
+
+		public String getUnits() {
+			return units;
+		}
+
+		public Boolean getCombination() {
+			return combination;
+		}
+
+		public String getConcept() {
+			return concept;
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+package org.openmrs.module.htmlformentry.substitution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.handler.AttributeDescriptor;
+import org.openmrs.module.htmlformentry.handler.TagHandler;
+
+/**
+ * An index of the AttributeDescriptors (with an associated class) of all the registered tag handlers, by tag
+ * and attribute name, used to find every attribute of a form that references OpenmrsObjects in a single pass
+ * through the form xml, rather than with one regular expression per tag and attribute.
+ * <p/>
+ * Tag and attribute names are matched case-insensitively, and only attribute values within double quotes
+ * are found.
+ */
+public class AttributeDescriptorIndex {
+	
+	// matches a start tag; group(1) is the tag name and group(2) the attributes (quoted values may contain a >)
+	private static final Pattern TAG_PATTERN = Pattern.compile("<([\\w:.\\-]+)(\\s(?:[^>\"]|\"[^\"]*\")*)>");
+	
+	// matches an attribute within the attributes of a tag; group(1) is the name and group(2) the value
+	private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("\\s([\\w:.\\-]+)=\"([^\"]*)\"");
+	
+	// lower case tag name -> lower case attribute name -> descriptors
+	private final Map<String, Map<String, List<AttributeDescriptor>>> descriptors = new HashMap<String, Map<String, List<AttributeDescriptor>>>();
+	
+	/**
+	 * @param tagHandlers the tag handlers, by tag name
+	 */
+	public AttributeDescriptorIndex(Map<String, TagHandler> tagHandlers) {
+		for (Map.Entry<String, TagHandler> e : tagHandlers.entrySet()) {
+			if (e.getValue().getAttributeDescriptors() == null)
+				continue;
+			for (AttributeDescriptor attributeDescriptor : e.getValue().getAttributeDescriptors()) {
+				// we only need to deal with descriptors that have an associated class
+				if (attributeDescriptor.getClazz() == null)
+					continue;
+				String tagName = e.getKey().toLowerCase();
+				Map<String, List<AttributeDescriptor>> forTag = descriptors.get(tagName);
+				if (forTag == null) {
+					forTag = new HashMap<String, List<AttributeDescriptor>>();
+					descriptors.put(tagName, forTag);
+				}
+				String attributeName = attributeDescriptor.getName().toLowerCase();
+				List<AttributeDescriptor> forAttribute = forTag.get(attributeName);
+				if (forAttribute == null) {
+					forAttribute = new ArrayList<AttributeDescriptor>();
+					forTag.put(attributeName, forAttribute);
+				}
+				forAttribute.add(attributeDescriptor);
+			}
+		}
+	}
+	
+	/**
+	 * @return an index of the tag handlers currently registered with the HtmlFormEntryService
+	 */
+	public static AttributeDescriptorIndex forRegisteredHandlers() {
+		return new AttributeDescriptorIndex(Context.getService(HtmlFormEntryService.class).getHandlers());
+	}
+	
+	/**
+	 * @return the descriptors of the given attribute of the given tag, or an empty list if there are none
+	 */
+	public List<AttributeDescriptor> getDescriptors(String tagName, String attributeName) {
+		Map<String, List<AttributeDescriptor>> forTag = descriptors.get(tagName.toLowerCase());
+		if (forTag == null)
+			return Collections.emptyList();
+		List<AttributeDescriptor> ret = forTag.get(attributeName.toLowerCase());
+		return ret == null ? Collections.<AttributeDescriptor> emptyList() : ret;
+	}
+	
+	/**
+	 * Finds every attribute in the xml that has a descriptor in this index, in a single pass
+	 * 
+	 * @param xml the form xml
+	 * @return the attributes found, in the order they appear in the xml
+	 * @should find attributes of registered tags in any case
+	 * @should not find attributes of other tags
+	 */
+	public List<Occurrence> findOccurrences(String xml) {
+		List<Occurrence> ret = new ArrayList<Occurrence>();
+		if (xml == null || descriptors.isEmpty())
+			return ret;
+		Matcher tagMatcher = TAG_PATTERN.matcher(xml);
+		while (tagMatcher.find()) {
+			Map<String, List<AttributeDescriptor>> forTag = descriptors.get(tagMatcher.group(1).toLowerCase());
+			if (forTag == null)
+				continue;
+			Matcher attributeMatcher = ATTRIBUTE_PATTERN.matcher(xml);
+			attributeMatcher.region(tagMatcher.start(2), tagMatcher.end(2));
+			while (attributeMatcher.find()) {
+				List<AttributeDescriptor> forAttribute = forTag.get(attributeMatcher.group(1).toLowerCase());
+				if (forAttribute != null) {
+					ret.add(new Occurrence(tagMatcher.group(1), attributeMatcher.group(1), forAttribute, attributeMatcher
+					        .start(1), attributeMatcher.start(2), attributeMatcher.end(2)));
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * An attribute, found in the xml of a form, that references OpenmrsObjects
+	 */
+	public static class Occurrence {
+		
+		private final String tagName;
+		
+		private final String attributeName;
+		
+		private final List<AttributeDescriptor> descriptors;
+		
+		private final int attributeStart;
+		
+		private final int valueStart;
+		
+		private final int valueEnd;
+		
+		public Occurrence(String tagName, String attributeName, List<AttributeDescriptor> descriptors, int attributeStart,
+		    int valueStart, int valueEnd) {
+			this.tagName = tagName;
+			this.attributeName = attributeName;
+			this.descriptors = descriptors;
+			this.attributeStart = attributeStart;
+			this.valueStart = valueStart;
+			this.valueEnd = valueEnd;
+		}
+		
+		public String getTagName() {
+			return tagName;
+		}
+		
+		public String getAttributeName() {
+			return attributeName;
+		}
+		
+		/**
+		 * @return the descriptors of the attribute (usually only one)
+		 */
+		public List<AttributeDescriptor> getDescriptors() {
+			return descriptors;
+		}
+		
+		/**
+		 * @return the position in the xml of the first character of the attribute name
+		 */
+		public int getAttributeStart() {
+			return attributeStart;
+		}
+		
+		/**
+		 * @return the position in the xml of the first character of the value (after the opening quote)
+		 */
+		public int getValueStart() {
+			return valueStart;
+		}
+		
+		/**
+		 * @return the position in the xml of the closing quote of the value
+		 */
+		public int getValueEnd() {
+			return valueEnd;
+		}
+		
+		/**
+		 * @param xml the xml the attribute was found in
+		 * @return the value of the attribute
+		 */
+		public String getValue(String xml) {
+			return xml.substring(valueStart, valueEnd);
+		}
+	}
+}
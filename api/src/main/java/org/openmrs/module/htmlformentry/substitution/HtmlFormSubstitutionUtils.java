@@ -1,6 +1,8 @@
 package org.openmrs.module.htmlformentry.substitution;
 
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -8,15 +10,19 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.openmrs.OpenmrsObject;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.HtmlForm;
-import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.handler.AttributeDescriptor;
-import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.substitution.AttributeDescriptorIndex.Occurrence;
 
 public class HtmlFormSubstitutionUtils {
 	
+	// matches one or more characters of any type within curly braces
+	private static final Pattern REPEAT_KEY_PATTERN = Pattern.compile("\\{(.+)\\}");
+	
+	// matches one or more characters of any type after a $
+	private static final Pattern MACRO_PATTERN = Pattern.compile("\\$(.+)");
+	
 	/**
 	 * Replaces all the ids in a form with uuids. This method operates using the AttributeDescriptors
 	 * property of TagHandlers; if you have have a new attribute that you want to configure for
@@ -62,30 +68,92 @@ public class HtmlFormSubstitutionUtils {
 			return;
 		}
 		
-		// get the tag handlers so we can gain access to the attribute descriptors
-		Map<String, TagHandler> tagHandlers = Context.getService(HtmlFormEntryService.class).getHandlers();
+		// find all the attributes described by the attribute descriptors of the registered tags in one pass
+		String formXmlData = form.getXmlData();
+		List<Occurrence> occurrences = AttributeDescriptorIndex.forRegisteredHandlers().findOccurrences(formXmlData);
+		if (occurrences.isEmpty()) {
+			return;
+		}
+		
+		// any "repeat" keys and macros we are going to have to substitute out as well, with the classes they reference
+		Map<String, Set<Class<?>>> repeatKeysToReplace = new LinkedHashMap<String, Set<Class<?>>>();
+		Map<String, Set<Class<?>>> macrosToReplace = new LinkedHashMap<String, Set<Class<?>>>();
 		
-		// loop through all the attribute descriptors for all the tags that have been registered
-		for (String tagName : tagHandlers.keySet()) {
-			HtmlFormEntryUtil.log.debug("Handling substitutions for tag " + tagName);
+		StringBuilder buffer = new StringBuilder();
+		int copiedTo = 0;
+		for (Occurrence occurrence : occurrences) {
+			String value = occurrence.getValue(formXmlData);
+			for (AttributeDescriptor attributeDescriptor : occurrence.getDescriptors()) {
+				HtmlFormEntryUtil.log.debug("Handling substitutions for " + occurrence.getTagName() + " "
+				        + occurrence.getAttributeName());
+				value = substituteIds(value, attributeDescriptor.getClazz(), substituter, substitutionMap,
+				    repeatKeysToReplace, macrosToReplace);
+			}
+			buffer.append(formXmlData, copiedTo, occurrence.getValueStart()).append(value);
+			copiedTo = occurrence.getValueEnd();
+		}
+		buffer.append(formXmlData, copiedTo, formXmlData.length());
+		formXmlData = buffer.toString();
+		
+		// now handle any repeat keys and macros we have discovered during this substitution
+		for (Map.Entry<String, Set<Class<?>>> e : repeatKeysToReplace.entrySet()) {
+			for (Class<?> clazz : e.getValue()) {
+				formXmlData = performSubstitutionHelper(formXmlData, e.getKey(), clazz, substituter, substitutionMap, true);
+			}
+		}
+		for (Map.Entry<String, Set<Class<?>>> e : macrosToReplace.entrySet()) {
+			for (Class<?> clazz : e.getValue()) {
+				formXmlData = performSubstitutionHelper(formXmlData, e.getKey(), clazz, substituter, substitutionMap, false);
+			}
+		}
+		
+		form.setXmlData(formXmlData);
+	}
+	
+	/**
+	 * Substitutes each of the comma-separated ids in a value, keeping track of any repeat keys and macros found
+	 * 
+	 * @return the value with the substituted ids
+	 */
+	private static String substituteIds(String value, Class<?> clazz, Substituter substituter,
+	                                    Map<OpenmrsObject, OpenmrsObject> substitutionMap,
+	                                    Map<String, Set<Class<?>>> repeatKeysToReplace,
+	                                    Map<String, Set<Class<?>>> macrosToReplace) {
+		// split the value into the various ids
+		String[] ids = value.split(",");
+		
+		StringBuffer idBuffer = new StringBuffer();
+		// now loop through each id
+		for (String id : ids) {
+			
+			// make the id substitution by calling the substituter's substitute method
+			idBuffer.append(substituter.substitute(id, clazz, substitutionMap) + ",");
+			
+			// if this id is a repeat key (i.e., something in curly braces) we need to keep track of it so that we can perform key substitutions
+			Matcher repeatKeyMatcher = REPEAT_KEY_PATTERN.matcher(id);
+			if (repeatKeyMatcher.find()) {
+				addClass(repeatKeysToReplace, repeatKeyMatcher.group(1), clazz);
+			}
 			
-			if (tagHandlers.get(tagName).getAttributeDescriptors() != null) {
-				for (AttributeDescriptor attributeDescriptor : tagHandlers.get(tagName).getAttributeDescriptors()) {
-					// we only need to deal with descriptors that have an associated class
-					if (attributeDescriptor.getClazz() != null) {
-						// build the attribute string we are searching for
-						// pattern matches <tagName .* attribute
-						// to break down the regex in detail, ?: simply means that we don't want include this grouping in the groups that we backreference
-						// the grouping itself is an "or", that matches either "\\s" (a single whitespace character) or
-						// "\\s[^>]*\\s" (a single whitespace character plus 0 to n characters of any type but a >, followed by another single whitespace character)
-						String pattern = "<" + tagName + "(?:\\s|\\s[^>]*\\s)" + attributeDescriptor.getName();
-						HtmlFormEntryUtil.log.debug("substitution pattern: " + pattern);
-						form.setXmlData(HtmlFormSubstitutionUtils.performSubstitutionHelper(form.getXmlData(), pattern,
-						    attributeDescriptor.getClazz(), substituter, substitutionMap, true));
-					}
-				}
+			// if this id is a macro reference (i.e, something that starts with a $) we need to keep track of it so that we can perform macro substitution
+			Matcher macroMatcher = MACRO_PATTERN.matcher(id);
+			if (macroMatcher.find()) {
+				addClass(macrosToReplace, macroMatcher.group(1), clazz);
 			}
 		}
+		
+		// trim off the trailing comma
+		idBuffer.deleteCharAt(idBuffer.length() - 1);
+		return idBuffer.toString();
+	}
+	
+	private static void addClass(Map<String, Set<Class<?>>> keys, String key, Class<?> clazz) {
+		Set<Class<?>> classes = keys.get(key);
+		if (classes == null) {
+			classes = new LinkedHashSet<Class<?>>();
+			keys.put(key, classes);
+		}
+		classes.add(clazz);
 	}
 	
 	/**
@@ -110,43 +178,20 @@ public class HtmlFormSubstitutionUtils {
 		Matcher matcher = substitutionPattern.matcher(formXmlData);
 		
 		// lists to keep track of any "repeat" keys and macros we are going to have to substitute out as well
-		Set<String> repeatKeysToReplace = new HashSet<String>();
-		Set<String> macrosToReplace = new HashSet<String>();
+		Map<String, Set<Class<?>>> repeatKeysToReplace = new LinkedHashMap<String, Set<Class<?>>>();
+		Map<String, Set<Class<?>>> macrosToReplace = new LinkedHashMap<String, Set<Class<?>>>();
 		
 		StringBuffer buffer = new StringBuffer();
 		
 		while (matcher.find()) {
-			// split the group into the various ids
-			String[] ids = matcher.group(2).split(",");
-			
-			StringBuffer idBuffer = new StringBuffer();
-			// now loop through each id
-			for (String id : ids) {
-				
-				// make the id substitution by calling the substituter's substitute method
-				idBuffer.append(substituter.substitute(id, clazz, substitutionMap) + ",");
-				
-				// if this id is a repeat key (i.e., something in curly braces) we need to keep track of it so that we can perform key substitutions
-				// pattern matches one or more characters of any type within curly braces
-				Matcher repeatKeyMatcher = Pattern.compile("\\{(.+)\\}").matcher(id);
-				if (repeatKeyMatcher.find()) {
-					repeatKeysToReplace.add(repeatKeyMatcher.group(1));
-				}
-				
-				// if this id is a macro reference (i.e, something that starts with a $) we need to keep track of it so that we can perform macro substitution
-				Matcher macroMatcher = Pattern.compile("\\$(.+)").matcher(id);
-				if (macroMatcher.find()) {
-					macrosToReplace.add(macroMatcher.group(1));
-				}
-			}
-			
-			// trim off the trailing comma
-			idBuffer.deleteCharAt(idBuffer.length() - 1);
+			// substitute the ids in group(2)
+			String ids = substituteIds(matcher.group(2), clazz, substituter, substitutionMap, repeatKeysToReplace,
+			    macrosToReplace);
 			
 			// now do the replacement
 			
 			// create the replacement string from the matched sequence, substituting out group(2) with the updated ids
-			String replacementString = matcher.group(1) + idBuffer.toString() + matcher.group(3);
+			String replacementString = matcher.group(1) + ids + matcher.group(3);
 			
 			// we need to escape any $ characters in the buffer or we run into errors with the appendReplacement method since 
 			// the $ has a special meaning to that method
@@ -162,12 +207,12 @@ public class HtmlFormSubstitutionUtils {
 		formXmlData = buffer.toString();
 		
 		// now handle any repeat keys we have discovered during this substitution
-		for (String key : repeatKeysToReplace) {
+		for (String key : repeatKeysToReplace.keySet()) {
 			formXmlData = performSubstitutionHelper(formXmlData, key, clazz, substituter, substitutionMap, true);
 		}
 		
 		// and now handle any macros we have discovered during this substitution
-		for (String key : macrosToReplace) {
+		for (String key : macrosToReplace.keySet()) {
 			formXmlData = performSubstitutionHelper(formXmlData, key, clazz, substituter, substitutionMap, false);
 		}
 		
@@ -0,0 +1,52 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.log.CommonsLogLogChute;
+
+/**
+ * Holds the single velocity runtime used by HTML Form Entry. An initialized runtime is safe to share
+ * between threads, so it is created once rather than for each form entry session. Expressions are
+ * parsed with it by {@link VelocityTemplateCache}.
+ * <p/>
+ * Macros defined inline with {@code #macro} are local to the expression that defines them, so that
+ * the macros of one form can't change how the expressions of another are rendered.
+ */
+public class HtmlFormEntryVelocityEngine {
+
+	private static final Log log = LogFactory.getLog(HtmlFormEntryVelocityEngine.class);
+
+	private static RuntimeInstance runtimeServices;
+
+	/**
+	 * @return the shared velocity runtime, which is created and initialized on first use
+	 */
+	public static synchronized RuntimeServices getRuntimeServices() {
+		if (runtimeServices == null) {
+			RuntimeInstance runtimeInstance = new RuntimeInstance();
+			try {
+				runtimeInstance.init(getProperties());
+			}
+			catch (Exception e) {
+				log.error("Error initializing Velocity runtime", e);
+			}
+			runtimeServices = runtimeInstance;
+		}
+		return runtimeServices;
+	}
+
+	private static Properties getProperties() {
+		Properties properties = new Properties();
+		// #1953 - Velocity errors in HTML form entry
+		properties.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS,
+		    "org.apache.velocity.runtime.log.CommonsLogLogChute");
+		properties.setProperty(CommonsLogLogChute.LOGCHUTE_COMMONS_LOG_NAME, "htmlformentry_velocity");
+		properties.setProperty(RuntimeConstants.VM_PERM_INLINE_LOCAL, "true");
+		return properties;
+	}
+}
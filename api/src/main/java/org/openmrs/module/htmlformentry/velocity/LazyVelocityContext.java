@@ -0,0 +1,42 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import org.apache.velocity.VelocityContext;
+
+/**
+ * A {@link VelocityContext} whose entries may be computed on first access, for values that are
+ * expensive to build and that most forms never refer to.
+ */
+public class LazyVelocityContext extends VelocityContext {
+
+	/**
+	 * Computes the value of a lazy entry (see {@link LazyVelocityContext#putLazy(String, LazyValue)})
+	 */
+	public interface LazyValue {
+
+		Object compute();
+	}
+
+	/**
+	 * Adds an entry whose value is computed the first time it is looked up
+	 * 
+	 * @param key the key of the entry
+	 * @param value computes the value of the entry
+	 * @should compute the value on first access only
+	 */
+	public void putLazy(String key, LazyValue value) {
+		put(key, value);
+	}
+
+	/**
+	 * @see org.apache.velocity.VelocityContext#internalGet(java.lang.String)
+	 */
+	@Override
+	public Object internalGet(String key) {
+		Object value = super.internalGet(key);
+		if (value instanceof LazyValue) {
+			value = ((LazyValue) value).compute();
+			internalPut(key, value);
+		}
+		return value;
+	}
+}
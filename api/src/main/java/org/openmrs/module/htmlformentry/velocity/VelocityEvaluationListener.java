@@ -0,0 +1,22 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import org.openmrs.module.htmlformentry.FormEntrySession;
+
+/**
+ * Modules may implement this interface to be told how long each velocity expression evaluated by a
+ * {@link FormEntrySession} takes (e.g. to collect metrics on slow includeIf tests or lookup tags)
+ */
+public interface VelocityEvaluationListener {
+
+	/**
+	 * Called by {@link FormEntrySession} after evaluating a velocity expression
+	 * 
+	 * @param session the session the expression was evaluated in
+	 * @param expression the expression
+	 * @param parsed whether the expression had to be parsed, rather than being found in the
+	 *            {@link VelocityTemplateCache}
+	 * @param nanos the time the evaluation took, including any parsing, in nanoseconds
+	 */
+	void expressionEvaluated(FormEntrySession session, String expression, boolean parsed, long nanos);
+
+}
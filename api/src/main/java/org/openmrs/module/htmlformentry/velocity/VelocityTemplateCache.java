@@ -0,0 +1,94 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Caches the velocity expressions used by forms (in includeIf/excludeIf tests, lookup tags, etc) as
+ * parsed {@link Template}s, so that evaluating an expression again only has to merge it with a
+ * context. Expressions are cached by their text, so an expression that appears in several forms, or
+ * several times in one form (e.g. within a repeat), is only parsed once. The least recently used
+ * expressions are dropped once there are more than {@link #MAX_SIZE}.
+ * <p/>
+ * Each template is named after a hash of its expression, and the name is the namespace of the macros it
+ * defines (see {@link HtmlFormEntryVelocityEngine}). Since the name only depends on the expression, an
+ * expression that is dropped and parsed again reuses its namespace, so the runtime only ever holds one
+ * namespace for each distinct expression that defines macros.
+ */
+public class VelocityTemplateCache {
+
+	public static final int MAX_SIZE = 1000;
+
+	private static final String TEMPLATE_NAME = "org.openmrs.module.htmlformentry.FormEntrySession";
+
+	@SuppressWarnings("serial")
+	private static final Map<String, Template> templates = Collections.synchronizedMap(new LinkedHashMap<String, Template>(
+	        16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+			return size() > MAX_SIZE;
+		}
+	});
+
+	/**
+	 * Returns the parsed template for the given expression, parsing it if it isn't cached yet
+	 * 
+	 * @param expression the velocity expression
+	 * @return the template
+	 * @throws Exception if the expression can't be parsed
+	 * @should return the same template for the same expression
+	 * @should render the expression when merged
+	 * @should not share inline macros between expressions
+	 * @should give the same expression the same name when it is parsed again
+	 */
+	public static Template getTemplate(String expression) throws Exception {
+		Template template = templates.get(expression);
+		if (template == null) {
+			template = parse(expression);
+			templates.put(expression, template);
+		}
+		return template;
+	}
+
+	/**
+	 * @return whether the given expression has already been parsed
+	 */
+	public static boolean isCached(String expression) {
+		return templates.containsKey(expression);
+	}
+
+	/**
+	 * Removes all cached templates
+	 */
+	public static void clear() {
+		templates.clear();
+	}
+
+	private static Template parse(String expression) throws Exception {
+		RuntimeServices runtimeServices = HtmlFormEntryVelocityEngine.getRuntimeServices();
+		String name = TEMPLATE_NAME + "#" + hash(expression);
+		SimpleNode node = runtimeServices.parse(new StringReader(expression), name);
+		Template template = new Template();
+		template.setName(name);
+		template.setRuntimeServices(runtimeServices);
+		template.setData(node);
+		template.initDocument();
+		return template;
+	}
+
+	private static String hash(String expression) throws Exception {
+		StringBuilder ret = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-1").digest(expression.getBytes("UTF-8"))) {
+			ret.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return ret.toString();
+	}
+}
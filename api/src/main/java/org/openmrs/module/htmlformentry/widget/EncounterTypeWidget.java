@@ -49,23 +49,27 @@ public class EncounterTypeWidget implements Widget {
 				return "";
 		}
 		
-		List<EncounterType> encounterTypes;
-		if (options != null) {
-			encounterTypes = options;
-		} else {
-			encounterTypes = Context.getEncounterService().getAllEncounterTypes();
-		}
-		
 		StringBuilder sb = new StringBuilder();
 		sb.append("<select id=\"" + context.getFieldName(this) + "\" name=\"" + context.getFieldName(this) + "\">");
 		sb.append("\n<option value=\"\">");
 		sb.append(Context.getMessageSourceService().getMessage("htmlformentry.chooseEncounterType"));
 		sb.append("</option>");
-		for (EncounterType type : encounterTypes) {
-			sb.append("\n<option");
-			if (encounterType != null && encounterType.equals(type))
-				sb.append(" selected=\"true\"");
-			sb.append(" value=\"" + type.getEncounterTypeId() + "\">").append(type.getName()).append("</option>");
+		if (options != null) {
+			for (EncounterType type : options) {
+				sb.append("\n<option");
+				if (encounterType != null && encounterType.equals(type))
+					sb.append(" selected=\"true\"");
+				sb.append(" value=\"" + type.getEncounterTypeId() + "\">").append(type.getName()).append("</option>");
+			}
+		} else {
+			// the shared options of all the encounter types
+			String selectedValue = encounterType == null ? null : encounterType.getEncounterTypeId().toString();
+			for (Option option : MetadataOptionCache.getEncounterTypeOptions(selectedValue)) {
+				sb.append("\n<option");
+				if (option.isSelected())
+					sb.append(" selected=\"true\"");
+				sb.append(" value=\"" + option.getValue() + "\">").append(option.getLabel()).append("</option>");
+			}
 		}
 		sb.append("</select>");
 		
@@ -11,8 +11,6 @@ import org.springframework.web.util.JavaScriptUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -39,24 +37,22 @@ public class LocationWidget implements Widget {
 				return "";
 		}
 		
-		List<Location> useLocations;
+		// the options given to the widget, or else the shared options of all the locations
+		List<Option> useOptions;
+		String selectedValue = location == null ? null : location.getLocationId().toString();
 		if (options != null) {
-			useLocations = options;
+			useOptions = new ArrayList<Option>();
+			for (Location l : options) {
+				useOptions.add(new Option(HtmlFormEntryUtil.format(l), l.getLocationId().toString(), l.equals(location)));
+			}
 		} else {
-			useLocations = Context.getLocationService().getAllLocations();
-			Collections.sort(useLocations, new Comparator<Location>() {
-				
-				@Override
-				public int compare(Location left, Location right) {
-					return left.getName().compareTo(right.getName());
-				}
-			});
+			useOptions = MetadataOptionCache.getLocationOptions(true, selectedValue);
 		}
 		
 		StringBuilder sb = new StringBuilder();
 		if ("autocomplete".equalsIgnoreCase(type)) {
 			sb.append("<input type=\"text\" id=\"display_" + context.getFieldName(this) + "\" value=\""
-			        + ((location != null) ? HtmlUtils.htmlEscape(location.getName()) : "")
+			        + ((location != null) ? HtmlUtils.htmlEscape(HtmlFormEntryUtil.format(location)) : "")
 			        + "\" onblur=\"updateLocationFields(this)\" placeholder=\""
 			        + Context.getMessageSourceService().getMessage("htmlformentry.form.location.placeholder") + "\" />");
 			sb.append("\n<input type=\"hidden\" id=\"" + context.getFieldName(this) + "\" name=\""
@@ -64,11 +60,11 @@ public class LocationWidget implements Widget {
 			        + "\" />");
 			sb.append("\n<script>");
 			sb.append("\nvar locationNameIdMap = new Object();");
-			ArrayList<String> escapedLocationNames = new ArrayList<String>(useLocations.size());
-			for (Location location : useLocations) {
-				String escapeLocationName = JavaScriptUtils.javaScriptEscape(location.getName());
+			ArrayList<String> escapedLocationNames = new ArrayList<String>(useOptions.size());
+			for (Option option : useOptions) {
+				String escapeLocationName = JavaScriptUtils.javaScriptEscape(option.getLabel());
 				escapedLocationNames.add(escapeLocationName);
-				sb.append("\nlocationNameIdMap[\"" + escapeLocationName + "\"] = " + location.getLocationId() + ";");
+				sb.append("\nlocationNameIdMap[\"" + escapeLocationName + "\"] = " + option.getValue() + ";");
 			}
 			sb.append("\n");
 			//clear the form field when user clears the field or if no valid selection is made
@@ -92,11 +88,11 @@ public class LocationWidget implements Widget {
 			sb.append("\n<option value=\"\">");
 			sb.append(Context.getMessageSourceService().getMessage("htmlformentry.chooseALocation"));
 			sb.append("</option>");
-			for (Location l : useLocations) {
+			for (Option option : useOptions) {
 				sb.append("\n<option");
-				if (location != null && location.equals(l))
+				if (option.isSelected())
 					sb.append(" selected=\"true\"");
-				sb.append(" value=\"" + l.getLocationId() + "\">").append(HtmlFormEntryUtil.format(l)).append("</option>");
+				sb.append(" value=\"" + option.getValue() + "\">").append(option.getLabel()).append("</option>");
 			}
 			sb.append("</select>");
 		}
@@ -0,0 +1,177 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+import org.openmrs.module.htmlformentry.comparator.OptionComparator;
+
+/**
+ * Keeps the sorted options of the location, user and encounter type dropdowns, so that a form with
+ * several of them, or many forms shown one after the other, load and sort each kind of metadata once.
+ * <p/>
+ * There is one list per kind of metadata, filter and locale. A list is built the first time it is
+ * needed, and built again once that kind of metadata has been changed through the API (see
+ * {@link MetadataChangeAdvice#getTypeVersion(Class)}), so saving encounters or patients leaves the lists
+ * alone. Changes made outside of this server's API are caught by comparing the number of rows and their
+ * latest creation or change date (see {@link HtmlFormEntryService#getChangeFingerprint(Class)}), which is
+ * queried at most once every {@link #FINGERPRINT_MAX_AGE} milliseconds per kind of metadata. Each call
+ * returns new {@link Option}s, since widgets mark the selected option on them.
+ */
+public class MetadataOptionCache {
+
+	/**
+	 * How long the change fingerprint of a kind of metadata is used before it is queried again
+	 */
+	public static final long FINGERPRINT_MAX_AGE = 60 * 1000;
+
+	private static final Map<String, OptionList> lists = new ConcurrentHashMap<String, OptionList>();
+
+	private static final Map<Class<?>, Fingerprint> fingerprints = new ConcurrentHashMap<Class<?>, Fingerprint>();
+
+	/**
+	 * @param includeRetired whether to include retired locations
+	 * @param selectedValue the id of the selected location, or null
+	 * @return the options of the locations, sorted by label
+	 * @should return the options of the locations sorted by label
+	 * @should select the option with the given value
+	 * @should rebuild the options after a location is changed
+	 * @should not query for changes made outside of the API more than once every FINGERPRINT_MAX_AGE
+	 */
+	public static List<Option> getLocationOptions(boolean includeRetired, String selectedValue) {
+		String key = "location:" + (includeRetired ? "all" : "nonRetired") + ":" + Context.getLocale();
+		String version = getVersion(Location.class);
+		OptionList list = lists.get(key);
+		if (list == null || !list.version.equals(version)) {
+			List<Option> options = new ArrayList<Option>();
+			for (Location location : Context.getLocationService().getAllLocations(includeRetired)) {
+				options.add(new Option(HtmlFormEntryUtil.format(location), location.getLocationId().toString(), false));
+			}
+			list = put(key, options, version);
+		}
+		return list.copy(selectedValue);
+	}
+
+	/**
+	 * @param selectedValue the id of the selected user, or null
+	 * @return the options of all the users, sorted by name
+	 */
+	public static List<Option> getUserOptions(String selectedValue) {
+		String key = "user";
+		// users are shown with their person name, which can be changed through the person service
+		String version = getVersion(User.class, Person.class);
+		OptionList list = lists.get(key);
+		if (list == null || !list.version.equals(version)) {
+			List<Option> options = new ArrayList<Option>();
+			for (User user : Context.getUserService().getAllUsers()) {
+				options.add(new Option(String.valueOf(user.getPersonName()), user.getUserId().toString(), false));
+			}
+			list = put(key, options, version);
+		}
+		return list.copy(selectedValue);
+	}
+
+	/**
+	 * @param selectedValue the id of the selected encounter type, or null
+	 * @return the options of all the encounter types, sorted by name
+	 */
+	public static List<Option> getEncounterTypeOptions(String selectedValue) {
+		String key = "encounterType";
+		String version = getVersion(EncounterType.class);
+		OptionList list = lists.get(key);
+		if (list == null || !list.version.equals(version)) {
+			List<Option> options = new ArrayList<Option>();
+			for (EncounterType type : Context.getEncounterService().getAllEncounterTypes()) {
+				options.add(new Option(type.getName(), type.getEncounterTypeId().toString(), false));
+			}
+			list = put(key, options, version);
+		}
+		return list.copy(selectedValue);
+	}
+
+	/**
+	 * Drops all the option lists, e.g. after metadata was changed outside of the API
+	 */
+	public static void clear() {
+		lists.clear();
+		fingerprints.clear();
+	}
+
+	private static OptionList put(String key, List<Option> options, String version) {
+		Collections.sort(options, new OptionComparator());
+		OptionList list = new OptionList(options, version);
+		lists.put(key, list);
+		return list;
+	}
+
+	private static String getVersion(Class<? extends OpenmrsObject> type, Class<?>... otherTypes) {
+		long version = MetadataChangeAdvice.getTypeVersion(type);
+		for (Class<?> otherType : otherTypes) {
+			version += MetadataChangeAdvice.getTypeVersion(otherType);
+		}
+		return version + ":" + getFingerprint(type);
+	}
+
+	private static String getFingerprint(Class<? extends OpenmrsObject> type) {
+		Fingerprint fingerprint = fingerprints.get(type);
+		long now = System.currentTimeMillis();
+		if (fingerprint == null || now - fingerprint.checked > FINGERPRINT_MAX_AGE) {
+			fingerprint = new Fingerprint(Context.getService(HtmlFormEntryService.class).getChangeFingerprint(type), now);
+			fingerprints.put(type, fingerprint);
+		}
+		return fingerprint.value;
+	}
+
+	private static class Fingerprint {
+
+		private final String value;
+
+		// when the fingerprint was queried
+		private final long checked;
+
+		public Fingerprint(String value, long checked) {
+			this.value = value;
+			this.checked = checked;
+		}
+	}
+
+	private static class OptionList {
+
+		private final String[] labels;
+
+		private final String[] values;
+
+		// the version of the data the list was built from
+		private final String version;
+
+		public OptionList(List<Option> options, String version) {
+			this.labels = new String[options.size()];
+			this.values = new String[options.size()];
+			for (int i = 0; i < options.size(); i++) {
+				labels[i] = options.get(i).getLabel();
+				values[i] = options.get(i).getValue();
+			}
+			this.version = version;
+		}
+
+		public List<Option> copy(String selectedValue) {
+			List<Option> ret = new ArrayList<Option>(values.length);
+			for (int i = 0; i < values.length; i++) {
+				ret.add(new Option(labels[i], values[i], values[i].equals(selectedValue)));
+			}
+			return ret;
+		}
+	}
+
+}
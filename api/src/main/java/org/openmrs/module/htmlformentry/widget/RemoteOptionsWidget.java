@@ -0,0 +1,127 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.element.PersonStub;
+
+/**
+ * A dropdown with too many options to write them all into the page. Only the options added to the
+ * widget (usually the empty one) and the selected one are sent, and the others are loaded from the
+ * remote url a page at a time once the dropdown is used (see htmlForm.setupRemoteOptions in htmlForm.js).
+ * <p/>
+ * The remote url is given the start and length request parameters, and must return
+ * {@code { "options": [ { "value": ..., "label": ... } ], "hasMore": ... }}. Since any value can be
+ * submitted, the elements using this widget must check the submitted value against their answers.
+ * <p/>
+ * Unlike {@link RemoteJsonAutocompleteWidget} and {@link DynamicAutocompleteWidget}, this is still a select, so
+ * forms that use the dropdown style keep their markup, their size attribute and the javascript that reads
+ * the value of the select.
+ */
+public class RemoteOptionsWidget extends DropdownWidget {
+
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	private String remoteUrl;
+
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	private String moreLabel;
+
+	// the selected option, which may not be one of the options added to the widget
+	private Option initialOption;
+
+	public RemoteOptionsWidget(String remoteUrl) {
+		this.remoteUrl = remoteUrl;
+	}
+
+	public RemoteOptionsWidget(String remoteUrl, Integer size) {
+		super(size);
+		this.remoteUrl = remoteUrl;
+	}
+
+	public String getRemoteUrl() {
+		return remoteUrl;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @param moreLabel the label of the last option, which loads the next page of options
+	 */
+	public void setMoreLabel(String moreLabel) {
+		this.moreLabel = moreLabel;
+	}
+
+	/**
+	 * Also accepts a {@link Concept} or a {@link PersonStub}, whose label is then shown without loading
+	 * the options
+	 *
+	 * @see SingleOptionWidget#setInitialValue(Object)
+	 */
+	@Override
+	public void setInitialValue(Object initialValue) {
+		if (initialValue instanceof Concept) {
+			Concept concept = (Concept) initialValue;
+			initialOption = new Option(concept.getBestName(Context.getLocale()).getName(), concept.getConceptId()
+			        .toString(), true);
+			super.setInitialValue(initialOption.getValue());
+		} else if (initialValue instanceof PersonStub) {
+			PersonStub stub = (PersonStub) initialValue;
+			initialOption = new Option(stub.toString(), stub.getId().toString(), true);
+			super.setInitialValue(initialOption.getValue());
+		} else {
+			initialOption = null;
+			super.setInitialValue(initialValue);
+		}
+	}
+
+	/**
+	 * @see DropdownWidget#generateHtml(FormEntryContext)
+	 * @should write only the given and selected options and load the others remotely
+	 * @should escape backslashes before quotes in the script
+	 */
+	@Override
+	public String generateHtml(FormEntryContext context) {
+		if (getOptions() == null) {
+			addOption(new Option());
+		}
+		if (initialOption != null && !hasOption(initialOption.getValue())) {
+			addOption(initialOption);
+		}
+		StringBuilder sb = new StringBuilder(super.generateHtml(context));
+		if (context.getMode() != Mode.VIEW) {
+			String label = moreLabel != null ? moreLabel : Context.getMessageSourceService().getMessage(
+			    "htmlformentry.remoteOptions.more");
+			sb.append("<script type=\"text/javascript\">\n");
+			sb.append("$j(function() {\n");
+			sb.append("  htmlForm.setupRemoteOptions('" + context.getFieldName(this) + "', '" + escapeJs(remoteUrl) + "', "
+			        + pageSize + ", '" + escapeJs(label) + "');\n");
+			sb.append("});\n");
+			sb.append("</script>\n");
+		}
+		return sb.toString();
+	}
+
+	private boolean hasOption(String value) {
+		for (Option option : getOptions()) {
+			if (value.equals(option.getValue())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String escapeJs(String input) {
+		// backslashes first, so that the ones added below are not escaped again
+		input = input.replaceAll("\\\\", "\\\\\\\\");
+		input = input.replaceAll("\n", "\\\\n");
+		input = input.replaceAll("'", "\\\\'");
+		input = input.replaceAll("\"", "\\\\\"");
+		return input;
+	}
+
+}
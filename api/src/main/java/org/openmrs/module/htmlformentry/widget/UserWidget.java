@@ -36,17 +36,21 @@ public class UserWidget implements Widget {
         sb.append("\n<option value=\"\">");
         sb.append(Context.getMessageSourceService().getMessage("general.choose") + "...");
         sb.append("</option>");
-        List<User> userList;
         if (options != null) {
-            userList = options;
+            for (User u : options) {
+                sb.append("\n<option");
+                if (user != null && user.equals(u))
+                    sb.append(" selected=\"true\"");
+                sb.append(" value=\"" + u.getUserId() + "\">").append(u.getPersonName()).append("</option>");
+            }
         } else {
-            userList = Context.getUserService().getAllUsers();
-        }
-        for (User u : userList) {
-            sb.append("\n<option");
-            if (user != null && user.equals(u))
-                sb.append(" selected=\"true\"");
-            sb.append(" value=\"" + u.getUserId() + "\">").append(u.getPersonName()).append("</option>");
+            // the shared options of all the users
+            for (Option option : MetadataOptionCache.getUserOptions(user == null ? null : user.getUserId().toString())) {
+                sb.append("\n<option");
+                if (option.isSelected())
+                    sb.append(" selected=\"true\"");
+                sb.append(" value=\"" + option.getValue() + "\">").append(option.getLabel()).append("</option>");
+            }
         }
         sb.append("</select>");
         return sb.toString();
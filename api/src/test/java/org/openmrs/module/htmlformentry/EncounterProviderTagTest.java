@@ -19,6 +19,10 @@ import java.util.regex.Pattern;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
 import org.openmrs.logic.util.LogicUtil;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
@@ -75,5 +79,29 @@ public class EncounterProviderTagTest extends BaseModuleContextSensitiveTest {
 		Assert.assertFalse(matcher.find());
 	}
 
+    @Test
+    public void encounterProviderTag_shouldLoadTheUsersFromTheServerIfThereAreTooManyToWrite() throws Exception {
+        Context.getAdministrationService().saveGlobalProperty(
+                new GlobalProperty(HtmlFormEntryConstants.GP_REMOTE_OPTIONS_THRESHOLD, "1"));
+        Role role = Context.getUserService().getRole("Provider");
+        for (User user : Context.getUserService().getAllUsers()) {
+            if (!user.hasRole("Provider", true)) {
+                user.addRole(role);
+                Context.getUserService().saveUser(user, null);
+            }
+        }
+        Assert.assertTrue(Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs("Provider").size() > 1);
+
+        String htmlform = "<htmlform><encounterProvider role=\"Provider\" default=\"502\"/></htmlform>";
+        String html = new FormEntrySession(null, htmlform, null).getHtmlToDisplay();
+        Assert.assertTrue(html.indexOf("htmlForm.setupRemoteOptions(") > -1);
+        Assert.assertTrue(html.indexOf("providerOptions.form?role=Provider") > -1);
+        // only the default provider is written into the page
+        Matcher matcher = Pattern.compile("<option value=\"\d+\"").matcher(html);
+        Assert.assertTrue(matcher.find());
+        Assert.assertTrue(matcher.group().contains("502"));
+        Assert.assertFalse(matcher.find());
+    }
+
 }
 
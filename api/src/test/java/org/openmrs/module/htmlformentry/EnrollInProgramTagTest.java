@@ -91,6 +91,52 @@ public class EnrollInProgramTagTest extends BaseModuleContextSensitiveTest {
 		}.run();
 	}
 
+	@Test
+	public void enrollInProgram_shouldEnrollOnlyOnceWhenTheFormEnrollsInTheSameProgramTwice() throws Exception {
+		final Integer patientId = 2;
+		final Integer programId = 10;
+		//sanity check
+		Assert.assertEquals(0,
+		    pws.getPatientPrograms(ps.getPatient(patientId), pws.getProgram(programId), null, null, null, null, false)
+		            .size());
+		final Date encounterDate = new Date();
+		
+		new RegressionTestHelper() {
+			
+			@Override
+			public String getFormName() {
+				return "enrollPatientInProgramTwiceForm";
+			}
+			
+			@Override
+			public Patient getPatient() {
+				return ps.getPatient(patientId);
+			}
+			
+			@Override
+			public String[] widgetLabels() {
+				return new String[] { "Encounter Date:", "Encounter Location:", "Encounter Provider:" };
+			}
+			
+			@Override
+			public void setupRequest(MockHttpServletRequest request, Map<String, String> widgets) {
+				request.setParameter(widgets.get("Encounter Date:"), dateAsString(encounterDate));
+				request.setParameter(widgets.get("Encounter Location:"), "2");
+				request.setParameter(widgets.get("Encounter Provider:"), "502");
+			}
+			
+			@Override
+			public void testResults(SubmissionResults results) {
+				results.assertNoErrors();
+				results.assertEncounterCreated();
+				List<PatientProgram> pps = pws.getPatientPrograms(ps.getPatient(patientId), pws.getProgram(programId), null,
+				    null, null, null, false);
+				Assert.assertEquals(1, pps.size());
+			};
+			
+		}.run();
+	}
+	
 	@Test
 	public void enrollInProgram_shouldModifyEnrollmentDateOnEdit() throws Exception {
 		final Integer patientId = 2;
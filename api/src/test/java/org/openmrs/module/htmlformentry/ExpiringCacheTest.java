@@ -0,0 +1,41 @@
+package org.openmrs.module.htmlformentry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class ExpiringCacheTest {
+
+	/**
+	 * @see {@link ExpiringCache#get(Object, long)}
+	 */
+	@Test
+	@Verifies(value = "should not return values older than the time to live", method = "get(Object, long)")
+	public void get_shouldNotReturnValuesOlderThanTheTimeToLive() throws Exception {
+		ExpiringCache<String, String> cache = new ExpiringCache<String, String>(10);
+		cache.put("key", "value");
+		Assert.assertEquals("value", cache.get("key", 60000));
+		Thread.sleep(5);
+		Assert.assertNull(cache.get("key", 1));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.get("key", 60000));
+	}
+
+	/**
+	 * @see {@link ExpiringCache#put(Object, Object)}
+	 */
+	@Test
+	@Verifies(value = "should empty the cache when it is full", method = "put(Object, Object)")
+	public void put_shouldEmptyTheCacheWhenItIsFull() throws Exception {
+		ExpiringCache<Integer, Integer> cache = new ExpiringCache<Integer, Integer>(3);
+		cache.put(1, 1);
+		cache.put(2, 2);
+		cache.put(3, 3);
+		Assert.assertEquals(3, cache.size());
+		cache.put(4, 4);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNull(cache.get(1, 60000));
+		Assert.assertEquals(Integer.valueOf(4), cache.get(4, 60000));
+	}
+
+}
@@ -0,0 +1,147 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests the matching of existing obs against a form, on synthetic encounters of increasing size. The time
+ * each size takes is logged, so these also serve as a rough benchmark of the matching.
+ */
+public class FormEntryContextTest extends BaseModuleContextSensitiveTest {
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final int[] ENCOUNTER_SIZES = { 1000, 5000, 20000 };
+
+	private static final Concept GROUPING_CONCEPT = new Concept(1001);
+
+	private static final Concept QUESTION = new Concept(1002);
+
+	private int nextObsId = 1;
+
+	/**
+	 * @see {@link FormEntryContext#findBestMatchingObsGroup(List,String,String)}
+	 */
+	@Test
+	@Verifies(value = "should find the matching obs group in large encounters", method = "findBestMatchingObsGroup(List,String,String)")
+	public void findBestMatchingObsGroup_shouldFindTheMatchingObsGroupInLargeEncounters() throws Exception {
+		for (int size : ENCOUNTER_SIZES) {
+			int groups = size / 2;
+			FormEntryContext context = new FormEntryContext(FormEntryContext.Mode.EDIT);
+			context.setupExistingData(createEncounter(groups));
+
+			long start = System.currentTimeMillis();
+			// match in reverse order, so that the groups matched are never the first ones left
+			for (int i = groups - 1; i >= 0; --i) {
+				List<ObsGroupComponent> questionsAndAnswers = Collections.singletonList(new ObsGroupComponent(QUESTION,
+				        answer(i)));
+				Obs match = context.findBestMatchingObsGroup(questionsAndAnswers, GROUPING_CONCEPT.getConceptId()
+				        .toString(), "/" + GROUPING_CONCEPT.getConceptId());
+				Assert.assertNotNull(match);
+				Assert.assertEquals(answer(i).getConceptId(), match.getGroupMembers().iterator().next().getValueCoded()
+				        .getConceptId());
+			}
+			Assert.assertEquals(0, context.getExistingObsInGroupsCount());
+			log.info("Matched " + groups + " obs groups in an encounter of " + size + " obs in "
+			        + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * @see {@link FormEntryContext#getNextUnmatchedObsGroup(String)}
+	 */
+	@Test
+	@Verifies(value = "should return each unmatched obs group once", method = "getNextUnmatchedObsGroup(String)")
+	public void getNextUnmatchedObsGroup_shouldReturnEachUnmatchedObsGroupOnce() throws Exception {
+		for (int size : ENCOUNTER_SIZES) {
+			int groups = size / 2;
+			FormEntryContext context = new FormEntryContext(FormEntryContext.Mode.EDIT);
+			context.setupExistingData(createEncounter(groups));
+
+			long start = System.currentTimeMillis();
+			List<Obs> unmatched = new ArrayList<Obs>();
+			Obs obsGroup;
+			while ((obsGroup = context.getNextUnmatchedObsGroup("/" + GROUPING_CONCEPT.getConceptId())) != null) {
+				unmatched.add(obsGroup);
+			}
+			Assert.assertEquals(groups, unmatched.size());
+			Assert.assertTrue(context.isGuessingInd());
+			log.info("Returned " + groups + " unmatched obs groups from an encounter of " + size + " obs in "
+			        + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * @see {@link FormEntryContext#removeExistingObs(Concept,Concept)}
+	 */
+	@Test
+	@Verifies(value = "should remove the obs with the given answer", method = "removeExistingObs(Concept,Concept)")
+	public void removeExistingObs_shouldRemoveTheObsWithTheGivenAnswer() throws Exception {
+		for (int size : ENCOUNTER_SIZES) {
+			Encounter encounter = createEncounter(0);
+			for (int i = 0; i < size; ++i) {
+				encounter.addObs(createObs(QUESTION, answer(i)));
+			}
+			FormEntryContext context = new FormEntryContext(FormEntryContext.Mode.EDIT);
+			context.setupExistingData(encounter);
+
+			long start = System.currentTimeMillis();
+			for (int i = size - 1; i >= 0; --i) {
+				Obs obs = context.removeExistingObs(QUESTION, answer(i));
+				Assert.assertEquals(answer(i).getConceptId(), obs.getValueCoded().getConceptId());
+				Assert.assertNull(context.removeExistingObs(QUESTION, answer(i)));
+			}
+			Assert.assertNull(context.removeExistingObs(QUESTION, (Concept) null));
+			log.info("Removed " + size + " obs by answer in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * @see {@link FormEntryContext#setupExistingObsInGroups(Set)}
+	 */
+	@Test
+	@Verifies(value = "should not fail when called before the existing data is set up", method = "setupExistingObsInGroups(Set)")
+	public void setupExistingObsInGroups_shouldNotFailWhenCalledBeforeTheExistingDataIsSetUp() throws Exception {
+		FormEntryContext context = new FormEntryContext(FormEntryContext.Mode.EDIT);
+		context.setupExistingObsInGroups(createEncounter(2).getObsAtTopLevel(false));
+		Assert.assertEquals(2, context.getExistingObsInGroupsCount());
+	}
+
+	private Encounter createEncounter(int obsGroups) {
+		Encounter encounter = new Encounter();
+		encounter.setPatient(new Patient(2));
+		encounter.setEncounterDatetime(new Date());
+		for (int i = 0; i < obsGroups; ++i) {
+			Obs group = createObs(GROUPING_CONCEPT, null);
+			group.addGroupMember(createObs(QUESTION, answer(i)));
+			encounter.addObs(group);
+		}
+		return encounter;
+	}
+
+	private Obs createObs(Concept concept, Concept valueCoded) {
+		Obs obs = new Obs();
+		obs.setObsId(nextObsId++);
+		obs.setConcept(concept);
+		obs.setValueCoded(valueCoded);
+		return obs;
+	}
+
+	private Concept answer(int i) {
+		return new Concept(100000 + i);
+	}
+}
@@ -13,13 +13,20 @@
  */
 package org.openmrs.module.htmlformentry;
 
+import java.io.StringWriter;
+import java.util.Date;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Form;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.velocity.VelocityTemplateCache;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 
@@ -92,4 +99,119 @@ public class FormEntrySessionTest extends BaseModuleContextSensitiveTest {
 		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
 		Assert.assertEquals("<div class=\"htmlform\"></div>", session.getHtmlToDisplay());
 	}
+	
+	/**
+	 * @see {@link FormEntrySession#writeHtmlToDisplay(Writer)}
+	 */
+	@Test
+	@Verifies(value = "should write the same html as getHtmlToDisplay", method = "writeHtmlToDisplay(Writer)")
+	public void writeHtmlToDisplay_shouldWriteTheSameHtmlAsGetHtmlToDisplay() throws Exception {
+		String htmlform = "<htmlform><section headerLabel=\"Section\"><span>Some text</span><br/><encounterDate/></section></htmlform>";
+		String expected = new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
+		
+		StringWriter writer = new StringWriter();
+		new FormEntrySession(patient, htmlform, null).writeHtmlToDisplay(writer);
+		Assert.assertEquals(expected, writer.toString());
+	}
+	
+	/**
+	 * @see {@link FormEntrySession#prepareHtmlToDisplay()}
+	 */
+	@Test
+	@Verifies(value = "should generate the html of a form in edit or view mode with obs groups before it is written", method = "prepareHtmlToDisplay()")
+	public void prepareHtmlToDisplay_shouldGenerateTheHtmlOfAFormInEditOrViewModeWithObsGroupsBeforeItIsWritten()
+	        throws Exception {
+		// three obs groups that the form's obs groups can only be matched to by guessing
+		Encounter encounter = new Encounter();
+		encounter.setPatient(patient);
+		encounter.setEncounterDatetime(new Date());
+		encounter.setLocation(Context.getLocationService().getLocation(2));
+		encounter.setProvider(Context.getPersonService().getPerson(502));
+		TestUtil.addObsGroup(encounter, 7, new Date(), 1000, Context.getConceptService().getConcept(1001), new Date(), 8,
+		    "foo1", new Date());
+		TestUtil.addObsGroup(encounter, 7, new Date(), 1000, null, new Date(), 8, "foo2", new Date());
+		TestUtil.addObsGroup(encounter, 7, new Date(), 1000, null, new Date(), 8, "foo3", new Date());
+		
+		HtmlForm htmlForm = new HtmlForm();
+		htmlForm.setXmlData(new TestUtil().loadXmlFromFile(XML_DATASET_PATH
+		        + "multipleObsGroupDifferentAnswerConceptIdForm.xml"));
+		htmlForm.setForm(new Form(1));
+		FormEntrySession session = new FormEntrySession(patient, encounter, Mode.VIEW, htmlForm, null);
+		session.prepareHtmlToDisplay();
+		
+		// htmlFormEntry.jsp shows the "form was reconstructed" warning before it writes the form
+		Assert.assertTrue(session.getContext().isGuessingInd());
+		StringWriter writer = new StringWriter();
+		session.writeHtmlToDisplay(writer);
+		Assert.assertEquals(session.getHtmlToDisplay(), writer.toString());
+	}
+	
+	/**
+	 * @see {@link FormEntrySession#prepareHtmlToDisplay()}
+	 */
+	@Test
+	@Verifies(value = "should not generate the html of a form without obs groups before it is written", method = "prepareHtmlToDisplay()")
+	public void prepareHtmlToDisplay_shouldNotGenerateTheHtmlOfAFormWithoutObsGroupsBeforeItIsWritten() throws Exception {
+		String htmlform = "<htmlform><section headerLabel=\"Section\"><span>Some text</span><br/><encounterDate/></section></htmlform>";
+		String expected = new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
+		
+		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
+		session.prepareHtmlToDisplay();
+		StringWriter writer = new StringWriter();
+		session.writeHtmlToDisplay(writer);
+		Assert.assertEquals(expected, writer.toString());
+		try {
+			session.getHtmlToDisplay();
+			Assert.fail("The html should have been streamed rather than kept");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+	}
+	
+	/**
+	 * @see {@link FormEntrySession#analyzeForm()}
+	 */
+	@Test
+	@Verifies(value = "should build the same schema as getHtmlToDisplay", method = "analyzeForm()")
+	public void analyzeForm_shouldBuildTheSameSchemaAsGetHtmlToDisplay() throws Exception {
+		String htmlform = "<htmlform><section headerLabel=\"Section\"><encounterDate/><encounterLocation/><encounterProvider role=\"Provider\"/>"
+		        + "<obs id=\"weight\" conceptId=\"5089\" labelText=\"Weight\"/><lookup expression=\"patient.gender\"/></section></htmlform>";
+		FormEntrySession expected = new FormEntrySession(patient, htmlform, null);
+		expected.getHtmlToDisplay();
+		
+		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
+		session.analyzeForm();
+		Assert.assertTrue(session.getContext().isAnalyzeOnly());
+		Assert.assertEquals(expected.getContext().getSchema().getAllFields().size(), session.getContext().getSchema()
+		        .getAllFields().size());
+		Assert.assertEquals(expected.getSubmissionController().getActions().size(), session.getSubmissionController()
+		        .getActions().size());
+		Assert.assertTrue(session.getContext().getJavascriptFieldAccessorInfo().isEmpty());
+		try {
+			session.getHtmlToDisplay();
+			Assert.fail("No html should be generated for an analyzed session");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+	}
+	
+	/**
+	 * @see {@link FormEntrySession#evaluateVelocityExpression(String)}
+	 */
+	@Test
+	@Verifies(value = "should evaluate the same expression more than once", method = "evaluateVelocityExpression(String)")
+	public void evaluateVelocityExpression_shouldEvaluateTheSameExpressionMoreThanOnce() throws Exception {
+		String expression = "#if($patient.gender == 'M')male#{else}female#end";
+		FormEntrySession session = new FormEntrySession(patient, "<htmlform></htmlform>", null);
+		Assert.assertEquals("male", session.evaluateVelocityExpression(expression));
+		Assert.assertTrue(VelocityTemplateCache.isCached(expression));
+		
+		Patient female = new Patient();
+		female.setGender("F");
+		FormEntrySession otherSession = new FormEntrySession(female, "<htmlform></htmlform>", null);
+		Assert.assertEquals("female", otherSession.evaluateVelocityExpression(expression));
+		Assert.assertEquals("male", session.evaluateVelocityExpression(expression));
+	}
 }
@@ -1,5 +1,9 @@
 package org.openmrs.module.htmlformentry;
 
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -370,6 +374,84 @@ public class HtmlFormEntryExportUtilTest extends BaseModuleContextSensitiveTest
         Assert.assertTrue(xml.contains("<option value=\"\" selected=\"true\"></option><option value=\"2474\">Susceptible</option><option value=\"3017\">Intermediate</option><option value=\"1441\">Resistant</option>"));
     }
     
+    /**
+     * Also serves as a rough benchmark of the streaming export: the rows per second and the peak heap used
+     * while writing are logged.
+     */
+    @Test
+    @Verifies(value = "should write a row for each encounter", method = "writeColumnDataFromHtmlForm(List<Integer>,HtmlForm,List<String>,Writer,Locale,List<PatientIdentifierType>,int)")
+    public void writeColumnDataFromHtmlForm_shouldWriteARowForEachEncounter() throws Exception {
+        Form form = new Form();
+        HtmlForm htmlform = new HtmlForm();
+        htmlform.setForm(form);
+        form.setEncounterType(new EncounterType());
+        htmlform.setDateChanged(new Date());
+        htmlform.setXmlData(new TestUtil().loadXmlFromFile(XML_DATASET_PATH + "obsGroupDataExportTest.xml"));
+        List<String> extraCols = new ArrayList<String>();
+        extraCols.add("comment");
+        List<PatientIdentifierType> pitList = Collections.singletonList(Context.getPatientService().getPatientIdentifierType(2));
+        
+        int encounterCount = 200;
+        List<Integer> encounterIds = new ArrayList<Integer>();
+        Date date = Context.getDateFormat().parse("01/02/2003");
+        for (int i = 0; i < encounterCount; i++){
+            Encounter e = new Encounter();
+            e.setPatient(Context.getPatientService().getPatient(2));
+            e.setDateCreated(new Date());
+            e.setEncounterDatetime(date);
+            e.setLocation(Context.getLocationService().getLocation(2));
+            e.setProvider(Context.getPersonService().getPerson(502));
+            TestUtil.addObs(e, 3032, date, date);
+            TestUtil.addObs(e, 1441, Context.getConceptService().getConcept(656), date);
+            TestUtil.addObs(e, 1119, new Date(), date);
+            Context.getEncounterService().saveEncounter(e);
+            encounterIds.add(e.getEncounterId());
+        }
+        String header = HtmlFormEntryExportUtil.generateColumnHeadersFromHtmlForm(htmlform, extraCols, new StringBuffer(""), pitList);
+        
+        final StringBuilder currentRow = new StringBuilder();
+        final String[] lastRow = { null };
+        final int[] lines = { 0 };
+        // only keeps the last row, so that the export itself is not held in memory
+        Writer writer = new Writer() {
+            public void write(char[] cbuf, int off, int len) {
+                for (int i = off; i < off + len; i++){
+                    if (cbuf[i] == '\n'){
+                        lines[0]++;
+                        lastRow[0] = currentRow.toString();
+                        currentRow.setLength(0);
+                    } else {
+                        currentRow.append(cbuf[i]);
+                    }
+                }
+            }
+            public void flush() {}
+            public void close() {}
+        };
+        
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if (pool.getType() == MemoryType.HEAP){
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long start = System.currentTimeMillis();
+        int rows = HtmlFormEntryExportUtil.writeColumnDataFromHtmlForm(encounterIds, htmlform, extraCols, writer, new Locale("en"), pitList, 50);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools){
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        log.info("Exported " + rows + " rows in " + elapsed + " ms (" + (rows * 1000L / elapsed) + " rows/s), peak heap "
+                + (peakHeap / (1024 * 1024)) + " MB");
+        
+        Assert.assertEquals(encounterCount, rows);
+        Assert.assertEquals(encounterCount, lines[0]);
+        Assert.assertTrue(lastRow[0].startsWith("\"" + encounterIds.get(encounterCount - 1) + "\","));
+        Assert.assertEquals(new StringTokenizer(header, ",").countTokens(), new StringTokenizer(lastRow[0], ",").countTokens());
+    }
+    
     
     
 }
@@ -1,16 +1,23 @@
 package org.openmrs.module.htmlformentry;
 
+import java.util.Date;
+import java.util.TreeMap;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
 import org.openmrs.Patient;
 import org.openmrs.Role;
 import org.openmrs.api.context.Context;
 import org.openmrs.logic.util.LogicUtil;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
 	
@@ -250,5 +257,130 @@ public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
         Assert.assertTrue("<span> and other tags can be open", html.contains("<span></span>"));
         Assert.assertTrue("<h1> and other tags can be open", html.contains("<h1></h1>"));
     }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#compileTemplate(HtmlForm,String,FormEntryContext)}
+     */
+    @Test
+    @Verifies(value = "should return the same xml as preprocessForm", method = "compileTemplate(HtmlForm,String,FormEntryContext)")
+    public void compileTemplate_shouldReturnTheSameXmlAsPreprocessForm() throws Exception {
+        String xml = "<htmlform><macros>count=1, 2, 3</macros><!-- a comment --><repeat with=\"['a'],['b']\">{0}</repeat> $count</htmlform>";
+        HtmlForm htmlForm = new HtmlForm();
+        htmlForm.setId(999);
+        htmlForm.setDateCreated(new Date());
+        htmlForm.setXmlData(xml);
+
+        HtmlFormEntryGenerator generator = new HtmlFormEntryGenerator();
+        String expected = flatten(HtmlFormEntryUtil.stringToDocument(generator.preprocessForm(xml, new FormEntryContext(FormEntryContext.Mode.ENTER))));
+        Assert.assertEquals(expected, flatten(generator.compileTemplate(htmlForm, xml, new FormEntryContext(FormEntryContext.Mode.ENTER))));
+        Assert.assertEquals(expected, flatten(generator.compileTemplate(htmlForm, xml, new FormEntryContext(FormEntryContext.Mode.ENTER))));
+        HtmlFormEntryGenerator.clearTemplateCache(htmlForm);
+    }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#preprocessFormToDocument(String,FormEntryContext)}
+     */
+    @Test
+    @Verifies(value = "should produce the same form as the string pipeline", method = "preprocessFormToDocument(String,FormEntryContext)")
+    public void preprocessFormToDocument_shouldProduceTheSameFormAsTheStringPipeline() throws Exception {
+        String[] forms = { "htmlForm.xml", "htmlForm2.xml", "metadataSharingWithMacrosTestForm.xml",
+                "metadataSharingWithRepeatTestForm.xml" };
+        HtmlFormEntryGenerator generator = new HtmlFormEntryGenerator();
+        for (String form : forms) {
+            String xml = new TestUtil().loadXmlFromFile(XML_DATASET_PATH + form);
+            String expected = flatten(HtmlFormEntryUtil.stringToDocument(generator.preprocessForm(xml, new FormEntryContext(FormEntryContext.Mode.ENTER))));
+            String actual = flatten(generator.preprocessFormToDocument(xml, new FormEntryContext(FormEntryContext.Mode.ENTER)));
+            Assert.assertEquals(form, expected, actual);
+        }
+    }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#applyMacros(Document)}
+     */
+    @Test
+    @Verifies(value = "should substitute macros whose value contains markup as applyMacros(String) does", method = "applyMacros(Document)")
+    public void applyMacros_shouldSubstituteMacrosWhoseValueContainsMarkupAsApplyMacrosStringDoes() throws Exception {
+        String xml = "<htmlform><macros>bold=&lt;b&gt;Important&lt;/b&gt;\nplain=Text</macros>"
+                + "<p>$bold $plain</p><span class=\"$plain\">x</span></htmlform>";
+        HtmlFormEntryGenerator generator = new HtmlFormEntryGenerator();
+        Document expected = HtmlFormEntryUtil.stringToDocument(generator.applyMacros(xml));
+        Document actual = HtmlFormEntryUtil.stringToDocument(xml);
+        generator.applyMacros(actual);
+        Assert.assertEquals(flatten(expected), flatten(actual));
+        // the markup is parsed into an element rather than kept as text
+        Assert.assertEquals(1, actual.getElementsByTagName("b").getLength());
+        Assert.assertEquals(0, actual.getElementsByTagName("macros").getLength());
+    }
+
+    /**
+     * Describes the elements, attributes and (whitespace-normalized) text of a document, so that
+     * documents can be compared regardless of indentation
+     */
+    private String flatten(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        flatten(HtmlFormEntryUtil.findChild(doc, "htmlform"), sb);
+        return sb.toString().replaceAll("\\s+", " ").trim();
+    }
+
+    private void flatten(Node node, StringBuilder sb) {
+        if (node.getNodeType() == Node.TEXT_NODE) {
+            sb.append(" ").append(node.getNodeValue()).append(" ");
+        } else if (node.getNodeType() == Node.ELEMENT_NODE) {
+            sb.append(" <").append(node.getNodeName());
+            sb.append(new TreeMap<String, String>(HtmlFormEntryUtil.getNodeAttributes(node))).append("> ");
+            NodeList children = node.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                flatten(children.item(i), sb);
+            }
+            sb.append(" </").append(node.getNodeName()).append("> ");
+        }
+    }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#compileTemplate(HtmlForm,String,FormEntryContext)}
+     */
+    @Test
+    @Verifies(value = "should register the form translations on a cache hit", method = "compileTemplate(HtmlForm,String,FormEntryContext)")
+    public void compileTemplate_shouldRegisterTheFormTranslationsOnACacheHit() throws Exception {
+        String xml = "<htmlform><translations defaultLocale=\"en\"><code name=\"night_sweats\"><variant locale=\"fr\" value=\"sueurs nocturnes\"/></code></translations></htmlform>";
+        HtmlForm htmlForm = new HtmlForm();
+        htmlForm.setId(999);
+        htmlForm.setDateCreated(new Date());
+        htmlForm.setXmlData(xml);
+
+        HtmlFormEntryGenerator generator = new HtmlFormEntryGenerator();
+        generator.compileTemplate(htmlForm, xml, new FormEntryContext(FormEntryContext.Mode.ENTER));
+
+        FormEntryContext context = new FormEntryContext(FormEntryContext.Mode.ENTER);
+        generator.compileTemplate(htmlForm, xml, context);
+        Assert.assertEquals("sueurs nocturnes", context.getTranslator().translate("fr", "night_sweats"));
+        HtmlFormEntryGenerator.clearTemplateCache(htmlForm);
+    }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#prefetchConcepts(Document)}
+     */
+    @Test
+    @Verifies(value = "should prefetch the concepts referred to by the form", method = "prefetchConcepts(Document)")
+    public void prefetchConcepts_shouldPrefetchTheConceptsReferredToByTheForm() throws Exception {
+        String xml = "<htmlform><obs conceptId=\"5089\"/><obs conceptId=\"" + HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_UUID
+                + "\" answerConceptIds=\"5089, 99999\"/></htmlform>";
+        MetadataResolutionCache cache = new MetadataResolutionCache(false);
+        MetadataResolutionCache.bind(cache);
+        try {
+            new HtmlFormEntryGenerator().prefetchConcepts(HtmlFormEntryUtil.stringToDocument(xml));
+
+            Assert.assertTrue(cache.contains(Concept.class, "5089"));
+            Assert.assertEquals(Integer.valueOf(5089), cache.get(Concept.class, "5089").getConceptId());
+            Assert.assertTrue(cache.contains(Concept.class, HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_UUID));
+            Assert.assertEquals(Integer.valueOf(HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_ID),
+                cache.get(Concept.class, HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_UUID).getConceptId());
+            Assert.assertTrue(cache.contains(Concept.class, "99999"));
+            Assert.assertNull(cache.get(Concept.class, "99999"));
+        }
+        finally {
+            MetadataResolutionCache.bind(null);
+        }
+    }
     
 }
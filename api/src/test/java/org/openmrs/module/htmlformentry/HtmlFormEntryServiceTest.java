@@ -1,15 +1,31 @@
 package org.openmrs.module.htmlformentry;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.EncounterType;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Person;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.Role;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.element.PersonStub;
+import org.openmrs.module.htmlformentry.matching.FormPlan;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 
@@ -83,4 +99,483 @@ public class HtmlFormEntryServiceTest extends BaseModuleContextSensitiveTest {
  
     }
 	
+	/**
+	 * @see {@link HtmlFormEntryService#getConceptsWithNamesAndAnswers(Collection, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should load concepts by id and uuid", method = "getConceptsWithNamesAndAnswers(Collection, Collection)")
+	public void getConceptsWithNamesAndAnswers_shouldLoadConceptsByIdAndUuid() throws Exception {
+		List<Concept> concepts = service.getConceptsWithNamesAndAnswers(Arrays.asList(5089, 99999),
+		    Arrays.asList(HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_UUID));
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (Concept concept : concepts) {
+			conceptIds.add(concept.getConceptId());
+		}
+		Assert.assertEquals(2, conceptIds.size());
+		Assert.assertTrue(conceptIds.contains(5089));
+		Assert.assertTrue(conceptIds.contains(HtmlFormEntryUtilTest.TEST_CONCEPT_CONSTANT_ID));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getConceptsWithNamesAndAnswers(Collection, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if no ids or uuids are given", method = "getConceptsWithNamesAndAnswers(Collection, Collection)")
+	public void getConceptsWithNamesAndAnswers_shouldReturnAnEmptyListIfNoIdsOrUuidsAreGiven() throws Exception {
+		Assert.assertEquals(0, service.getConceptsWithNamesAndAnswers(new ArrayList<Integer>(), null).size());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getFormPlan(HtmlForm)}
+	 */
+	@Test
+	@Verifies(value = "should return the same plan until the form is changed", method = "getFormPlan(HtmlForm)")
+	public void getFormPlan_shouldReturnTheSamePlanUntilTheFormIsChanged() throws Exception {
+		HtmlForm htmlForm = service.getHtmlForm(1);
+		htmlForm.setXmlData("<htmlform><obs conceptId=\"5089\"/></htmlform>");
+		htmlForm.setDateChanged(new Date(0));
+		FormPlan plan = service.getFormPlan(htmlForm);
+		Assert.assertEquals(1, plan.getObsItems().size());
+		Assert.assertSame(plan, service.getFormPlan(htmlForm));
+		
+		htmlForm.setXmlData("<htmlform><obs conceptId=\"5089\"/><obs conceptId=\"5497\"/></htmlform>");
+		htmlForm.setDateChanged(new Date(1000));
+		FormPlan changed = service.getFormPlan(htmlForm);
+		Assert.assertNotSame(plan, changed);
+		Assert.assertEquals(2, changed.getObsItems().size());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getFormPlan(HtmlForm)}
+	 */
+	@Test
+	@Verifies(value = "should not share plans between users whose roles restrict the form differently", method = "getFormPlan(HtmlForm)")
+	public void getFormPlan_shouldNotSharePlansBetweenUsersWhoseRolesRestrictTheFormDifferently() throws Exception {
+		HtmlForm htmlForm = service.getHtmlForm(1);
+		htmlForm.setXmlData("<htmlform><obs conceptId=\"5089\"/><restrictByRole include=\"Provider\"><obs conceptId=\"5497\"/></restrictByRole></htmlform>");
+		htmlForm.setDateChanged(new Date(0));
+		FormPlan plan = service.getFormPlan(htmlForm);
+		Assert.assertEquals(1, plan.getObsItems().size());
+		
+		User user = Context.getAuthenticatedUser();
+		Role provider = Context.getUserService().getRole("Provider");
+		user.addRole(provider);
+		FormPlan providerPlan = service.getFormPlan(htmlForm);
+		Assert.assertNotSame(plan, providerPlan);
+		Assert.assertEquals(2, providerPlan.getObsItems().size());
+		
+		user.removeRole(provider);
+		Assert.assertSame(plan, service.getFormPlan(htmlForm));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getItemsByUuid(Class, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return the items with the given uuids by uuid", method = "getItemsByUuid(Class, Collection)")
+	public void getItemsByUuid_shouldReturnTheItemsWithTheGivenUuidsByUuid() throws Exception {
+		Location first = Context.getLocationService().getLocation(1);
+		Location second = Context.getLocationService().getLocation(2);
+		Map<String, OpenmrsObject> items = service.getItemsByUuid(Location.class, Arrays.asList(first.getUuid(),
+		    second.getUuid(), "00000000-0000-0000-0000-000000000000"));
+		Assert.assertEquals(2, items.size());
+		Assert.assertEquals(first, items.get(first.getUuid()));
+		Assert.assertEquals(second, items.get(second.getUuid()));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getItemsById(Class, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return the items with the given ids by id", method = "getItemsById(Class, Collection)")
+	public void getItemsById_shouldReturnTheItemsWithTheGivenIdsById() throws Exception {
+		Map<Integer, OpenmrsObject> items = service.getItemsById(Location.class, Arrays.asList(1, 2, 99999));
+		Assert.assertEquals(2, items.size());
+		Assert.assertEquals(Context.getLocationService().getLocation(2), items.get(2));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getItemsByName(Class, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return the items with the given names by lower case name", method = "getItemsByName(Class, Collection)")
+	public void getItemsByName_shouldReturnTheItemsWithTheGivenNamesByLowerCaseName() throws Exception {
+		Location location = Context.getLocationService().getLocation(2);
+		Map<String, OpenmrsObject> items = service.getItemsByName(Location.class, Arrays.asList(location.getName(),
+		    "No Such Location"));
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals(location, items.get(location.getName().toLowerCase()));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getItemsByName(Class, Collection)}
+	 */
+	@Test
+	@Verifies(value = "should match names ignoring case", method = "getItemsByName(Class, Collection)")
+	public void getItemsByName_shouldMatchNamesIgnoringCase() throws Exception {
+		Location location = Context.getLocationService().getLocation(2);
+		String mixedCase = location.getName().substring(0, 1).toLowerCase() + location.getName().substring(1).toUpperCase();
+		Map<String, OpenmrsObject> items = service.getItemsByName(Location.class, Arrays.asList(mixedCase));
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals(location, items.get(location.getName().toLowerCase()));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getUsersAsPersonStubs(String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return at most the given number of stubs", method = "getUsersAsPersonStubs(String, Integer)")
+	public void getUsersAsPersonStubs_shouldReturnAtMostTheGivenNumberOfStubs() throws Exception {
+		Assert.assertFalse(service.getUsersAsPersonStubs(null).isEmpty());
+		Assert.assertEquals(1, service.getUsersAsPersonStubs(null, 1).size());
+		Assert.assertEquals(1, service.getUsersAsPersonStubs("Provider", 10).size());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getUsersAsPersonStubs(String, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the given page of stubs", method = "getUsersAsPersonStubs(String, Integer, Integer)")
+	public void getUsersAsPersonStubs_shouldReturnTheGivenPageOfStubs() throws Exception {
+		List<PersonStub> all = service.getUsersAsPersonStubs(null);
+		Assert.assertTrue(all.size() > 1);
+		List<PersonStub> page = service.getUsersAsPersonStubs(null, 1, 1);
+		Assert.assertEquals(1, page.size());
+		Assert.assertEquals(all.get(1).getId(), page.get(0).getId());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#isUserWithRole(Integer, String)}
+	 */
+	@Test
+	@Verifies(value = "should return whether the person is a user with the role", method = "isUserWithRole(Integer, String)")
+	public void isUserWithRole_shouldReturnWhetherThePersonIsAUserWithTheRole() throws Exception {
+		Integer providerId = service.getUsersAsPersonStubs("Provider").get(0).getId();
+		Assert.assertTrue(service.isUserWithRole(providerId, "Provider"));
+		Assert.assertTrue(service.isUserWithRole(providerId, null));
+		Assert.assertFalse(service.isUserWithRole(providerId, "Clinician"));
+		
+		Set<Integer> userIds = new HashSet<Integer>();
+		for (PersonStub stub : service.getUsersAsPersonStubs(null)) {
+			userIds.add(stub.getId());
+		}
+		for (int personId = 1; personId <= 10; personId++) {
+			if (!userIds.contains(personId)) {
+				Assert.assertFalse(service.isUserWithRole(personId, null));
+			}
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the people having the attribute", method = "getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)")
+	public void getPersonIdsHavingAttribute_shouldReturnThePeopleHavingTheAttribute() throws Exception {
+		disablePersonAttributeCache();
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(8);
+		Assert.assertTrue(service.getPersonIdsHavingAttribute(attributeType, null, null).contains(8));
+		Assert.assertTrue(service.getPersonIdsHavingAttributes(attributeType.getName(), null).contains(8));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should only return the people having the attribute with the given value", method = "getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)")
+	public void getPersonIdsHavingAttribute_shouldOnlyReturnThePeopleHavingTheAttributeWithTheGivenValue() throws Exception {
+		disablePersonAttributeCache();
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(8);
+		Assert.assertTrue(service.getPersonIdsHavingAttribute(attributeType, "6", null).contains(8));
+		Assert.assertFalse(service.getPersonIdsHavingAttribute(attributeType, "no such value", null).contains(8));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return at most the given number of ids", method = "getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)")
+	public void getPersonIdsHavingAttribute_shouldReturnAtMostTheGivenNumberOfIds() throws Exception {
+		disablePersonAttributeCache();
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(8);
+		Assert.assertEquals(1, service.getPersonIdsHavingAttribute(attributeType, null, 1).size());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should remember the results for the time set by the global property", method = "getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)")
+	public void getPersonIdsHavingAttribute_shouldRememberTheResultsForTheTimeSetByTheGlobalProperty() throws Exception {
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(8);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(HtmlFormEntryConstants.GP_PERSON_ATTRIBUTE_CACHE_SECONDS, "60"));
+		List<Integer> personIds = service.getPersonIdsHavingAttribute(attributeType, "6", 5);
+		Assert.assertSame(personIds, service.getPersonIdsHavingAttribute(attributeType, "6", 5));
+		
+		disablePersonAttributeCache();
+		Assert.assertNotSame(personIds, service.getPersonIdsHavingAttribute(attributeType, "6", 5));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should not mistake the value null for a missing value", method = "getPersonIdsHavingAttribute(PersonAttributeType, String, Integer)")
+	public void getPersonIdsHavingAttribute_shouldNotMistakeTheValueNullForAMissingValue() throws Exception {
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(8);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(HtmlFormEntryConstants.GP_PERSON_ATTRIBUTE_CACHE_SECONDS, "60"));
+		Assert.assertTrue(service.getPersonIdsHavingAttribute(attributeType, null, null).contains(8));
+		Assert.assertFalse(service.getPersonIdsHavingAttribute(attributeType, "null", null).contains(8));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the people in all the given programs", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldReturnThePeopleInAllTheGivenPrograms() throws Exception {
+		List<PersonStub> stubs = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), null, null, null);
+		Assert.assertTrue(stubs.contains(new PersonStub(2)));
+		for (PersonStub stub : stubs) {
+			Assert.assertEquals(Context.getPersonService().getPerson(stub.getId()).getFamilyName(), stub.getFamilyName());
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the people having all the given attributes", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldReturnThePeopleHavingAllTheGivenAttributes() throws Exception {
+		disablePersonAttributeCache();
+		String attribute = Context.getPersonService().getPersonAttributeType(8).getName();
+		List<PersonStub> stubs = service.getPeopleAsPersonStubs(Arrays.asList(attribute), Arrays.asList("6"), null, null, null, null);
+		Assert.assertTrue(stubs.contains(new PersonStub(8)));
+		Assert.assertTrue(service.getPeopleAsPersonStubs(Arrays.asList(attribute), Arrays.asList("no such value"), null, null,
+		    null, null).isEmpty());
+		// with a program as well, only the people having the attribute and in the program are returned
+		List<PersonStub> inProgram = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), null);
+		for (PersonStub stub : service.getPeopleAsPersonStubs(Arrays.asList(attribute), null, Arrays.asList("1"), null, null, null)) {
+			Assert.assertTrue(inProgram.contains(stub));
+			Assert.assertTrue(service.getPersonIdsHavingAttribute(Context.getPersonService().getPersonAttributeType(8), null, null)
+			        .contains(stub.getId()));
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should exclude the given persons", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldExcludeTheGivenPersons() throws Exception {
+		List<Person> personsToExclude = new ArrayList<Person>();
+		personsToExclude.add(null);
+		personsToExclude.add(Context.getPersonService().getPerson(2));
+		Assert.assertFalse(service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), personsToExclude)
+		        .contains(new PersonStub(2)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the given page of people", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldReturnTheGivenPageOfPeople() throws Exception {
+		List<PersonStub> all = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), null);
+		Assert.assertFalse(all.isEmpty());
+		List<PersonStub> page = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), null, all.size() - 1, 1);
+		Assert.assertEquals(1, page.size());
+		Assert.assertEquals(all.get(all.size() - 1), page.get(0));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if no attributes or programs are given", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldReturnAnEmptyListIfNoAttributesOrProgramsAreGiven() throws Exception {
+		Assert.assertTrue(service.getPeopleAsPersonStubs(null, null, null, null, null, null).isEmpty());
+		Assert.assertTrue(service.getPeopleAsPersonStubs(new ArrayList<String>(), null, Arrays.asList(" "), null).isEmpty());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if an attribute does not exist", method = "getPeopleAsPersonStubs(List, List, List, List, Integer, Integer)")
+	public void getPeopleAsPersonStubs_shouldReturnAnEmptyListIfAnAttributeDoesNotExist() throws Exception {
+		Assert.assertTrue(service.getPeopleAsPersonStubs(Arrays.asList("no such attribute"), null, Arrays.asList("1"), null)
+		        .isEmpty());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonStubs(java.util.Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return stubs with the names of the given people", method = "getPersonStubs(Collection)")
+	public void getPersonStubs_shouldReturnStubsWithTheNamesOfTheGivenPeople() throws Exception {
+		List<PersonStub> stubs = service.getPersonStubs(Arrays.asList(2, 8, 2));
+		Assert.assertEquals(2, stubs.size());
+		for (PersonStub stub : stubs) {
+			Person person = Context.getPersonService().getPerson(stub.getId());
+			Assert.assertEquals(person.getGivenName(), stub.getGivenName());
+			Assert.assertEquals(person.getFamilyName(), stub.getFamilyName());
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonStubs(java.util.Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if no ids are given", method = "getPersonStubs(Collection)")
+	public void getPersonStubs_shouldReturnAnEmptyListIfNoIdsAreGiven() throws Exception {
+		Assert.assertTrue(service.getPersonStubs(new ArrayList<Integer>()).isEmpty());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getConceptsWithNames(java.util.Collection)}
+	 */
+	@Test
+	@Verifies(value = "should load the non-retired concepts of the given classes", method = "getConceptsWithNames(Collection)")
+	public void getConceptsWithNames_shouldLoadTheNonRetiredConceptsOfTheGivenClasses() throws Exception {
+		Concept weight = Context.getConceptService().getConcept(5089);
+		List<Concept> concepts = service.getConceptsWithNames(Arrays.asList(weight.getConceptClass()));
+		Assert.assertTrue(concepts.contains(weight));
+		for (Concept concept : concepts) {
+			Assert.assertEquals(weight.getConceptClass(), concept.getConceptClass());
+			Assert.assertFalse(concept.isRetired());
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getConceptsWithNames(java.util.Collection)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if no classes are given", method = "getConceptsWithNames(Collection)")
+	public void getConceptsWithNames_shouldReturnAnEmptyListIfNoClassesAreGiven() throws Exception {
+		Assert.assertTrue(service.getConceptsWithNames(new ArrayList<ConceptClass>()).isEmpty());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getDrugsWithConcepts()}
+	 */
+	@Test
+	@Verifies(value = "should return the non-retired drugs ordered by name", method = "getDrugsWithConcepts()")
+	public void getDrugsWithConcepts_shouldReturnTheNonRetiredDrugsOrderedByName() throws Exception {
+		List<Drug> drugs = service.getDrugsWithConcepts();
+		Assert.assertFalse(drugs.isEmpty());
+		for (int i = 0; i < drugs.size(); i++) {
+			Assert.assertFalse(drugs.get(i).isRetired());
+			if (i > 0) {
+				Assert.assertTrue(drugs.get(i - 1).getName().compareToIgnoreCase(drugs.get(i).getName()) <= 0);
+			}
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getChangeFingerprint(Class)}
+	 */
+	@Test
+	@Verifies(value = "should change when a row is added", method = "getChangeFingerprint(Class)")
+	public void getChangeFingerprint_shouldChangeWhenARowIsAdded() throws Exception {
+		String before = service.getChangeFingerprint(Location.class);
+		Assert.assertEquals(before, service.getChangeFingerprint(Location.class));
+		
+		Location location = new Location();
+		location.setName("New location");
+		Context.getLocationService().saveLocation(location);
+		Assert.assertFalse(before.equals(service.getChangeFingerprint(Location.class)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getChangeFingerprint(Class)}
+	 */
+	@Test
+	@Verifies(value = "should work for users and encounter types", method = "getChangeFingerprint(Class)")
+	public void getChangeFingerprint_shouldWorkForUsersAndEncounterTypes() throws Exception {
+		String users = service.getChangeFingerprint(User.class);
+		Assert.assertNotNull(users);
+		Assert.assertEquals(users, service.getChangeFingerprint(User.class));
+		
+		String before = service.getChangeFingerprint(EncounterType.class);
+		Context.getEncounterService().saveEncounterType(new EncounterType("New encounter type", "description"));
+		Assert.assertFalse(before.equals(service.getChangeFingerprint(EncounterType.class)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should find people by the start of their names", method = "searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)")
+	public void searchPeopleAsPersonStubs_shouldFindPeopleByTheStartOfTheirNames() throws Exception {
+		Person person = Context.getPersonService().getPerson(2);
+		String phrase = person.getGivenName().substring(0, 2) + " " + person.getFamilyName();
+		List<PersonStub> stubs = service.searchPeopleAsPersonStubs(phrase, null, null, null, null, null);
+		Assert.assertTrue(stubs.contains(new PersonStub(2)));
+		Set<Integer> personIds = new HashSet<Integer>();
+		for (PersonStub stub : stubs) {
+			Assert.assertTrue(personIds.add(stub.getId()));
+		}
+		Assert.assertFalse(service.searchPeopleAsPersonStubs(phrase + " nosuchname", null, null, null, null, null).contains(
+		    new PersonStub(2)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should find patients by identifier", method = "searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)")
+	public void searchPeopleAsPersonStubs_shouldFindPatientsByIdentifier() throws Exception {
+		String identifier = Context.getPatientService().getPatient(2).getPatientIdentifier().getIdentifier();
+		Assert.assertTrue(service.searchPeopleAsPersonStubs(identifier, null, null, null, null, null).contains(
+		    new PersonStub(2)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should only return the people in the given programs", method = "searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)")
+	public void searchPeopleAsPersonStubs_shouldOnlyReturnThePeopleInTheGivenPrograms() throws Exception {
+		Person person = Context.getPersonService().getPerson(2);
+		String phrase = person.getFamilyName().substring(0, 1);
+		List<PersonStub> inProgram = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), null);
+		List<PersonStub> stubs = service.searchPeopleAsPersonStubs(phrase, null, null, Arrays.asList("1"), null, null);
+		Assert.assertTrue(stubs.contains(new PersonStub(2)));
+		for (PersonStub stub : stubs) {
+			Assert.assertTrue(inProgram.contains(stub));
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the given page of people", method = "searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)")
+	public void searchPeopleAsPersonStubs_shouldReturnTheGivenPageOfPeople() throws Exception {
+		String phrase = Context.getPersonService().getPerson(2).getFamilyName().substring(0, 1);
+		List<PersonStub> all = service.searchPeopleAsPersonStubs(phrase, null, null, null, null, null);
+		Assert.assertFalse(all.isEmpty());
+		List<PersonStub> page = service.searchPeopleAsPersonStubs(phrase, null, null, null, all.size() - 1, 1);
+		Assert.assertEquals(1, page.size());
+		Assert.assertEquals(all.get(all.size() - 1), page.get(0));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list for a blank phrase", method = "searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)")
+	public void searchPeopleAsPersonStubs_shouldReturnAnEmptyListForABlankPhrase() throws Exception {
+		Assert.assertTrue(service.searchPeopleAsPersonStubs(" ", null, null, null, null, null).isEmpty());
+		Assert.assertTrue(service.searchPeopleAsPersonStubs(null, null, null, null, null, null).isEmpty());
+	}
+	
+	private void disablePersonAttributeCache() {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(HtmlFormEntryConstants.GP_PERSON_ATTRIBUTE_CACHE_SECONDS, "0"));
+	}
+	
 }
\ No newline at end of file
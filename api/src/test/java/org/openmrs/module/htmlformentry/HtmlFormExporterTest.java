@@ -1,19 +1,28 @@
 package org.openmrs.module.htmlformentry;
 
 import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.GlobalProperty;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.metrics.HibernateQueryCounter;
+import org.openmrs.module.htmlformentry.metrics.QueryCounter;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 import org.openmrs.util.OpenmrsConstants;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public class HtmlFormExporterTest extends BaseModuleContextSensitiveTest {
 	
+	protected final Log log = LogFactory.getLog(getClass());
+	
 	protected static final String XML_DATASET_PATH = "org/openmrs/module/htmlformentry/include/";
 	
 	protected static final String XML_HTML_FORM_ENTRY_TEST_DATASET = "htmlFormEntryTestDataSet";
@@ -306,4 +315,46 @@ public class HtmlFormExporterTest extends BaseModuleContextSensitiveTest {
 		    "32296060-0370-102d-b0e3-123456789011")));
 			
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Exports every form in the test resources, as a rough benchmark of dependency resolution. The time and
+	 * number of queries taken are logged.
+	 */
+	@Test
+	public void export_shouldExportEveryFormInTheLibrary() throws Exception {
+		executeDataSet(XML_DATASET_PATH + new TestUtil().getTestDatasetFilename(XML_HTML_FORM_ENTRY_TEST_DATASET));
+		
+		List<HtmlForm> library = new ArrayList<HtmlForm>();
+		File directory = new File(getClass().getClassLoader().getResource(XML_DATASET_PATH).toURI());
+		for (File file : directory.listFiles()) {
+			if (!file.getName().endsWith(".xml"))
+				continue;
+			String xml = new TestUtil().loadXmlFromFile(file.getAbsolutePath());
+			if (!xml.contains("<htmlform"))
+				continue;
+			HtmlForm form = new HtmlForm();
+			form.setXmlData(xml);
+			library.add(form);
+		}
+		Assert.assertTrue(library.size() > 10);
+		
+		QueryCounter queries = HibernateQueryCounter.create();
+		long startQueries = queries == null ? 0 : queries.getQueryCount();
+		long start = System.nanoTime();
+		int dependencyCount = 0;
+		try {
+			for (HtmlForm form : library) {
+				dependencyCount += new HtmlFormExporter(form).export(true, true, true, true).getDependencies().size();
+			}
+		}
+		finally {
+			if (queries != null)
+				queries.release();
+		}
+		
+		Assert.assertTrue(dependencyCount > 0);
+		log.info("Exported " + library.size() + " forms with " + dependencyCount + " dependencies in "
+		        + ((System.nanoTime() - start) / 1000000) + " ms"
+		        + (queries == null ? "" : " and " + (queries.getQueryCount() - startQueries) + " queries"));
+	}
+}
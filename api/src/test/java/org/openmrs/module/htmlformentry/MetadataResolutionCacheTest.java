@@ -0,0 +1,134 @@
+package org.openmrs.module.htmlformentry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+public class MetadataResolutionCacheTest extends BaseModuleContextSensitiveTest {
+
+	protected static final String XML_DATASET_PATH = "org/openmrs/module/htmlformentry/include/";
+
+	protected static final String XML_HTML_FORM_ENTRY_TEST_DATASET = "htmlFormEntryTestDataSet";
+
+	private MetadataResolutionCache cache;
+
+	@Before
+	public void setupDatabase() throws Exception {
+		executeDataSet(XML_DATASET_PATH + new TestUtil().getTestDatasetFilename(XML_HTML_FORM_ENTRY_TEST_DATASET));
+		cache = new MetadataResolutionCache(false);
+		MetadataResolutionCache.bind(cache);
+	}
+
+	@After
+	public void unbindCache() {
+		MetadataResolutionCache.bind(null);
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should return false for an identifier that has not been resolved", method = "contains(Class, String)")
+	public void contains_shouldReturnFalseForAnIdentifierThatHasNotBeenResolved() throws Exception {
+		Assert.assertFalse(cache.contains(Concept.class, "XYZ:HT"));
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should return true for a negative result", method = "contains(Class, String)")
+	public void contains_shouldReturnTrueForANegativeResult() throws Exception {
+		Assert.assertNull(HtmlFormEntryUtil.getLocation("Never Never Land"));
+		Assert.assertTrue(cache.contains(Location.class, "Never Never Land"));
+		Assert.assertNull(cache.get(Location.class, "Never Never Land"));
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should return the cached result of a previous lookup", method = "contains(Class, String)")
+	public void contains_shouldReturnTheCachedResultOfAPreviousLookup() throws Exception {
+		Assert.assertFalse(cache.contains(Concept.class, "XYZ:HT"));
+		Concept concept = HtmlFormEntryUtil.getConcept("XYZ:HT");
+		Assert.assertNotNull(concept);
+		Assert.assertTrue(cache.contains(Concept.class, "XYZ:HT"));
+		Assert.assertSame(concept, cache.get(Concept.class, "XYZ:HT"));
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should count hits and misses", method = "contains(Class, String)")
+	public void contains_shouldCountHitsAndMisses() throws Exception {
+		long totalHits = MetadataResolutionCache.getTotalHitCount();
+		long totalMisses = MetadataResolutionCache.getTotalMissCount();
+		Concept concept = HtmlFormEntryUtil.getConcept("XYZ:HT");
+		Assert.assertNotNull(concept);
+		Assert.assertEquals(0, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+
+		Assert.assertSame(concept, HtmlFormEntryUtil.getConcept("XYZ:HT"));
+		Assert.assertSame(concept, HtmlFormEntryUtil.getConcept("XYZ:HT"));
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(0, cache.getSharedHitCount());
+		Assert.assertEquals(totalHits + 2, MetadataResolutionCache.getTotalHitCount());
+		Assert.assertEquals(totalMisses + 1, MetadataResolutionCache.getTotalMissCount());
+	}
+	
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should not cache locations that depend on the session", method = "contains(Class, String)")
+	public void contains_shouldNotCacheLocationsThatDependOnTheSession() throws Exception {
+		HtmlFormEntryUtil.getLocation("SystemDefault");
+		Assert.assertFalse(cache.contains(Location.class, "SystemDefault"));
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should not share results across sessions once metadata has changed", method = "contains(Class, String)")
+	public void contains_shouldNotShareResultsAcrossSessionsOnceMetadataHasChanged() throws Exception {
+		MetadataResolutionCache.clearSharedCache();
+		MetadataResolutionCache.bind(new MetadataResolutionCache(true));
+		Location location = HtmlFormEntryUtil.getLocation("Xanadu");
+		Assert.assertNotNull(location);
+		Assert.assertTrue(new MetadataResolutionCache(true).contains(Location.class, "Xanadu"));
+
+		new MetadataChangeAdvice().afterReturning(location, LocationService.class.getMethod("saveLocation",
+		    Location.class), new Object[] { location }, Context.getLocationService());
+		Assert.assertFalse(new MetadataResolutionCache(true).contains(Location.class, "Xanadu"));
+	}
+
+	/**
+	 * @see {@link MetadataResolutionCache#contains(Class, String)}
+	 */
+	@Test
+	@Verifies(value = "should keep sharing results across sessions when an encounter is saved", method = "contains(Class, String)")
+	public void contains_shouldKeepSharingResultsAcrossSessionsWhenAnEncounterIsSaved() throws Exception {
+		MetadataResolutionCache.clearSharedCache();
+		MetadataResolutionCache.bind(new MetadataResolutionCache(true));
+		Assert.assertNotNull(HtmlFormEntryUtil.getLocation("Xanadu"));
+
+		Encounter encounter = Context.getEncounterService().getEncounter(3);
+		new MetadataChangeAdvice().afterReturning(encounter, EncounterService.class.getMethod("saveEncounter",
+		    Encounter.class), new Object[] { encounter }, Context.getEncounterService());
+		Assert.assertTrue(new MetadataResolutionCache(true).contains(Location.class, "Xanadu"));
+	}
+}
@@ -16,18 +16,29 @@ package org.openmrs.module.htmlformentry;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
 import org.openmrs.Encounter;
+import org.openmrs.Form;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.logic.util.LogicUtil;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.search.ConceptSearchIndexes;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -92,6 +103,81 @@ public class ObsTagTest extends BaseModuleContextSensitiveTest {
 		new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
 	}
 	
+	@Test
+	public void shouldLoadTheAnswersOfLargeAnswerClassesFromTheServer() throws Exception {
+		setRemoteOptionsThreshold(1);
+		ConceptClass conceptClass = getClassWithSeveralConcepts();
+		String htmlform = "<htmlform><obs conceptId=\"1000\" answerClasses=\"" + conceptClass.getName() + "\"/></htmlform>";
+		String html = new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
+		assertThat(html, containsString("htmlForm.setupRemoteOptions("));
+		assertThat(html, containsString("conceptOptions.form?answerclasses="));
+		for (Concept concept : Context.getConceptService().getConceptsByClass(conceptClass)) {
+			Assert.assertFalse(html.contains("<option value=\"" + concept.getConceptId() + "\""));
+		}
+	}
+	
+	@Test
+	public void shouldSelectTheDefaultValueOfLargeAnswerClasses() throws Exception {
+		setRemoteOptionsThreshold(1);
+		ConceptClass conceptClass = getClassWithSeveralConcepts();
+		Integer answerId = ConceptSearchIndexes.getIndexForClasses(Context.getLocale(), Collections.singleton(conceptClass))
+		        .getConcepts(0, 1).get(0).getConceptId();
+		String htmlform = "<htmlform><obs conceptId=\"1000\" answerClasses=\"" + conceptClass.getName()
+		        + "\" defaultValue=\"" + answerId + "\"/></htmlform>";
+		String html = new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
+		assertThat(html, containsString("<option value=\"" + answerId + "\" selected=\"true\">"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowExceptionIfDefaultValueIsNotOfTheLargeAnswerClasses() throws Exception {
+		setRemoteOptionsThreshold(1);
+		ConceptClass conceptClass = getClassWithSeveralConcepts();
+		Concept otherConcept = null;
+		for (int conceptId = 1; otherConcept == null; conceptId++) {
+			Concept concept = Context.getConceptService().getConcept(conceptId);
+			if (concept != null && !conceptClass.equals(concept.getConceptClass())) {
+				otherConcept = concept;
+			}
+		}
+		String htmlform = "<htmlform><obs conceptId=\"1000\" answerClasses=\"" + conceptClass.getName()
+		        + "\" defaultValue=\"" + otherConcept.getConceptId() + "\"/></htmlform>";
+		new FormEntrySession(patient, htmlform, null).getHtmlToDisplay();
+	}
+	
+	@Test
+	public void shouldAcceptTheExistingAnswerOfLargeAnswerClassesAfterItIsRetired() throws Exception {
+		setRemoteOptionsThreshold(1);
+		ConceptClass conceptClass = getClassWithSeveralConcepts();
+		Concept answer = Context.getConceptService().getConcept(
+		    ConceptSearchIndexes.getIndexForClasses(Context.getLocale(), Collections.singleton(conceptClass))
+		            .getConcepts(0, 1).get(0).getConceptId());
+		Encounter encounter = new Encounter();
+		encounter.setPatient(patient);
+		encounter.setEncounterDatetime(new Date());
+		encounter.setLocation(Context.getLocationService().getLocation(2));
+		encounter.setProvider(Context.getPersonService().getPerson(502));
+		encounter.addObs(TestUtil.createObs(encounter, 1000, answer, new Date()));
+		encounter = Context.getEncounterService().saveEncounter(encounter);
+		answer.setRetired(true);
+		
+		HtmlForm htmlForm = new HtmlForm();
+		htmlForm.setXmlData("<htmlform><obs conceptId=\"1000\" answerClasses=\"" + conceptClass.getName() + "\"/></htmlform>");
+		htmlForm.setForm(new Form(1));
+		FormEntrySession session = new FormEntrySession(patient, encounter, Mode.EDIT, htmlForm, new MockHttpSession());
+		String html = session.getHtmlToDisplay();
+		assertThat(html, containsString("htmlForm.setupRemoteOptions("));
+		Matcher select = Pattern.compile("<select id=\"(w\\d+)\"").matcher(html);
+		Assert.assertTrue(select.find());
+		
+		// the answer is submitted unchanged
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addParameter(select.group(1), answer.getConceptId().toString());
+		session.prepareForSubmit();
+		List<FormSubmissionError> errors = session.getSubmissionController().validateSubmission(session.getContext(),
+		    request);
+		Assert.assertTrue("Unexpected errors: " + errors, errors == null || errors.isEmpty());
+	}
+	
 	@Test
 	public void shouldSetDefaultBooleanValueToTrue() throws Exception {
 		String htmlform = "<htmlform><obs conceptId=\"4\" defaultValue=\"true\" style=\"no_yes_dropdown\"/></htmlform>";
@@ -981,4 +1067,19 @@ public class ObsTagTest extends BaseModuleContextSensitiveTest {
         }.run();
     }
 
+	private void setRemoteOptionsThreshold(int threshold) {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(HtmlFormEntryConstants.GP_REMOTE_OPTIONS_THRESHOLD, String.valueOf(threshold)));
+	}
+	
+	private ConceptClass getClassWithSeveralConcepts() {
+		for (ConceptClass conceptClass : Context.getConceptService().getAllConceptClasses()) {
+			if (ConceptSearchIndexes.getIndexForClasses(Context.getLocale(), Collections.singleton(conceptClass))
+			        .getConceptCount() > 1) {
+				return conceptClass;
+			}
+		}
+		throw new IllegalStateException("No concept class has several concepts in the test data");
+	}
+
 }
@@ -840,6 +840,112 @@ public class RegressionTest extends BaseModuleContextSensitiveTest {
 		}.run();
 	}
 
+	@Test
+	public void testEditMultipleObsFormRecordsApplyActionsTimings() throws Exception {
+		final FormEntrySession[] editSession = new FormEntrySession[1];
+		new RegressionTestHelper() {
+
+			@Override
+			public String getFormName() {
+				return "multipleObsForm";
+			}
+
+			@Override
+			public Patient getPatientToView() throws Exception {
+				return Context.getPatientService().getPatient(2);
+			};
+
+			@Override
+			public Encounter getEncounterToEdit() {
+				return Context.getEncounterService().getEncounter(101);
+			}
+
+			@Override
+			public void testFormEditSessionAttribute(FormEntrySession formEntrySession) {
+				editSession[0] = formEntrySession;
+			}
+
+			@Override
+			public String[] widgetLabelsForEdit() {
+				return new String[] { "Weight:", "Allergy:", "Allergy Date:" };
+			};
+
+			@Override
+			public void setupEditRequest(MockHttpServletRequest request, Map<String, String> widgets) {
+				request.setParameter(widgets.get("Weight:"), "75");
+			};
+
+			@Override
+			public void testEditedResults(SubmissionResults results) {
+				results.assertNoErrors();
+				results.assertObsVoided(2, 50d);
+				Assert.assertEquals("[prepare, persons, encounters, relationships, programs, voidObs, saveEncounter, patient, customActions]",
+				    editSession[0].getApplyActionsTimings().keySet().toString());
+			};
+
+		}.run();
+	}
+
+	@Test
+	public void testEditNestedObsGroupFormVoidsTheGroupsInnermostFirst() throws Exception {
+		final Date date = new Date();
+		new RegressionTestHelper() {
+
+			@Override
+			public String getFormName() {
+				return "nestedObsGroupForm";
+			}
+
+			@Override
+			public String[] widgetLabels() {
+				return new String[] { "Date:", "Location:", "Provider:", "Colonies:" };
+			}
+
+			@Override
+			public void setupRequest(MockHttpServletRequest request, Map<String, String> widgets) {
+				request.addParameter(widgets.get("Date:"), dateAsString(date));
+				request.addParameter(widgets.get("Location:"), "2");
+				request.addParameter(widgets.get("Provider:"), "502");
+				request.addParameter(widgets.get("Colonies:"), "200");
+			}
+
+			@Override
+			public void testResults(SubmissionResults results) {
+				results.assertNoErrors();
+				results.assertEncounterCreated();
+				results.assertObsGroupCreatedCount(2);
+				results.assertObsLeafCreatedCount(1);
+			}
+
+			@Override
+			public boolean doEditEncounter() {
+				return true;
+			}
+
+			@Override
+			public String[] widgetLabelsForEdit() {
+				return new String[] { "Colonies:" };
+			}
+
+			@Override
+			public void setupEditRequest(MockHttpServletRequest request, Map<String, String> widgets) {
+				request.setParameter(widgets.get("Colonies:"), "");
+			}
+
+			@Override
+			public void testEditedResults(SubmissionResults results) {
+				results.assertNoErrors();
+				results.assertObsVoided(3016, null);
+				// the outer group is only emptied once the inner group has been voided
+				results.assertObsGroupCreatedCount(0);
+				for (Obs o : results.getEncounterCreated().getAllObs(true)) {
+					Assert.assertTrue("obs " + o.getConcept().getConceptId() + " should have been voided", o.isVoided());
+				}
+			}
+
+		}.run();
+	}
+
 	/**
 	 * This test verifies that a) a root Section gets created, and b) that nested obsGroups are
 	 * working correctly in the schema. You know that 'a' is working if conceptId = 6 shows up in
@@ -56,6 +56,58 @@ public class VelocityFunctionsTest extends BaseModuleContextSensitiveTest {
         Assert.assertEquals("2008-08-19", df.format(earliestWeight.getObsDatetime()));
 	}
 	
+	/**
+	 * @see VelocityFunctions#latestObs(Integer)
+	 * @verifies only query once for the same conceptId
+	 */
+	@Test
+	public void latestObs_shouldOnlyQueryOnceForTheSameConceptId() throws Exception {
+		VelocityFunctions functions = setupFunctionsForPatient(7);
+		
+		Obs latestWeight = functions.latestObs(5089);
+		Assert.assertNotNull(latestWeight);
+		
+		// a newer weight, which would be returned if the latest obs were queried again
+		Obs newerWeight = new Obs(Context.getPersonService().getPerson(7), Context.getConceptService().getConcept(5089),
+		        new Date(), Context.getLocationService().getLocation(1));
+		newerWeight.setValueNumeric(70d);
+		Context.getObsService().saveObs(newerWeight, null);
+		Assert.assertEquals(newerWeight, setupFunctionsForPatient(7).latestObs(5089));
+		
+		Assert.assertSame(latestWeight, functions.latestObs(5089));
+	}
+	
+	/**
+	 * @see VelocityFunctions#allObs(Integer)
+	 * @verifies not let the cached obs be changed
+	 */
+	@Test
+	public void allObs_shouldNotLetTheCachedObsBeChanged() throws Exception {
+		VelocityFunctions functions = setupFunctionsForPatient(7);
+		
+		int count = functions.allObs(5089).size();
+		try {
+			functions.allObs(5089).clear();
+			Assert.fail("The obs returned by allObs should not be modifiable");
+		}
+		catch (UnsupportedOperationException ex) {
+			// expected
+		}
+		Assert.assertEquals(count, functions.allObs(5089).size());
+	}
+	
+	/**
+	 * @see VelocityFunctions#countObs(Integer)
+	 * @verifies return the number of obs given the passed conceptId
+	 */
+	@Test
+	public void countObs_shouldReturnTheNumberOfObsGivenThePassedConceptId() throws Exception {
+		VelocityFunctions functions = setupFunctionsForPatient(7);
+		
+		Assert.assertEquals(functions.allObs(5089).size(), functions.countObs(5089).intValue());
+		Assert.assertEquals(functions.allObs(3).size(), functions.countObs(3).intValue());
+	}
+	
 	/**
 	 * @see VelocityFunctions@latestEncounter(EncounterType)
 	 * @verifies return the most recent encounter if encounter type is null
@@ -0,0 +1,67 @@
+package org.openmrs.module.htmlformentry.advice;
+
+import java.lang.reflect.Method;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.api.EncounterService;
+import org.openmrs.test.Verifies;
+
+public class MetadataChangeAdviceTest {
+
+	/**
+	 * @see {@link MetadataChangeAdvice#isChange(String)}
+	 */
+	@Test
+	@Verifies(value = "should return true for methods that change data", method = "isChange(String)")
+	public void isChange_shouldReturnTrueForMethodsThatChangeData() throws Exception {
+		Assert.assertTrue(MetadataChangeAdvice.isChange("saveConcept"));
+		Assert.assertTrue(MetadataChangeAdvice.isChange("retireDrug"));
+		Assert.assertTrue(MetadataChangeAdvice.isChange("purgeLocation"));
+		Assert.assertTrue(MetadataChangeAdvice.isChange("updateConceptWords"));
+	}
+
+	/**
+	 * @see {@link MetadataChangeAdvice#isChange(String)}
+	 */
+	@Test
+	@Verifies(value = "should return false for methods that only read data", method = "isChange(String)")
+	public void isChange_shouldReturnFalseForMethodsThatOnlyReadData() throws Exception {
+		Assert.assertFalse(MetadataChangeAdvice.isChange("getConcept"));
+		Assert.assertFalse(MetadataChangeAdvice.isChange("getAllLocations"));
+		Assert.assertFalse(MetadataChangeAdvice.isChange("onStartup"));
+	}
+
+	/**
+	 * @see {@link MetadataChangeAdvice#getChangedType(String)}
+	 */
+	@Test
+	@Verifies(value = "should return the rest of the method name after the change prefix", method = "getChangedType(String)")
+	public void getChangedType_shouldReturnTheRestOfTheMethodNameAfterTheChangePrefix() throws Exception {
+		Assert.assertEquals("EncounterType", MetadataChangeAdvice.getChangedType("saveEncounterType"));
+		Assert.assertEquals("Location", MetadataChangeAdvice.getChangedType("unretireLocation"));
+		Assert.assertEquals("User", MetadataChangeAdvice.getChangedType("retireUser"));
+	}
+
+	/**
+	 * @see {@link MetadataChangeAdvice#afterReturning(Object,Method,Object[],Object)}
+	 */
+	@Test
+	@Verifies(value = "should only change the version of the changed type", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldOnlyChangeTheVersionOfTheChangedType() throws Exception {
+		long encounterTypeVersion = MetadataChangeAdvice.getTypeVersion(EncounterType.class);
+		long encounterVersion = MetadataChangeAdvice.getTypeVersion(Encounter.class);
+
+		new MetadataChangeAdvice().afterReturning(null, EncounterService.class.getMethod("saveEncounter", Encounter.class),
+		    new Object[] { null }, null);
+		Assert.assertEquals(encounterTypeVersion, MetadataChangeAdvice.getTypeVersion(EncounterType.class));
+		Assert.assertEquals(encounterVersion + 1, MetadataChangeAdvice.getTypeVersion(Encounter.class));
+
+		new MetadataChangeAdvice().afterReturning(null, EncounterService.class.getMethod("saveEncounterType",
+		    EncounterType.class), new Object[] { null }, null);
+		Assert.assertEquals(encounterTypeVersion + 1, MetadataChangeAdvice.getTypeVersion(EncounterType.class));
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.openmrs.module.htmlformentry.export;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class ExportReorderBufferTest {
+
+	/**
+	 * @see {@link ExportReorderBuffer#take()}
+	 */
+	@Test
+	@Verifies(value = "should return chunks in order", method = "take()")
+	public void take_shouldReturnChunksInOrder() throws Exception {
+		ExportReorderBuffer<String> buffer = new ExportReorderBuffer<String>(3);
+		buffer.put(2, "c");
+		buffer.put(0, "a");
+		buffer.put(1, "b");
+		Assert.assertEquals("a", buffer.take());
+		Assert.assertEquals("b", buffer.take());
+		Assert.assertEquals("c", buffer.take());
+	}
+
+	/**
+	 * @see {@link ExportReorderBuffer#put(int,Object)}
+	 */
+	@Test
+	@Verifies(value = "should wait while the chunk is too far ahead", method = "put(int,Object)")
+	public void put_shouldWaitWhileTheChunkIsTooFarAhead() throws Exception {
+		final ExportReorderBuffer<String> buffer = new ExportReorderBuffer<String>(1);
+		buffer.put(0, "a");
+		Thread worker = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					buffer.put(1, "b");
+				}
+				catch (InterruptedException ex) {}
+			}
+		};
+		worker.start();
+		worker.join(200);
+		Assert.assertTrue(worker.isAlive());
+
+		Assert.assertEquals("a", buffer.take());
+		worker.join(5000);
+		Assert.assertFalse(worker.isAlive());
+		Assert.assertEquals("b", buffer.take());
+	}
+
+	/**
+	 * @see {@link ExportReorderBuffer#take()}
+	 */
+	@Test
+	@Verifies(value = "should throw if a worker failed", method = "take()")
+	public void take_shouldThrowIfAWorkerFailed() throws Exception {
+		ExportReorderBuffer<String> buffer = new ExportReorderBuffer<String>(2);
+		buffer.put(1, "b");
+		RuntimeException cause = new RuntimeException("no such encounter");
+		buffer.fail(cause);
+		try {
+			buffer.take();
+			Assert.fail("take should have thrown");
+		}
+		catch (IllegalStateException ex) {
+			Assert.assertSame(cause, ex.getCause());
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package org.openmrs.module.htmlformentry.matching;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.FormSubmissionControllerAction;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.TestUtil;
+import org.openmrs.module.htmlformentry.action.ObsGroupAction;
+import org.openmrs.module.htmlformentry.element.ObsSubmissionElement;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+public class FormPlanTest extends BaseModuleContextSensitiveTest {
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	protected static final String XML_DATASET_PATH = "org/openmrs/module/htmlformentry/include/";
+	
+	protected static final String XML_REGRESSION_TEST_DATASET = "regressionTestDataSet";
+	
+	@Before
+	public void setupDatabase() throws Exception {
+		executeDataSet(XML_DATASET_PATH + new TestUtil().getTestDatasetFilename(XML_REGRESSION_TEST_DATASET));
+	}
+	
+	private HtmlForm getHtmlForm() throws Exception {
+		Form form = new Form();
+		HtmlForm htmlform = new HtmlForm();
+		htmlform.setForm(form);
+		form.setEncounterType(new EncounterType());
+		htmlform.setDateChanged(new Date());
+		htmlform.setXmlData(new TestUtil().loadXmlFromFile(XML_DATASET_PATH + "obsGroupDataExportTest.xml"));
+		return htmlform;
+	}
+	
+	/**
+	 * @see {@link FormPlan#compile(HtmlForm)}
+	 */
+	@Test
+	@Verifies(value = "should compile the obs and obs groups of the form", method = "compile(HtmlForm)")
+	public void compile_shouldCompileTheObsAndObsGroupsOfTheForm() throws Exception {
+		FormPlan plan = FormPlan.compile(getHtmlForm());
+		Assert.assertEquals(6, plan.getItems().size());
+		Assert.assertEquals(7, plan.getObsItems().size());
+		
+		ObsGroupPlanItem dstResult = (ObsGroupPlanItem) plan.getItems().get(5);
+		Assert.assertEquals(Integer.valueOf(3040), dstResult.getGroupingConcept().getConceptId());
+		ObsGroupPlanItem drugResult = (ObsGroupPlanItem) dstResult.getChildren().get(0);
+		Assert.assertEquals(Integer.valueOf(3025), drugResult.getGroupingConcept().getConceptId());
+		Assert.assertEquals(2, drugResult.getChildren().size());
+		Assert.assertEquals(ObsPlanItem.MatchStyle.CONCEPT_SELECT,
+		    ((ObsPlanItem) drugResult.getChildren().get(0)).getMatchStyle());
+	}
+	
+	/**
+	 * @see {@link FormPlan#match(Encounter)}
+	 */
+	@Test
+	@Verifies(value = "should match the same obs as viewing the form", method = "match(Encounter)")
+	public void match_shouldMatchTheSameObsAsViewingTheForm() throws Exception {
+		HtmlForm htmlform = getHtmlForm();
+		
+		Encounter e = new Encounter();
+		e.setPatient(Context.getPatientService().getPatient(2));
+		Date date = Context.getDateFormat().parse("01/02/2003");
+		e.setDateCreated(new Date());
+		e.setEncounterDatetime(date);
+		e.setLocation(Context.getLocationService().getLocation(2));
+		e.setProvider(Context.getPersonService().getPerson(502));
+		TestUtil.addObs(e, 3032, date, date);
+		TestUtil.addObs(e, 1441, Context.getConceptService().getConcept(656), date);
+		TestUtil.addObsGroup(e, 1004, date, 1005, Context.getConceptService().getConcept(1001), new Date());
+		TestUtil.addObs(e, 1119, new Date(), date);
+		TestUtil.addObs(e, 2474, Context.getConceptService().getConcept(767), date);
+		Obs dstParent = TestUtil.createObs(e, 3040, null, date);
+		e.addObs(dstParent);
+		Obs resultParent = TestUtil.createObs(e, 3025, null, date);
+		dstParent.addGroupMember(resultParent);
+		Obs drugResult = TestUtil.createObs(e, 3017, Context.getConceptService().getConcept(656), date);
+		resultParent.addGroupMember(drugResult);
+		Obs colonies = TestUtil.createObs(e, 3016, 200, date);
+		resultParent.addGroupMember(colonies);
+		// an obs that is not on the form
+		TestUtil.addObs(e, 5089, 70, date);
+		Context.getEncounterService().saveEncounter(e);
+		
+		FormEntrySession session = new FormEntrySession(e.getPatient(), e, Mode.VIEW, htmlform, null);
+		session.analyzeForm();
+		Set<Integer> viewed = new HashSet<Integer>();
+		for (FormSubmissionControllerAction action : session.getSubmissionController().getActions()) {
+			Obs obs = null;
+			if (action instanceof ObsSubmissionElement) {
+				obs = ((ObsSubmissionElement) action).getExistingObs();
+			} else if (action instanceof ObsGroupAction) {
+				obs = ((ObsGroupAction) action).getExistingGroup();
+			}
+			if (obs != null) {
+				viewed.add(obs.getObsId());
+			}
+		}
+		
+		FormPlanMatch match = FormPlan.compile(htmlform).match(e);
+		Set<Integer> matched = new HashSet<Integer>();
+		for (Obs obs : match.getMatchedObs()) {
+			matched.add(obs.getObsId());
+		}
+		
+		Assert.assertEquals(10, matched.size());
+		Assert.assertEquals(viewed, matched);
+		Assert.assertEquals(1, match.getUnmatchedObs().size());
+		Assert.assertEquals(Integer.valueOf(5089), match.getUnmatchedObs().get(0).getConcept().getConceptId());
+		Assert.assertFalse(match.isGuessing());
+	}
+	
+	/**
+	 * @see {@link FormPlan#match(Encounter)}
+	 */
+	@Test
+	@Verifies(value = "should match the obs of many encounters", method = "match(Encounter)")
+	public void match_shouldMatchTheObsOfManyEncounters() throws Exception {
+		final int encounterCount = 10000;
+		HtmlForm htmlform = getHtmlForm();
+		
+		long start = System.nanoTime();
+		FormPlan plan = FormPlan.compile(htmlform);
+		long compileNanos = System.nanoTime() - start;
+		
+		Patient patient = Context.getPatientService().getPatient(2);
+		Location location = Context.getLocationService().getLocation(2);
+		Date date = Context.getDateFormat().parse("01/02/2003");
+		Concept dstStartDate = Context.getConceptService().getConcept(3032);
+		Concept allergyGroup = Context.getConceptService().getConcept(1004);
+		Concept allergy = Context.getConceptService().getConcept(1005);
+		Concept allergyAnswer = Context.getConceptService().getConcept(1001);
+		Concept resultQuestion = Context.getConceptService().getConcept(2474);
+		Concept resultAnswer = Context.getConceptService().getConcept(767);
+		
+		int nextObsId = 1;
+		int matchedObs = 0;
+		long matchNanos = 0;
+		for (int i = 0; i < encounterCount; ++i) {
+			// the encounters are built in memory, one at a time, so that only matching is timed
+			Encounter e = new Encounter();
+			e.setPatient(patient);
+			e.setEncounterDatetime(date);
+			e.setLocation(location);
+			Obs obs = new Obs(patient, dstStartDate, date, location);
+			obs.setObsId(nextObsId++);
+			obs.setValueDatetime(date);
+			e.addObs(obs);
+			Obs group = new Obs(patient, allergyGroup, date, location);
+			group.setObsId(nextObsId++);
+			e.addObs(group);
+			Obs member = new Obs(patient, allergy, date, location);
+			member.setObsId(nextObsId++);
+			member.setValueCoded(allergyAnswer);
+			group.addGroupMember(member);
+			e.addObs(member);
+			obs = new Obs(patient, resultQuestion, date, location);
+			obs.setObsId(nextObsId++);
+			obs.setValueCoded(resultAnswer);
+			e.addObs(obs);
+			
+			long matchStart = System.nanoTime();
+			FormPlanMatch match = plan.match(e);
+			matchNanos += System.nanoTime() - matchStart;
+			
+			Assert.assertEquals(0, match.getUnmatchedObs().size());
+			matchedObs += match.getMatchedObs().size();
+		}
+		
+		Assert.assertEquals(4 * encounterCount, matchedObs);
+		log.info("Compiled the plan in " + (compileNanos / 1000000) + " ms and matched " + encounterCount
+		        + " encounters in " + (matchNanos / 1000000) + " ms");
+	}
+	
+}
@@ -0,0 +1,61 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class HtmlFormEntryMetricsTest {
+
+	@Before
+	public void reset() {
+		HtmlFormEntryMetrics.reset();
+	}
+
+	@After
+	public void cleanUp() {
+		HtmlFormEntryMetrics.reset();
+	}
+
+	/**
+	 * @see {@link HtmlFormEntryMetrics#getStageSnapshots()}
+	 */
+	@Test
+	@Verifies(value = "should return the stages recorded", method = "getStageSnapshots()")
+	public void getStageSnapshots_shouldReturnTheStagesRecorded() throws Exception {
+		HtmlFormEntryMetrics.recordNanos("applyTags.obs", 1, 2000000);
+		HtmlFormEntryMetrics.recordNanos("applyTags.obs", 1, 4000000);
+		HtmlFormEntryMetrics.recordNanos("createForm", 1, 30000000);
+
+		Map<String, LatencySnapshot> stages = HtmlFormEntryMetrics.getStageSnapshots();
+		Assert.assertEquals(2, stages.size());
+		LatencySnapshot obs = stages.get("applyTags.obs");
+		Assert.assertEquals(2, obs.getCount());
+		Assert.assertEquals(3d, obs.getMeanMillis(), 0.001);
+		Assert.assertEquals(4d, obs.getMaxMillis(), 0.001);
+		Assert.assertEquals(2.5d, obs.getP50Millis(), 0.001);
+		Assert.assertEquals(4d, obs.getP99Millis(), 0.001);
+	}
+
+	/**
+	 * @see {@link HtmlFormEntryMetrics#getFormSnapshots()}
+	 */
+	@Test
+	@Verifies(value = "should only count the main steps per form", method = "getFormSnapshots()")
+	public void getFormSnapshots_shouldOnlyCountTheMainStepsPerForm() throws Exception {
+		HtmlFormEntryMetrics.recordNanos("applyTags.obs", 1, 2000000);
+		HtmlFormEntryMetrics.recordNanos("createForm", 1, 30000000);
+		HtmlFormEntryMetrics.recordNanos("applyActions", 2, 10000000);
+		HtmlFormEntryMetrics.recordNanos("createForm", null, 10000000);
+
+		Map<Integer, Map<String, LatencySnapshot>> forms = HtmlFormEntryMetrics.getFormSnapshots();
+		Assert.assertEquals(2, forms.size());
+		Assert.assertEquals(1, forms.get(1).size());
+		Assert.assertEquals(1, forms.get(1).get("createForm").getCount());
+		Assert.assertEquals(1, forms.get(2).get("applyActions").getCount());
+		Assert.assertEquals(2, HtmlFormEntryMetrics.getStageSnapshots().get("createForm").getCount());
+	}
+}
@@ -0,0 +1,104 @@
+package org.openmrs.module.htmlformentry.metrics;
+
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+public class RenderProfilerTest {
+
+	private Document doc;
+
+	private Node section;
+
+	private Node firstObs;
+
+	private Node secondObs;
+
+	@Before
+	public void parseForm() throws Exception {
+		String xml = "<htmlform><section><obs conceptId=\"5089\"/><obs conceptId=\"5090\"/></section></htmlform>";
+		doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+		section = doc.getDocumentElement().getFirstChild();
+		firstObs = section.getFirstChild();
+		secondObs = firstObs.getNextSibling();
+	}
+
+	/**
+	 * @see {@link RenderProfiler#exit()}
+	 */
+	@Test
+	@Verifies(value = "should count nested tags in the totals but not in the self figures of their parent", method = "exit()")
+	public void exit_shouldCountNestedTagsInTheTotalsButNotInTheSelfFiguresOfTheirParent() throws Exception {
+		FakeQueryCounter queries = new FakeQueryCounter();
+		RenderProfiler profiler = new RenderProfiler(queries);
+		profiler.enter(section);
+		queries.count += 1;
+		profiler.enter(firstObs);
+		queries.count += 2;
+		Thread.sleep(5);
+		profiler.exit();
+		profiler.enter(secondObs);
+		queries.count += 3;
+		profiler.exit();
+		profiler.exit();
+
+		ProfiledNode profiledSection = profiler.getRoots().get(0);
+		ProfiledNode profiledObs = profiledSection.getChildren().get(0);
+		Assert.assertEquals(6, profiledSection.getTotalQueries());
+		Assert.assertEquals(1, profiledSection.getSelfQueries());
+		Assert.assertEquals(2, profiledObs.getTotalQueries());
+		Assert.assertEquals(2, profiledObs.getSelfQueries());
+		Assert.assertTrue(profiledObs.getTotalNanos() >= 5000000);
+		Assert.assertTrue(profiledSection.getTotalNanos() >= profiledObs.getTotalNanos());
+		Assert.assertTrue(profiledSection.getSelfNanos() < profiledObs.getTotalNanos());
+		Assert.assertEquals("htmlform/section/obs", profiledObs.getPath());
+		Assert.assertEquals("conceptId=\"5089\"", profiledObs.getLabel());
+		Assert.assertEquals(profiledSection.getTotalNanos(), profiler.getElapsedNanos());
+	}
+
+	/**
+	 * @see {@link RenderProfiler#getNodes()}
+	 */
+	@Test
+	@Verifies(value = "should list nested tags after their parent", method = "getNodes()")
+	public void getNodes_shouldListNestedTagsAfterTheirParent() throws Exception {
+		RenderProfiler profiler = new RenderProfiler(null);
+		profiler.enter(section);
+		profiler.enter(firstObs);
+		profiler.exit();
+		profiler.enter(secondObs);
+		profiler.exit();
+		profiler.exit();
+
+		List<ProfiledNode> nodes = profiler.getNodes();
+		Assert.assertEquals(3, nodes.size());
+		Assert.assertEquals("htmlform/section", nodes.get(0).getPath());
+		Assert.assertEquals(0, nodes.get(0).getDepth());
+		Assert.assertEquals("htmlform/section/obs", nodes.get(1).getPath());
+		Assert.assertEquals("htmlform/section/obs[2]", nodes.get(2).getPath());
+		Assert.assertEquals(1, nodes.get(2).getDepth());
+		Assert.assertEquals(0, nodes.get(2).getTotalQueries());
+	}
+
+	private static class FakeQueryCounter implements QueryCounter {
+
+		private long count;
+
+		public long getQueryCount() {
+			return count;
+		}
+
+		public void release() {
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests the concept name index. The benchmark test logs the queries per second the index answers on a
+ * synthetic dictionary of the size of a large concept dictionary.
+ */
+public class ConceptNameIndexTest {
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final int BENCHMARK_CONCEPTS = 50000;
+
+	private static final int BENCHMARK_QUERIES = 5000;
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should find concepts by the start of any word of their names", method = "search(String,Integer)")
+	public void search_shouldFindConceptsByTheStartOfAnyWordOfTheirNames() throws Exception {
+		ConceptNameIndex index = createIndex();
+		Assert.assertEquals(1, index.search("malar", null).size());
+		Assert.assertEquals(Integer.valueOf(1), index.search("malar", null).get(0).getConceptId());
+		Assert.assertEquals(Integer.valueOf(1), index.search("FALCI", null).get(0).getConceptId());
+		Assert.assertTrue(index.search("arial", null).isEmpty());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should require every word of the query to match", method = "search(String,Integer)")
+	public void search_shouldRequireEveryWordOfTheQueryToMatch() throws Exception {
+		ConceptNameIndex index = createIndex();
+		Assert.assertEquals(2, index.search("tuber", null).size());
+		List<ConceptNameIndex.Entry> results = index.search("tuber pulm", null);
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals(Integer.valueOf(3), results.get(0).getConceptId());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return each concept once", method = "search(String,Integer)")
+	public void search_shouldReturnEachConceptOnce() throws Exception {
+		List<ConceptNameIndex.Entry> results = createIndex().search("t", null);
+		Assert.assertEquals(2, results.size());
+		// the synonym is shown with the display name of the concept
+		List<ConceptNameIndex.Entry> synonyms = createIndex().search("tb", null);
+		Assert.assertEquals(1, synonyms.size());
+		Assert.assertEquals("Pulmonary tuberculosis", synonyms.get(0).getValue());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return names starting with the query first", method = "search(String,Integer)")
+	public void search_shouldReturnNamesStartingWithTheQueryFirst() throws Exception {
+		List<ConceptNameIndex.Entry> results = createIndex().search("tuber", null);
+		Assert.assertEquals(Integer.valueOf(2), results.get(0).getConceptId());
+		Assert.assertEquals(Integer.valueOf(3), results.get(1).getConceptId());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return at most the given number of results", method = "search(String,Integer)")
+	public void search_shouldReturnAtMostTheGivenNumberOfResults() throws Exception {
+		Assert.assertEquals(1, createIndex().search("tuber", 1).size());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#search(String,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return an empty list for a blank query", method = "search(String,Integer)")
+	public void search_shouldReturnAnEmptyListForABlankQuery() throws Exception {
+		Assert.assertTrue(createIndex().search(" ,", null).isEmpty());
+		Assert.assertTrue(createIndex().search(null, null).isEmpty());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#getConcepts(int,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return each concept once ordered by display name", method = "getConcepts(int,Integer)")
+	public void getConcepts_shouldReturnEachConceptOnceOrderedByDisplayName() throws Exception {
+		ConceptNameIndex index = createIndex();
+		List<ConceptNameIndex.Entry> concepts = index.getConcepts(0, null);
+		Assert.assertEquals(3, index.getConceptCount());
+		Assert.assertEquals(3, concepts.size());
+		Assert.assertEquals("Malaria, falciparum", concepts.get(0).getDisplayName());
+		Assert.assertEquals("Pulmonary tuberculosis", concepts.get(1).getDisplayName());
+		Assert.assertEquals("Tuberculosis", concepts.get(2).getDisplayName());
+	}
+
+	/**
+	 * @see {@link ConceptNameIndex#getConcepts(int,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the given page of concepts", method = "getConcepts(int,Integer)")
+	public void getConcepts_shouldReturnTheGivenPageOfConcepts() throws Exception {
+		List<ConceptNameIndex.Entry> concepts = createIndex().getConcepts(1, 1);
+		Assert.assertEquals(1, concepts.size());
+		Assert.assertEquals(Integer.valueOf(3), concepts.get(0).getConceptId());
+		Assert.assertTrue(createIndex().getConcepts(3, 10).isEmpty());
+	}
+
+	@Test
+	public void search_benchmark() throws Exception {
+		Random random = new Random(42);
+		List<ConceptNameIndex.Entry> entries = new ArrayList<ConceptNameIndex.Entry>();
+		for (int i = 0; i < BENCHMARK_CONCEPTS; i++) {
+			String name = randomWord(random) + " " + randomWord(random) + " " + randomWord(random);
+			entries.add(new ConceptNameIndex.Entry(i, name, name));
+		}
+		long start = System.currentTimeMillis();
+		ConceptNameIndex index = new ConceptNameIndex(entries, Locale.ENGLISH);
+		log.info("Indexed " + BENCHMARK_CONCEPTS + " names in " + (System.currentTimeMillis() - start) + " ms");
+
+		start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+			// one to three letters, as typed into an autocomplete field
+			String query = randomWord(random).substring(0, 1 + random.nextInt(3));
+			found += index.search(query, 20).size();
+		}
+		long nanos = System.nanoTime() - start;
+		log.info(BENCHMARK_QUERIES + " searches returned " + found + " results at "
+		        + (BENCHMARK_QUERIES * 1000000000L / Math.max(1, nanos)) + " queries per second");
+		Assert.assertTrue(found > 0);
+	}
+
+	private ConceptNameIndex createIndex() {
+		List<ConceptNameIndex.Entry> entries = new ArrayList<ConceptNameIndex.Entry>();
+		entries.add(new ConceptNameIndex.Entry(1, "Malaria, falciparum", "Malaria, falciparum"));
+		entries.add(new ConceptNameIndex.Entry(2, "Tuberculosis", "Tuberculosis"));
+		entries.add(new ConceptNameIndex.Entry(3, "Pulmonary tuberculosis", "Pulmonary tuberculosis"));
+		entries.add(new ConceptNameIndex.Entry(3, "TB, pulmonary", "Pulmonary tuberculosis"));
+		return new ConceptNameIndex(entries, Locale.ENGLISH);
+	}
+
+	private String randomWord(Random random) {
+		StringBuilder word = new StringBuilder();
+		int length = 4 + random.nextInt(8);
+		for (int i = 0; i < length; i++) {
+			word.append((char) ('a' + random.nextInt(26)));
+		}
+		return word.toString();
+	}
+
+}
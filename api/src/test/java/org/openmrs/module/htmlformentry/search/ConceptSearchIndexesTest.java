@@ -0,0 +1,29 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.ConceptService;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+public class ConceptSearchIndexesTest extends BaseModuleContextSensitiveTest {
+
+	/**
+	 * @see {@link ConceptSearchIndexes#getIndexForConcepts(Locale,Collection)}
+	 */
+	@Test
+	@Verifies(value = "should rebuild the index after a concept is changed", method = "getIndexForConcepts(Locale,Collection)")
+	public void getIndexForConcepts_shouldRebuildTheIndexAfterAConceptIsChanged() throws Exception {
+		ConceptNameIndex index = ConceptSearchIndexes.getIndexForConcepts(Locale.ENGLISH, Collections.singleton(5089));
+		Assert.assertEquals(Integer.valueOf(5089), index.search("weig", null).get(0).getConceptId());
+		Assert.assertSame(index, ConceptSearchIndexes.getIndexForConcepts(Locale.ENGLISH, Collections.singleton(5089)));
+
+		MetadataChangeAdvice.changed(ConceptService.class);
+		Assert.assertNotSame(index, ConceptSearchIndexes.getIndexForConcepts(Locale.ENGLISH, Collections.singleton(5089)));
+	}
+
+}
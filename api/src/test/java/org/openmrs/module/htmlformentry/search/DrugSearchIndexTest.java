@@ -0,0 +1,49 @@
+package org.openmrs.module.htmlformentry.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class DrugSearchIndexTest {
+
+	/**
+	 * @see {@link DrugSearchIndex#search(String,int,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should find drugs whose name contains the query", method = "search(String,int,Integer)")
+	public void search_shouldFindDrugsWhoseNameContainsTheQuery() throws Exception {
+		DrugSearchIndex index = createIndex();
+		List<DrugSearchIndex.Entry> results = index.search("MUNE", 0, null);
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(Integer.valueOf(2), results.get(0).getId());
+		Assert.assertEquals(Integer.valueOf(3), results.get(1).getId());
+		Assert.assertEquals(3, index.search("", 0, null).size());
+		Assert.assertTrue(index.search("ibuprofen", 0, null).isEmpty());
+	}
+
+	/**
+	 * @see {@link DrugSearchIndex#search(String,int,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the given page of drugs", method = "search(String,int,Integer)")
+	public void search_shouldReturnTheGivenPageOfDrugs() throws Exception {
+		DrugSearchIndex index = createIndex();
+		List<DrugSearchIndex.Entry> results = index.search("i", 1, 1);
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals(Integer.valueOf(2), results.get(0).getId());
+		Assert.assertTrue(index.search("i", 3, 10).isEmpty());
+	}
+
+	private DrugSearchIndex createIndex() {
+		List<DrugSearchIndex.Entry> entries = new ArrayList<DrugSearchIndex.Entry>();
+		entries.add(new DrugSearchIndex.Entry(1, "Aspirin", "Tablet", "Oral", 325.0, "mg", false, "ASPIRIN"));
+		entries.add(new DrugSearchIndex.Entry(2, "Triomune-30", "Tablet", "Oral", 30.0, "mg", true, "TRIOMUNE"));
+		entries.add(new DrugSearchIndex.Entry(3, "Triomune-40", null, null, 40.0, "mg", true, "TRIOMUNE"));
+		return new DrugSearchIndex(entries, Locale.ENGLISH, 0);
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.openmrs.module.htmlformentry.substitution;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.module.htmlformentry.handler.ObsTagHandler;
+import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.substitution.AttributeDescriptorIndex.Occurrence;
+import org.openmrs.test.Verifies;
+
+public class AttributeDescriptorIndexTest {
+
+	private AttributeDescriptorIndex index;
+
+	@Before
+	public void buildIndex() {
+		Map<String, TagHandler> tagHandlers = new HashMap<String, TagHandler>();
+		tagHandlers.put("obs", new ObsTagHandler());
+		index = new AttributeDescriptorIndex(tagHandlers);
+	}
+
+	/**
+	 * @see {@link AttributeDescriptorIndex#findOccurrences(String)}
+	 */
+	@Test
+	@Verifies(value = "should find attributes of registered tags in any case", method = "findOccurrences(String)")
+	public void findOccurrences_shouldFindAttributesOfRegisteredTagsInAnyCase() throws Exception {
+		String xml = "<htmlform><obs conceptId=\"5089\" labelText=\"a > b\" answerConceptIds=\"1,2\"/>"
+		        + "<OBS CONCEPTID=\"5090\"></OBS></htmlform>";
+		List<Occurrence> occurrences = index.findOccurrences(xml);
+		Assert.assertEquals(3, occurrences.size());
+		Assert.assertEquals("conceptId", occurrences.get(0).getAttributeName());
+		Assert.assertEquals("5089", occurrences.get(0).getValue(xml));
+		Assert.assertEquals(Concept.class, occurrences.get(0).getDescriptors().get(0).getClazz());
+		Assert.assertEquals("1,2", occurrences.get(1).getValue(xml));
+		Assert.assertEquals("answerConceptIds=\"1,2\"", xml.substring(occurrences.get(1).getAttributeStart(),
+		    occurrences.get(1).getValueEnd() + 1));
+		Assert.assertEquals("5090", occurrences.get(2).getValue(xml));
+	}
+
+	/**
+	 * @see {@link AttributeDescriptorIndex#findOccurrences(String)}
+	 */
+	@Test
+	@Verifies(value = "should not find attributes of other tags", method = "findOccurrences(String)")
+	public void findOccurrences_shouldNotFindAttributesOfOtherTags() throws Exception {
+		String xml = "<htmlform><obsgroup conceptId=\"5089\"><span conceptId=\"5090\">obs conceptId=\"1\"</span></obsgroup></htmlform>";
+		Assert.assertEquals(0, index.findOccurrences(xml).size());
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class LazyVelocityContextTest {
+
+	/**
+	 * @see {@link LazyVelocityContext#putLazy(String, LazyVelocityContext.LazyValue)}
+	 */
+	@Test
+	@Verifies(value = "should compute the value on first access only", method = "putLazy(String, LazyValue)")
+	public void putLazy_shouldComputeTheValueOnFirstAccessOnly() throws Exception {
+		final int[] computed = { 0 };
+		LazyVelocityContext velocityContext = new LazyVelocityContext();
+		velocityContext.putLazy("answer", new LazyVelocityContext.LazyValue() {
+
+			@Override
+			public Object compute() {
+				computed[0]++;
+				return 42;
+			}
+		});
+		Assert.assertEquals(0, computed[0]);
+
+		StringWriter writer = new StringWriter();
+		VelocityTemplateCache.getTemplate("$answer $answer").merge(velocityContext, writer);
+		Assert.assertEquals("42 42", writer.toString());
+		Assert.assertEquals(1, computed[0]);
+	}
+}
@@ -0,0 +1,67 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import java.io.StringWriter;
+
+import org.apache.velocity.VelocityContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+public class VelocityTemplateCacheTest {
+
+	/**
+	 * @see {@link VelocityTemplateCache#getTemplate(String)}
+	 */
+	@Test
+	@Verifies(value = "should return the same template for the same expression", method = "getTemplate(String)")
+	public void getTemplate_shouldReturnTheSameTemplateForTheSameExpression() throws Exception {
+		String expression = "$!{first} and $!{second}";
+		Assert.assertSame(VelocityTemplateCache.getTemplate(expression), VelocityTemplateCache.getTemplate(expression));
+	}
+
+	/**
+	 * @see {@link VelocityTemplateCache#getTemplate(String)}
+	 */
+	@Test
+	@Verifies(value = "should render the expression when merged", method = "getTemplate(String)")
+	public void getTemplate_shouldRenderTheExpressionWhenMerged() throws Exception {
+		VelocityContext velocityContext = new VelocityContext();
+		velocityContext.put("weight", 70);
+		StringWriter writer = new StringWriter();
+		VelocityTemplateCache.getTemplate("#if($weight > 60)heavy#{else}light#end").merge(velocityContext, writer);
+		Assert.assertEquals("heavy", writer.toString());
+	}
+
+	/**
+	 * @see {@link VelocityTemplateCache#getTemplate(String)}
+	 */
+	@Test
+	@Verifies(value = "should not share inline macros between expressions", method = "getTemplate(String)")
+	public void getTemplate_shouldNotShareInlineMacrosBetweenExpressions() throws Exception {
+		Assert.assertEquals("one", render("#macro(sharedMacroTest)one#end#sharedMacroTest()"));
+		Assert.assertEquals("two", render("#macro(sharedMacroTest)two#end#sharedMacroTest()"));
+		String result = render("#sharedMacroTest()");
+		Assert.assertFalse(result, result.contains("one") || result.contains("two"));
+		Assert.assertEquals("one", render("#macro(sharedMacroTest)one#end#sharedMacroTest()"));
+	}
+
+	/**
+	 * @see {@link VelocityTemplateCache#getTemplate(String)}
+	 */
+	@Test
+	@Verifies(value = "should give the same expression the same name when it is parsed again", method = "getTemplate(String)")
+	public void getTemplate_shouldGiveTheSameExpressionTheSameNameWhenItIsParsedAgain() throws Exception {
+		String expression = "#macro(reparsedMacroTest)three#end#reparsedMacroTest()";
+		String name = VelocityTemplateCache.getTemplate(expression).getName();
+		Assert.assertFalse(name.equals(VelocityTemplateCache.getTemplate("$patient").getName()));
+		VelocityTemplateCache.clear();
+		Assert.assertEquals(name, VelocityTemplateCache.getTemplate(expression).getName());
+		Assert.assertEquals("three", render(expression));
+	}
+
+	private String render(String expression) throws Exception {
+		StringWriter writer = new StringWriter();
+		VelocityTemplateCache.getTemplate(expression).merge(new VelocityContext(), writer);
+		return writer.toString();
+	}
+}
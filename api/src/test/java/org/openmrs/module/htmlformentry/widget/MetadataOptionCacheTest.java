@@ -0,0 +1,89 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.advice.MetadataChangeAdvice;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+public class MetadataOptionCacheTest extends BaseModuleContextSensitiveTest {
+
+	@Before
+	public void before() throws Exception {
+		MetadataOptionCache.clear();
+	}
+
+	/**
+	 * @see {@link MetadataOptionCache#getLocationOptions(boolean,String)}
+	 */
+	@Test
+	@Verifies(value = "should return the options of the locations sorted by label", method = "getLocationOptions(boolean,String)")
+	public void getLocationOptions_shouldReturnTheOptionsOfTheLocationsSortedByLabel() throws Exception {
+		List<Option> options = MetadataOptionCache.getLocationOptions(true, null);
+		Assert.assertEquals(Context.getLocationService().getAllLocations(true).size(), options.size());
+		for (int i = 1; i < options.size(); i++) {
+			Assert.assertTrue(options.get(i - 1).getLabel().compareTo(options.get(i).getLabel()) <= 0);
+		}
+	}
+
+	/**
+	 * @see {@link MetadataOptionCache#getLocationOptions(boolean,String)}
+	 */
+	@Test
+	@Verifies(value = "should select the option with the given value", method = "getLocationOptions(boolean,String)")
+	public void getLocationOptions_shouldSelectTheOptionWithTheGivenValue() throws Exception {
+		for (Option option : MetadataOptionCache.getLocationOptions(true, "2")) {
+			Assert.assertEquals("2".equals(option.getValue()), option.isSelected());
+		}
+		// the selection of one call is not seen by the next one
+		for (Option option : MetadataOptionCache.getLocationOptions(true, null)) {
+			Assert.assertFalse(option.isSelected());
+		}
+	}
+
+	/**
+	 * @see {@link MetadataOptionCache#getLocationOptions(boolean,String)}
+	 */
+	@Test
+	@Verifies(value = "should rebuild the options after a location is changed", method = "getLocationOptions(boolean,String)")
+	public void getLocationOptions_shouldRebuildTheOptionsAfterALocationIsChanged() throws Exception {
+		int before = MetadataOptionCache.getLocationOptions(false, null).size();
+
+		Location location = new Location();
+		location.setName("Aaa new location");
+		Context.getLocationService().saveLocation(location);
+		// the advice is only registered when the module is started
+		new MetadataChangeAdvice().afterReturning(location, LocationService.class.getMethod("saveLocation",
+		    Location.class), new Object[] { location }, Context.getLocationService());
+
+		List<Option> options = MetadataOptionCache.getLocationOptions(false, null);
+		Assert.assertEquals(before + 1, options.size());
+		Assert.assertEquals("Aaa new location", options.get(0).getLabel());
+	}
+
+	/**
+	 * @see {@link MetadataOptionCache#getLocationOptions(boolean,String)}
+	 */
+	@Test
+	@Verifies(value = "should not query for changes made outside of the API more than once every FINGERPRINT_MAX_AGE", method = "getLocationOptions(boolean,String)")
+	public void getLocationOptions_shouldNotQueryForChangesMadeOutsideOfTheAPIMoreThanOnceEveryFINGERPRINT_MAX_AGE()
+	        throws Exception {
+		int before = MetadataOptionCache.getLocationOptions(false, null).size();
+
+		// without the advice, the new location is only seen once the fingerprint is queried again
+		Location location = new Location();
+		location.setName("Aaa new location");
+		Context.getLocationService().saveLocation(location);
+		Assert.assertEquals(before, MetadataOptionCache.getLocationOptions(false, null).size());
+
+		MetadataOptionCache.clear();
+		Assert.assertEquals(before + 1, MetadataOptionCache.getLocationOptions(false, null).size());
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import org.junit.Test;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.element.PersonStub;
+import org.openmrs.test.Verifies;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RemoteOptionsWidgetTest {
+
+	/**
+	 * @see {@link RemoteOptionsWidget#generateHtml(FormEntryContext)}
+	 */
+	@Test
+	@Verifies(value = "should write only the given and selected options and load the others remotely", method = "generateHtml(FormEntryContext)")
+	public void generateHtml_shouldWriteOnlyTheGivenAndSelectedOptionsAndLoadTheOthersRemotely() throws Exception {
+		RemoteOptionsWidget widget = new RemoteOptionsWidget("/openmrs/module/htmlformentry/providerOptions.form");
+		widget.setMoreLabel("More...");
+		widget.addOption(new Option("Choose", "", false));
+		PersonStub stub = new PersonStub();
+		stub.setId(5);
+		stub.setGivenName("Super");
+		stub.setFamilyName("User");
+		widget.setInitialValue(stub);
+
+		FormEntryContext fec = mock(FormEntryContext.class);
+		when(fec.getFieldName(widget)).thenReturn("w3");
+
+		String html = widget.generateHtml(fec);
+		assertThat(html, containsString("<select id=\"w3\" name=\"w3\"><option value=\"\">Choose</option><option value=\"5\" selected=\"true\">"));
+		assertThat(html, containsString("htmlForm.setupRemoteOptions('w3', '/openmrs/module/htmlformentry/providerOptions.form', 100, 'More...');"));
+
+		// the selected option is written once, even when it was also added to the widget
+		widget = new RemoteOptionsWidget("providerOptions.form");
+		widget.setMoreLabel("More...");
+		widget.addOption(new Option("Super User", "5", true));
+		widget.setInitialValue(stub);
+		when(fec.getFieldName(widget)).thenReturn("w3");
+		html = widget.generateHtml(fec);
+		assertFalse(html.indexOf("value=\"5\"") != html.lastIndexOf("value=\"5\""));
+	}
+
+	/**
+	 * @see {@link RemoteOptionsWidget#generateHtml(FormEntryContext)}
+	 */
+	@Test
+	@Verifies(value = "should escape backslashes before quotes in the script", method = "generateHtml(FormEntryContext)")
+	public void generateHtml_shouldEscapeBackslashesBeforeQuotesInTheScript() throws Exception {
+		RemoteOptionsWidget widget = new RemoteOptionsWidget("providerOptions.form");
+		widget.setMoreLabel("More \\' options");
+
+		FormEntryContext fec = mock(FormEntryContext.class);
+		when(fec.getFieldName(widget)).thenReturn("w3");
+
+		String html = widget.generateHtml(fec);
+		assertThat(html, containsString("'providerOptions.form', 100, 'More \\\\\\' options');"));
+	}
+
+}
@@ -20,6 +20,7 @@ import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.module.htmlformentry.ValidationException;
+import org.openmrs.module.htmlformentry.metrics.HtmlFormEntryMetrics;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -184,8 +185,15 @@ public class HtmlFormEntryController {
         
         if (hasChangedInd != null) session.setHasChangedInd(hasChangedInd);
 
-        // ensure we've generated the form's HTML (and thus set up the submission actions, etc) before we do anything
-        session.getHtmlToDisplay();
+        // ensure we've generated the form's HTML (and thus set up the submission actions, etc) before we handle a
+        // submission. When just displaying the form, the view writes the HTML as it is generated (see
+        // FormEntrySession#writeHtmlToDisplay), except for forms whose obs groups may need a second pass when
+        // editing or viewing an encounter, where the view needs to know whether they were matched by guessing
+        if (RequestMethod.GET.name().equalsIgnoreCase(request.getMethod())) {
+            session.prepareHtmlToDisplay();
+        } else {
+            session.getHtmlToDisplay();
+        }
 
         Context.setVolatileUserData(FORM_IN_PROGRESS_KEY, session);
        
@@ -203,6 +211,7 @@ public class HtmlFormEntryController {
                                Errors errors,
                                HttpServletRequest request,
                                Model model) throws Exception {
+    	long start = HtmlFormEntryMetrics.start();
     	try {
             List<FormSubmissionError> validationErrors = session.getSubmissionController().validateSubmission(session.getContext(), request);
             if (validationErrors != null && validationErrors.size() > 0) {
@@ -212,6 +221,7 @@ public class HtmlFormEntryController {
             log.error("Exception during form validation", ex);
             errors.reject("Exception during form validation, see log for more details: " + ex);
         }
+        HtmlFormEntryMetrics.recordNanos("validateSubmission", session.getHtmlFormId(), System.nanoTime() - start);
         
         if (errors.hasErrors()) {
         	return new ModelAndView(FORM_PATH, "command", session);
@@ -229,7 +239,9 @@ public class HtmlFormEntryController {
             throw new IllegalArgumentException("This form is not going to create an encounter"); 
         
     	try {
+            start = HtmlFormEntryMetrics.start();
             session.getSubmissionController().handleFormSubmission(session, request);
+            HtmlFormEntryMetrics.recordNanos("handleFormSubmission", session.getHtmlFormId(), System.nanoTime() - start);
             HtmlFormEntryUtil.getService().applyActions(session);
             String successView = session.getReturnUrlWithParameters();
             if (successView == null)
@@ -0,0 +1,172 @@
+package org.openmrs.module.htmlformentry.web.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.MetadataResolutionCache;
+import org.openmrs.module.htmlformentry.metrics.HtmlFormEntryMetrics;
+import org.openmrs.module.htmlformentry.metrics.LatencySnapshot;
+import org.openmrs.util.OpenmrsConstants;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Shows the timings collected by {@link HtmlFormEntryMetrics}, to find slow forms, stages and tags.
+ * <p/>
+ * Handles {@code metrics.form} requests, rendering view {@code metrics.jsp}, and {@code metricsData.form}
+ * requests, which return the same data as JSON.
+ */
+@Controller
+public class HtmlFormEntryMetricsController {
+
+	@RequestMapping(value = "/module/htmlformentry/metrics", method = RequestMethod.GET)
+	public void showMetrics(Model model) {
+		requirePrivilege();
+		model.addAttribute("enabled", HtmlFormEntryMetrics.isEnabled());
+		model.addAttribute("stages", HtmlFormEntryMetrics.getStageSnapshots());
+		model.addAttribute("forms", getForms());
+		model.addAttribute("resolutionCache", getResolutionCacheCounts());
+	}
+
+	@RequestMapping("/module/htmlformentry/metricsData")
+	public void getMetricsData(HttpServletResponse response) throws Exception {
+		requirePrivilege();
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("enabled", HtmlFormEntryMetrics.isEnabled());
+		Map<String, Object> stages = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, LatencySnapshot> e : HtmlFormEntryMetrics.getStageSnapshots().entrySet()) {
+			stages.put(e.getKey(), simplify(e.getValue()));
+		}
+		ret.put("stages", stages);
+		List<Object> forms = new ArrayList<Object>();
+		for (FormMetrics form : getForms()) {
+			Map<String, Object> simplified = new LinkedHashMap<String, Object>();
+			simplified.put("htmlFormId", form.getHtmlFormId());
+			simplified.put("name", form.getName());
+			simplified.put("totalMillis", form.getTotalMillis());
+			Map<String, Object> formStages = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, LatencySnapshot> e : form.getStages().entrySet()) {
+				formStages.put(e.getKey(), simplify(e.getValue()));
+			}
+			simplified.put("stages", formStages);
+			forms.add(simplified);
+		}
+		ret.put("forms", forms);
+		ret.put("resolutionCache", getResolutionCacheCounts());
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		new ObjectMapper().writeValue(response.getWriter(), ret);
+	}
+
+	@RequestMapping(value = "/module/htmlformentry/metrics", method = RequestMethod.POST)
+	public String updateMetrics(@RequestParam(value = "action") String action) {
+		requirePrivilege();
+		if ("reset".equals(action)) {
+			HtmlFormEntryMetrics.reset();
+			MetadataResolutionCache.resetTotals();
+		} else if ("enable".equals(action)) {
+			HtmlFormEntryMetrics.setEnabled(true);
+		} else if ("disable".equals(action)) {
+			HtmlFormEntryMetrics.setEnabled(false);
+		}
+		return "redirect:metrics.form";
+	}
+
+	private void requirePrivilege() {
+		if (!Context.hasPrivilege(OpenmrsConstants.PRIV_MANAGE_FORMS)) {
+			throw new APIAuthenticationException("Privilege required: " + OpenmrsConstants.PRIV_MANAGE_FORMS);
+		}
+	}
+
+	private Map<String, Object> getResolutionCacheCounts() {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("hits", MetadataResolutionCache.getTotalHitCount());
+		ret.put("misses", MetadataResolutionCache.getTotalMissCount());
+		ret.put("sharedHits", MetadataResolutionCache.getTotalSharedHitCount());
+		return ret;
+	}
+
+	private Map<String, Object> simplify(LatencySnapshot snapshot) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put("count", snapshot.getCount());
+		ret.put("totalMillis", snapshot.getTotalMillis());
+		ret.put("meanMillis", snapshot.getMeanMillis());
+		ret.put("p50Millis", snapshot.getP50Millis());
+		ret.put("p95Millis", snapshot.getP95Millis());
+		ret.put("p99Millis", snapshot.getP99Millis());
+		ret.put("maxMillis", snapshot.getMaxMillis());
+		return ret;
+	}
+
+	/**
+	 * @return the timings of each form, the forms that took the most time overall first
+	 */
+	private List<FormMetrics> getForms() {
+		List<FormMetrics> ret = new ArrayList<FormMetrics>();
+		for (Map.Entry<Integer, Map<String, LatencySnapshot>> e : HtmlFormEntryMetrics.getFormSnapshots().entrySet()) {
+			HtmlForm htmlForm = HtmlFormEntryUtil.getService().getHtmlForm(e.getKey());
+			ret.add(new FormMetrics(e.getKey(), htmlForm == null ? null : htmlForm.getName(), e.getValue()));
+		}
+		Collections.sort(ret, new Comparator<FormMetrics>() {
+
+			public int compare(FormMetrics left, FormMetrics right) {
+				return Double.compare(right.getTotalMillis(), left.getTotalMillis());
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * The timings of the main steps of one form
+	 */
+	public static class FormMetrics {
+
+		private final Integer htmlFormId;
+
+		private final String name;
+
+		private final Map<String, LatencySnapshot> stages;
+
+		public FormMetrics(Integer htmlFormId, String name, Map<String, LatencySnapshot> stages) {
+			this.htmlFormId = htmlFormId;
+			this.name = name;
+			this.stages = stages;
+		}
+
+		public Integer getHtmlFormId() {
+			return htmlFormId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Map<String, LatencySnapshot> getStages() {
+			return stages;
+		}
+
+		public double getTotalMillis() {
+			double total = 0;
+			for (LatencySnapshot snapshot : stages.values()) {
+				total += snapshot.getTotalMillis();
+			}
+			return total;
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.openmrs.module.htmlformentry.web.controller;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlForm;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.export.HtmlFormEntryExportUtil;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Exports the data entered with an HTML form as a csv file.
+ * <p/>
+ * Handles {@code htmlFormExport.form} requests. The csv is written to the response while the encounters
+ * are read from the database a page at a time (see
+ * {@link HtmlFormEntryExportUtil#writeHtmlFormExport(HtmlForm, Date, Date, List, Writer, java.util.Locale, List)}),
+ * so the export is never held in memory as a whole.
+ * <p/>
+ * Since the csv is sent while it is written, the response is usually committed, with a 200 status, long
+ * before the export is known to succeed. If the export fails before anything was sent, the error page is
+ * shown as usual. If it fails afterwards, the error is logged and rethrown without finishing the response,
+ * so that the container aborts the connection and the client sees an incomplete download rather than a
+ * truncated csv that looks complete.
+ */
+@Controller
+public class HtmlFormExportController {
+
+	private final Log log = LogFactory.getLog(getClass());
+
+	@InitBinder
+	public void initBinder(WebDataBinder binder) {
+		binder.registerCustomEditor(Date.class, new CustomDateEditor(Context.getDateFormat(), true));
+	}
+
+	/**
+	 * @param id the id of the html form
+	 * @param fromDate the first encounter date to export, or null for no lower bound
+	 * @param toDate the last encounter date to export (the whole day is included), or null for no upper bound
+	 * @param extraCols the extra columns to export for each obs (e.g. comment)
+	 * @param identifierTypeIds the ids of the patient identifier types to export for each encounter
+	 */
+	@RequestMapping("/module/htmlformentry/htmlFormExport")
+	public void export(@RequestParam("id") Integer id,
+	                   @RequestParam(value = "fromDate", required = false) Date fromDate,
+	                   @RequestParam(value = "toDate", required = false) Date toDate,
+	                   @RequestParam(value = "extraCol", required = false) String[] extraCols,
+	                   @RequestParam(value = "identifierType", required = false) Integer[] identifierTypeIds,
+	                   HttpServletResponse response) throws Exception {
+		if (!Context.hasPrivilege(OpenmrsConstants.PRIV_VIEW_ENCOUNTERS)) {
+			throw new APIAuthenticationException("Privilege required: " + OpenmrsConstants.PRIV_VIEW_ENCOUNTERS);
+		}
+		HtmlForm htmlForm = Context.getService(HtmlFormEntryService.class).getHtmlForm(id);
+		if (htmlForm == null) {
+			throw new IllegalArgumentException("No html form with id " + id);
+		}
+		List<PatientIdentifierType> pitList = new ArrayList<PatientIdentifierType>();
+		if (identifierTypeIds != null) {
+			for (Integer identifierTypeId : identifierTypeIds) {
+				pitList.add(Context.getPatientService().getPatientIdentifierType(identifierTypeId));
+			}
+		}
+
+		response.setContentType("text/csv");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Content-Disposition", "attachment; filename=\""
+		        + htmlForm.getForm().getName().replaceAll("[^\\w\\-]+", "_") + ".csv\"");
+		Writer writer = response.getWriter();
+		try {
+			HtmlFormEntryExportUtil.writeHtmlFormExport(htmlForm, fromDate, toDate == null ? null : OpenmrsUtil
+			        .getLastMomentOfDay(toDate), extraCols == null ? new ArrayList<String>() : Arrays.asList(extraCols),
+			    writer, Context.getLocale(), pitList);
+			writer.flush();
+		}
+		catch (Exception ex) {
+			if (!response.isCommitted()) {
+				// nothing was sent yet, so the error page can replace the partial csv
+				response.reset();
+			} else {
+				log.error("Export of html form " + id + " failed after part of it was sent; aborting the download", ex);
+			}
+			throw ex;
+		}
+	}
+
+}
@@ -17,6 +17,8 @@ import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.metrics.HibernateQueryCounter;
+import org.openmrs.module.htmlformentry.metrics.RenderProfiler;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.util.StringUtils;
@@ -29,7 +31,9 @@ import org.springframework.web.multipart.MultipartHttpServletRequest;
  * The controller for previewing a HtmlForm by loading the xml file that defines that HtmlForm from
  * disk.
  * <p/>
- * Handles {@code htmlFormFromFile.form} requests. Renders view {@code htmlFormFromFile.jsp}.
+ * Handles {@code htmlFormFromFile.form} requests. Renders view {@code htmlFormFromFile.jsp}. If the
+ * {@code profile} parameter is true, the time and queries spent on each tag are shown under the form
+ * (see {@link RenderProfiler}).
  */
 @Controller
 public class HtmlFormFromFileController {
@@ -43,6 +47,7 @@ public class HtmlFormFromFileController {
 	public void handleRequest(Model model, @RequestParam(value = "filePath", required = false) String filePath,
 	                          @RequestParam(value = "patientId", required = false) Integer pId,
 	                          @RequestParam(value = "isFileUpload", required = false) boolean isFileUpload,
+	                          @RequestParam(value = "profile", required = false) boolean profile,
 	                          HttpServletRequest request) throws Exception {
 		
 		if (log.isDebugEnabled())
@@ -51,6 +56,7 @@ public class HtmlFormFromFileController {
 		model.addAttribute("previewHtml", "");
 		String message = "";
 		File f = null;
+		RenderProfiler profiler = null;
 		try {
 			if (isFileUpload) {
 				MultipartHttpServletRequest multipartRequest = (MultipartHttpServletRequest) request;
@@ -91,11 +97,16 @@ public class HtmlFormFromFileController {
 				HtmlForm fakeForm = new HtmlForm();
 				fakeForm.setXmlData(xml);
 				FormEntrySession fes = new FormEntrySession(p, null, Mode.ENTER, fakeForm, request.getSession());
+				if (profile) {
+					profiler = new RenderProfiler(HibernateQueryCounter.create());
+					fes.setRenderProfiler(profiler);
+				}
 				String html = fes.getHtmlToDisplay();
 				if (fes.getFieldAccessorJavascript() != null) {
                 	html += "<script>" + fes.getFieldAccessorJavascript() + "</script>";
                 }
 				model.addAttribute("previewHtml", html);
+				model.addAttribute("profiler", profiler);
 				//clear the error message
 				message = "";
 			} else {
@@ -106,8 +117,13 @@ public class HtmlFormFromFileController {
 			log.error("An error occurred while loading the html.", e);
 			message = "An error occurred while loading the html. " + e.getMessage();
 		}
+		finally {
+			if (profiler != null)
+				profiler.finish();
+		}
 		
 		model.addAttribute("message", message);
 		model.addAttribute("isFileUpload", isFileUpload);
+		model.addAttribute("profile", profile);
 	}
 }
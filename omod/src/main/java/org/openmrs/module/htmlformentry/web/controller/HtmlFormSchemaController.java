@@ -66,7 +66,7 @@ public class HtmlFormSchemaController {
 		HtmlForm fakeForm = new HtmlForm();
 		fakeForm.setXmlData(xml);
         FormEntrySession fes = new FormEntrySession(p, null, Mode.ENTER, fakeForm, httpSession);
-        fes.getHtmlToDisplay();
+        fes.analyzeForm();
         HtmlFormSchema schema = fes.getContext().getSchema();
         model.addAttribute("schema", schema);
         model.addAttribute("message", message);
@@ -1,16 +1,22 @@
 package org.openmrs.module.htmlformentry.web.controller;
 
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.Concept;
 import org.openmrs.ConceptClass;
-import org.openmrs.ConceptWord;
-import org.openmrs.Drug;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.element.PersonStub;
+import org.openmrs.module.htmlformentry.search.ConceptNameIndex;
+import org.openmrs.module.htmlformentry.search.ConceptSearchIndexes;
+import org.openmrs.module.htmlformentry.search.DrugSearchIndex;
+import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.RemoteOptionsWidget;
 import org.openmrs.propertyeditor.ConceptClassEditor;
 import org.openmrs.propertyeditor.ConceptEditor;
-import org.openmrs.util.OpenmrsConstants;
-import org.openmrs.web.WebUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
@@ -22,21 +28,22 @@ import org.springframework.web.bind.annotation.RequestParam;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.Vector;
 
 @Controller
 public class HtmlFormSearchController {
 
+    // the number of drugs returned by a drug search when no length is given
+    private static final int DEFAULT_DRUG_SEARCH_LENGTH = 100;
+
+    // the number of options returned for a dropdown when no length is given
+    private static final int DEFAULT_OPTIONS_LENGTH = RemoteOptionsWidget.DEFAULT_PAGE_SIZE;
+
     @Autowired
     private ConceptService conceptService;
 
@@ -48,7 +55,8 @@ public class HtmlFormSearchController {
 	}
 
 	/**
-	 * Concept Search
+	 * Concept Search, served from an in-memory index of the names of the allowed concepts (see
+	 * {@link ConceptSearchIndexes})
 	 */
 	@RequestMapping("/module/htmlformentry/conceptSearch")
 	public void conceptSearch(
@@ -57,122 +65,164 @@ public class HtmlFormSearchController {
 			HttpServletResponse response,
 			@RequestParam(required = true, value = "term") String query,
 			@RequestParam(required = false, value = "answerids") String allowedconceptids,
-			@RequestParam(required = false, value = "answerclasses") String answerclasses)
+			@RequestParam(required = false, value = "answerclasses") String answerclasses,
+			@RequestParam(required = false, value = "maxResults") Integer maxResults)
 			throws Exception {
 
-		response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        PrintWriter out = response.getWriter();
-
-		List<Locale> l = new Vector<Locale>();
-		l.add(Context.getLocale());
-
-		List<ConceptClass> cptClassList = new ArrayList<ConceptClass>();
-		HashSet<Integer> set = new HashSet<Integer>();
-		if ( !"null".equals(allowedconceptids) && !"".equals(allowedconceptids)) {
+		ConceptNameIndex index;
+		if (allowedconceptids != null && !"null".equals(allowedconceptids) && !"".equals(allowedconceptids)) {
 			// we filter this by conceptids
+			HashSet<Integer> set = new HashSet<Integer>();
 			for (StringTokenizer st = new StringTokenizer(allowedconceptids,
 					","); st.hasMoreTokens();) {
 				set.add(Integer.parseInt(st.nextToken()));
 			}
-		} else if (!"null".equals(answerclasses)&& !"".equals(answerclasses)) {
+			index = ConceptSearchIndexes.getIndexForConcepts(Context.getLocale(), set);
+		} else if (answerclasses != null && !"null".equals(answerclasses) && !"".equals(answerclasses)) {
+			List<ConceptClass> cptClassList = new ArrayList<ConceptClass>();
 			for (StringTokenizer st = new StringTokenizer(answerclasses, ","); st
 					.hasMoreTokens();) {
 				cptClassList.add(conceptService
 						.getConceptClassByName(st.nextToken()));
 			}
+			index = ConceptSearchIndexes.getIndexForClasses(Context.getLocale(), cptClassList);
 		} else {
 			throw new Exception(
 					"answerconceptids set and answerclasses are both empty.");
 		}
-		List<ConceptWord> words = conceptService.getConceptWords(
-                query, l, false, cptClassList, null, null, null, null, null,
-                null);
-		if (!set.isEmpty()) {
-			for (Iterator<ConceptWord> it = words.iterator(); it.hasNext();) {
-				if (!set.contains(it.next().getConcept().getConceptId())) {
-					it.remove();
-				}
-			}
-		}
-		
+
 		// return in JSON object list format
 		//[ { "id": "Dromas ardeola", "label": "Crab-Plover", "value":"Crab-Plover" },
-		out.print("[");
-		for (Iterator<ConceptWord> i = words.iterator(); i.hasNext();) {
-			ConceptWord w = i.next();
-			String ds = w.getConcept().getDisplayString();
-			out.print("{ \"value\":\"");
-			if (w.getConceptName().isPreferred()
-					|| w.getConceptName().getName().equalsIgnoreCase(ds)) {
-				out.print(WebUtil.escapeQuotes(w.getConceptName().getName()));
-			} else {
-				out.print(WebUtil.escapeQuotes(w.getConcept().getDisplayString()));
-			}
-			out.print("\",\"id\"");
-			out.print(":\"" + w.getConcept().getId());
-			out.print("\"}");
-			if (i.hasNext())
-				out.print(",");
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		for (ConceptNameIndex.Entry entry : index.search(query, maxResults)) {
+			Map<String, Object> item = new LinkedHashMap<String, Object>();
+			item.put("value", entry.getValue());
+			item.put("id", entry.getConceptId().toString());
+			results.add(item);
 		}
-		out.print("]");
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		new ObjectMapper().writeValue(response.getWriter(), results);
 	}
 
+    /**
+     * Drug Search, served from an in-memory copy of the drug table (see {@link DrugSearchIndex}). Retired
+     * drugs are never returned.
+     */
     @RequestMapping("/module/htmlformentry/drugSearch")
     public void localizedMessage(@RequestParam("term") String query,
+                                 @RequestParam(required = false, value = "start") Integer start,
+                                 @RequestParam(required = false, value = "length") Integer length,
                                  HttpServletResponse response) throws IOException {
 
-        List<Drug> drugs;
-
-        // we want to use a later API method from 1.8+ if it is available, so we need to access it via reflection
-        if (OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.6")
-                || OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.7")) {
-                drugs = conceptService.getDrugs(query);      // this method returns retired drugs, so it is not ideal
-        }
-        else {
-            try {
-                Object conceptService = Context.getService(Context.loadClass("org.openmrs.api.ConceptService"));
-                Method getDrugsMethod = conceptService.getClass().getMethod("getDrugs", String.class, Concept.class,
-                        boolean.class, boolean.class, boolean.class, Integer.class, Integer.class);
-
-                drugs = (List<Drug>) getDrugsMethod.invoke(conceptService, query, null, true, false, false, 0, 100);  // this method excludes retired drugs
-
-            } catch (Exception ex) {
-                throw new RuntimeException("Unable to access ConceptService getDrugs method via reflection", ex);
-            }
-        }
-
-        List<Map<String, Object>> simplified = simplify(drugs);
+        List<DrugSearchIndex.Entry> drugs = DrugSearchIndex.getIndex(Context.getLocale()).search(query,
+                start == null ? 0 : start, length == null ? DEFAULT_DRUG_SEARCH_LENGTH : length);
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
-        PrintWriter out = response.getWriter();
-
-        new ObjectMapper().writeValue(out, simplified);
-    }
 
-    private List<Map<String, Object>> simplify(List<Drug> drugs) {
-        List<Map<String, Object>> simplified = new ArrayList<Map<String, Object>>();
-        Locale locale = Context.getLocale();
-        for (Drug drug : drugs) {
-            Map<String, Object> item = new LinkedHashMap<String, Object>();
-            item.put("id", drug.getId());
-            item.put("name", drug.getName());
+        // the drugs are written out one at a time, rather than converted to maps first
+        JsonGenerator json = new JsonFactory().createJsonGenerator(response.getWriter());
+        json.writeStartArray();
+        for (DrugSearchIndex.Entry drug : drugs) {
+            json.writeStartObject();
+            json.writeNumberField("id", drug.getId());
+            json.writeStringField("name", drug.getName());
             if (drug.getDosageForm() != null) {
-                item.put("dosageForm", drug.getDosageForm().getName(locale).getName());
+                json.writeStringField("dosageForm", drug.getDosageForm());
             }
             if (drug.getRoute() != null) {
-                item.put("route", drug.getRoute().getName(locale).getName());
+                json.writeStringField("route", drug.getRoute());
+            }
+            json.writeFieldName("doseStrength");
+            if (drug.getDoseStrength() == null) {
+                json.writeNull();
+            } else {
+                json.writeNumber(drug.getDoseStrength());
+            }
+            json.writeStringField("units", drug.getUnits());
+            json.writeFieldName("combination");
+            if (drug.getCombination() == null) {
+                json.writeNull();
+            } else {
+                json.writeBoolean(drug.getCombination());
             }
-            item.put("doseStrength", drug.getDoseStrength());
-            item.put("units", drug.getUnits());
-            item.put("combination", drug.getCombination());
             if (drug.getConcept() != null) {
-                item.put("concept", drug.getConcept().getName(locale).getName());
+                json.writeStringField("concept", drug.getConcept());
             }
-            simplified.add(item);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.flush();
+    }
+
+    /**
+     * One page of the concepts of the given classes, ordered by name, for a dropdown that loads its options
+     * from the server (see {@link RemoteOptionsWidget})
+     */
+    @RequestMapping("/module/htmlformentry/conceptOptions")
+    public void conceptOptions(@RequestParam("answerclasses") String answerclasses,
+                               @RequestParam(required = false, value = "start") Integer start,
+                               @RequestParam(required = false, value = "length") Integer length,
+                               HttpServletResponse response) throws IOException {
+
+        List<ConceptClass> cptClassList = new ArrayList<ConceptClass>();
+        for (StringTokenizer st = new StringTokenizer(answerclasses, ","); st.hasMoreTokens();) {
+            cptClassList.add(conceptService.getConceptClassByName(st.nextToken().trim()));
+        }
+        int first = start == null ? 0 : start;
+        int max = length == null ? DEFAULT_OPTIONS_LENGTH : length;
+        // one more than asked for, to tell whether there are more
+        List<ConceptNameIndex.Entry> concepts = ConceptSearchIndexes.getIndexForClasses(Context.getLocale(),
+                cptClassList).getConcepts(first, max + 1);
+
+        List<Option> options = new ArrayList<Option>();
+        for (ConceptNameIndex.Entry concept : concepts.subList(0, Math.min(max, concepts.size()))) {
+            options.add(new Option(concept.getDisplayName(), concept.getConceptId().toString(), false));
+        }
+        writeOptions(response, options, concepts.size() > max);
+    }
+
+    /**
+     * One page of the users with the given role (or of all users), ordered by family name, for a provider
+     * dropdown that loads its options from the server (see {@link RemoteOptionsWidget})
+     */
+    @RequestMapping("/module/htmlformentry/providerOptions")
+    public void providerOptions(@RequestParam(required = false, value = "role") String role,
+                                @RequestParam(required = false, value = "start") Integer start,
+                                @RequestParam(required = false, value = "length") Integer length,
+                                HttpServletResponse response) throws IOException {
+
+        int max = length == null ? DEFAULT_OPTIONS_LENGTH : length;
+        // one more than asked for, to tell whether there are more
+        List<PersonStub> users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(
+                StringUtils.isBlank(role) ? null : role, start == null ? 0 : start, max + 1);
+
+        List<Option> options = new ArrayList<Option>();
+        for (PersonStub user : users.subList(0, Math.min(max, users.size()))) {
+            options.add(new Option(user.toString(), user.getId().toString(), false));
+        }
+        writeOptions(response, options, users.size() > max);
+    }
+
+    private void writeOptions(HttpServletResponse response, List<Option> options, boolean hasMore) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        JsonGenerator json = new JsonFactory().createJsonGenerator(response.getWriter());
+        json.writeStartObject();
+        json.writeArrayFieldStart("options");
+        for (Option option : options) {
+            json.writeStartObject();
+            json.writeStringField("value", option.getValue());
+            json.writeStringField("label", option.getLabel());
+            json.writeEndObject();
         }
-        return simplified;
+        json.writeEndArray();
+        json.writeBooleanField("hasMore", hasMore);
+        json.writeEndObject();
+        json.flush();
     }
 
 }
\ No newline at end of file
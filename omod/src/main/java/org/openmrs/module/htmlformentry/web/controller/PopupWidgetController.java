@@ -1,18 +1,15 @@
 package org.openmrs.module.htmlformentry.web.controller;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.openmrs.Cohort;
-import org.openmrs.Patient;
 import org.openmrs.Person;
-import org.openmrs.Program;
-import org.openmrs.api.PatientService;
-import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.element.PersonStub;
 import org.openmrs.web.dwr.PersonListItem;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
@@ -22,139 +19,83 @@ import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class PopupWidgetController {
+	
+	// the number of people listed by a search when no length is given
+	private static final int DEFAULT_MAX_RESULTS = 100;
                       
 	@RequestMapping("/module/htmlformentry/personSearch")
 	public void patientSearch(ModelMap model) throws Exception {
 		
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Lists the people matching a name or identifier, and optionally having attributes and being in
+	 * programs. The matching is done by a single query (see
+	 * {@link HtmlFormEntryService#searchPeopleAsPersonStubs(String, List, List, List, Integer, Integer)}),
+	 * and only one page of people is loaded.
+	 */
     @RequestMapping("/module/htmlformentry/personResultTable")
 	public void personSearch(ModelMap model, @RequestParam(value="pSearch",required=false) String searchPhrase, 
 	                                 @RequestParam(value="pAttribute",required=false) String searchAttribute,
 	                                 @RequestParam(value="pAttributeValue",required=false) String attributeValue,
-	                                 @RequestParam(value="pProgram",required=false) String searchProgram) throws Exception {
-		
-		List<Integer> personId = new ArrayList<Integer>();
-		List<Object> personList = new ArrayList<Object>();
-		
-		//first we are going to search by name for patients
-		PatientService patientService = Context.getPatientService();
-		for (Patient p : patientService.getPatients(searchPhrase, null, null, false)) {
-			personList.add(PersonListItem.createBestMatch(p));
-			personId.add(p.getId());
-		}
-		
-		// now we check for persons (that won't be brought back by the patient search)
-		PersonService ps = Context.getPersonService();
-		for (Person p : ps.getPeople(searchPhrase, null)) {
-			
-			if(!personId.contains(p.getId()))
-			{
-				personList.add(PersonListItem.createBestMatch(p));
-			}
-		}
+	                                 @RequestParam(value="pProgram",required=false) String searchProgram,
+	                                 @RequestParam(value="pStart",required=false) Integer start,
+	                                 @RequestParam(value="pLength",required=false) Integer length) throws Exception {
 		
-		// also search on patient identifier if the query contains a number
-		if (searchPhrase.matches(".*\\d+.*")) {
-			patientService = Context.getPatientService();
-			for (Patient p : patientService.getPatients(null, searchPhrase, null, false)) {
-				if(!personId.contains(p.getId()))
-				{
-					personList.add(PersonListItem.createBestMatch(p));
-				}
-			}
-		}
-		
-		Cohort cohort = null;
+		List<String> attributes = new ArrayList<String>();
+		List<String> attributeValues = new ArrayList<String>();
 		if(searchAttribute != null)
 		{
-			String[] attributes = searchAttribute.split(",");
+			String[] attrs = searchAttribute.split(",");
 			String[] attrValues = null;
 			if(attributeValue != null)
 			{
-				attrValues = searchAttribute.split(",");
+				attrValues = attributeValue.split(",");
 			}
 			
-			for(int i = 0; i < attributes.length; i++)
+			for(int i = 0; i < attrs.length; i++)
 			{
-				String attr = attributes[i];
-				String val = null;
-				if(attrValues != null && attrValues[i].trim().length() > 0)
-				{
-					val = attrValues[i];
-				}
+				String attr = attrs[i];
 				if(attr != null && attr.trim().length() > 0)
 				{
-					List<Integer> ids = Context.getService(HtmlFormEntryService.class).getPersonIdsHavingAttributes(attr, val);
-					Set<Integer> setOfIds = new HashSet<Integer>();
-					setOfIds.addAll(ids);
-					
-					Cohort pp = new Cohort();
-					pp.setMemberIds(setOfIds);
-				
-					if(cohort != null)
+					String val = null;
+					// the relationship tag passes "null" for the attributes that can have any value
+					if(attrValues != null && attrValues.length > i && attrValues[i].trim().length() > 0 && !"null".equals(attrValues[i].trim()))
 					{
-						cohort = Cohort.intersect(cohort, pp);
-					}
-					else
-					{
-						cohort = pp;
+						val = attrValues[i];
 					}
+					attributes.add(attr);
+					attributeValues.add(val);
 				}
 			}
 		}
 		
+		List<String> programs = new ArrayList<String>();
 		if(searchProgram != null)
 		{
-			String[] programs = searchProgram.split(",");
-			
-			for(int i = 0; i < programs.length; i++)
-			{
-				String prog = programs[i];
-				if(prog != null && prog.trim().length() > 0)
-				{
-					Program personProgram = Context.getProgramWorkflowService().getProgramByUuid(prog);
-					if(personProgram == null)
-					{
-						personProgram = Context.getProgramWorkflowService().getProgram(Integer.parseInt(prog));
-					}
-					if(personProgram != null)
-					{
-						Cohort pp = Context.getPatientSetService().getPatientsInProgram(personProgram, null, null);
-						if(cohort != null)
-						{
-							cohort = Cohort.intersect(cohort, pp);
-						}
-						else
-						{
-							cohort = pp;
-						}
-					}
-				}
-			}
+			programs.addAll(Arrays.asList(searchProgram.split(",")));
 		}
-		//not iterate through the person list and filter based on the cohort
-		if(cohort != null)
-		{
-			List<Object> filteredList = new ArrayList<Object>();
-			for(Object o: personList)
-			{
-				PersonListItem pli = (PersonListItem)o;
-				
-				if(cohort.getMemberIds().contains(pli.getPersonId()))
-				{
-					filteredList.add(o);
+		
+		int maxResults = length == null ? DEFAULT_MAX_RESULTS : length;
+		// one more person than shown is asked for, to know whether there are more
+		List<PersonStub> stubs = Context.getService(HtmlFormEntryService.class).searchPeopleAsPersonStubs(searchPhrase,
+		    attributes, attributeValues, programs, start, maxResults + 1);
+		boolean hasMore = stubs.size() > maxResults;
+		
+		List<Object> personList = new ArrayList<Object>();
+		Set<Integer> personIds = new HashSet<Integer>();
+		for (PersonStub stub : stubs.subList(0, Math.min(maxResults, stubs.size()))) {
+			if (personIds.add(stub.getId())) {
+				Person person = Context.getPersonService().getPerson(stub.getId());
+				if (person != null) {
+					personList.add(PersonListItem.createBestMatch(person));
 				}
 			}
-			personList = filteredList;
-		}	
+		}
 		
 		model.put("people", personList);
-		
+		model.put("hasMore", hasMore);
+		model.put("maxResults", maxResults);
 	}
 	
-	
-	
-	
 }
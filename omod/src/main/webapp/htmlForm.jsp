@@ -264,6 +264,14 @@
 				</c:if>
 			</td>
 		</tr>
+		<tr class="show-later">
+			<td><spring:message code="htmlformentry.HtmlForm.export"/>:</td>
+			<td>
+				<c:if test="${!empty htmlForm.id}">
+					<a href="htmlFormExport.form?id=${htmlForm.id}"><spring:message code="htmlformentry.HtmlForm.exportCsv"/></a>
+				</c:if>
+			</td>
+		</tr>
 		<tr class="show-later">
 			<td valign="top"><spring:message code="htmlformentry.HtmlForm.html"/>:</td>
 			<td style="width:100%">
@@ -1,4 +1,5 @@
 <%@ include file="/WEB-INF/template/include.jsp" %>
+<%@ taglib prefix="htmlformentryTag" tagdir="/WEB-INF/tags/module/htmlformentry" %>
 
 <c:set var="OPENMRS_DO_NOT_SHOW_PATIENT_SET" scope="request" value="true"/>
 <c:set var="pageFragment" value="${param.pageFragment != null && param.pageFragment}"/>
@@ -432,7 +433,7 @@
 	</div>
 </c:if>
 	
-	${command.htmlToDisplay}
+	<htmlformentryTag:htmlToDisplay formEntrySession="${command}"/>
 	
 <c:if test="${command.context.mode != 'VIEW'}">
 	<div id="passwordPopup" style="position: absolute; z-axis: 1; bottom: 25px; background-color: #ffff00; border: 2px black solid; display: none; padding: 10px">
@@ -20,6 +20,7 @@
 		Located at: <input type="text" name="filePath" <c:if test="${isFileUpload == false}"> value="${filePath}"</c:if> size="40" />
 		<input type="submit" value="Preview"/>
 		<input type="hidden" name="isFileUpload" value="false" />
+		<input type="checkbox" name="profile" value="true" <c:if test="${profile}">checked</c:if> /> <spring:message code="htmlformentry.profile" />
 	</b>
 </form>
 
@@ -33,6 +34,7 @@
 		<input type="file" name="htmlFormFile" size="40" />
 		<input type="submit" value='Preview' />
 		<input type="hidden" name="isFileUpload" value="true" />
+		<input type="checkbox" name="profile" value="true" <c:if test="${profile}">checked</c:if> /> <spring:message code="htmlformentry.profile" />
 	</b>
 </form>
 <br/>
@@ -63,4 +65,41 @@
 	${ previewHtml }
 </c:if>
 
+<c:if test="${ not empty profiler }">
+	<br/>
+	<div class="boxHeader"><b><spring:message code="htmlformentry.profile.title" /></b></div>
+	<div class="box">
+		<spring:message code="htmlformentry.profile.help" />
+		<c:if test="${ !profiler.countingQueries }"><spring:message code="htmlformentry.profile.noQueries" /></c:if>
+		<table cellpadding="2" cellspacing="0" width="98%">
+			<tr>
+				<th> <spring:message code="htmlformentry.profile.tag" /> </th>
+				<th> <spring:message code="htmlformentry.metrics.total" /> </th>
+				<th> <spring:message code="htmlformentry.profile.self" /> </th>
+				<th> <spring:message code="htmlformentry.profile.queries" /> </th>
+				<th> <spring:message code="htmlformentry.profile.selfQueries" /> </th>
+				<th width="40%"></th>
+			</tr>
+			<c:forEach var="node" items="${ profiler.nodes }" varStatus="status">
+				<tr class='${status.index % 2 == 0 ? "evenRow" : "oddRow"}'>
+					<td valign="top" style="padding-left: ${ node.depth * 16 + 2 }px" title="${ node.path }">
+						<b>${ node.tagName }</b> <small><c:out value="${ node.label }"/></small>
+					</td>
+					<td valign="top"><fmt:formatNumber value="${ node.totalMillis }" maxFractionDigits="1"/></td>
+					<td valign="top"><fmt:formatNumber value="${ node.selfMillis }" maxFractionDigits="1"/></td>
+					<td valign="top">${ node.totalQueries }</td>
+					<td valign="top">${ node.selfQueries }</td>
+					<td valign="top">
+						<c:if test="${ profiler.elapsedNanos > 0 }">
+							<div style="margin-left: ${ node.offsetNanos * 100 / profiler.elapsedNanos }%; width: ${ node.totalNanos * 100 / profiler.elapsedNanos }%; background-color: #f0ad4e; height: 10px;">
+								<div style="width: ${ node.totalNanos > 0 ? node.selfNanos * 100 / node.totalNanos : 0 }%; background-color: #d9534f; height: 10px;"></div>
+							</div>
+						</c:if>
+					</td>
+				</tr>
+			</c:forEach>
+		</table>
+	</div>
+</c:if>
+
 <%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
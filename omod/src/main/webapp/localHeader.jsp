@@ -12,4 +12,9 @@
 			<spring:message code="htmlformentry.preview"/>
 		</a>
 	</li>
+	<li <c:if test='<%= request.getRequestURI().contains("metrics") %>'>class="active"</c:if>>
+		<a href="${pageContext.request.contextPath}/module/htmlformentry/metrics.form">
+			<spring:message code="htmlformentry.metrics"/>
+		</a>
+	</li>
 </ul>
\ No newline at end of file
@@ -0,0 +1,105 @@
+<%@ include file="/WEB-INF/template/include.jsp" %>
+
+<openmrs:require privilege="Manage Forms" otherwise="/login.htm" redirect="/module/htmlformentry/metrics.form" />
+
+<%@ include file="/WEB-INF/template/header.jsp" %>
+<%@ include file="localHeader.jsp" %>
+
+<h2><spring:message code="htmlformentry.metrics" /></h2>
+
+<form method="post" action="metrics.form">
+	<c:choose>
+		<c:when test="${enabled}">
+			<button type="submit" name="action" value="disable"><spring:message code="htmlformentry.metrics.disable"/></button>
+		</c:when>
+		<c:otherwise>
+			<button type="submit" name="action" value="enable"><spring:message code="htmlformentry.metrics.enable"/></button>
+		</c:otherwise>
+	</c:choose>
+	<button type="submit" name="action" value="reset"><spring:message code="htmlformentry.metrics.reset"/></button>
+	<a href="metricsData.form">JSON</a>
+</form>
+
+<br />
+
+<div class="boxHeader"><b><spring:message code="htmlformentry.metrics.forms" /></b></div>
+<div class="box">
+	<table cellpadding="2" cellspacing="0" width="98%">
+		<tr>
+			<th> <spring:message code="general.name" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.stage" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.count" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.mean" /> </th>
+			<th> p50 </th>
+			<th> p95 </th>
+			<th> p99 </th>
+			<th> <spring:message code="htmlformentry.metrics.max" /> </th>
+		</tr>
+		<c:forEach var="form" items="${forms}" varStatus="status">
+			<c:forEach var="stage" items="${form.stages}">
+				<tr class='${status.index % 2 == 0 ? "evenRow" : "oddRow"}'>
+					<td valign="top"><a href="htmlForm.form?id=${form.htmlFormId}">${form.name}</a></td>
+					<td valign="top">${stage.key}</td>
+					<td valign="top">${stage.value.count}</td>
+					<td valign="top"><fmt:formatNumber value="${stage.value.meanMillis}" maxFractionDigits="1"/></td>
+					<td valign="top"><fmt:formatNumber value="${stage.value.p50Millis}" maxFractionDigits="1"/></td>
+					<td valign="top"><fmt:formatNumber value="${stage.value.p95Millis}" maxFractionDigits="1"/></td>
+					<td valign="top"><fmt:formatNumber value="${stage.value.p99Millis}" maxFractionDigits="1"/></td>
+					<td valign="top"><fmt:formatNumber value="${stage.value.maxMillis}" maxFractionDigits="1"/></td>
+				</tr>
+			</c:forEach>
+		</c:forEach>
+	</table>
+</div>
+
+<br />
+
+<div class="boxHeader"><b><spring:message code="htmlformentry.metrics.stages" /></b></div>
+<div class="box">
+	<table cellpadding="2" cellspacing="0" width="98%">
+		<tr>
+			<th> <spring:message code="htmlformentry.metrics.stage" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.count" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.total" /> </th>
+			<th> <spring:message code="htmlformentry.metrics.mean" /> </th>
+			<th> p50 </th>
+			<th> p95 </th>
+			<th> p99 </th>
+			<th> <spring:message code="htmlformentry.metrics.max" /> </th>
+		</tr>
+		<c:forEach var="stage" items="${stages}" varStatus="status">
+			<tr class='${status.index % 2 == 0 ? "evenRow" : "oddRow"}'>
+				<td valign="top">${stage.key}</td>
+				<td valign="top">${stage.value.count}</td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.totalMillis}" maxFractionDigits="0"/></td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.meanMillis}" maxFractionDigits="1"/></td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.p50Millis}" maxFractionDigits="1"/></td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.p95Millis}" maxFractionDigits="1"/></td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.p99Millis}" maxFractionDigits="1"/></td>
+				<td valign="top"><fmt:formatNumber value="${stage.value.maxMillis}" maxFractionDigits="1"/></td>
+			</tr>
+		</c:forEach>
+	</table>
+</div>
+
+<br />
+
+<div class="boxHeader"><b><spring:message code="htmlformentry.metrics.resolutionCache" /></b></div>
+<div class="box">
+	<table cellpadding="2" cellspacing="0">
+		<tr>
+			<td><spring:message code="htmlformentry.metrics.resolutionCache.hits" />:</td>
+			<td>${resolutionCache.hits}</td>
+		</tr>
+		<tr>
+			<td><spring:message code="htmlformentry.metrics.resolutionCache.misses" />:</td>
+			<td>${resolutionCache.misses}</td>
+		</tr>
+		<tr>
+			<td><spring:message code="htmlformentry.metrics.resolutionCache.sharedHits" />:</td>
+			<td>${resolutionCache.sharedHits}</td>
+		</tr>
+	</table>
+</div>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>
@@ -72,3 +72,6 @@ $j('#personTable').load('load', function() {
 		</c:forEach>
 		</tbody>
 					</table>
+		<c:if test="${hasMore}">
+			<div><spring:message code="htmlformentry.personSearch.moreResults" arguments="${maxResults}"/></div>
+		</c:if>
@@ -27,4 +27,54 @@
         return Handlebars.compile(source);
     };
 
+    /**
+     * Used by dropdowns with too many options to write them into the page (RemoteOptionsWidget). The options
+     * are loaded from the server a page at a time: the first page once the dropdown is used, and the next one
+     * when the last option, which says there are more, is chosen.
+     * @param selectId  - id of the select
+     * @param src       - url returning { options: [ { value, label } ], hasMore } for the start and length parameters
+     * @param pageSize  - the number of options loaded at a time
+     * @param moreLabel - the label of the option that loads the next page
+     */
+    htmlForm.setupRemoteOptions = function(selectId, src, pageSize, moreLabel) {
+        var select = $('#' + selectId);
+        var start = 0;
+        var loading = false;
+        var done = false;
+        var previousValue = select.val();
+
+        var loadPage = function() {
+            if (loading || done) {
+                return;
+            }
+            loading = true;
+            $.getJSON(src, { start: start, length: pageSize }, function(data) {
+                select.find('option.remoteOptionsMore').remove();
+                $.each(data.options, function(i, option) {
+                    // the selected option is already there
+                    if (select.find('option').filter(function() { return this.value == option.value; }).length == 0) {
+                        select.append($('<option></option>').val(option.value).text(option.label));
+                    }
+                });
+                start += data.options.length;
+                if (data.hasMore) {
+                    select.append($('<option class="remoteOptionsMore"></option>').val('').text(moreLabel));
+                } else {
+                    done = true;
+                }
+                loading = false;
+            });
+        };
+
+        select.bind('focus mousedown', loadPage);
+        select.change(function() {
+            if (select.find('option:selected').hasClass('remoteOptionsMore')) {
+                select.val(previousValue);
+                loadPage();
+            } else {
+                previousValue = select.val();
+            }
+        });
+    };
+
 }( window.htmlForm = window.htmlForm || {}, jQuery ));
\ No newline at end of file